@@ -0,0 +1,321 @@
+package be.looorent.micronaut.security.processor;
+
+import be.looorent.micronaut.security.Claim;
+import be.looorent.micronaut.security.ClaimsMapping;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static javax.tools.Diagnostic.Kind.ERROR;
+
+/**
+ * Generates a {@link be.looorent.micronaut.security.SecurityContextFactory} for each type annotated with {@link ClaimsMapping}, at compile time.
+ *
+ * The generated factory creates the context with the constructor whose parameters are annotated with {@link Claim}:
+ * it reads all their claims at once with {@link be.looorent.micronaut.security.ClaimPaths}, and converts each of them with {@link be.looorent.micronaut.security.ClaimValues}.
+ * Since this factory is plain code, it needs neither reflection nor any configuration to run in a native image.
+ * It is a singleton that replaces {@link be.looorent.micronaut.security.DefaultSecurityContextFactory}, so that Micronaut's annotation processor turns it into a bean.
+ *
+ * This processor is published apart from the adapter (keycloak-micronaut-adapter-processor), so that it is only declared
+ * as an annotation processor and never shipped with the application.
+ *
+ * The supported parameter types are String, boolean, int, long, double (and their wrappers), Instant and Date (from seconds since the epoch),
+ * List, Set and Collection of strings, Map and Object.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@SupportedAnnotationTypes("be.looorent.micronaut.security.ClaimsMapping")
+public class ClaimsMappingProcessor extends AbstractProcessor {
+
+    static final String FACTORY_SUFFIX = "ClaimsFactory";
+
+    private static final String SECURITY_CONTEXT = "be.looorent.micronaut.security.SecurityContext";
+    private static final String CLAIM_VALUES = "be.looorent.micronaut.security.ClaimValues";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        for (Element element : round.getElementsAnnotatedWith(ClaimsMapping.class)) {
+            try {
+                generateFactory(toMapping(element));
+            } catch (InvalidMappingException e) {
+                processingEnv.getMessager().printMessage(ERROR, e.getMessage(), e.element);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(ERROR, "The claims factory of " + element + " cannot be generated: " + e.getMessage(), element);
+            }
+        }
+        return false;
+    }
+
+    private Mapping toMapping(Element element) {
+        if (element.getKind() != ElementKind.CLASS) {
+            throw new InvalidMappingException(element, "@ClaimsMapping can only annotate a class");
+        }
+        TypeElement type = (TypeElement) element;
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            throw new InvalidMappingException(type, "A @ClaimsMapping class must not be abstract");
+        }
+        if (!type.getTypeParameters().isEmpty()) {
+            throw new InvalidMappingException(type, "A @ClaimsMapping class must not be generic");
+        }
+        requireAccessible(type);
+        TypeElement securityContext = processingEnv.getElementUtils().getTypeElement(SECURITY_CONTEXT);
+        if (!processingEnv.getTypeUtils().isAssignable(type.asType(), securityContext.asType())) {
+            throw new InvalidMappingException(type, "A @ClaimsMapping class must implement " + SECURITY_CONTEXT);
+        }
+
+        ExecutableElement constructor = findClaimsConstructor(type);
+        List<MappedClaim> claims = new ArrayList<>();
+        for (VariableElement parameter : constructor.getParameters()) {
+            String path = parameter.getAnnotation(Claim.class).value();
+            if (path.isEmpty() || path.startsWith(".") || path.endsWith(".") || path.contains("..")) {
+                throw new InvalidMappingException(parameter, "The claim path '" + path + "' is not valid");
+            }
+            claims.add(new MappedClaim(path, conversionOf(parameter)));
+        }
+        return new Mapping(type, processingEnv.getElementUtils().getPackageOf(type), claims);
+    }
+
+    private static void requireAccessible(TypeElement type) {
+        Element current = type;
+        while (current.getKind().isClass() || current.getKind().isInterface()) {
+            TypeElement currentType = (TypeElement) current;
+            if (currentType.getModifiers().contains(Modifier.PRIVATE)) {
+                throw new InvalidMappingException(type, "A @ClaimsMapping class must not be private, nor nested in a private class");
+            }
+            if (currentType.getNestingKind() == NestingKind.LOCAL || currentType.getNestingKind() == NestingKind.ANONYMOUS
+                    || (currentType.getNestingKind() == NestingKind.MEMBER && !currentType.getModifiers().contains(Modifier.STATIC))) {
+                throw new InvalidMappingException(type, "A @ClaimsMapping class must be a top-level class or a static nested class");
+            }
+            current = current.getEnclosingElement();
+        }
+    }
+
+    private static ExecutableElement findClaimsConstructor(TypeElement type) {
+        ExecutableElement claimsConstructor = null;
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            long claimCount = constructor.getParameters().stream().filter(parameter -> parameter.getAnnotation(Claim.class) != null).count();
+            if (claimCount == 0) {
+                continue;
+            }
+            else if (claimCount < constructor.getParameters().size()) {
+                throw new InvalidMappingException(constructor, "Every parameter of this constructor must be annotated with @Claim");
+            }
+            else if (constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                throw new InvalidMappingException(constructor, "The constructor of a @ClaimsMapping class must not be private");
+            }
+            else if (claimsConstructor != null) {
+                throw new InvalidMappingException(constructor, "A @ClaimsMapping class must declare a single constructor with @Claim parameters");
+            }
+            claimsConstructor = constructor;
+        }
+        if (claimsConstructor == null) {
+            throw new InvalidMappingException(type, "A @ClaimsMapping class must declare a constructor whose parameters are annotated with @Claim");
+        }
+        return claimsConstructor;
+    }
+
+    /**
+     * @return the method of {@link be.looorent.micronaut.security.ClaimValues} that converts a claim to the type of this parameter; or null if no conversion is needed
+     */
+    private static String conversionOf(VariableElement parameter) {
+        TypeMirror type = parameter.asType();
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return "asBooleanValue";
+            case INT:
+                return "asIntValue";
+            case LONG:
+                return "asLongValue";
+            case DOUBLE:
+                return "asDoubleValue";
+            case DECLARED:
+                String conversion = conversionOf((DeclaredType) type);
+                if (conversion == null) {
+                    throw unsupportedTypeOf(parameter);
+                }
+                return conversion.isEmpty() ? null : conversion;
+            default:
+                throw unsupportedTypeOf(parameter);
+        }
+    }
+
+    private static InvalidMappingException unsupportedTypeOf(VariableElement parameter) {
+        return new InvalidMappingException(parameter, "The type " + parameter.asType() + " of the claim parameter '" + parameter.getSimpleName() + "' is not supported");
+    }
+
+    /**
+     * @return the name of a conversion; an empty string if no conversion is needed; or null if this type is not supported
+     */
+    private static String conversionOf(DeclaredType type) {
+        List<? extends TypeMirror> arguments = type.getTypeArguments();
+        switch (nameOf(type)) {
+            case "java.lang.Object":
+                return "";
+            case "java.lang.String":
+                return "asString";
+            case "java.lang.Boolean":
+                return "asBoolean";
+            case "java.lang.Integer":
+                return "asInteger";
+            case "java.lang.Long":
+                return "asLong";
+            case "java.lang.Double":
+                return "asDouble";
+            case "java.time.Instant":
+                return "asInstant";
+            case "java.util.Date":
+                return "asDate";
+            case "java.util.List":
+            case "java.util.Collection":
+                return arguments.size() == 1 && isString(arguments.get(0)) ? "asStringList" : null;
+            case "java.util.Set":
+                return arguments.size() == 1 && isString(arguments.get(0)) ? "asStringSet" : null;
+            case "java.util.Map":
+                return arguments.isEmpty() || (isString(arguments.get(0)) && isObject(arguments.get(1))) ? "asMap" : null;
+            default:
+                return null;
+        }
+    }
+
+    private static String nameOf(DeclaredType type) {
+        return ((TypeElement) type.asElement()).getQualifiedName().toString();
+    }
+
+    private static boolean isString(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED && "java.lang.String".equals(nameOf((DeclaredType) type));
+    }
+
+    private static boolean isObject(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED && "java.lang.Object".equals(nameOf((DeclaredType) type));
+    }
+
+    private void generateFactory(Mapping mapping) throws IOException {
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(mapping.getQualifiedFactoryName(), mapping.type);
+        try (Writer writer = file.openWriter()) {
+            writer.write(mapping.toSource());
+        }
+    }
+
+    private static final class Mapping {
+
+        private final TypeElement type;
+        private final String packageName;
+        private final String factoryName;
+        private final List<MappedClaim> claims;
+
+        private Mapping(TypeElement type, PackageElement packageElement, List<MappedClaim> claims) {
+            this.type = type;
+            this.packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+            this.factoryName = flatNameOf(type) + FACTORY_SUFFIX;
+            this.claims = claims;
+        }
+
+        private String getQualifiedFactoryName() {
+            return packageName.isEmpty() ? factoryName : packageName + "." + factoryName;
+        }
+
+        private String toSource() {
+            String contextName = type.getQualifiedName().toString();
+            StringBuilder source = new StringBuilder();
+            if (!packageName.isEmpty()) {
+                source.append("package ").append(packageName).append(";\n\n");
+            }
+            source.append("/**\n")
+                    .append(" * Generated by ").append(ClaimsMappingProcessor.class.getName()).append(" from {@link ").append(contextName).append("}: do not edit.\n")
+                    .append(" */\n")
+                    .append("@javax.inject.Singleton\n")
+                    .append("@io.micronaut.context.annotation.Replaces(be.looorent.micronaut.security.DefaultSecurityContextFactory.class)\n")
+                    .append("public final class ").append(factoryName).append(" implements be.looorent.micronaut.security.SecurityContextFactory {\n\n")
+                    .append("    private static final be.looorent.micronaut.security.ClaimPaths PATHS = be.looorent.micronaut.security.ClaimPaths.of(");
+            for (int index = 0; index < claims.size(); index++) {
+                source.append(index == 0 ? "\n            " : ",\n            ").append(literal(claims.get(index).path));
+            }
+            source.append(");\n\n")
+                    .append("    @Override\n")
+                    .append("    public ").append(contextName).append(" createSecurityContext(io.jsonwebtoken.Claims claims) {\n")
+                    .append("        Object[] values = PATHS.extract(claims);\n")
+                    .append("        return new ").append(contextName).append("(");
+            for (int index = 0; index < claims.size(); index++) {
+                MappedClaim claim = claims.get(index);
+                source.append(index == 0 ? "\n                " : ",\n                ");
+                if (claim.conversion == null) {
+                    source.append("values[").append(index).append("]");
+                }
+                else {
+                    source.append(CLAIM_VALUES).append(".").append(claim.conversion)
+                            .append("(values[").append(index).append("], ").append(literal(claim.path)).append(")");
+                }
+            }
+            source.append(");\n")
+                    .append("    }\n")
+                    .append("}\n");
+            return source.toString();
+        }
+
+        private static String flatNameOf(TypeElement type) {
+            Element enclosing = type.getEnclosingElement();
+            return enclosing instanceof TypeElement ? flatNameOf((TypeElement) enclosing) + "_" + type.getSimpleName() : type.getSimpleName().toString();
+        }
+
+        private static String literal(String value) {
+            StringBuilder literal = new StringBuilder("\"");
+            for (char character : value.toCharArray()) {
+                if (character == '"' || character == '\\') {
+                    literal.append('\\').append(character);
+                }
+                else if (character < 0x20 || character > 0x7e) {
+                    literal.append(String.format("\\u%04x", (int) character));
+                }
+                else {
+                    literal.append(character);
+                }
+            }
+            return literal.append('"').toString();
+        }
+    }
+
+    private static final class MappedClaim {
+
+        private final String path;
+        private final String conversion;
+
+        private MappedClaim(String path, String conversion) {
+            this.path = path;
+            this.conversion = conversion;
+        }
+    }
+
+    private static final class InvalidMappingException extends RuntimeException {
+
+        private final transient Element element;
+
+        private InvalidMappingException(Element element, String message) {
+            super(message);
+            this.element = element;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package be.looorent.micronaut.security.processor
+
+import be.looorent.micronaut.security.DefaultSecurityContextFactory
+import be.looorent.micronaut.security.LazyClaims
+import be.looorent.micronaut.security.SecurityContext
+import be.looorent.micronaut.security.SecurityContextFactory
+
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.databind.ObjectMapper
+import io.jsonwebtoken.Claims
+import io.micronaut.context.annotation.Replaces
+import io.micronaut.core.util.StringUtils
+import spock.lang.Specification
+
+import javax.inject.Singleton
+import javax.tools.DiagnosticCollector
+import javax.tools.JavaFileObject
+import javax.tools.ToolProvider
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.Instant
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+class ClaimsMappingProcessorSpec extends Specification {
+
+    private static final String PAYLOAD = """
+        {
+            "sub": "subject",
+            "exp": 1600000000,
+            "admin": true,
+            "resource_access": { "app": { "roles": ["reader", "writer"] } }
+        }
+    """
+
+    Path directory = Files.createTempDirectory("claims-mapping")
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>()
+
+    def cleanup() {
+        directory.toFile().deleteDir()
+    }
+
+    def "the generated factory creates the context from the claims of the token"() {
+        given:
+        def classes = compile("UserContext", """
+            package com.acme;
+
+            import be.looorent.micronaut.security.*;
+            import java.time.Instant;
+            import java.util.List;
+
+            @ClaimsMapping
+            public class UserContext implements SecurityContext {
+                public final String subject;
+                public final List<String> roles;
+                public final boolean admin;
+                public final Instant expiration;
+                public final long age;
+
+                public UserContext(@Claim("sub") String subject,
+                                   @Claim("resource_access.app.roles") List<String> roles,
+                                   @Claim("admin") boolean admin,
+                                   @Claim("exp") Instant expiration,
+                                   @Claim("age") long age) {
+                    this.subject = subject;
+                    this.roles = roles;
+                    this.admin = admin;
+                    this.expiration = expiration;
+                    this.age = age;
+                }
+            }
+        """)
+        def factory = classes.loadClass("com.acme.UserContextClaimsFactory").newInstance() as SecurityContextFactory
+
+        when:
+        def context = factory.createSecurityContext(LazyClaims.parse(PAYLOAD.getBytes(UTF_8)))
+
+        then:
+        context.subject == "subject"
+        context.roles == ["reader", "writer"]
+        context.admin
+        context.expiration == Instant.ofEpochSecond(1600000000)
+        context.age == 0
+    }
+
+    def "the generated factory replaces the default factory"() {
+        given:
+        def classes = compile("UserContext", """
+            package com.acme;
+
+            import be.looorent.micronaut.security.*;
+
+            @ClaimsMapping
+            public class UserContext implements SecurityContext {
+                UserContext(@Claim("sub") String subject) {
+                }
+            }
+        """)
+
+        when:
+        def factoryClass = classes.loadClass("com.acme.UserContextClaimsFactory")
+
+        then:
+        SecurityContextFactory.isAssignableFrom(factoryClass)
+        factoryClass.getAnnotation(Singleton) != null
+        factoryClass.getAnnotation(Replaces).value() == DefaultSecurityContextFactory
+    }
+
+    def "an invalid mapping is a compilation error"(String declaration, String expectedError) {
+        when:
+        compile("UserContext", """
+            package com.acme;
+
+            import be.looorent.micronaut.security.*;
+            import java.util.List;
+
+            ${declaration}
+        """)
+
+        then:
+        IllegalStateException exception = thrown()
+        exception.message.contains(expectedError)
+
+        where:
+        declaration                                                                                                      | expectedError
+        "@ClaimsMapping class UserContext { UserContext(@Claim(\"sub\") String subject) {} }"                           | "A @ClaimsMapping class must implement be.looorent.micronaut.security.SecurityContext"
+        "@ClaimsMapping class UserContext implements SecurityContext { UserContext(String subject) {} }"                | "A @ClaimsMapping class must declare a constructor whose parameters are annotated with @Claim"
+        "@ClaimsMapping class UserContext implements SecurityContext { UserContext(@Claim(\"sub\") String s, int i) {} }" | "Every parameter of this constructor must be annotated with @Claim"
+        "@ClaimsMapping class UserContext implements SecurityContext { UserContext(@Claim(\"ids\") List<Integer> ids) {} }" | "The type java.util.List<java.lang.Integer> of the claim parameter 'ids' is not supported"
+        "@ClaimsMapping class UserContext implements SecurityContext { UserContext(@Claim(\"realm..roles\") String r) {} }" | "The claim path 'realm..roles' is not valid"
+    }
+
+    private ClassLoader compile(String className, String source) {
+        def sourceFile = directory.resolve("${className}.java")
+        sourceFile.write(source, "UTF-8")
+        def compiler = ToolProvider.systemJavaCompiler
+        def fileManager = compiler.getStandardFileManager(diagnostics, null, UTF_8)
+        def options = ["-d", directory.toString(), "-s", directory.toString(), "-classpath", classpath(), "-processor", ClaimsMappingProcessor.name]
+        def compiled = compiler.getTask(null, fileManager, diagnostics, options, null, fileManager.getJavaFileObjects(sourceFile.toFile())).call()
+        fileManager.close()
+        if (!compiled) {
+            throw new IllegalStateException(diagnostics.diagnostics.collect { it.getMessage(Locale.ENGLISH) }.join("\n"))
+        }
+        new URLClassLoader([directory.toUri().toURL()] as URL[], getClass().classLoader)
+    }
+
+    private static String classpath() {
+        [SecurityContext, Claims, Singleton, Replaces, StringUtils, JsonParser, ObjectMapper]
+                .collect { new File(it.protectionDomain.codeSource.location.toURI()).path }
+                .unique()
+                .join(File.pathSeparator)
+    }
+}
@@ -0,0 +1,61 @@
+package be.looorent.keycloak;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Local Keycloak that only serves the JWKS of a realm, for {@link StartupProbe}.
+ * Usage: {@code BenchmarkKeycloakStub <port> <realm-id>}
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+public final class BenchmarkKeycloakStub {
+
+    static final String KEY_ID = "benchmark-key";
+
+    private BenchmarkKeycloakStub() {
+    }
+
+    public static void main(String[] args) throws IOException, NoSuchAlgorithmException {
+        int port = Integer.parseInt(args[0]);
+        String realmId = args[1];
+        byte[] certificates = createCertificates();
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/auth/realms/" + realmId + "/protocol/openid-connect/certs", http -> {
+            http.getResponseHeaders().add("Content-Type", "application/json");
+            http.sendResponseHeaders(200, certificates.length);
+            try (OutputStream body = http.getResponseBody()) {
+                body.write(certificates);
+            }
+        });
+        server.start();
+        System.out.println("Keycloak stub listening on port " + port);
+    }
+
+    private static byte[] createCertificates() throws NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        RSAPublicKey publicKey = (RSAPublicKey) generator.generateKeyPair().getPublic();
+        String json = "{\"keys\":[{\"kid\":\"" + KEY_ID + "\",\"kty\":\"RSA\",\"alg\":\"RS256\",\"use\":\"sig\","
+                + "\"n\":\"" + encode(publicKey.getModulus()) + "\",\"e\":\"" + encode(publicKey.getPublicExponent()) + "\"}]}";
+        return json.getBytes(UTF_8);
+    }
+
+    private static String encode(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,54 @@
+package be.looorent.keycloak;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigInteger;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Conversion of a JWK provided by Keycloak into a {@link PublicKey}, per key size.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@State(Scope.Benchmark)
+public class JsonWebKeyBenchmark {
+
+    @Param({"2048", "4096"})
+    public int keySize;
+
+    private JsonWebKey key;
+
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(keySize);
+        RSAPublicKey publicKey = (RSAPublicKey) generator.generateKeyPair().getPublic();
+        key = new JsonWebKey("benchmark-key",
+                encode(publicKey.getModulus()),
+                encode(publicKey.getPublicExponent()),
+                "RS256",
+                "RSA",
+                "sig");
+    }
+
+    @Benchmark
+    public PublicKey toPublicKey() {
+        return key.toPublicKey();
+    }
+
+    private static String encode(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
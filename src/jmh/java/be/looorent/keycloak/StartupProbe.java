@@ -0,0 +1,60 @@
+package be.looorent.keycloak;
+
+import be.looorent.micronaut.security.SecurityFilter;
+import io.micronaut.context.ApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Starts a Micronaut context with this adapter, eager loading the public keys from {@link BenchmarkKeycloakStub},
+ * then prints the time spent in main() and the resident memory of the process, and exits.
+ * Run on the JVM and as a native image by {@code src/jmh/startup-benchmark.sh}, which also measures the whole boot of the process.
+ * Usage: {@code StartupProbe <keycloak-base-url> <realm-id>}
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+public final class StartupProbe {
+
+    private static final Path PROCESS_STATUS = Paths.get("/proc/self/status");
+    private static final String RESIDENT_MEMORY = "VmRSS:";
+
+    private StartupProbe() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        long startTime = System.nanoTime();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("keycloak.base-url", args[0]);
+        properties.put("keycloak.realm-id", args[1]);
+        properties.put("keycloak.eager-load-public-keys", true);
+        properties.put("security.token.issuer", args[0] + "/auth/realms/" + args[1]);
+        try (ApplicationContext context = ApplicationContext.run(properties)) {
+            context.getBean(SecurityFilter.class);
+            int loadedKeys = context.getBean(KeycloakPublicKeyService.class).countLoadedPublicKeys();
+            if (loadedKeys == 0) {
+                throw new IllegalStateException("No public key has been loaded from " + args[0]);
+            }
+            long readyInMs = (System.nanoTime() - startTime) / 1_000_000;
+            System.out.println("ready_ms=" + readyInMs + " rss_kb=" + readResidentMemoryInKb());
+        }
+    }
+
+    /**
+     * @return the resident set size of this process; or -1 if it is unknown (e.g. not on Linux)
+     */
+    private static long readResidentMemoryInKb() throws IOException {
+        if (!Files.isReadable(PROCESS_STATUS)) {
+            return -1;
+        }
+        for (String line : Files.readAllLines(PROCESS_STATUS)) {
+            if (line.startsWith(RESIDENT_MEMORY)) {
+                return Long.parseLong(line.substring(RESIDENT_MEMORY.length()).replace("kB", "").trim());
+            }
+        }
+        return -1;
+    }
+}
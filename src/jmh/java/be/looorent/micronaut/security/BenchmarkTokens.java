@@ -0,0 +1,81 @@
+package be.looorent.micronaut.security;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Optional;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+
+/**
+ * Keys, tokens and services shared by the benchmarks.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+final class BenchmarkTokens {
+
+    static final String ISSUER = "https://keycloak.org/auth/realms/benchmark";
+    static final String SUBJECT = "41598cfa-2aed-487b-b854-9e5c8271daa4";
+    static final String KID = "5f4c7777-de12-4f10-ad70-2a8290d2af08";
+    static final SecurityMetrics METRICS = new NoOpSecurityMetrics();
+    static final VerificationBulkhead NO_BULKHEAD = new VerificationBulkhead(false, 0, 100, Duration.ofMillis(100), "", null);
+
+    private BenchmarkTokens() {}
+
+    static KeyPair createKeyPair(int keySize) {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(keySize);
+            return generator.generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String createToken(KeyPair keyPair, SignatureAlgorithm algorithm) {
+        return createToken(keyPair, algorithm, null);
+    }
+
+    /**
+     * @param id the jti of the token, so that the tokens created in a same second differ; null for none
+     */
+    static String createToken(KeyPair keyPair, SignatureAlgorithm algorithm, String id) {
+        Date now = new Date();
+        return Jwts.builder()
+                .setHeaderParam("kid", KID)
+                .setId(id)
+                .setIssuer(ISSUER)
+                .setSubject(SUBJECT)
+                .setIssuedAt(now)
+                .claim("sid", "0b6a7c43-53a1-4f10-9d4a-5c2c6b7dd4c1")
+                .setExpiration(new Date(now.getTime() + 86_400_000L))
+                .claim("realm_access", singletonMap("roles", asList("offline_access", "uma_authorization")))
+                .claim("resource_access", singletonMap("account", singletonMap("roles", asList("manage-account", "view-profile"))))
+                .signWith(algorithm, keyPair.getPrivate())
+                .compact();
+    }
+
+    static PublicKeyService publicKeyServiceOf(KeyPair keyPair) {
+        return kid -> KID.equals(kid) ? Optional.of(keyPair.getPublic()) : Optional.empty();
+    }
+
+    static TokenParserImpl createParser(PublicKeyService publicKeyService, boolean cacheEnabled) {
+        TokenRevocations revocations = new TokenRevocations(100_000);
+        return new TokenParserImpl(ISSUER,
+                new PublicKeyResolver(publicKeyService, METRICS),
+                new DefaultAsyncSecurityContextFactory(new DefaultSecurityContextFactory()),
+                new DefaultAsyncTokenValidator(new DefaultTokenValidator()),
+                new VerifiedTokenCache(cacheEnabled, 10_000, revocations),
+                METRICS,
+                new SignatureVerifiers(),
+                new RoleAuthorizer(),
+                revocations,
+                16_384,
+                Duration.ZERO);
+    }
+}
@@ -0,0 +1,69 @@
+package be.looorent.micronaut.security;
+
+import io.jsonwebtoken.Claims;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.KeyPair;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static be.looorent.micronaut.security.BenchmarkTokens.*;
+import static io.jsonwebtoken.SignatureAlgorithm.RS256;
+
+/**
+ * Reading the subject, a nested role claim and the session of a token, as a {@link SecurityContextFactory} does:
+ * with a factory generated for a {@link ClaimsMapping} type, and with lookups of {@link Claims#get(String, Class)}.
+ * Run with '-prof gc' to compare their allocations.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@State(Scope.Benchmark)
+public class ClaimPathsBenchmark {
+
+    private static final ClaimPaths PATHS = ClaimPaths.of("sub", "resource_access.account.roles", "sid");
+
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        KeyPair keyPair = createKeyPair(2048);
+        String token = createToken(keyPair, RS256);
+        String[] parts = token.split("\\.");
+        payload = Base64.getUrlDecoder().decode(parts[1]);
+    }
+
+    @Benchmark
+    public Object generatedMapping() {
+        Object[] values = PATHS.extract(LazyClaims.parse(payload));
+        return new Context(ClaimValues.asString(values[0], "sub"),
+                ClaimValues.asStringList(values[1], "resource_access.account.roles"),
+                ClaimValues.asString(values[2], "sid"));
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Object claimLookups() {
+        Claims claims = LazyClaims.parse(payload);
+        Map<String, Object> resourceAccess = claims.get("resource_access", Map.class);
+        Map<String, Object> account = resourceAccess == null ? null : (Map<String, Object>) resourceAccess.get("account");
+        return new Context(claims.getSubject(),
+                account == null ? null : (List<String>) account.get("roles"),
+                claims.get("sid", String.class));
+    }
+
+    private static final class Context implements SecurityContext {
+
+        private final String subject;
+        private final List<String> roles;
+        private final String sessionId;
+
+        private Context(String subject, List<String> roles, String sessionId) {
+            this.subject = subject;
+            this.roles = roles;
+            this.sessionId = sessionId;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package be.looorent.micronaut.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.impl.DefaultClaims;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.util.Base64;
+import java.util.Map;
+
+import static be.looorent.micronaut.security.BenchmarkTokens.*;
+import static io.jsonwebtoken.SignatureAlgorithm.RS256;
+
+/**
+ * Decoding the payload of a token and reading its subject and expiration,
+ * with {@link LazyClaims} and with a fully materialized map (as jjwt does).
+ * Run with '-prof gc' to compare their allocations.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@State(Scope.Benchmark)
+public class LazyClaimsBenchmark {
+
+    private static final ObjectReader MAP_READER = new ObjectMapper().readerFor(Map.class);
+
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        KeyPair keyPair = createKeyPair(2048);
+        String token = createToken(keyPair, RS256);
+        String[] parts = token.split("\\.");
+        payload = Base64.getUrlDecoder().decode(parts[1]);
+    }
+
+    @Benchmark
+    public Object lazyClaims() {
+        Claims claims = LazyClaims.parse(payload);
+        return claims.getSubject() + claims.getExpiration().getTime();
+    }
+
+    @Benchmark
+    public Object materializedClaims() throws IOException {
+        Claims claims = new DefaultClaims(MAP_READER.<Map<String, Object>>readValue(payload));
+        return claims.getSubject() + claims.getExpiration().getTime();
+    }
+}
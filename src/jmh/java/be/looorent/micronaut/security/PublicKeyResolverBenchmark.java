@@ -0,0 +1,50 @@
+package be.looorent.micronaut.security;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.HashMap;
+import java.util.Map;
+
+import static be.looorent.micronaut.security.BenchmarkTokens.createKeyPair;
+import static java.util.Optional.ofNullable;
+
+/**
+ * Lookup of a public key by {@link PublicKeyResolver}, per number of loaded keys.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@State(Scope.Benchmark)
+public class PublicKeyResolverBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int keyCount;
+
+    private PublicKeyResolver resolver;
+    private String knownKeyId;
+
+    @Setup
+    public void setUp() {
+        KeyPair keyPair = createKeyPair(2048);
+        Map<String, PublicKey> keys = new HashMap<>();
+        for (int i = 0; i < keyCount; i++) {
+            keys.put("kid-" + i, keyPair.getPublic());
+        }
+        resolver = new PublicKeyResolver(kid -> ofNullable(keys.get(kid)), BenchmarkTokens.METRICS);
+        knownKeyId = "kid-" + (keyCount - 1);
+    }
+
+    @Benchmark
+    public PublicKey resolveKnownKey() {
+        return resolver.resolveAsync(knownKeyId).toCompletableFuture().join();
+    }
+
+    @Benchmark
+    public Object resolveUnknownKey() {
+        return resolver.resolveAsync("unknown-kid").toCompletableFuture().handle((key, error) -> error == null ? key : error).join();
+    }
+}
@@ -0,0 +1,76 @@
+package be.looorent.micronaut.security;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.MutableHttpResponse;
+import io.micronaut.http.filter.ServerFilterChain;
+import io.reactivex.Flowable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.KeyPair;
+import java.time.Duration;
+
+import static be.looorent.micronaut.security.BenchmarkTokens.*;
+
+/**
+ * Round trip of {@link SecurityFilter#doFilter(HttpRequest, ServerFilterChain)} with a chain that responds immediately,
+ * per execution mode; the rejection of a client throttled after too many failures;
+ * and a probe of an anonymous path, among a few patterns.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@State(Scope.Benchmark)
+public class SecurityFilterBenchmark {
+
+    @Param({"io", "computation", "inline"})
+    public String executionMode;
+
+    private SecurityFilter filter;
+    private SecurityFilter throttlingFilter;
+    private ServerFilterChain chain;
+    private HttpRequest<?> validRequest;
+    private HttpRequest<?> rejectedRequest;
+    private HttpRequest<?> throttledRequest;
+    private HttpRequest<?> anonymousRequest;
+
+    @Setup
+    public void setUp() {
+        KeyPair keyPair = createKeyPair(2048);
+        String token = createToken(keyPair, SignatureAlgorithm.RS256);
+        AnonymousPaths anonymousPaths = new AnonymousPaths("/health/**, GET|HEAD /static/**/*.css, /metrics");
+        filter = new SecurityFilter(new SecurityService(createParser(publicKeyServiceOf(keyPair), false), executionMode, METRICS, NO_BULKHEAD), new RoleAuthorizer(), new FailureThrottle(false, 20, Duration.ofMinutes(1), 10000, ""), anonymousPaths);
+        chain = request -> Flowable.just(HttpResponse.ok());
+        validRequest = HttpRequest.GET("/api").header("Authorization", "Bearer " + token);
+        rejectedRequest = HttpRequest.GET("/api").header("Authorization", "Bearer not-a-token");
+        anonymousRequest = HttpRequest.GET("/health/liveness");
+
+        FailureThrottle throttle = new FailureThrottle(true, 1, Duration.ofHours(1), 10000, "X-Forwarded-For");
+        throttle.recordFailure("203.0.113.1");
+        throttlingFilter = new SecurityFilter(new SecurityService(createParser(publicKeyServiceOf(keyPair), false), executionMode, METRICS, NO_BULKHEAD), new RoleAuthorizer(), throttle, anonymousPaths);
+        throttledRequest = HttpRequest.GET("/api").header("Authorization", "Bearer not-a-token").header("X-Forwarded-For", "203.0.113.1");
+    }
+
+    @Benchmark
+    public MutableHttpResponse<?> filterValidRequest() {
+        return Flowable.fromPublisher(filter.doFilter(validRequest, chain)).blockingFirst();
+    }
+
+    @Benchmark
+    public MutableHttpResponse<?> filterRejectedRequest() {
+        return Flowable.fromPublisher(filter.doFilter(rejectedRequest, chain)).blockingFirst();
+    }
+
+    @Benchmark
+    public MutableHttpResponse<?> filterThrottledRequest() {
+        return Flowable.fromPublisher(throttlingFilter.doFilter(throttledRequest, chain)).blockingFirst();
+    }
+
+    @Benchmark
+    public MutableHttpResponse<?> filterAnonymousRequest() {
+        return Flowable.fromPublisher(filter.doFilter(anonymousRequest, chain)).blockingFirst();
+    }
+}
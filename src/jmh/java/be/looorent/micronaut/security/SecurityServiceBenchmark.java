@@ -0,0 +1,55 @@
+package be.looorent.micronaut.security;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micronaut.http.HttpRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import static be.looorent.micronaut.security.BenchmarkTokens.*;
+
+/**
+ * Reading of the Authorization header by {@link SecurityService}, for valid and rejected requests.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@State(Scope.Benchmark)
+public class SecurityServiceBenchmark {
+
+    private SecurityService service;
+    private HttpRequest<?> validRequest;
+    private HttpRequest<?> requestWithoutHeader;
+    private HttpRequest<?> requestWithWrongScheme;
+
+    @Setup
+    public void setUp() {
+        String token = createToken(createKeyPair(2048), SignatureAlgorithm.RS256);
+        service = new SecurityService(parsedToken -> new SecurityContext() {}, "inline", METRICS, NO_BULKHEAD);
+        validRequest = HttpRequest.GET("/api").header("Authorization", "Bearer " + token);
+        requestWithoutHeader = HttpRequest.GET("/api");
+        requestWithWrongScheme = HttpRequest.GET("/api").header("Authorization", "Basic " + token);
+    }
+
+    @Benchmark
+    public String readValidHeader() {
+        return service.readTokenInHeadersOf(validRequest);
+    }
+
+    @Benchmark
+    public Object readMissingHeader() {
+        return readRejected(requestWithoutHeader);
+    }
+
+    @Benchmark
+    public Object readHeaderWithWrongScheme() {
+        return readRejected(requestWithWrongScheme);
+    }
+
+    private Object readRejected(HttpRequest<?> request) {
+        try {
+            return service.readTokenInHeadersOf(request);
+        } catch (SecurityException e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package be.looorent.micronaut.security;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+
+import static be.looorent.micronaut.security.BenchmarkTokens.*;
+
+/**
+ * Verification of a batch of valid tokens by {@link TokenParserImpl#parseAll(List)}, compared to verifying them one at a time,
+ * per batch size and share of duplicated tokens.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@State(Scope.Benchmark)
+public class TokenBatchBenchmark {
+
+    @Param({"100", "10000"})
+    public int batchSize;
+
+    @Param({"0", "50"})
+    public int duplicatePercentage;
+
+    private TokenParserImpl parser;
+    private List<String> tokens;
+
+    @Setup
+    public void setUp() {
+        KeyPair keyPair = createKeyPair(2048);
+        parser = createParser(publicKeyServiceOf(keyPair), false);
+        int distinctTokens = Math.max(1, batchSize * (100 - duplicatePercentage) / 100);
+        List<String> distinct = new ArrayList<>(distinctTokens);
+        for (int index = 0; index < distinctTokens; index++) {
+            distinct.add(createToken(keyPair, SignatureAlgorithm.RS256, "token-" + index));
+        }
+        tokens = new ArrayList<>(batchSize);
+        for (int index = 0; index < batchSize; index++) {
+            tokens.add(distinct.get(index % distinctTokens));
+        }
+    }
+
+    @Benchmark
+    public List<TokenVerification> parseAll() {
+        return parser.parseAll(tokens);
+    }
+
+    @Benchmark
+    public List<SecurityContext> parseOneAtATime() {
+        List<SecurityContext> contexts = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            contexts.add(parser.parse(token));
+        }
+        return contexts;
+    }
+}
@@ -0,0 +1,44 @@
+package be.looorent.micronaut.security;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.KeyPair;
+
+import static be.looorent.micronaut.security.BenchmarkTokens.*;
+
+/**
+ * Verification of a valid token by {@link TokenParserImpl}, per signature algorithm and key size.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@State(Scope.Benchmark)
+public class TokenParserBenchmark {
+
+    @Param({"RS256", "RS384", "RS512"})
+    public String algorithm;
+
+    @Param({"2048", "4096"})
+    public int keySize;
+
+    @Param({"false", "true"})
+    public boolean cacheEnabled;
+
+    private TokenParserImpl parser;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        KeyPair keyPair = createKeyPair(keySize);
+        parser = createParser(publicKeyServiceOf(keyPair), cacheEnabled);
+        token = createToken(keyPair, SignatureAlgorithm.forName(algorithm));
+    }
+
+    @Benchmark
+    public SecurityContext parse() {
+        return parser.parse(token);
+    }
+}
@@ -0,0 +1,49 @@
+package be.looorent.micronaut.security;
+
+import io.jsonwebtoken.Claims;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.KeyPair;
+import java.time.Instant;
+import java.util.Base64;
+
+import static be.looorent.micronaut.security.BenchmarkTokens.*;
+import static io.jsonwebtoken.SignatureAlgorithm.RS256;
+
+/**
+ * Checking whether a token has been revoked, with a realm not-before policy and a given number of revoked ids.
+ * Run with '-prof gc' to check that nothing is allocated.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@State(Scope.Benchmark)
+public class TokenRevocationsBenchmark {
+
+    @Param({"0", "1000", "500000"})
+    public int revokedIdentifiers;
+
+    private TokenRevocations revocations;
+    private Claims claims;
+
+    @Setup
+    public void setUp() {
+        KeyPair keyPair = createKeyPair(2048);
+        String token = createToken(keyPair, RS256);
+        claims = LazyClaims.parse(Base64.getUrlDecoder().decode(token.split("\\.")[1]));
+        revocations = new TokenRevocations(Math.max(1, revokedIdentifiers));
+        revocations.revokeIssuedBefore(ISSUER, Instant.now().minusSeconds(3600));
+        Instant expiration = Instant.now().plusSeconds(3600);
+        for (int i = 0; i < revokedIdentifiers; i++) {
+            revocations.revokeSession("session-" + i, expiration);
+        }
+        revocations.isRevoked(claims);
+    }
+
+    @Benchmark
+    public boolean isRevoked() {
+        return revocations.isRevoked(claims);
+    }
+}
@@ -0,0 +1,54 @@
+#!/usr/bin/env bash
+# Compares the boot of a Micronaut context using this adapter on the JVM and as a GraalVM native image,
+# with the public keys eager loaded from a local Keycloak stub.
+#
+# Usage: src/jmh/startup-benchmark.sh [runs]
+# Requires: ./gradlew jmhJar, and GraalVM's native-image on the PATH to compare with a native image.
+set -euo pipefail
+
+RUNS="${1:-10}"
+PORT=9990
+REALM=benchmark
+BASE_URL="http://localhost:${PORT}"
+JAR="$(ls build/libs/*-jmh.jar | head -n 1)"
+NATIVE_PROBE=build/native/startup-probe
+
+java -cp "${JAR}" be.looorent.keycloak.BenchmarkKeycloakStub "${PORT}" "${REALM}" &
+STUB_PID=$!
+trap 'kill ${STUB_PID}' EXIT
+sleep 2
+
+# The JMH jar bundles the native-image options of Micronaut, of this adapter and of StartupProbe (generated by micronaut-graal),
+# so the probe is built as a Micronaut application would be. It is built again whenever the jar is newer.
+if command -v native-image > /dev/null && { [ ! -x "${NATIVE_PROBE}" ] || [ "${JAR}" -nt "${NATIVE_PROBE}" ]; }; then
+    mkdir -p build/native
+    native-image --no-fallback -cp "${JAR}" be.looorent.keycloak.StartupProbe "${NATIVE_PROBE}"
+fi
+
+# Prints the median boot time (launch to exit), the median time spent in main() and the median RSS over all runs
+measure() {
+    local name="$1"
+    shift
+    local boots=() mains=() rss=()
+    for _ in $(seq "${RUNS}"); do
+        local start end output
+        start=$(date +%s%N)
+        output=$("$@" "${BASE_URL}" "${REALM}" | grep "^ready_ms=")
+        end=$(date +%s%N)
+        boots+=($(( (end - start) / 1000000 )))
+        mains+=("$(echo "${output}" | sed 's/.*ready_ms=\([0-9]*\).*/\1/')")
+        rss+=("$(echo "${output}" | sed 's/.*rss_kb=\(-\{0,1\}[0-9]*\).*/\1/')")
+    done
+    printf "%-8s boot_ms=%s main_ms=%s rss_kb=%s\n" "${name}" "$(median "${boots[@]}")" "$(median "${mains[@]}")" "$(median "${rss[@]}")"
+}
+
+median() {
+    printf "%s\n" "$@" | sort -n | awk '{ values[NR] = $1 } END { print values[int((NR + 1) / 2)] }'
+}
+
+measure jvm java -cp "${JAR}" be.looorent.keycloak.StartupProbe
+if [ -x "${NATIVE_PROBE}" ]; then
+    measure native "${NATIVE_PROBE}"
+else
+    echo "native   skipped: native-image is not on the PATH"
+fi
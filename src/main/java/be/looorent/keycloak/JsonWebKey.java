@@ -1,60 +1,143 @@
 package be.looorent.keycloak;
 
-import com.fasterxml.jackson.annotation.JsonCreator;
-import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.interfaces.RSAPublicKey;
-import java.security.spec.InvalidKeySpecException;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
 import java.security.spec.RSAPublicKeySpec;
 import java.util.Base64;
 
 /**
- * JWK provided by Keycloak.
+ * JWK provided by Keycloak: either an RSA key (kty RSA) or an elliptic curve key on P-256 (kty EC).
  * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
  */
-@JsonIgnoreProperties(ignoreUnknown = true)
 class JsonWebKey {
 
     private static final Logger LOG = LoggerFactory.getLogger(JsonWebKey.class);
+    private static final String RSA_TYPE = "RSA";
+    private static final String ELLIPTIC_CURVE_TYPE = "EC";
+    private static final String P256_CURVE = "P-256";
+    private static final String P256_CURVE_JCA_NAME = "secp256r1";
 
-    @JsonProperty("kid")
     private final String id;
 
-    @JsonProperty("n")
     private final String modulusBase64;
 
-    @JsonProperty("e")
     private final String exponentBase64;
 
-    @JsonProperty("alg")
     private final String algorithm;
 
-    @JsonProperty("kty")
     private final String type;
 
-    @JsonProperty("use")
     private final String use;
 
-    @JsonCreator
-    public JsonWebKey(@JsonProperty("kid") String id,
-                      @JsonProperty("n") String modulusBase64,
-                      @JsonProperty("e") String exponentBase64,
-                      @JsonProperty("alg") String algorithm,
-                      @JsonProperty("kty") String type,
-                      @JsonProperty("use") String use) {
+    private final String curve;
+
+    private final String xBase64;
+
+    private final String yBase64;
+
+    public JsonWebKey(String id,
+                      String modulusBase64,
+                      String exponentBase64,
+                      String algorithm,
+                      String type,
+                      String use) {
+        this(id, modulusBase64, exponentBase64, algorithm, type, use, null, null, null);
+    }
+
+    public JsonWebKey(String id,
+                      String modulusBase64,
+                      String exponentBase64,
+                      String algorithm,
+                      String type,
+                      String use,
+                      String curve,
+                      String xBase64,
+                      String yBase64) {
         this.id = id;
         this.exponentBase64 = exponentBase64;
         this.modulusBase64 = modulusBase64;
         this.algorithm = algorithm;
         this.type = type;
         this.use = use;
+        this.curve = curve;
+        this.xBase64 = xBase64;
+        this.yBase64 = yBase64;
+    }
+
+    /**
+     * Reads a JWK without reflection. Unknown members (e.g. x5c) are skipped.
+     * @param parser a parser positioned on the start of a JWK object, and left on its end
+     * @return the JWK read
+     * @throws IOException if this JWK is not valid JSON
+     */
+    static JsonWebKey fromJson(JsonParser parser) throws IOException {
+        String id = null;
+        String modulusBase64 = null;
+        String exponentBase64 = null;
+        String algorithm = null;
+        String type = null;
+        String use = null;
+        String curve = null;
+        String xBase64 = null;
+        String yBase64 = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+            String value = parser.getValueAsString();
+            switch (name) {
+                case "kid":
+                    id = value;
+                    break;
+                case "n":
+                    modulusBase64 = value;
+                    break;
+                case "e":
+                    exponentBase64 = value;
+                    break;
+                case "alg":
+                    algorithm = value;
+                    break;
+                case "kty":
+                    type = value;
+                    break;
+                case "use":
+                    use = value;
+                    break;
+                case "crv":
+                    curve = value;
+                    break;
+                case "x":
+                    xBase64 = value;
+                    break;
+                case "y":
+                    yBase64 = value;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (parser.getCurrentToken() != JsonToken.END_OBJECT) {
+            throw new IOException("A JWK must be a JSON object");
+        }
+        return new JsonWebKey(id, modulusBase64, exponentBase64, algorithm, type, use, curve, xBase64, yBase64);
     }
 
     public static JsonWebKey fromRSAPublicKey(String kid, RSAPublicKey key) {
@@ -90,16 +173,47 @@ class JsonWebKey {
         return use;
     }
 
+    public String getCurve() {
+        return curve;
+    }
+
+    /**
+     * @return the public key described by this JWK; or null if its type or curve is not supported, or if it is not valid
+     */
     public PublicKey toPublicKey() {
         try {
-            KeyFactory keyFactory = KeyFactory.getInstance("RSA");
-            Base64.Decoder urlDecoder = Base64.getUrlDecoder();
-            BigInteger modulus = new BigInteger(1, urlDecoder.decode(modulusBase64));
-            BigInteger exponent = new BigInteger(1, urlDecoder.decode(exponentBase64));
-            return keyFactory.generatePublic(new RSAPublicKeySpec(modulus, exponent));
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException  e) {
+            if ((type == null || RSA_TYPE.equals(type)) && modulusBase64 != null && exponentBase64 != null) {
+                return toRSAPublicKey();
+            }
+            else if (ELLIPTIC_CURVE_TYPE.equals(type) && P256_CURVE.equals(curve) && xBase64 != null && yBase64 != null) {
+                return toEllipticCurvePublicKey();
+            }
+            else {
+                LOG.warn("The key type {} (curve {}) of KID {} is not supported", type, curve, id);
+                return null;
+            }
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
             LOG.error("An error occurred when creating a public key from KID {}", id, e);
             return null;
         }
     }
+
+    private PublicKey toRSAPublicKey() throws GeneralSecurityException {
+        KeyFactory keyFactory = KeyFactory.getInstance(RSA_TYPE);
+        BigInteger modulus = decodeUnsigned(modulusBase64);
+        BigInteger exponent = decodeUnsigned(exponentBase64);
+        return keyFactory.generatePublic(new RSAPublicKeySpec(modulus, exponent));
+    }
+
+    private PublicKey toEllipticCurvePublicKey() throws GeneralSecurityException {
+        AlgorithmParameters parameters = AlgorithmParameters.getInstance(ELLIPTIC_CURVE_TYPE);
+        parameters.init(new ECGenParameterSpec(P256_CURVE_JCA_NAME));
+        ECPoint point = new ECPoint(decodeUnsigned(xBase64), decodeUnsigned(yBase64));
+        KeyFactory keyFactory = KeyFactory.getInstance(ELLIPTIC_CURVE_TYPE);
+        return keyFactory.generatePublic(new ECPublicKeySpec(point, parameters.getParameterSpec(ECParameterSpec.class)));
+    }
+
+    private static BigInteger decodeUnsigned(String base64) {
+        return new BigInteger(1, Base64.getUrlDecoder().decode(base64));
+    }
 }
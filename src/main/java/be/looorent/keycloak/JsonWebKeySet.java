@@ -1,25 +1,68 @@
 package be.looorent.keycloak;
 
-import com.fasterxml.jackson.annotation.JsonCreator;
-import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Set of JWK provided by Keycloak.
+ * A JWKS is read with Jackson's streaming parser rather than its data binding, so that no reflection is needed
+ * (e.g. in a GraalVM native image).
  * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
  */
 class JsonWebKeySet {
 
-    @JsonProperty("keys")
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String KEYS = "keys";
+
     private final List<JsonWebKey> keys;
 
-    @JsonCreator
-    public JsonWebKeySet(@JsonProperty("keys") List<JsonWebKey> keys) {
+    public JsonWebKeySet(List<JsonWebKey> keys) {
         this.keys = keys;
     }
 
     public List<JsonWebKey> getKeys() {
         return keys;
     }
+
+    /**
+     * @param json a JWKS, as provided by Keycloak
+     * @return the parsed key set
+     * @throws IOException if json is not a valid JWKS
+     */
+    static JsonWebKeySet fromJson(byte[] json) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("A JWKS must be a JSON object");
+            }
+            List<JsonWebKey> keys = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (KEYS.equals(name) && value == JsonToken.START_ARRAY) {
+                    keys = new ArrayList<>();
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        keys.add(JsonWebKey.fromJson(parser));
+                    }
+                    if (parser.getCurrentToken() != JsonToken.END_ARRAY) {
+                        throw new IOException("The keys of a JWKS must be JSON objects");
+                    }
+                }
+                else if (KEYS.equals(name) && value != JsonToken.VALUE_NULL) {
+                    throw new IOException("The keys of a JWKS must be a JSON array");
+                }
+                else {
+                    parser.skipChildren();
+                }
+            }
+            if (parser.getCurrentToken() != JsonToken.END_OBJECT) {
+                throw new IOException("A JWKS must be a JSON object");
+            }
+            return new JsonWebKeySet(keys);
+        }
+    }
 }
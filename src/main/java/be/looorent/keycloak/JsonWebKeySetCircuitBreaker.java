@@ -0,0 +1,98 @@
+package be.looorent.keycloak;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Stops retrieving the public keys of a realm after a failure, for a delay that doubles with each consecutive failure
+ * (from {@link KeycloakPublicKeysConfiguration#getFailureBackoff()} up to {@link KeycloakPublicKeysConfiguration#getMaxFailureBackoff()}).
+ *
+ * While this breaker is open, request threads do not contact Keycloak: they keep using the last retrieved keys.
+ * Once the delay has elapsed, the next retrieval probes Keycloak: a success closes the breaker, a failure opens it again for longer.
+ * Each delay is drawn between half and all of its nominal value, so that the instances that fail together do not retry together.
+ *
+ * The last retrieved keys are used for at most {@link KeycloakPublicKeysConfiguration#getMaxStaleness()}, if set.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+final class JsonWebKeySetCircuitBreaker {
+
+    private static final int MAX_DOUBLINGS = 30;
+
+    private final long backoffInMs;
+    private final long maxBackoffInMs;
+    private final long maxStalenessInMs;
+    private int consecutiveFailures;
+    private volatile long retryAtInMs;
+    private volatile long lastSuccessTimeInMs;
+
+    JsonWebKeySetCircuitBreaker(Duration backoff, Duration maxBackoff, Duration maxStaleness) {
+        if (backoff == null || backoff.isNegative() || backoff.isZero()) {
+            throw new IllegalArgumentException("backoff must be positive");
+        }
+        if (maxBackoff == null || maxBackoff.compareTo(backoff) < 0) {
+            throw new IllegalArgumentException("Property keycloak.public-keys.max-failure-backoff (duration) must not be shorter than keycloak.public-keys.failure-backoff");
+        }
+        if (maxStaleness == null || maxStaleness.isNegative()) {
+            throw new IllegalArgumentException("maxStaleness must not be negative");
+        }
+        this.backoffInMs = backoff.toMillis();
+        this.maxBackoffInMs = maxBackoff.toMillis();
+        this.maxStalenessInMs = maxStaleness.toMillis();
+    }
+
+    /**
+     * @return true if Keycloak has failed lately, and must not be contacted before {@link #getRetryDelay()}
+     */
+    boolean isOpen() {
+        return currentTimeMillis() < retryAtInMs;
+    }
+
+    /**
+     * @return true if the keys have not been retrieved for more than the max staleness
+     */
+    boolean isStale() {
+        return maxStalenessInMs > 0 && currentTimeMillis() - lastSuccessTimeInMs > maxStalenessInMs;
+    }
+
+    /**
+     * @return the delay before Keycloak can be contacted again; 0 if this breaker is closed
+     */
+    Duration getRetryDelay() {
+        return Duration.ofMillis(Math.max(0, retryAtInMs - currentTimeMillis()));
+    }
+
+    synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @param retrievedAtInMs when the keys now in use have been retrieved from Keycloak
+     */
+    synchronized void recordSuccess(long retrievedAtInMs) {
+        consecutiveFailures = 0;
+        retryAtInMs = 0;
+        lastSuccessTimeInMs = retrievedAtInMs;
+    }
+
+    /**
+     * Opens this breaker.
+     * @return the delay before Keycloak can be contacted again
+     */
+    synchronized Duration recordFailure() {
+        consecutiveFailures++;
+        long nominalDelayInMs = computeBackoffInMs(consecutiveFailures);
+        long delayInMs = nominalDelayInMs / 2 + ThreadLocalRandom.current().nextLong(nominalDelayInMs / 2 + 1);
+        retryAtInMs = currentTimeMillis() + delayInMs;
+        return Duration.ofMillis(delayInMs);
+    }
+
+    /**
+     * @return the nominal delay after this number of consecutive failures, before randomization
+     */
+    long computeBackoffInMs(int failures) {
+        int doublings = Math.min(Math.max(failures, 1) - 1, MAX_DOUBLINGS);
+        return backoffInMs > maxBackoffInMs >> doublings ? maxBackoffInMs : backoffInMs << doublings;
+    }
+}
@@ -0,0 +1,163 @@
+package be.looorent.keycloak;
+
+import io.micronaut.http.HttpHeaders;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.MutableHttpRequest;
+import io.micronaut.http.client.DefaultHttpClientConfiguration;
+import io.micronaut.http.client.RxHttpClient;
+import io.reactivex.Single;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+
+import static io.micronaut.http.HttpStatus.NOT_MODIFIED;
+import static io.micronaut.http.MediaType.APPLICATION_JSON_TYPE;
+import static java.lang.Long.parseLong;
+import static java.lang.System.currentTimeMillis;
+import static java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME;
+import static java.util.Locale.ROOT;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Non-blocking HTTP client of the certificates endpoint of a Keycloak realm.
+ * The validators of the last response (ETag and Last-Modified) are sent with the next request,
+ * so that Keycloak can answer that nothing has changed without sending the keys again.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+class JsonWebKeySetClient implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JsonWebKeySetClient.class);
+
+    private static final String MAX_AGE_DIRECTIVE = "max-age=";
+    private static final String NO_CACHE_DIRECTIVE = "no-cache";
+    private static final String NO_STORE_DIRECTIVE = "no-store";
+
+    private final URL publicCertificateUrl;
+    private final RxHttpClient httpClient;
+    private final long fetchTimeoutInMs;
+    private volatile String entityTag;
+    private volatile String lastModified;
+
+    JsonWebKeySetClient(URL publicCertificateUrl, KeycloakPublicKeysConfiguration configuration) throws MalformedURLException {
+        if (publicCertificateUrl == null) {
+            throw new IllegalArgumentException("publicCertificateUrl must not be null");
+        }
+        if (configuration == null) {
+            throw new IllegalArgumentException("configuration must not be null");
+        }
+        DefaultHttpClientConfiguration httpConfiguration = new DefaultHttpClientConfiguration();
+        httpConfiguration.setConnectTimeout(configuration.getConnectTimeout());
+        httpConfiguration.setReadTimeout(configuration.getReadTimeout());
+        this.publicCertificateUrl = publicCertificateUrl;
+        this.httpClient = RxHttpClient.create(serverUrlOf(publicCertificateUrl), httpConfiguration);
+        this.fetchTimeoutInMs = configuration.getFetchTimeout().toMillis();
+    }
+
+    /**
+     * Retrieves the public keys, conditionally to the validators of the previous response.
+     * No thread is blocked while waiting for Keycloak.
+     * @return the response of Keycloak; or an {@link IllegalStateException} if Keycloak cannot be contacted in time or if its response cannot be parsed
+     */
+    Single<JsonWebKeySetResponse> fetch() {
+        return Single.defer(() -> httpClient.exchange(createRequest(), byte[].class).firstOrError())
+                .timeout(fetchTimeoutInMs, MILLISECONDS)
+                .map(this::toResponse)
+                .onErrorResumeNext(error -> {
+                    LOG.error("An error occurred when retrieving and unmarshalling public keys from {}", publicCertificateUrl, error);
+                    return Single.error(new IllegalStateException("Impossible to contact Keycloak with the properties you have provided for 'keycloak.base-url' and/or 'keycloak.realm-id'", error));
+                });
+    }
+
+    URL getPublicCertificateUrl() {
+        return publicCertificateUrl;
+    }
+
+    @Override
+    public void close() {
+        httpClient.close();
+    }
+
+    private MutableHttpRequest<?> createRequest() {
+        MutableHttpRequest<?> request = HttpRequest.GET(publicCertificateUrl.getFile()).accept(APPLICATION_JSON_TYPE);
+        String currentEntityTag = entityTag;
+        if (currentEntityTag != null) {
+            request.header(HttpHeaders.IF_NONE_MATCH, currentEntityTag);
+        }
+        String currentLastModified = lastModified;
+        if (currentLastModified != null) {
+            request.header(HttpHeaders.IF_MODIFIED_SINCE, currentLastModified);
+        }
+        return request;
+    }
+
+    private JsonWebKeySetResponse toResponse(HttpResponse<byte[]> response) throws IOException {
+        Duration maxAge = readMaxAgeOf(response.getHeaders());
+        if (response.getStatus() == NOT_MODIFIED) {
+            return JsonWebKeySetResponse.notModified(maxAge);
+        }
+
+        byte[] body = response.getBody().orElseThrow(() -> new IOException("Keycloak has responded without any public key"));
+        JsonWebKeySet keySet = JsonWebKeySet.fromJson(body);
+        entityTag = response.getHeaders().get(HttpHeaders.ETAG);
+        lastModified = response.getHeaders().get(HttpHeaders.LAST_MODIFIED);
+        return JsonWebKeySetResponse.modified(keySet, body, maxAge);
+    }
+
+    private static Duration readMaxAgeOf(HttpHeaders headers) {
+        String cacheControl = headers.get(HttpHeaders.CACHE_CONTROL);
+        if (cacheControl != null) {
+            Duration maxAge = null;
+            for (String directive : cacheControl.split(",")) {
+                String normalizedDirective = directive.trim().toLowerCase(ROOT);
+                if (NO_CACHE_DIRECTIVE.equals(normalizedDirective) || NO_STORE_DIRECTIVE.equals(normalizedDirective)) {
+                    return null;
+                }
+                else if (normalizedDirective.startsWith(MAX_AGE_DIRECTIVE)) {
+                    maxAge = parseSeconds(normalizedDirective.substring(MAX_AGE_DIRECTIVE.length()));
+                }
+            }
+            if (maxAge != null) {
+                return maxAge;
+            }
+        }
+
+        String expires = headers.get(HttpHeaders.EXPIRES);
+        if (expires != null) {
+            long nowInMs = parseDateInMs(headers.get(HttpHeaders.DATE), currentTimeMillis());
+            long expiresAtInMs = parseDateInMs(expires, nowInMs);
+            return Duration.ofMillis(Math.max(0, expiresAtInMs - nowInMs));
+        }
+        return null;
+    }
+
+    private static Duration parseSeconds(String value) {
+        try {
+            return Duration.ofSeconds(Math.max(0, parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            LOG.warn("Keycloak has provided an invalid max-age: {}", value);
+            return null;
+        }
+    }
+
+    private static long parseDateInMs(String value, long defaultValueInMs) {
+        if (value == null) {
+            return defaultValueInMs;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return defaultValueInMs;
+        }
+    }
+
+    private static URL serverUrlOf(URL url) throws MalformedURLException {
+        return new URL(url.getProtocol(), url.getHost(), url.getPort(), "");
+    }
+}
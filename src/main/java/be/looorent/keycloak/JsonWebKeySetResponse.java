@@ -0,0 +1,63 @@
+package be.looorent.keycloak;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static java.util.Optional.ofNullable;
+
+/**
+ * Outcome of a request to the certificates endpoint of Keycloak.
+ * When Keycloak answers that the keys have not been modified since the previous request, there is no key set to parse.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+class JsonWebKeySetResponse {
+
+    private final JsonWebKeySet keySet;
+    private final byte[] body;
+    private final Duration maxAge;
+
+    private JsonWebKeySetResponse(JsonWebKeySet keySet, byte[] body, Duration maxAge) {
+        this.keySet = keySet;
+        this.body = body;
+        this.maxAge = maxAge;
+    }
+
+    static JsonWebKeySetResponse modified(JsonWebKeySet keySet, byte[] body, Duration maxAge) {
+        if (keySet == null) {
+            throw new IllegalArgumentException("keySet must not be null");
+        }
+        if (body == null) {
+            throw new IllegalArgumentException("body must not be null");
+        }
+        return new JsonWebKeySetResponse(keySet, body, maxAge);
+    }
+
+    static JsonWebKeySetResponse notModified(Duration maxAge) {
+        return new JsonWebKeySetResponse(null, null, maxAge);
+    }
+
+    boolean isModified() {
+        return keySet != null;
+    }
+
+    /**
+     * @return the key set provided by Keycloak; or null if it has not been modified
+     */
+    JsonWebKeySet getKeySet() {
+        return keySet;
+    }
+
+    /**
+     * @return the key set as sent by Keycloak; or null if it has not been modified
+     */
+    byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return how long the response can be considered as fresh, according to its cache headers; or empty() if Keycloak does not tell
+     */
+    Optional<Duration> getMaxAge() {
+        return ofNullable(maxAge);
+    }
+}
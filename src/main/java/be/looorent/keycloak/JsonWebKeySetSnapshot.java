@@ -0,0 +1,103 @@
+package be.looorent.keycloak;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Optional.empty;
+
+/**
+ * Local copy of the last key set retrieved from a Keycloak realm.
+ * The file is replaced atomically, so that a crash during a write never leaves a truncated key set behind.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+class JsonWebKeySetSnapshot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JsonWebKeySetSnapshot.class);
+    private static final String EXTENSION = ".jwks.json";
+
+    private final Path file;
+
+    JsonWebKeySetSnapshot(String directory, String realmId) {
+        if (directory == null || directory.isEmpty()) {
+            throw new IllegalArgumentException("directory must not be null or empty");
+        }
+        if (realmId == null || realmId.isEmpty()) {
+            throw new IllegalArgumentException("realmId must not be null or empty");
+        }
+        this.file = Paths.get(directory).resolve(realmId.replaceAll("[^A-Za-z0-9._-]", "_") + EXTENSION);
+    }
+
+    /**
+     * @return the saved key set; or empty() if there is none or if it cannot be read
+     */
+    Optional<JsonWebKeySet> read() {
+        if (!Files.isRegularFile(file)) {
+            return empty();
+        }
+        try {
+            return Optional.of(JsonWebKeySet.fromJson(Files.readAllBytes(file)));
+        } catch (IOException e) {
+            LOG.warn("The public keys saved in {} cannot be read, they are ignored", file, e);
+            return empty();
+        }
+    }
+
+    /**
+     * Replaces the saved key set. Errors are logged, not thrown: a snapshot is only a fallback.
+     * @param body a key set as sent by Keycloak
+     */
+    void write(byte[] body) {
+        Path temporaryFile = null;
+        try {
+            Path directory = file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            temporaryFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            Files.write(temporaryFile, body);
+            try {
+                Files.move(temporaryFile, file, ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, file, REPLACE_EXISTING);
+            }
+            LOG.debug("Public keys saved in {}", file);
+        } catch (IOException e) {
+            LOG.warn("The public keys cannot be saved in {}", file, e);
+        } finally {
+            deleteQuietly(temporaryFile);
+        }
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return when the saved key set has been written; or now if it cannot be known
+     */
+    long getLastModifiedTimeInMs() {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            LOG.debug("The modification time of {} cannot be read", file, e);
+            return System.currentTimeMillis();
+        }
+    }
+
+    private static void deleteQuietly(Path temporaryFile) {
+        if (temporaryFile != null) {
+            try {
+                Files.deleteIfExists(temporaryFile);
+            } catch (IOException e) {
+                LOG.debug("Temporary file {} cannot be deleted", temporaryFile, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package be.looorent.keycloak;
+
+import be.looorent.micronaut.security.TokenRevocations;
+import io.micronaut.context.annotation.Context;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.disposables.Disposable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import java.net.MalformedURLException;
+import java.time.Instant;
+import java.util.Map;
+
+import static io.reactivex.schedulers.Schedulers.io;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Polls the not-before policies of the realm 'keycloak.realm-id' and of the clients 'keycloak.revocation.clients',
+ * and applies them to the {@link TokenRevocations}: tokens issued before them are rejected from the next poll on.
+ * A failed poll is logged, and the last known policies are kept.
+ *
+ * Enabled with 'keycloak.revocation.poll-enabled', and configured with {@link KeycloakRevocationConfiguration}.
+ * The tokens of the realm are expected to be issued by 'security.token.issuer', or by Keycloak's default issuer of this realm.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Context
+@Requires(property = "keycloak.revocation.poll-enabled", value = "true")
+public class KeycloakNotBeforePoller {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KeycloakNotBeforePoller.class);
+
+    private final NotBeforePolicyClient client;
+    private final TokenRevocations revocations;
+    private final String issuer;
+    private final Disposable polls;
+
+    KeycloakNotBeforePoller(@Value("${keycloak.base-url}") String baseUrl,
+                            @Value("${keycloak.realm-id}") String realmId,
+                            @Value("${security.token.issuer:}") String tokenIssuer,
+                            KeycloakRevocationConfiguration configuration,
+                            TokenRevocations revocations) throws MalformedURLException {
+        if (baseUrl == null || baseUrl.isEmpty()) {
+            throw new IllegalArgumentException("Property keycloak.base-url (string) must be defined");
+        }
+        if (realmId == null || realmId.isEmpty()) {
+            throw new IllegalArgumentException("Property keycloak.realm-id (string) must be defined");
+        }
+        if (configuration == null) {
+            throw new IllegalArgumentException("No KeycloakRevocationConfiguration has been found");
+        }
+        if (configuration.getClientId() == null || configuration.getClientId().isEmpty()) {
+            throw new IllegalArgumentException("Property keycloak.revocation.client-id (string) must be defined");
+        }
+        if (revocations == null) {
+            throw new IllegalArgumentException("No TokenRevocations has been found");
+        }
+        this.client = new NotBeforePolicyClient(baseUrl, realmId, configuration);
+        this.revocations = revocations;
+        this.issuer = tokenIssuer == null || tokenIssuer.isEmpty() ? baseUrl + "/auth/realms/" + realmId : tokenIssuer;
+        this.polls = Flowable.interval(0, configuration.getPollInterval().toMillis(), MILLISECONDS, io())
+                .onBackpressureDrop()
+                .flatMapCompletable(tick -> poll().onErrorComplete(), false, 1)
+                .subscribe();
+    }
+
+    /**
+     * @return a poll of the current policies, applied once Keycloak has answered; or an {@link IllegalStateException} if Keycloak cannot be contacted
+     */
+    Completable poll() {
+        return client.fetch()
+                .doOnSuccess(this::apply)
+                .ignoreElement();
+    }
+
+    /**
+     * Stops polling and the HTTP client.
+     */
+    @PreDestroy
+    public void close() {
+        polls.dispose();
+        client.close();
+    }
+
+    private void apply(NotBeforePolicy policy) {
+        if (policy.getRealmNotBefore() > 0) {
+            revocations.revokeIssuedBefore(issuer, Instant.ofEpochSecond(policy.getRealmNotBefore()));
+        }
+        for (Map.Entry<String, Long> clientPolicy : policy.getNotBeforePerClient().entrySet()) {
+            if (clientPolicy.getValue() > 0) {
+                revocations.revokeIssuedBefore(issuer, clientPolicy.getKey(), Instant.ofEpochSecond(clientPolicy.getValue()));
+            }
+        }
+        LOG.debug("The not-before policies of {} have been polled", issuer);
+    }
+}
@@ -2,34 +2,58 @@ package be.looorent.keycloak;
 
 
 import be.looorent.micronaut.security.PublicKeyService;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import be.looorent.micronaut.security.PublicKeysRefreshedEvent;
+import be.looorent.micronaut.security.SecurityMetrics;
 import io.micronaut.context.annotation.Context;
 import io.micronaut.context.annotation.Value;
+import io.micronaut.context.event.ApplicationEventPublisher;
+import io.reactivex.Completable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Singleton;
-import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.security.PublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
 
-import static java.lang.System.currentTimeMillis;
-import static java.util.Optional.ofNullable;
-import static java.util.stream.Collectors.toMap;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Optional.empty;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 
 /**
  * Service that retrieves a set of JWK from Keycloak (using HTTP), that can eager or lazy load
  * them at initialization time.
+ * Once loaded, the keys are refreshed in background according to the cache headers of Keycloak.
+ * Request threads keep reading the last loaded keys until the refreshed ones are swapped in.
+ * Keycloak is contacted with a non-blocking HTTP client, so no thread waits for its responses
+ * (except during the eager loading at startup and the lazy loading of {@link #findPublicKey(String)}).
+ * Tokens are always verified with {@link #findPublicKeyAsync(String)}: a request never waits for Keycloak in a blocked thread.
+ *
+ * When a kid is not loaded (e.g. Keycloak has just rotated its keys), the keys are retrieved again once for all the
+ * concurrent requests, at most once per {@link KeycloakPublicKeysConfiguration#getUnknownKeyMinFetchInterval()}.
+ * The kids that are still unknown afterwards are rejected without contacting Keycloak for a while.
+ *
+ * Several realms can be served at once (see {@link KeycloakRealmConfiguration}): each realm has its own keys and
+ * refresh schedule, and the keys of a token are searched in the realm of its issuer only.
+ * The keys that are not looked up by issuer are the keys of keycloak.realm-id: they are never searched across the realms.
  *
  * Requires three properties:
  * * keycloak.base-url
- * * keycloak.realm-id
+ * * keycloak.realm-id (unless at least one realm is declared with keycloak.realms)
  * * keycloak.eager-load-public-keys
  *
+ * @see KeycloakPublicKeysConfiguration for the optional properties
  * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
  */
 @Singleton
@@ -38,79 +62,180 @@ public class KeycloakPublicKeyService implements PublicKeyService {
 
     private static final Logger LOG = LoggerFactory.getLogger(KeycloakPublicKeyService.class);
 
-    private final URL publicCertificateUrl;
     private final boolean eagerLoadPublicKeys;
-    private Map<String, PublicKey> keyPerKeycloakId;
+    private final ApplicationEventPublisher eventPublisher;
+    private final KeycloakRealmKeyStore defaultKeyStore;
+    private final Map<String, KeycloakRealmKeyStore> keyStorePerIssuer;
+    private final List<KeycloakRealmKeyStore> keyStores;
 
     KeycloakPublicKeyService(
             @Value("${keycloak.base-url}") String baseUrl,
-            @Value("${keycloak.realm-id}") String realmId,
-            @Value("${keycloak.eager-load-public-keys}") Boolean eagerLoadPublicKeys
+            @Value("${keycloak.realm-id:}") String realmId,
+            @Value("${keycloak.eager-load-public-keys}") Boolean eagerLoadPublicKeys,
+            KeycloakPublicKeysConfiguration configuration,
+            List<KeycloakRealmConfiguration> realms,
+            ApplicationEventPublisher eventPublisher,
+            SecurityMetrics metrics
      ) throws MalformedURLException {
         if (baseUrl == null || baseUrl.isEmpty()) {
             throw new IllegalArgumentException("Property keycloak.base-url (string) must be defined");
         }
-        if (realmId == null || realmId.isEmpty()) {
+        if ((realmId == null || realmId.isEmpty()) && (realms == null || realms.isEmpty())) {
             throw new IllegalArgumentException("Property keycloak.realm-id (string) must be defined");
         }
         if (eagerLoadPublicKeys == null) {
             throw new IllegalArgumentException("Property keycloak.eager-load-public-keys (boolean) must be defined");
         }
-        this.publicCertificateUrl = createPublicCertificateUrl(baseUrl, realmId);
+        if (configuration == null) {
+            throw new IllegalArgumentException("No KeycloakPublicKeysConfiguration has been found");
+        }
+        if (eventPublisher == null) {
+            throw new IllegalArgumentException("No implementation of ApplicationEventPublisher has been found");
+        }
+        if (metrics == null) {
+            throw new IllegalArgumentException("No implementation of SecurityMetrics has been found");
+        }
         this.eagerLoadPublicKeys = eagerLoadPublicKeys;
+        this.eventPublisher = eventPublisher;
+
+        List<KeycloakRealmKeyStore> stores = new ArrayList<>();
+        this.defaultKeyStore = realmId == null || realmId.isEmpty() ? null : createKeyStore(baseUrl, realmId, configuration, metrics);
+        if (defaultKeyStore != null) {
+            stores.add(defaultKeyStore);
+        }
+        Map<String, KeycloakRealmKeyStore> storePerIssuer = new HashMap<>();
+        for (KeycloakRealmConfiguration realm : realms == null ? Collections.<KeycloakRealmConfiguration>emptyList() : realms) {
+            if (realm.getIssuer() == null || realm.getIssuer().isEmpty()) {
+                throw new IllegalArgumentException("Property keycloak.realms." + realm.getRealmId() + ".issuer (string) must be defined");
+            }
+            if (storePerIssuer.containsKey(realm.getIssuer())) {
+                throw new IllegalArgumentException("Property keycloak.realms." + realm.getRealmId() + ".issuer must be unique");
+            }
+            KeycloakRealmKeyStore store = createKeyStore(baseUrl, realm.getRealmId(), configuration, metrics);
+            storePerIssuer.put(realm.getIssuer(), store);
+            stores.add(store);
+        }
+        this.keyStorePerIssuer = unmodifiableMap(storePerIssuer);
+        this.keyStores = unmodifiableList(stores);
+        metrics.monitorLoadedPublicKeys(this, KeycloakPublicKeyService::countLoadedPublicKeys);
     }
 
+    /**
+     * @return the public key of keycloak.realm-id identified by kid; or empty() when keycloak.realm-id is not defined
+     */
     @Override
     public Optional<PublicKey> findPublicKey(String kid) {
-        if (kid == null || kid.isEmpty()) {
-            throw new IllegalArgumentException("kid must not be null or empty");
-        }
-        if (!publicKeyHasBeenLoaded()) {
-            this.loadPublicKeys();
-        }
-        return ofNullable(keyPerKeycloakId.get(kid));
+        requireKeyId(kid);
+        return defaultKeyStore == null ? empty() : defaultKeyStore.findPublicKey(kid);
+    }
+
+    /**
+     * @return the public key of keycloak.realm-id identified by kid; or empty() when keycloak.realm-id is not defined
+     */
+    @Override
+    public CompletionStage<Optional<PublicKey>> findPublicKeyAsync(String kid) {
+        requireKeyId(kid);
+        return defaultKeyStore == null ? completedFuture(empty()) : defaultKeyStore.findPublicKeyAsync(kid);
+    }
+
+    /**
+     * @param issuer the issuer of a realm declared with keycloak.realms; otherwise, the keys of keycloak.realm-id are searched
+     */
+    @Override
+    public Optional<PublicKey> findPublicKey(String issuer, String kid) {
+        requireKeyId(kid);
+        KeycloakRealmKeyStore store = keyStorePerIssuer.get(issuer);
+        return store == null ? findPublicKey(kid) : store.findPublicKey(kid);
+    }
+
+    /**
+     * @param issuer the issuer of a realm declared with keycloak.realms; otherwise, the keys of keycloak.realm-id are searched
+     */
+    @Override
+    public CompletionStage<Optional<PublicKey>> findPublicKeyAsync(String issuer, String kid) {
+        requireKeyId(kid);
+        KeycloakRealmKeyStore store = keyStorePerIssuer.get(issuer);
+        return store == null ? findPublicKeyAsync(kid) : store.findPublicKeyAsync(kid);
+    }
+
+    /**
+     * @return the issuers of the realms declared with keycloak.realms
+     */
+    @Override
+    public Set<String> getIssuers() {
+        return keyStorePerIssuer.keySet();
+    }
+
+    /**
+     * @return whether keycloak.realm-id is defined
+     */
+    @Override
+    public boolean hasDefaultKeys() {
+        return defaultKeyStore != null;
     }
 
     @PostConstruct
     public void initialize() {
         if (this.eagerLoadPublicKeys) {
             LOG.info("Public keys are eager loaded from Keycloak");
-            this.loadPublicKeys();
+            keyStores.forEach(KeycloakRealmKeyStore::loadPublicKeys);
         }
     }
 
+    /**
+     * Stops refreshing the public keys in background.
+     */
+    @PreDestroy
+    public void close() {
+        keyStores.forEach(KeycloakRealmKeyStore::close);
+    }
+
     boolean publicKeyHasBeenLoaded() {
-        return keyPerKeycloakId != null;
+        return keyStores.stream().allMatch(KeycloakRealmKeyStore::publicKeyHasBeenLoaded);
     }
 
-    private synchronized void loadPublicKeys() {
-        LOG.info("Retrieving public keys from keycloak at {}", publicCertificateUrl);
-        long startTimeInMs = currentTimeMillis();
-        keyPerKeycloakId = retrievePublicKeysFromKeycloak();
-        LOG.info("Public keys retrieved in {} ms", currentTimeMillis() - startTimeInMs);
+    int countLoadedPublicKeys() {
+        int count = 0;
+        for (KeycloakRealmKeyStore store : keyStores) {
+            count += store.countLoadedPublicKeys();
+        }
+        return count;
     }
 
-    private URL createPublicCertificateUrl(String baseUrl, String realmId) throws MalformedURLException {
-        String realmUrl = baseUrl + "/auth/realms/" + realmId;
-        String certificateUrl = realmUrl + "/protocol/openid-connect/certs";
-        return new URL(certificateUrl);
+    /**
+     * Refreshes the public keys of every realm.
+     * @return completes once the keys of every realm have been swapped in (or kept); never fails
+     */
+    Completable refreshPublicKeys() {
+        List<Completable> refreshes = new ArrayList<>();
+        for (KeycloakRealmKeyStore store : keyStores) {
+            refreshes.add(store.refreshPublicKeys());
+        }
+        return Completable.merge(refreshes);
+    }
+
+    Duration computeRefreshDelay(Duration maxAge) {
+        return keyStores.get(0).computeRefreshDelay(maxAge);
+    }
+
+    Duration jitter(Duration delay) {
+        return keyStores.get(0).jitter(delay);
     }
 
-    private Map<String, PublicKey> retrievePublicKeysFromKeycloak() {
-        JsonWebKeySet certificates = retrieveAndParsePublicKeysFromKeycloak();
-        return certificates.getKeys()
-                .stream()
-                .collect(toMap(
-                        JsonWebKey::getId,
-                        JsonWebKey::toPublicKey));
+    private KeycloakRealmKeyStore createKeyStore(String baseUrl,
+                                                 String realmId,
+                                                 KeycloakPublicKeysConfiguration configuration,
+                                                 SecurityMetrics metrics) throws MalformedURLException {
+        return new KeycloakRealmKeyStore(baseUrl, realmId, configuration, metrics, this::publishRefreshedKeys);
     }
 
-    private JsonWebKeySet retrieveAndParsePublicKeysFromKeycloak() {
-        try {
-            return new ObjectMapper().readValue(publicCertificateUrl.openStream(), JsonWebKeySet.class);
-        } catch (IOException e) {
-            LOG.error("An error occurred when retrieving and unmarshalling public keys from {}", publicCertificateUrl, e);
-            throw new IllegalStateException("Impossible to contact Keycloak with the properties you have provided for 'keycloak.base-url' and/or 'keycloak.realm-id'", e);
+    private void publishRefreshedKeys(Map<String, PublicKey> publicKeys, Set<String> retiredKeyIds) {
+        eventPublisher.publishEvent(new PublicKeysRefreshedEvent(this, publicKeys, retiredKeyIds));
+    }
+
+    private static void requireKeyId(String kid) {
+        if (kid == null || kid.isEmpty()) {
+            throw new IllegalArgumentException("kid must not be null or empty");
         }
     }
 }
@@ -0,0 +1,235 @@
+package be.looorent.keycloak;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Optional settings describing how the public keys of Keycloak are kept up to date.
+ * Every property is prefixed by {@code keycloak.public-keys}.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@ConfigurationProperties("keycloak.public-keys")
+public class KeycloakPublicKeysConfiguration {
+
+    static final boolean DEFAULT_REFRESH_ENABLED = true;
+    static final Duration DEFAULT_REFRESH_INTERVAL = Duration.ofMinutes(10);
+    static final Duration DEFAULT_MIN_REFRESH_INTERVAL = Duration.ofSeconds(30);
+    static final Duration DEFAULT_UNKNOWN_KEY_MIN_FETCH_INTERVAL = Duration.ofSeconds(10);
+    static final Duration DEFAULT_UNKNOWN_KEY_CACHE_DURATION = Duration.ofSeconds(30);
+    static final Duration DEFAULT_RETIRED_KEY_GRACE_PERIOD = Duration.ofMinutes(5);
+    static final double DEFAULT_REFRESH_JITTER = 0.1;
+    static final Duration DEFAULT_FAILURE_BACKOFF = Duration.ofSeconds(5);
+    static final Duration DEFAULT_MAX_FAILURE_BACKOFF = Duration.ofMinutes(5);
+    static final Duration DEFAULT_MAX_STALENESS = Duration.ZERO;
+    static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(10);
+    static final Duration DEFAULT_FETCH_TIMEOUT = Duration.ofSeconds(15);
+
+    private boolean refreshEnabled = DEFAULT_REFRESH_ENABLED;
+    private Duration refreshInterval = DEFAULT_REFRESH_INTERVAL;
+    private Duration minRefreshInterval = DEFAULT_MIN_REFRESH_INTERVAL;
+    private Duration unknownKeyMinFetchInterval = DEFAULT_UNKNOWN_KEY_MIN_FETCH_INTERVAL;
+    private Duration unknownKeyCacheDuration = DEFAULT_UNKNOWN_KEY_CACHE_DURATION;
+    private Duration retiredKeyGracePeriod = DEFAULT_RETIRED_KEY_GRACE_PERIOD;
+    private double refreshJitter = DEFAULT_REFRESH_JITTER;
+    private Duration failureBackoff = DEFAULT_FAILURE_BACKOFF;
+    private Duration maxFailureBackoff = DEFAULT_MAX_FAILURE_BACKOFF;
+    private Duration maxStaleness = DEFAULT_MAX_STALENESS;
+    private Duration connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private Duration readTimeout = DEFAULT_READ_TIMEOUT;
+    private Duration fetchTimeout = DEFAULT_FETCH_TIMEOUT;
+    private String snapshotDirectory;
+
+    /**
+     * @return whether or not the public keys are periodically refreshed in background once they have been loaded
+     */
+    public boolean isRefreshEnabled() {
+        return refreshEnabled;
+    }
+
+    public void setRefreshEnabled(boolean refreshEnabled) {
+        this.refreshEnabled = refreshEnabled;
+    }
+
+    /**
+     * @return the maximum delay between two refreshes, used when Keycloak does not provide any cache header
+     */
+    public Duration getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    public void setRefreshInterval(Duration refreshInterval) {
+        if (refreshInterval == null || refreshInterval.isNegative() || refreshInterval.isZero()) {
+            throw new IllegalArgumentException("Property keycloak.public-keys.refresh-interval (duration) must be positive");
+        }
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * @return the minimum delay between two refreshes, whatever the cache headers provided by Keycloak
+     */
+    public Duration getMinRefreshInterval() {
+        return minRefreshInterval;
+    }
+
+    public void setMinRefreshInterval(Duration minRefreshInterval) {
+        if (minRefreshInterval == null || minRefreshInterval.isNegative()) {
+            throw new IllegalArgumentException("Property keycloak.public-keys.min-refresh-interval (duration) must not be negative");
+        }
+        this.minRefreshInterval = minRefreshInterval;
+    }
+
+    /**
+     * @return the minimum delay between two retrievals of the public keys triggered by a kid that is not loaded
+     */
+    public Duration getUnknownKeyMinFetchInterval() {
+        return unknownKeyMinFetchInterval;
+    }
+
+    public void setUnknownKeyMinFetchInterval(Duration unknownKeyMinFetchInterval) {
+        if (unknownKeyMinFetchInterval == null || unknownKeyMinFetchInterval.isNegative()) {
+            throw new IllegalArgumentException("Property keycloak.public-keys.unknown-key-min-fetch-interval (duration) must not be negative");
+        }
+        this.unknownKeyMinFetchInterval = unknownKeyMinFetchInterval;
+    }
+
+    /**
+     * @return how long a kid that Keycloak does not know is rejected without retrieving the public keys again
+     */
+    public Duration getUnknownKeyCacheDuration() {
+        return unknownKeyCacheDuration;
+    }
+
+    public void setUnknownKeyCacheDuration(Duration unknownKeyCacheDuration) {
+        if (unknownKeyCacheDuration == null || unknownKeyCacheDuration.isNegative()) {
+            throw new IllegalArgumentException("Property keycloak.public-keys.unknown-key-cache-duration (duration) must not be negative");
+        }
+        this.unknownKeyCacheDuration = unknownKeyCacheDuration;
+    }
+
+    /**
+     * @return how long a key that Keycloak does not publish anymore is still accepted; 0 to reject it as soon as the keys are refreshed
+     */
+    public Duration getRetiredKeyGracePeriod() {
+        return retiredKeyGracePeriod;
+    }
+
+    public void setRetiredKeyGracePeriod(Duration retiredKeyGracePeriod) {
+        if (retiredKeyGracePeriod == null || retiredKeyGracePeriod.isNegative()) {
+            throw new IllegalArgumentException("Property keycloak.public-keys.retired-key-grace-period (duration) must not be negative");
+        }
+        this.retiredKeyGracePeriod = retiredKeyGracePeriod;
+    }
+
+    /**
+     * @return the fraction of each refresh delay by which the refresh is randomly brought forward, so that the instances
+     *         started together do not contact Keycloak at the same time; 0 to refresh exactly on schedule
+     */
+    public double getRefreshJitter() {
+        return refreshJitter;
+    }
+
+    public void setRefreshJitter(double refreshJitter) {
+        if (refreshJitter < 0 || refreshJitter > 1) {
+            throw new IllegalArgumentException("Property keycloak.public-keys.refresh-jitter (decimal) must be between 0 and 1");
+        }
+        this.refreshJitter = refreshJitter;
+    }
+
+    /**
+     * @return the delay before retrieving the public keys again after a first failure; this delay doubles after each consecutive failure
+     */
+    public Duration getFailureBackoff() {
+        return failureBackoff;
+    }
+
+    public void setFailureBackoff(Duration failureBackoff) {
+        if (failureBackoff == null || failureBackoff.isNegative() || failureBackoff.isZero()) {
+            throw new IllegalArgumentException("Property keycloak.public-keys.failure-backoff (duration) must be positive");
+        }
+        this.failureBackoff = failureBackoff;
+    }
+
+    /**
+     * @return the maximum delay before retrieving the public keys again after consecutive failures
+     */
+    public Duration getMaxFailureBackoff() {
+        return maxFailureBackoff;
+    }
+
+    public void setMaxFailureBackoff(Duration maxFailureBackoff) {
+        if (maxFailureBackoff == null || maxFailureBackoff.isNegative() || maxFailureBackoff.isZero()) {
+            throw new IllegalArgumentException("Property keycloak.public-keys.max-failure-backoff (duration) must be positive");
+        }
+        this.maxFailureBackoff = maxFailureBackoff;
+    }
+
+    /**
+     * @return how long the last retrieved keys are still used while Keycloak cannot be contacted; 0 to use them until Keycloak answers again (default)
+     */
+    public Duration getMaxStaleness() {
+        return maxStaleness;
+    }
+
+    public void setMaxStaleness(Duration maxStaleness) {
+        if (maxStaleness == null || maxStaleness.isNegative()) {
+            throw new IllegalArgumentException("Property keycloak.public-keys.max-staleness (duration) must not be negative");
+        }
+        this.maxStaleness = maxStaleness;
+    }
+
+    /**
+     * @return the maximum time to establish a connection with Keycloak
+     */
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+        if (connectTimeout == null || connectTimeout.isNegative() || connectTimeout.isZero()) {
+            throw new IllegalArgumentException("Property keycloak.public-keys.connect-timeout (duration) must be positive");
+        }
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return the maximum time to wait for data from Keycloak once connected
+     */
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(Duration readTimeout) {
+        if (readTimeout == null || readTimeout.isNegative() || readTimeout.isZero()) {
+            throw new IllegalArgumentException("Property keycloak.public-keys.read-timeout (duration) must be positive");
+        }
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @return the maximum time of a whole retrieval of the public keys, including the connection
+     */
+    public Duration getFetchTimeout() {
+        return fetchTimeout;
+    }
+
+    public void setFetchTimeout(Duration fetchTimeout) {
+        if (fetchTimeout == null || fetchTimeout.isNegative() || fetchTimeout.isZero()) {
+            throw new IllegalArgumentException("Property keycloak.public-keys.fetch-timeout (duration) must be positive");
+        }
+        this.fetchTimeout = fetchTimeout;
+    }
+
+    /**
+     * @return the directory where the last retrieved keys of each realm are saved, to be loaded at the next startup
+     *         without contacting Keycloak; or null if the keys are not saved (default)
+     */
+    public String getSnapshotDirectory() {
+        return snapshotDirectory;
+    }
+
+    public void setSnapshotDirectory(String snapshotDirectory) {
+        this.snapshotDirectory = snapshotDirectory == null || snapshotDirectory.isEmpty() ? null : snapshotDirectory;
+    }
+}
@@ -0,0 +1,47 @@
+package be.looorent.keycloak;
+
+import io.micronaut.context.annotation.EachProperty;
+import io.micronaut.context.annotation.Parameter;
+
+/**
+ * An additional Keycloak realm whose tokens are accepted, in addition to 'keycloak.realm-id'.
+ * Each realm is declared under {@code keycloak.realms.<realm-id>}, with the issuer of its tokens:
+ * <pre>
+ * keycloak:
+ *   realms:
+ *     customers:
+ *       issuer: https://auth.example.com/auth/realms/customers
+ * </pre>
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@EachProperty("keycloak.realms")
+public class KeycloakRealmConfiguration {
+
+    private final String realmId;
+    private String issuer;
+
+    public KeycloakRealmConfiguration(@Parameter String realmId) {
+        if (realmId == null || realmId.isEmpty()) {
+            throw new IllegalArgumentException("The name of each entry of keycloak.realms must be a realm id");
+        }
+        this.realmId = realmId;
+    }
+
+    public String getRealmId() {
+        return realmId;
+    }
+
+    /**
+     * @return the issuer (iss) of the tokens signed by this realm
+     */
+    public String getIssuer() {
+        return issuer;
+    }
+
+    public void setIssuer(String issuer) {
+        if (issuer == null || issuer.isEmpty()) {
+            throw new IllegalArgumentException("Property keycloak.realms." + realmId + ".issuer (string) must be defined");
+        }
+        this.issuer = issuer;
+    }
+}
@@ -0,0 +1,420 @@
+package be.looorent.keycloak;
+
+import be.looorent.micronaut.security.SecurityMetrics;
+import io.reactivex.Completable;
+import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import static be.looorent.micronaut.security.SecurityMetrics.PublicKeysFetchOutcome.*;
+import static io.reactivex.schedulers.Schedulers.io;
+import static java.lang.System.currentTimeMillis;
+import static java.util.Optional.empty;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Public keys of a single Keycloak realm, with their own HTTP client and refresh schedule.
+ * Once loaded, either eagerly or by the first request, the keys are refreshed in background according to the cache headers of Keycloak.
+ * Request threads keep reading the last loaded keys until the refreshed ones are swapped in.
+ *
+ * When a kid is not loaded (e.g. Keycloak has just rotated its keys), the keys are retrieved again once for all the
+ * concurrent requests, at most once per {@link KeycloakPublicKeysConfiguration#getUnknownKeyMinFetchInterval()}.
+ * The kids that are still unknown afterwards are rejected without contacting Keycloak for a while.
+ *
+ * The keys are kept in a {@link PublicKeyRegistry}: request threads read them without any lock, and the keys removed by a refresh
+ * are still accepted for a grace period. A JWK that cannot be converted to a public key is skipped, the other keys are loaded;
+ * a key set without any key that can be loaded is a failed retrieval.
+ *
+ * Each refresh is brought forward by a random part of its delay ({@link KeycloakPublicKeysConfiguration#getRefreshJitter()}),
+ * so that the instances started together do not contact Keycloak together. When a retrieval fails, a {@link JsonWebKeySetCircuitBreaker}
+ * stops contacting Keycloak for an increasing delay: in the meantime, the last retrieved keys are used, and the next refresh is scheduled
+ * once this delay has elapsed.
+ *
+ * When a snapshot directory is configured, each retrieved key set is saved on disk. The keys are then loaded from this
+ * snapshot without contacting Keycloak, and refreshed in background right away.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+class KeycloakRealmKeyStore implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KeycloakRealmKeyStore.class);
+    private static final int UNKNOWN_KEY_CACHE_MAX_SIZE = 10_000;
+
+    private final String realmId;
+    private final KeycloakPublicKeysConfiguration configuration;
+    private final SecurityMetrics metrics;
+    private final BiConsumer<Map<String, PublicKey>, Set<String>> keysListener;
+    private final JsonWebKeySetClient client;
+    private final JsonWebKeySetSnapshot snapshot;
+    private final Map<String, Long> unknownKeyExpirationPerKeycloakId;
+    private final AtomicReference<CompletableFuture<Void>> inFlightFetch;
+    private final PublicKeyRegistry registry;
+    private final JsonWebKeySetCircuitBreaker breaker;
+    private final AtomicBoolean refreshStarted;
+    private volatile long lastFetchTimeInMs;
+    private volatile Disposable scheduledRefresh;
+    private volatile boolean closed;
+
+    /**
+     * @param keysListener called each time new keys are swapped in, with the kids whose previous key has been removed or replaced
+     */
+    KeycloakRealmKeyStore(String baseUrl,
+                          String realmId,
+                          KeycloakPublicKeysConfiguration configuration,
+                          SecurityMetrics metrics,
+                          BiConsumer<Map<String, PublicKey>, Set<String>> keysListener) throws MalformedURLException {
+        this.realmId = realmId;
+        this.configuration = configuration;
+        this.metrics = metrics;
+        this.keysListener = keysListener;
+        this.client = new JsonWebKeySetClient(createPublicCertificateUrl(baseUrl, realmId), configuration);
+        this.snapshot = configuration.getSnapshotDirectory() == null ? null : new JsonWebKeySetSnapshot(configuration.getSnapshotDirectory(), realmId);
+        this.unknownKeyExpirationPerKeycloakId = new ConcurrentHashMap<>();
+        this.inFlightFetch = new AtomicReference<>();
+        this.registry = new PublicKeyRegistry(configuration.getRetiredKeyGracePeriod());
+        this.breaker = new JsonWebKeySetCircuitBreaker(configuration.getFailureBackoff(), configuration.getMaxFailureBackoff(), configuration.getMaxStaleness());
+        this.refreshStarted = new AtomicBoolean(false);
+    }
+
+    Optional<PublicKey> findPublicKey(String kid) {
+        if (!publicKeyHasBeenLoaded()) {
+            this.loadPublicKeys();
+        }
+        try {
+            return findPublicKeyAsync(kid).toCompletableFuture().join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * @return the public key identified by kid; or an {@link IllegalStateException} if the keys cannot be retrieved,
+     *         or if they have not been retrieved for more than the max staleness
+     */
+    CompletionStage<Optional<PublicKey>> findPublicKeyAsync(String kid) {
+        PublicKey key = registry.find(kid);
+        boolean fresh = !breaker.isStale();
+        if (key != null && fresh) {
+            return completedFuture(Optional.of(key));
+        }
+        else if (key == null && fresh && registry.isLoaded() && isKnownToBeUnknown(kid)) {
+            return completedFuture(empty());
+        }
+        return fetchPublicKeysOnce().thenApply(loaded -> findFetchedPublicKey(kid));
+    }
+
+    /**
+     * Loads the public keys from the snapshot if any, and refreshes them in background.
+     * Otherwise, retrieves the public keys and blocks until they are loaded, unless they have already been loaded.
+     * @throws IllegalStateException if the keys cannot be retrieved, right away if the last retrieval has failed less than a backoff delay ago
+     */
+    synchronized void loadPublicKeys() {
+        if (publicKeyHasBeenLoaded()) {
+            return;
+        }
+        else if (loadSnapshot()) {
+            if (refreshStarted.compareAndSet(false, true)) {
+                refreshPublicKeys().subscribeOn(io()).subscribe();
+            }
+            return;
+        }
+        else if (breaker.isOpen()) {
+            throw new IllegalStateException("Public keys of realm " + realmId + " cannot be retrieved, Keycloak is not contacted again for "
+                    + breaker.getRetryDelay().toMillis() + " ms after " + breaker.getConsecutiveFailures() + " failure(s)");
+        }
+        LOG.info("Retrieving public keys from keycloak at {}", client.getPublicCertificateUrl());
+        JsonWebKeySetResponse response = fetchAndSwapPublicKeys().blockingGet();
+        startRefreshing(response);
+    }
+
+    boolean publicKeyHasBeenLoaded() {
+        return registry.isLoaded();
+    }
+
+    int countLoadedPublicKeys() {
+        return registry.countKeys();
+    }
+
+    String getRealmId() {
+        return realmId;
+    }
+
+    /**
+     * Retrieves the public keys from Keycloak and swaps them in when they have been modified, then schedules the next refresh.
+     * When an error occurs, the last loaded keys are kept and the next refresh is scheduled after the backoff delay.
+     * @return completes once the keys have been swapped in (or kept); never fails
+     */
+    Completable refreshPublicKeys() {
+        return fetchAndSwapPublicKeys()
+                .doOnSuccess(response -> scheduleRefresh(jitter(computeRefreshDelay(response.getMaxAge().orElse(null)))))
+                .doOnError(error -> {
+                    LOG.warn("Public keys of realm {} cannot be refreshed, the last loaded keys are kept", realmId, error);
+                    scheduleRefresh(breaker.getRetryDelay());
+                })
+                .ignoreElement()
+                .onErrorComplete();
+    }
+
+    Duration computeRefreshDelay(Duration maxAge) {
+        if (maxAge == null || maxAge.compareTo(configuration.getRefreshInterval()) > 0) {
+            return configuration.getRefreshInterval();
+        }
+        else if (maxAge.compareTo(configuration.getMinRefreshInterval()) < 0) {
+            return configuration.getMinRefreshInterval();
+        }
+        else {
+            return maxAge;
+        }
+    }
+
+    /**
+     * @return this delay, shortened by a random part of at most {@link KeycloakPublicKeysConfiguration#getRefreshJitter()}
+     */
+    Duration jitter(Duration delay) {
+        long maxJitterInMs = (long) (delay.toMillis() * configuration.getRefreshJitter());
+        return maxJitterInMs <= 0 ? delay : delay.minusMillis(ThreadLocalRandom.current().nextLong(maxJitterInMs + 1));
+    }
+
+    /**
+     * Stops refreshing the public keys in background.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Disposable refresh = scheduledRefresh;
+        if (refresh != null) {
+            refresh.dispose();
+        }
+        client.close();
+    }
+
+    private boolean loadSnapshot() {
+        if (snapshot == null) {
+            return false;
+        }
+        Optional<JsonWebKeySet> savedKeySet = snapshot.read();
+        if (savedKeySet.isPresent()) {
+            try {
+                swapPublicKeys(toPublicKeys(savedKeySet.get()));
+                breaker.recordSuccess(snapshot.getLastModifiedTimeInMs());
+                LOG.info("Public keys of realm {} loaded from {}", realmId, snapshot.getFile());
+                return true;
+            } catch (RuntimeException e) {
+                LOG.warn("The public keys saved in {} are not valid, they are ignored", snapshot.getFile(), e);
+            }
+        }
+        return false;
+    }
+
+    private Optional<PublicKey> findFetchedPublicKey(String kid) {
+        PublicKey key = registry.find(kid);
+        if (key == null) {
+            rememberUnknownKey(kid);
+            return empty();
+        }
+        return Optional.of(key);
+    }
+
+    /**
+     * Coalesces the concurrent retrievals triggered by unknown kids: the first caller starts a retrieval
+     * and every caller gets the same result, without blocking any thread.
+     * While the circuit breaker is open, Keycloak is not contacted and the last loaded keys are used.
+     * @return completes once the keys are loaded, fetched again if the last retrieval is older than the configured interval
+     */
+    private CompletableFuture<Void> fetchPublicKeysOnce() {
+        CompletableFuture<Void> currentFetch = inFlightFetch.get();
+        if (currentFetch != null) {
+            return currentFetch;
+        }
+        else if (breaker.isOpen() || currentTimeMillis() - lastFetchTimeInMs < configuration.getUnknownKeyMinFetchInterval().toMillis()) {
+            return loadedPublicKeys();
+        }
+
+        CompletableFuture<Void> ownFetch = new CompletableFuture<>();
+        if (!inFlightFetch.compareAndSet(null, ownFetch)) {
+            currentFetch = inFlightFetch.get();
+            return currentFetch == null ? loadedPublicKeys() : currentFetch;
+        }
+
+        LOG.info("Retrieving public keys of realm {} because a kid is not loaded", realmId);
+        fetchAndSwapPublicKeys().subscribe(
+                response -> {
+                    startRefreshing(response);
+                    completeFetch(ownFetch, null);
+                },
+                error -> completeFetch(ownFetch, error));
+        return ownFetch;
+    }
+
+    private void completeFetch(CompletableFuture<Void> fetch, Throwable error) {
+        inFlightFetch.set(null);
+        if (registry.isLoaded() && !breaker.isStale()) {
+            if (error != null) {
+                LOG.warn("Public keys of realm {} cannot be retrieved, the last loaded keys are kept", realmId, error);
+            }
+            fetch.complete(null);
+        }
+        else {
+            fetch.completeExceptionally(error == null ? staleKeysError() : error);
+        }
+    }
+
+    private CompletableFuture<Void> loadedPublicKeys() {
+        if (!registry.isLoaded() || breaker.isStale()) {
+            CompletableFuture<Void> failure = new CompletableFuture<>();
+            failure.completeExceptionally(registry.isLoaded() ? staleKeysError() : new IllegalStateException("Public keys have not been loaded yet"));
+            return failure;
+        }
+        return completedFuture(null);
+    }
+
+    private IllegalStateException staleKeysError() {
+        return new IllegalStateException("Public keys of realm " + realmId + " have not been retrieved for more than " + configuration.getMaxStaleness().toMillis() + " ms");
+    }
+
+    private boolean isKnownToBeUnknown(String kid) {
+        Long expirationInMs = unknownKeyExpirationPerKeycloakId.get(kid);
+        if (expirationInMs == null) {
+            return false;
+        }
+        else if (currentTimeMillis() >= expirationInMs) {
+            unknownKeyExpirationPerKeycloakId.remove(kid, expirationInMs);
+            return false;
+        }
+        else {
+            return true;
+        }
+    }
+
+    private void rememberUnknownKey(String kid) {
+        long nowInMs = currentTimeMillis();
+        if (unknownKeyExpirationPerKeycloakId.size() >= UNKNOWN_KEY_CACHE_MAX_SIZE) {
+            unknownKeyExpirationPerKeycloakId.values().removeIf(expirationInMs -> nowInMs >= expirationInMs);
+            if (unknownKeyExpirationPerKeycloakId.size() >= UNKNOWN_KEY_CACHE_MAX_SIZE) {
+                unknownKeyExpirationPerKeycloakId.clear();
+            }
+        }
+        LOG.debug("The kid {} is unknown to the realm {}", kid, realmId);
+        unknownKeyExpirationPerKeycloakId.put(kid, nowInMs + configuration.getUnknownKeyCacheDuration().toMillis());
+    }
+
+    private Single<JsonWebKeySetResponse> fetchAndSwapPublicKeys() {
+        return Single.defer(() -> {
+            long startTimeInMs = currentTimeMillis();
+            long startTime = metrics.start();
+            lastFetchTimeInMs = startTimeInMs;
+            return client.fetch().doOnSuccess(response -> {
+                if (response.isModified()) {
+                    swapPublicKeys(toPublicKeys(response.getKeySet()));
+                    if (snapshot != null) {
+                        io().scheduleDirect(() -> snapshot.write(response.getBody()));
+                    }
+                    metrics.recordPublicKeysFetch(startTime, MODIFIED);
+                    LOG.info("Public keys of realm {} retrieved in {} ms", realmId, currentTimeMillis() - startTimeInMs);
+                }
+                else {
+                    metrics.recordPublicKeysFetch(startTime, NOT_MODIFIED);
+                    LOG.debug("Public keys of realm {} have not been modified since the last retrieval", realmId);
+                }
+                breaker.recordSuccess(currentTimeMillis());
+            }).doOnError(error -> {
+                metrics.recordPublicKeysFetch(startTime, FAILED);
+                Duration backoff = breaker.recordFailure();
+                LOG.debug("Keycloak is not contacted again for the public keys of realm {} before {} ms", realmId, backoff.toMillis());
+            });
+        });
+    }
+
+    private void swapPublicKeys(Map<String, PublicKey> publicKeys) {
+        Set<String> retiredKeyIds = findRetiredKeyIds(registry.getKeys(), publicKeys);
+        long version = registry.publish(publicKeys);
+        LOG.debug("Version {} of the public keys of realm {} has been published, {} key(s) retired", version, realmId, retiredKeyIds.size());
+        unknownKeyExpirationPerKeycloakId.keySet().removeAll(publicKeys.keySet());
+        keysListener.accept(publicKeys, retiredKeyIds);
+    }
+
+    /**
+     * @return the kids of the previous keys that have been removed, or that identify another key now
+     */
+    private static Set<String> findRetiredKeyIds(Map<String, PublicKey> previousKeys, Map<String, PublicKey> nextKeys) {
+        Set<String> retiredKeyIds = new HashSet<>();
+        previousKeys.forEach((kid, key) -> {
+            if (!key.equals(nextKeys.get(kid))) {
+                retiredKeyIds.add(kid);
+            }
+        });
+        return retiredKeyIds;
+    }
+
+    /**
+     * Starts the background refresh once, whichever path has loaded the keys first: {@link #loadPublicKeys()} or a request.
+     * The next refreshes are then scheduled by {@link #refreshPublicKeys()} itself.
+     */
+    private void startRefreshing(JsonWebKeySetResponse response) {
+        if (refreshStarted.compareAndSet(false, true)) {
+            scheduleRefresh(jitter(computeRefreshDelay(response.getMaxAge().orElse(null))));
+        }
+    }
+
+    private void scheduleRefresh(Duration delay) {
+        if (configuration.isRefreshEnabled() && !closed) {
+            LOG.debug("Next refresh of the public keys of realm {} in {} ms", realmId, delay.toMillis());
+            scheduledRefresh = Completable.timer(delay.toMillis(), MILLISECONDS, io())
+                    .andThen(refreshPublicKeys())
+                    .subscribe();
+        }
+    }
+
+    private static URL createPublicCertificateUrl(String baseUrl, String realmId) throws MalformedURLException {
+        String realmUrl = baseUrl + "/auth/realms/" + realmId;
+        String certificateUrl = realmUrl + "/protocol/openid-connect/certs";
+        return new URL(certificateUrl);
+    }
+
+    /**
+     * @throws IllegalArgumentException if none of the keys of this key set can be loaded (or if it has no keys at all),
+     *         so that the retrieval fails: the last loaded keys are kept and this key set is not saved in the snapshot
+     */
+    private Map<String, PublicKey> toPublicKeys(JsonWebKeySet certificates) {
+        if (certificates.getKeys() == null) {
+            throw new IllegalArgumentException("The key set of realm " + realmId + " does not contain any keys");
+        }
+        Map<String, PublicKey> publicKeys = new HashMap<>();
+        for (JsonWebKey certificate : certificates.getKeys()) {
+            if (certificate == null || certificate.getId() == null) {
+                LOG.warn("A key of realm {} has no kid, it is skipped", realmId);
+                continue;
+            }
+            PublicKey publicKey = certificate.toPublicKey();
+            if (publicKey == null) {
+                LOG.warn("The key {} of realm {} cannot be converted to a public key, it is skipped", certificate.getId(), realmId);
+            }
+            else if (publicKeys.putIfAbsent(certificate.getId(), publicKey) != null) {
+                LOG.warn("The kid {} is used by several keys of realm {}, only the first one is loaded", certificate.getId(), realmId);
+            }
+        }
+        if (publicKeys.isEmpty()) {
+            throw new IllegalArgumentException("None of the " + certificates.getKeys().size() + " keys of realm " + realmId + " can be loaded");
+        }
+        return publicKeys;
+    }
+}
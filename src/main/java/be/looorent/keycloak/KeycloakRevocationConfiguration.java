@@ -0,0 +1,132 @@
+package be.looorent.keycloak;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Optional settings describing how the not-before policies of Keycloak are polled, see {@link KeycloakNotBeforePoller}.
+ * Every property is prefixed by {@code keycloak.revocation}.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@ConfigurationProperties("keycloak.revocation")
+public class KeycloakRevocationConfiguration {
+
+    static final Duration DEFAULT_POLL_INTERVAL = Duration.ofMinutes(1);
+    static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(10);
+    static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(15);
+
+    private boolean pollEnabled = false;
+    private Duration pollInterval = DEFAULT_POLL_INTERVAL;
+    private String clientId;
+    private String clientSecret;
+    private List<String> clients = new ArrayList<>();
+    private Duration connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private Duration readTimeout = DEFAULT_READ_TIMEOUT;
+    private Duration timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * @return whether or not the not-before policies are polled from Keycloak
+     */
+    public boolean isPollEnabled() {
+        return pollEnabled;
+    }
+
+    public void setPollEnabled(boolean pollEnabled) {
+        this.pollEnabled = pollEnabled;
+    }
+
+    /**
+     * @return the delay between two polls
+     */
+    public Duration getPollInterval() {
+        return pollInterval;
+    }
+
+    public void setPollInterval(Duration pollInterval) {
+        if (pollInterval == null || pollInterval.isNegative() || pollInterval.isZero()) {
+            throw new IllegalArgumentException("Property keycloak.revocation.poll-interval (duration) must be positive");
+        }
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * @return the client whose service account reads the policies; it requires the roles 'view-realm' and 'view-clients' of 'realm-management'
+     */
+    public String getClientId() {
+        return clientId;
+    }
+
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+
+    /**
+     * @return the secret of this client
+     */
+    public String getClientSecret() {
+        return clientSecret;
+    }
+
+    public void setClientSecret(String clientSecret) {
+        this.clientSecret = clientSecret;
+    }
+
+    /**
+     * @return the clients whose not-before policy is polled, in addition to the policy of the realm
+     */
+    public List<String> getClients() {
+        return unmodifiableList(clients);
+    }
+
+    public void setClients(List<String> clients) {
+        this.clients = clients == null ? new ArrayList<>() : new ArrayList<>(clients);
+    }
+
+    /**
+     * @return the maximum time to establish a connection with Keycloak
+     */
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+        if (connectTimeout == null || connectTimeout.isNegative() || connectTimeout.isZero()) {
+            throw new IllegalArgumentException("Property keycloak.revocation.connect-timeout (duration) must be positive");
+        }
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return the maximum time to wait for data from Keycloak once connected
+     */
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(Duration readTimeout) {
+        if (readTimeout == null || readTimeout.isNegative() || readTimeout.isZero()) {
+            throw new IllegalArgumentException("Property keycloak.revocation.read-timeout (duration) must be positive");
+        }
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @return the maximum time of a whole poll, including the connection
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Duration timeout) {
+        if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Property keycloak.revocation.timeout (duration) must be positive");
+        }
+        this.timeout = timeout;
+    }
+}
@@ -0,0 +1,38 @@
+package be.looorent.keycloak;
+
+import java.util.Map;
+
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Not-before policies of a Keycloak realm and of some of its clients, as set in their "Revocation" tab.
+ * Tokens issued before these instants are revoked. Keycloak uses 0 when no policy has been set.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+class NotBeforePolicy {
+
+    private final long realmNotBefore;
+    private final Map<String, Long> notBeforePerClient;
+
+    NotBeforePolicy(long realmNotBefore, Map<String, Long> notBeforePerClient) {
+        if (notBeforePerClient == null) {
+            throw new IllegalArgumentException("notBeforePerClient must not be null");
+        }
+        this.realmNotBefore = realmNotBefore;
+        this.notBeforePerClient = unmodifiableMap(notBeforePerClient);
+    }
+
+    /**
+     * @return the not-before policy of the realm, in seconds since the epoch; or 0 if none
+     */
+    long getRealmNotBefore() {
+        return realmNotBefore;
+    }
+
+    /**
+     * @return the not-before policy of each polled client, in seconds since the epoch; or 0 if none
+     */
+    Map<String, Long> getNotBeforePerClient() {
+        return notBeforePerClient;
+    }
+}
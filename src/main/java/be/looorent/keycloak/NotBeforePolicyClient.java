@@ -0,0 +1,151 @@
+package be.looorent.keycloak;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micronaut.http.HttpHeaders;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.MutableHttpRequest;
+import io.micronaut.http.client.DefaultHttpClientConfiguration;
+import io.micronaut.http.client.RxHttpClient;
+import io.micronaut.http.uri.UriBuilder;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Map;
+
+import static io.micronaut.http.MediaType.APPLICATION_FORM_URLENCODED_TYPE;
+import static io.micronaut.http.MediaType.APPLICATION_JSON_TYPE;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Non-blocking HTTP client of the admin API of a Keycloak realm, that reads the not-before policies of this realm and of some of its clients.
+ * The admin API is called with a token of the service account of a client (client credentials grant), obtained again at each poll.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+class NotBeforePolicyClient implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NotBeforePolicyClient.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String GRANT_TYPE_PARAMETER = "grant_type";
+    private static final String CLIENT_CREDENTIALS = "client_credentials";
+    private static final String ACCESS_TOKEN = "access_token";
+    private static final String NOT_BEFORE = "notBefore";
+    private static final String CLIENT_ID_PARAMETER = "clientId";
+    private static final String BEARER = "Bearer ";
+
+    private final String tokenPath;
+    private final String realmPath;
+    private final String clientId;
+    private final String clientSecret;
+    private final Iterable<String> clients;
+    private final RxHttpClient httpClient;
+    private final long timeoutInMs;
+
+    NotBeforePolicyClient(String baseUrl, String realmId, KeycloakRevocationConfiguration configuration) throws MalformedURLException {
+        if (baseUrl == null) {
+            throw new IllegalArgumentException("baseUrl must not be null");
+        }
+        if (realmId == null) {
+            throw new IllegalArgumentException("realmId must not be null");
+        }
+        if (configuration == null) {
+            throw new IllegalArgumentException("configuration must not be null");
+        }
+        URL serverUrl = new URL(baseUrl);
+        DefaultHttpClientConfiguration httpConfiguration = new DefaultHttpClientConfiguration();
+        httpConfiguration.setConnectTimeout(configuration.getConnectTimeout());
+        httpConfiguration.setReadTimeout(configuration.getReadTimeout());
+        this.tokenPath = serverUrl.getPath() + "/auth/realms/" + realmId + "/protocol/openid-connect/token";
+        this.realmPath = serverUrl.getPath() + "/auth/admin/realms/" + realmId;
+        this.clientId = configuration.getClientId();
+        this.clientSecret = configuration.getClientSecret();
+        this.clients = configuration.getClients();
+        this.httpClient = RxHttpClient.create(new URL(serverUrl.getProtocol(), serverUrl.getHost(), serverUrl.getPort(), ""), httpConfiguration);
+        this.timeoutInMs = configuration.getTimeout().toMillis();
+    }
+
+    /**
+     * No thread is blocked while waiting for Keycloak.
+     * @return the current policies; or an {@link IllegalStateException} if Keycloak cannot be contacted in time or if its responses cannot be parsed
+     */
+    Single<NotBeforePolicy> fetch() {
+        return Single.defer(() -> retrieve(createTokenRequest()))
+                .map(NotBeforePolicyClient::readAccessToken)
+                .flatMap(this::fetchWith)
+                .timeout(timeoutInMs, MILLISECONDS)
+                .onErrorResumeNext(error -> {
+                    LOG.error("An error occurred when retrieving the not-before policies from {}", realmPath, error);
+                    return Single.error(new IllegalStateException("Impossible to retrieve the not-before policies with the properties you have provided for 'keycloak.base-url', 'keycloak.realm-id' and/or 'keycloak.revocation'", error));
+                });
+    }
+
+    @Override
+    public void close() {
+        httpClient.close();
+    }
+
+    private Single<NotBeforePolicy> fetchWith(String accessToken) {
+        Single<Long> realmNotBefore = retrieve(authenticated(HttpRequest.GET(realmPath), accessToken))
+                .map(json -> readNotBefore(MAPPER.readTree(json)));
+        Single<Map<String, Long>> notBeforePerClient = Flowable.fromIterable(clients)
+                .flatMapSingle(client -> fetchClientNotBefore(client, accessToken))
+                .toMap(Map.Entry::getKey, Map.Entry::getValue);
+        return Single.zip(realmNotBefore, notBeforePerClient, (realm, perClient) -> new NotBeforePolicy(realm, perClient));
+    }
+
+    /**
+     * Keycloak finds clients by their id, and answers an empty list when there is none.
+     */
+    private Single<Map.Entry<String, Long>> fetchClientNotBefore(String client, String accessToken) {
+        String path = UriBuilder.of(realmPath + "/clients").queryParam(CLIENT_ID_PARAMETER, client).build().toString();
+        return retrieve(authenticated(HttpRequest.GET(path), accessToken))
+                .<Map.Entry<String, Long>>map(json -> {
+                    JsonNode clients = MAPPER.readTree(json);
+                    if (!clients.isArray() || clients.size() == 0) {
+                        LOG.warn("Client {} does not exist in Keycloak, its not-before policy is ignored", client);
+                        return new SimpleImmutableEntry<>(client, 0L);
+                    }
+                    return new SimpleImmutableEntry<>(client, readNotBefore(clients.get(0)));
+                });
+    }
+
+    private Single<byte[]> retrieve(MutableHttpRequest<?> request) {
+        return httpClient.retrieve(request.accept(APPLICATION_JSON_TYPE), byte[].class).firstOrError();
+    }
+
+    private MutableHttpRequest<?> createTokenRequest() {
+        MutableHttpRequest<?> request = HttpRequest.POST(tokenPath, singletonMap(GRANT_TYPE_PARAMETER, CLIENT_CREDENTIALS))
+                .contentType(APPLICATION_FORM_URLENCODED_TYPE);
+        return request.basicAuth(clientId, clientSecret == null ? "" : clientSecret);
+    }
+
+    private static MutableHttpRequest<?> authenticated(MutableHttpRequest<?> request, String accessToken) {
+        return request.header(HttpHeaders.AUTHORIZATION, BEARER + accessToken);
+    }
+
+    private static String readAccessToken(byte[] json) throws IOException {
+        JsonNode accessToken = MAPPER.readTree(json).get(ACCESS_TOKEN);
+        if (accessToken == null || !accessToken.isTextual()) {
+            throw new IOException("Keycloak has responded without any access token");
+        }
+        return accessToken.asText();
+    }
+
+    private static long readNotBefore(JsonNode representation) throws IOException {
+        JsonNode notBefore = representation.get(NOT_BEFORE);
+        if (notBefore == null) {
+            return 0;
+        }
+        else if (!notBefore.canConvertToLong()) {
+            throw new IOException("Keycloak has responded with an invalid notBefore: " + notBefore);
+        }
+        return notBefore.asLong();
+    }
+}
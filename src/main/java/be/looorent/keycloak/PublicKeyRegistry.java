@@ -0,0 +1,149 @@
+package be.looorent.keycloak;
+
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.lang.System.currentTimeMillis;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Public keys of a realm, published as immutable and versioned snapshots.
+ *
+ * A lookup is a single volatile read followed by a read of an immutable map: readers never lock nor retry,
+ * whatever the number of cores and of concurrent swaps.
+ * A swap builds the next snapshot aside and publishes it atomically, so that readers see either all the previous keys or all the new ones.
+ *
+ * The keys that a swap removes are retired rather than forgotten: they are still found for a grace period
+ * ({@link KeycloakPublicKeysConfiguration#getRetiredKeyGracePeriod()}), so that the tokens signed just before a key rotation are not rejected
+ * while they are in flight.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+final class PublicKeyRegistry {
+
+    private final long gracePeriodInMs;
+    private final AtomicReference<Snapshot> snapshot;
+
+    PublicKeyRegistry(Duration gracePeriod) {
+        if (gracePeriod == null || gracePeriod.isNegative()) {
+            throw new IllegalArgumentException("gracePeriod must not be negative");
+        }
+        this.gracePeriodInMs = gracePeriod.toMillis();
+        this.snapshot = new AtomicReference<>();
+    }
+
+    /**
+     * @param kid a key id
+     * @return the public key identified by kid, among the current keys and the keys retired for less than the grace period; or null if none
+     */
+    PublicKey find(String kid) {
+        Snapshot current = snapshot.get();
+        if (current == null) {
+            return null;
+        }
+        PublicKey key = current.keys.get(kid);
+        if (key != null || current.retiredKeys.isEmpty()) {
+            return key;
+        }
+        RetiredKey retiredKey = current.retiredKeys.get(kid);
+        return retiredKey != null && currentTimeMillis() < retiredKey.expiresAtInMs ? retiredKey.key : null;
+    }
+
+    boolean isLoaded() {
+        return snapshot.get() != null;
+    }
+
+    /**
+     * @return the current keys, without the retired ones
+     */
+    Map<String, PublicKey> getKeys() {
+        Snapshot current = snapshot.get();
+        return current == null ? emptyMap() : current.keys;
+    }
+
+    /**
+     * @return the version of the current keys, incremented by each swap; or 0 if no key has been published yet
+     */
+    long getVersion() {
+        Snapshot current = snapshot.get();
+        return current == null ? 0 : current.version;
+    }
+
+    /**
+     * @return the number of current keys, without the retired ones
+     */
+    int countKeys() {
+        Snapshot current = snapshot.get();
+        return current == null ? 0 : current.keys.size();
+    }
+
+    int countRetiredKeys() {
+        Snapshot current = snapshot.get();
+        return current == null ? 0 : current.retiredKeys.size();
+    }
+
+    /**
+     * Replaces the current keys. The keys that are not part of them anymore are retired for the grace period.
+     * @param keys the new keys, which must not be modified afterwards
+     * @return the version of these keys
+     */
+    long publish(Map<String, PublicKey> keys) {
+        return publish(keys, currentTimeMillis());
+    }
+
+    long publish(Map<String, PublicKey> keys, long nowInMs) {
+        Map<String, PublicKey> publishedKeys = unmodifiableMap(keys);
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = snapshot.get();
+            next = current == null ? new Snapshot(1, publishedKeys, emptyMap()) : current.next(publishedKeys, nowInMs, gracePeriodInMs);
+        } while (!snapshot.compareAndSet(current, next));
+        return next.version;
+    }
+
+    private static final class Snapshot {
+
+        private final long version;
+        private final Map<String, PublicKey> keys;
+        private final Map<String, RetiredKey> retiredKeys;
+
+        private Snapshot(long version, Map<String, PublicKey> keys, Map<String, RetiredKey> retiredKeys) {
+            this.version = version;
+            this.keys = keys;
+            this.retiredKeys = retiredKeys;
+        }
+
+        private Snapshot next(Map<String, PublicKey> nextKeys, long nowInMs, long gracePeriodInMs) {
+            if (gracePeriodInMs == 0) {
+                return new Snapshot(version + 1, nextKeys, emptyMap());
+            }
+            Map<String, RetiredKey> nextRetiredKeys = new HashMap<>();
+            retiredKeys.forEach((kid, retiredKey) -> {
+                if (nowInMs < retiredKey.expiresAtInMs && !nextKeys.containsKey(kid)) {
+                    nextRetiredKeys.put(kid, retiredKey);
+                }
+            });
+            keys.forEach((kid, key) -> {
+                if (!nextKeys.containsKey(kid)) {
+                    nextRetiredKeys.put(kid, new RetiredKey(key, nowInMs + gracePeriodInMs));
+                }
+            });
+            return new Snapshot(version + 1, nextKeys, nextRetiredKeys.isEmpty() ? emptyMap() : unmodifiableMap(nextRetiredKeys));
+        }
+    }
+
+    private static final class RetiredKey {
+
+        private final PublicKey key;
+        private final long expiresAtInMs;
+
+        private RetiredKey(PublicKey key, long expiresAtInMs) {
+            this.key = key;
+            this.expiresAtInMs = expiresAtInMs;
+        }
+    }
+}
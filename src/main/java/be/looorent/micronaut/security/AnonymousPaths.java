@@ -0,0 +1,244 @@
+package be.looorent.micronaut.security;
+
+import io.micronaut.context.annotation.Value;
+import io.micronaut.http.HttpMethod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import java.util.Arrays;
+
+/**
+ * Paths of the requests that {@link SecurityFilter} lets through without reading any token (e.g. health checks, metrics, static assets),
+ * so that the filter can be mounted on '/**'.
+ *
+ * The patterns are listed in 'security.anonymous.paths', separated by commas. A pattern can be restricted to some methods,
+ * separated by '|' (e.g. 'GET|HEAD /static/**'); otherwise, it applies to all methods.
+ * In a pattern, '*' matches a single segment or a part of it (e.g. '/static/*.css') and '**' matches any number of segments.
+ *
+ * The patterns are compiled once into a tree of segments, so that matching a request walks its path once, without any allocation.
+ * A path with a '.' or '..' segment, a percent-encoded character, a backslash or a ';' never matches: such a path might be routed
+ * elsewhere once normalized, so its token is always verified.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Singleton
+class AnonymousPaths {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AnonymousPaths.class);
+    private static final String ANY_SEGMENT = "*";
+    private static final String ANY_SEGMENTS = "**";
+    private static final int ALL_METHODS = -1;
+    private static final int NON_STANDARD_METHOD = 1 << 31;
+
+    private final Node root;
+
+    AnonymousPaths(@Value("${security.anonymous.paths:}") String patterns) {
+        Node tree = new Node();
+        int count = 0;
+        for (String pattern : patterns == null ? new String[0] : patterns.split(",")) {
+            if (!pattern.trim().isEmpty()) {
+                add(tree, pattern.trim());
+                count++;
+            }
+        }
+        this.root = count == 0 ? null : tree;
+        if (count > 0) {
+            LOG.info("The tokens of {} anonymous path pattern(s) are not verified", count);
+        }
+    }
+
+    /**
+     * @param method the method of a request; null for a non-standard method
+     * @param path the path of this request, without its query
+     * @return true if this request matches one of the anonymous patterns
+     */
+    boolean matches(HttpMethod method, String path) {
+        if (root == null || path == null || path.isEmpty() || path.charAt(0) != '/' || !isNormalized(path)) {
+            return false;
+        }
+        return matches(root, path, 1, bitOf(method));
+    }
+
+    private static boolean matches(Node node, String path, int start, int methodBit) {
+        int length = path.length();
+        while (start < length && path.charAt(start) == '/') {
+            start++;
+        }
+        if (start >= length) {
+            return node.accepts(methodBit) || (node.anySegments != null && node.anySegments.accepts(methodBit));
+        }
+        int end = path.indexOf('/', start);
+        if (end < 0) {
+            end = length;
+        }
+        for (int index = 0; index < node.literals.length; index++) {
+            String literal = node.literals[index];
+            if (literal.length() == end - start && path.regionMatches(start, literal, 0, literal.length())
+                    && matches(node.literalChildren[index], path, end, methodBit)) {
+                return true;
+            }
+        }
+        for (int index = 0; index < node.globs.length; index++) {
+            if (globMatches(node.globs[index], 0, path, start, end) && matches(node.globChildren[index], path, end, methodBit)) {
+                return true;
+            }
+        }
+        if (node.anySegment != null && matches(node.anySegment, path, end, methodBit)) {
+            return true;
+        }
+        if (node.anySegments != null) {
+            if (node.anySegments.accepts(methodBit)) {
+                return true;
+            }
+            int from = start;
+            while (true) {
+                if (matches(node.anySegments, path, from, methodBit)) {
+                    return true;
+                }
+                int next = path.indexOf('/', from);
+                if (next < 0) {
+                    return false;
+                }
+                from = next + 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the region [start, end[ of this path matches this glob, where '*' matches any characters
+     */
+    private static boolean globMatches(String glob, int globIndex, String path, int start, int end) {
+        while (globIndex < glob.length()) {
+            char expected = glob.charAt(globIndex);
+            if (expected == '*') {
+                for (int from = end; from >= start; from--) {
+                    if (globMatches(glob, globIndex + 1, path, from, end)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (start >= end || path.charAt(start) != expected) {
+                return false;
+            }
+            globIndex++;
+            start++;
+        }
+        return start == end;
+    }
+
+    private static boolean isNormalized(String path) {
+        int segmentStart = 0;
+        for (int index = 0; index <= path.length(); index++) {
+            char character = index < path.length() ? path.charAt(index) : '/';
+            if (character == '%' || character == '\\' || character == ';') {
+                return false;
+            }
+            if (character == '/') {
+                int segmentLength = index - segmentStart;
+                boolean dotSegment = segmentLength > 0 && segmentLength <= 2 && path.charAt(segmentStart) == '.'
+                        && path.charAt(index - 1) == '.';
+                if (dotSegment) {
+                    return false;
+                }
+                segmentStart = index + 1;
+            }
+        }
+        return true;
+    }
+
+    private static int bitOf(HttpMethod method) {
+        return method == null ? NON_STANDARD_METHOD : 1 << method.ordinal();
+    }
+
+    private static void add(Node root, String rule) {
+        String[] parts = rule.split("\\s+");
+        if (parts.length > 2 || !parts[parts.length - 1].startsWith("/")) {
+            throw invalidPattern(rule);
+        }
+        int methods = parts.length == 1 ? ALL_METHODS : parseMethods(parts[0], rule);
+        Node node = root;
+        boolean afterAnySegments = false;
+        for (String segment : parts[parts.length - 1].split("/")) {
+            if (segment.isEmpty() || (afterAnySegments && segment.equals(ANY_SEGMENTS))) {
+                continue;
+            }
+            if (segment.equals(".") || segment.equals("..") || segment.contains("%") || segment.contains("\\") || segment.contains(";")) {
+                throw invalidPattern(rule);
+            }
+            afterAnySegments = segment.equals(ANY_SEGMENTS);
+            node = node.child(segment, rule);
+        }
+        node.methods |= methods;
+    }
+
+    private static int parseMethods(String names, String rule) {
+        int methods = 0;
+        for (String name : names.split("\\|")) {
+            try {
+                methods |= bitOf(HttpMethod.valueOf(name.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw invalidPattern(rule);
+            }
+        }
+        return methods;
+    }
+
+    private static IllegalArgumentException invalidPattern(String rule) {
+        return new IllegalArgumentException("Property 'security.anonymous.paths' (list) must contain patterns such as '/health/**' or 'GET|HEAD /static/**', but '" + rule + "' is not valid");
+    }
+
+    private static final class Node {
+
+        private String[] literals = new String[0];
+        private Node[] literalChildren = new Node[0];
+        private String[] globs = new String[0];
+        private Node[] globChildren = new Node[0];
+        private Node anySegment;
+        private Node anySegments;
+        private int methods;
+
+        private boolean accepts(int methodBit) {
+            return (methods & methodBit) != 0;
+        }
+
+        private Node child(String segment, String rule) {
+            if (segment.equals(ANY_SEGMENTS)) {
+                return anySegments == null ? anySegments = new Node() : anySegments;
+            }
+            else if (segment.equals(ANY_SEGMENT)) {
+                return anySegment == null ? anySegment = new Node() : anySegment;
+            }
+            else if (segment.contains(ANY_SEGMENTS)) {
+                throw invalidPattern(rule);
+            }
+            else if (segment.contains(ANY_SEGMENT)) {
+                int index = Arrays.asList(globs).indexOf(segment);
+                if (index >= 0) {
+                    return globChildren[index];
+                }
+                Node child = new Node();
+                globs = append(globs, segment);
+                globChildren = append(globChildren, child);
+                return child;
+            }
+            else {
+                int index = Arrays.asList(literals).indexOf(segment);
+                if (index >= 0) {
+                    return literalChildren[index];
+                }
+                Node child = new Node();
+                literals = append(literals, segment);
+                literalChildren = append(literalChildren, child);
+                return child;
+            }
+        }
+
+        private static <T> T[] append(T[] values, T value) {
+            T[] appended = Arrays.copyOf(values, values.length + 1);
+            appended[values.length] = value;
+            return appended;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package be.looorent.micronaut.security;
+
+import io.jsonwebtoken.Claims;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Contract that can be implemented by the adapter's user to build their {@link SecurityContext} without blocking the calling thread,
+ * e.g. to enrich it with an asynchronous database driver or with batched lookups.
+ * The default implementation {@link DefaultAsyncSecurityContextFactory} delegates to the synchronous {@link SecurityContextFactory}.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+public interface AsyncSecurityContextFactory {
+
+    /**
+     * Starting from a JWT's body, builds a context of security.
+     * @param tokenContent a JWT's body; must not be null
+     * @return a stage completed with the built security context
+     */
+    CompletionStage<SecurityContext> createSecurityContext(Claims tokenContent);
+}
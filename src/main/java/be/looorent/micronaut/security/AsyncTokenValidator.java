@@ -0,0 +1,20 @@
+package be.looorent.micronaut.security;
+
+import io.jsonwebtoken.Claims;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Validates the content of a token without blocking the calling thread, e.g. with an asynchronous database driver.
+ * The default implementation {@link DefaultAsyncTokenValidator} delegates to the synchronous {@link TokenValidator}.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+public interface AsyncTokenValidator {
+
+    /**
+     * Validates each attribute that is relevant to check in a JWT.
+     * @param tokenContent a token's body
+     * @return a stage completed once this token is valid; or completed with a {@link SecurityException} if a validation error occurs
+     */
+    CompletionStage<Void> validate(Claims tokenContent);
+}
@@ -0,0 +1,33 @@
+package be.looorent.micronaut.security;
+
+/**
+ * The security context of a verified token, along with the roles it grants.
+ * It never reaches the application: it is only returned by {@link RoleGrantingTokenParser#parseGrantingRolesAsync(String)},
+ * then unwrapped by {@link SecurityFilter}.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+final class AuthorizedSecurityContext implements SecurityContext {
+
+    private final SecurityContext context;
+    private final GrantedRoles roles;
+
+    AuthorizedSecurityContext(SecurityContext context, GrantedRoles roles) {
+        this.context = context;
+        this.roles = roles;
+    }
+
+    SecurityContext getContext() {
+        return context;
+    }
+
+    GrantedRoles getRoles() {
+        return roles;
+    }
+
+    /**
+     * @return the security context wrapped in this context, or this context itself if it is not wrapped
+     */
+    static SecurityContext unwrap(SecurityContext context) {
+        return context instanceof AuthorizedSecurityContext ? ((AuthorizedSecurityContext) context).context : context;
+    }
+}
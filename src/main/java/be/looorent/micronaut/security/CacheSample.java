@@ -0,0 +1,46 @@
+package be.looorent.micronaut.security;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples of the entries of a concurrent cache, among which the caches evict their least recently used entry
+ * (see {@link VerifiedTokenCache} and {@link KeycloakIntrospectionTokenParser}) or a random one (see {@link SignatureVerifiers}).
+ *
+ * The table of the cache is split in halves, one of them being picked at random, until a region of about the size of the sample is left:
+ * each sample is taken in a few steps, from anywhere in the cache, without copying nor locking it.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+final class CacheSample {
+
+    private CacheSample() {
+    }
+
+    /**
+     * @param entries the entries of a cache, whose spliterator splits its table in halves (e.g. a {@link java.util.concurrent.ConcurrentHashMap})
+     * @param size the maximum size of the sample
+     * @return at most size entries of a random region of this cache; possibly none, when this region is empty
+     */
+    static <K, V> List<Map.Entry<K, V>> of(Map<K, V> entries, int size) {
+        Spliterator<Map.Entry<K, V>> region = entries.entrySet().spliterator();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (region.estimateSize() > size) {
+            Spliterator<Map.Entry<K, V>> firstHalf = region.trySplit();
+            if (firstHalf == null) {
+                break;
+            }
+            else if (random.nextBoolean()) {
+                region = firstHalf;
+            }
+        }
+        List<Map.Entry<K, V>> sample = new ArrayList<>(size);
+        boolean hasNext = true;
+        while (hasNext && sample.size() < size) {
+            hasNext = region.tryAdvance(sample::add);
+        }
+        return sample;
+    }
+}
@@ -0,0 +1,23 @@
+package be.looorent.micronaut.security;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.RetentionPolicy.CLASS;
+
+/**
+ * Maps a parameter of the constructor of a {@link ClaimsMapping} type to a claim of the token.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Documented
+@Retention(CLASS)
+@Target(PARAMETER)
+public @interface Claim {
+
+    /**
+     * @return the name of a claim, or the path of a nested claim whose members are separated by dots (e.g. 'resource_access.app.roles')
+     */
+    String value();
+}
@@ -0,0 +1,168 @@
+package be.looorent.micronaut.security;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.jsonwebtoken.Claims;
+import io.micronaut.core.annotation.Internal;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static be.looorent.micronaut.security.SecurityErrorType.JWT_MALFORMED;
+
+/**
+ * Paths of the claims read by a factory generated for a {@link ClaimsMapping} type, compiled once into a tree of claim names.
+ *
+ * When the claims come from a verified token, all these paths are read in a single pass over its payload: the claims
+ * that are not mapped are skipped without being decoded, and a nested claim is decoded without decoding its parents.
+ * Other claims (e.g. introspected by Keycloak) are navigated as maps.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Internal
+public final class ClaimPaths {
+
+    private static final ObjectReader VALUE_READER = new ObjectMapper().readerFor(Object.class);
+
+    private final String[][] segmentsPerPath;
+    private final Node root;
+
+    private ClaimPaths(String[][] segmentsPerPath, Node root) {
+        this.segmentsPerPath = segmentsPerPath;
+        this.root = root;
+    }
+
+    /**
+     * @param paths names of claims, or paths of nested claims whose members are separated by dots
+     */
+    public static ClaimPaths of(String... paths) {
+        String[][] segmentsPerPath = new String[paths.length][];
+        Node root = new Node();
+        for (int index = 0; index < paths.length; index++) {
+            String path = paths[index];
+            if (path == null || path.isEmpty() || path.startsWith(".") || path.endsWith(".") || path.contains("..")) {
+                throw new IllegalArgumentException("The claim path '" + path + "' is not valid");
+            }
+            segmentsPerPath[index] = path.split("\\.");
+            Node node = root;
+            for (String segment : segmentsPerPath[index]) {
+                node = node.children.computeIfAbsent(segment, name -> new Node());
+            }
+            node.indexes = append(node.indexes, index);
+        }
+        return new ClaimPaths(segmentsPerPath, root);
+    }
+
+    public int size() {
+        return segmentsPerPath.length;
+    }
+
+    /**
+     * @return the value of each path, in the order of the paths; null when a claim is missing
+     * @throws SecurityException if the payload of these claims is not valid JSON
+     */
+    public Object[] extract(Claims claims) {
+        Object[] values = new Object[segmentsPerPath.length];
+        if (claims instanceof LazyClaims) {
+            try (JsonParser parser = ((LazyClaims) claims).createPayloadParser()) {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    throw JWT_MALFORMED.toException();
+                }
+                readObject(parser, root, values);
+            } catch (IOException e) {
+                throw JWT_MALFORMED.toException();
+            }
+        }
+        else if (claims != null) {
+            for (int index = 0; index < segmentsPerPath.length; index++) {
+                values[index] = navigate(claims, segmentsPerPath[index], 0);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * The last occurrence of a duplicated claim wins, as with {@link LazyClaims}.
+     */
+    private void readObject(JsonParser parser, Node node, Object[] values) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            Node child = node.children.get(parser.getCurrentName());
+            JsonToken token = parser.nextToken();
+            if (child == null) {
+                parser.skipChildren();
+            }
+            else if (child.indexes != null) {
+                Object value = readValue(parser, token);
+                for (int index : child.indexes) {
+                    values[index] = value;
+                }
+                assignDescendants(child, value, values);
+            }
+            else if (token == JsonToken.START_OBJECT) {
+                readObject(parser, child, values);
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * When both a claim and some of its members are mapped, the members are read from the decoded claim.
+     */
+    private void assignDescendants(Node node, Object value, Object[] values) {
+        for (Map.Entry<String, Node> child : node.children.entrySet()) {
+            Object childValue = value instanceof Map ? ((Map<?, ?>) value).get(child.getKey()) : null;
+            if (child.getValue().indexes != null) {
+                for (int index : child.getValue().indexes) {
+                    values[index] = childValue;
+                }
+            }
+            assignDescendants(child.getValue(), childValue, values);
+        }
+    }
+
+    private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            default:
+                return VALUE_READER.readValue(parser);
+        }
+    }
+
+    private static Object navigate(Object value, String[] segments, int depth) {
+        if (depth == segments.length || value == null) {
+            return value;
+        }
+        return value instanceof Map ? navigate(((Map<?, ?>) value).get(segments[depth]), segments, depth + 1) : null;
+    }
+
+    private static int[] append(int[] indexes, int index) {
+        if (indexes == null) {
+            return new int[] { index };
+        }
+        int[] appended = new int[indexes.length + 1];
+        System.arraycopy(indexes, 0, appended, 0, indexes.length);
+        appended[indexes.length] = index;
+        return appended;
+    }
+
+    private static final class Node {
+
+        private final Map<String, Node> children = new HashMap<>();
+        private int[] indexes;
+    }
+}
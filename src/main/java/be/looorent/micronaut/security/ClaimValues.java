@@ -0,0 +1,133 @@
+package be.looorent.micronaut.security;
+
+import io.jsonwebtoken.RequiredTypeException;
+import io.micronaut.core.annotation.Internal;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Collections.unmodifiableSet;
+
+/**
+ * Conversions of the values extracted by {@link ClaimPaths} to the types of the parameters annotated with {@link Claim}.
+ * A missing claim is converted to null, or to the default value of a primitive type.
+ * A claim of another type is rejected with a {@link RequiredTypeException}, as with {@link io.jsonwebtoken.Claims#get(String, Class)}.
+ *
+ * Dates are numbers of seconds since the epoch, as the registered date claims of a JWT.
+ * Collections are read-only.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Internal
+public final class ClaimValues {
+
+    private ClaimValues() {
+    }
+
+    public static String asString(Object value, String path) {
+        return value == null ? null : cast(value, String.class, path);
+    }
+
+    public static Boolean asBoolean(Object value, String path) {
+        return value == null ? null : cast(value, Boolean.class, path);
+    }
+
+    public static boolean asBooleanValue(Object value, String path) {
+        return value != null && cast(value, Boolean.class, path);
+    }
+
+    public static Integer asInteger(Object value, String path) {
+        if (value == null) {
+            return null;
+        }
+        long number = asNumber(value, path).longValue();
+        if (number != (int) number) {
+            throw new RequiredTypeException("Expected claim " + path + " to be an integer, but was " + value);
+        }
+        return (int) number;
+    }
+
+    public static int asIntValue(Object value, String path) {
+        return value == null ? 0 : asInteger(value, path);
+    }
+
+    public static Long asLong(Object value, String path) {
+        return value == null ? null : asNumber(value, path).longValue();
+    }
+
+    public static long asLongValue(Object value, String path) {
+        return value == null ? 0 : asNumber(value, path).longValue();
+    }
+
+    public static Double asDouble(Object value, String path) {
+        return value == null ? null : asNumber(value, path).doubleValue();
+    }
+
+    public static double asDoubleValue(Object value, String path) {
+        return value == null ? 0 : asNumber(value, path).doubleValue();
+    }
+
+    public static Instant asInstant(Object value, String path) {
+        return value == null ? null : Instant.ofEpochSecond(asNumber(value, path).longValue());
+    }
+
+    public static Date asDate(Object value, String path) {
+        return value == null ? null : new Date(asNumber(value, path).longValue() * 1000);
+    }
+
+    public static List<String> asStringList(Object value, String path) {
+        if (value == null) {
+            return null;
+        }
+        List<?> list = cast(value, List.class, path);
+        requireStrings(list, path);
+        @SuppressWarnings("unchecked")
+        List<String> strings = (List<String>) list;
+        return unmodifiableList(strings);
+    }
+
+    public static Set<String> asStringSet(Object value, String path) {
+        if (value == null) {
+            return null;
+        }
+        Collection<?> collection = cast(value, Collection.class, path);
+        requireStrings(collection, path);
+        @SuppressWarnings("unchecked")
+        Collection<String> strings = (Collection<String>) collection;
+        return unmodifiableSet(new HashSet<>(strings));
+    }
+
+    public static Map<String, Object> asMap(Object value, String path) {
+        if (value == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> map = (Map<String, Object>) cast(value, Map.class, path);
+        return unmodifiableMap(map);
+    }
+
+    private static Number asNumber(Object value, String path) {
+        return cast(value, Number.class, path);
+    }
+
+    private static void requireStrings(Collection<?> values, String path) {
+        for (Object value : values) {
+            if (!(value instanceof String)) {
+                throw new RequiredTypeException("Expected claim " + path + " to only contain strings, but it contains " + value);
+            }
+        }
+    }
+
+    private static <T> T cast(Object value, Class<T> requiredType, String path) {
+        if (!requiredType.isInstance(value)) {
+            throw new RequiredTypeException("Expected claim " + path + " to be of type: " + requiredType + ", but was " + value.getClass());
+        }
+        return requiredType.cast(value);
+    }
+}
@@ -0,0 +1,22 @@
+package be.looorent.micronaut.security;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.CLASS;
+
+/**
+ * Generates a {@link SecurityContextFactory} for a {@link SecurityContext} type at compile time, by the annotation processor of keycloak-micronaut-adapter-processor.
+ *
+ * This type must declare a single constructor whose parameters are all annotated with {@link Claim}.
+ * The generated factory, named after this type with the 'ClaimsFactory' suffix, reads all these claims in a single pass
+ * over the payload of the token, without reflection. It replaces {@link DefaultSecurityContextFactory}.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Documented
+@Retention(CLASS)
+@Target(TYPE)
+public @interface ClaimsMapping {
+}
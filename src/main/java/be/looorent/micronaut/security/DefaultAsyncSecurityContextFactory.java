@@ -0,0 +1,39 @@
+package be.looorent.micronaut.security;
+
+import io.jsonwebtoken.Claims;
+
+import javax.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * Default implementation that builds a {@link SecurityContext} with the synchronous {@link SecurityContextFactory}, in the calling thread.
+ * To override this implementation, @{@link io.micronaut.context.annotation.Replaces} must be set on
+ * the replacement implementation.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Singleton
+public class DefaultAsyncSecurityContextFactory implements AsyncSecurityContextFactory {
+
+    private final SecurityContextFactory securityContextFactory;
+
+    public DefaultAsyncSecurityContextFactory(SecurityContextFactory securityContextFactory) {
+        if (securityContextFactory == null) {
+            throw new IllegalArgumentException("No implementation of SecurityContextFactory has been found");
+        }
+        this.securityContextFactory = securityContextFactory;
+    }
+
+    @Override
+    public CompletionStage<SecurityContext> createSecurityContext(Claims tokenContent) {
+        try {
+            return completedFuture(securityContextFactory.createSecurityContext(tokenContent));
+        } catch (RuntimeException e) {
+            CompletableFuture<SecurityContext> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e);
+            return failure;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package be.looorent.micronaut.security;
+
+import io.jsonwebtoken.Claims;
+
+import javax.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * Default implementation that validates a JWT's body with the synchronous {@link TokenValidator}, in the calling thread.
+ * To override this implementation, @{@link io.micronaut.context.annotation.Replaces} must be set on
+ * the replacement implementation.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Singleton
+public class DefaultAsyncTokenValidator implements AsyncTokenValidator {
+
+    private final TokenValidator tokenValidator;
+
+    public DefaultAsyncTokenValidator(TokenValidator tokenValidator) {
+        if (tokenValidator == null) {
+            throw new IllegalArgumentException("No implementation of TokenValidator has been found");
+        }
+        this.tokenValidator = tokenValidator;
+    }
+
+    @Override
+    public CompletionStage<Void> validate(Claims tokenContent) {
+        try {
+            tokenValidator.validate(tokenContent);
+            return completedFuture(null);
+        } catch (RuntimeException e) {
+            CompletableFuture<Void> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e);
+            return failure;
+        }
+    }
+}
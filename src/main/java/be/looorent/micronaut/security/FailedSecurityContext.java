@@ -1,5 +1,8 @@
 package be.looorent.micronaut.security;
 
+import java.util.EnumMap;
+import java.util.Map;
+
 /**
  * A security context that as either failed a token validation
  * or that caught an unexpected error during this validation.
@@ -8,6 +11,9 @@ package be.looorent.micronaut.security;
  */
 class FailedSecurityContext implements SecurityContext {
 
+    static final String UNEXPECTED_ERROR_MESSAGE = "An unexpected error occurred during the authentication";
+    private static final Map<SecurityErrorType, FailedSecurityContext> SHARED_FAILURES = createSharedFailures();
+
     private final Throwable exception;
     private final String message;
     private final String reason;
@@ -25,18 +31,31 @@ class FailedSecurityContext implements SecurityContext {
 
     static final FailedSecurityContext unexpectedErrorDuringVerification(Throwable exception) {
         return new FailedSecurityContext(exception,
-                "An unexpected error occurred during the authentication",
+                UNEXPECTED_ERROR_MESSAGE,
                 "internal_error",
                 true);
     }
 
     static final FailedSecurityContext securityErrorFound(SecurityException exception) {
+        FailedSecurityContext sharedFailure = SHARED_FAILURES.get(exception.getType());
+        if (sharedFailure != null && sharedFailure.exception == exception) {
+            return sharedFailure;
+        }
         return new FailedSecurityContext(exception,
                 exception.getMessage(),
                 "unauthorized",
                 false);
     }
 
+    private static Map<SecurityErrorType, FailedSecurityContext> createSharedFailures() {
+        Map<SecurityErrorType, FailedSecurityContext> failures = new EnumMap<>(SecurityErrorType.class);
+        for (SecurityErrorType type : SecurityErrorType.values()) {
+            SecurityException exception = type.toException();
+            failures.put(type, new FailedSecurityContext(exception, exception.getMessage(), "unauthorized", false));
+        }
+        return failures;
+    }
+
     public Throwable getException() {
         return exception;
     }
@@ -0,0 +1,205 @@
+package be.looorent.micronaut.security;
+
+import io.micronaut.context.annotation.Value;
+import io.micronaut.http.HttpRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counts the authentication failures of each client, so that a client that keeps sending invalid tokens
+ * is rejected before its token is even read (see {@link SecurityFilter}).
+ *
+ * Each client has a token bucket of 'security.throttle.max-failures' failures, refilled over 'security.throttle.period'.
+ * A bucket is kept as the single instant at which it will be full again, so that a failure is recorded with a compare-and-set
+ * and a check is a single read, without any lock nor allocation.
+ *
+ * Buckets live in a table of a fixed size ('security.throttle.max-clients'), where each client hashes to a stripe of a few slots.
+ * A bucket that is full again is forgotten: its slot is reused by the next client that fails.
+ * When all the slots of a stripe are in use, the bucket that will be full the soonest is evicted, so the memory stays bounded.
+ *
+ * Clients are identified by the value of the header 'security.throttle.key-header' when it is set (e.g. behind a proxy),
+ * or by their remote address.
+ * This throttle is disabled by default ('security.throttle.enabled').
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Singleton
+class FailureThrottle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FailureThrottle.class);
+    private static final int SLOTS_PER_STRIPE = 4;
+    private static final int MAX_ATTEMPTS = 8;
+
+    private final boolean enabled;
+    private final long periodInNanos;
+    private final long intervalInNanos;
+    private final String keyHeader;
+    private final AtomicReferenceArray<Bucket> buckets;
+    private final int mask;
+
+    FailureThrottle(@Value("${security.throttle.enabled:false}") boolean enabled,
+                    @Value("${security.throttle.max-failures:20}") int maxFailures,
+                    @Value("${security.throttle.period:1m}") Duration period,
+                    @Value("${security.throttle.max-clients:10000}") int maxClients,
+                    @Value("${security.throttle.key-header:}") String keyHeader) {
+        if (maxFailures <= 0) {
+            throw new IllegalArgumentException("Property 'security.throttle.max-failures' (integer) must be positive");
+        }
+        if (period == null || period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("Property 'security.throttle.period' (duration) must be positive");
+        }
+        if (maxClients <= 0) {
+            throw new IllegalArgumentException("Property 'security.throttle.max-clients' (integer) must be positive");
+        }
+        this.enabled = enabled;
+        this.periodInNanos = period.toNanos();
+        this.intervalInNanos = Math.max(1, periodInNanos / maxFailures);
+        this.keyHeader = keyHeader == null || keyHeader.isEmpty() ? null : keyHeader;
+        int size = Integer.highestOneBit(Math.max(SLOTS_PER_STRIPE, maxClients) - 1) << 1;
+        this.buckets = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the client that sends this request; or null if it cannot be identified, in which case it is never throttled
+     */
+    String clientOf(HttpRequest<?> request) {
+        if (keyHeader != null) {
+            String key = request.getHeaders().get(keyHeader);
+            if (key != null) {
+                return key;
+            }
+        }
+        InetSocketAddress address = request.getRemoteAddress();
+        return address == null ? null : address.getHostString();
+    }
+
+    /**
+     * @return the minimum delay before a throttled client can fail again
+     */
+    Duration getRetryDelay() {
+        return Duration.ofNanos(intervalInNanos);
+    }
+
+    boolean isThrottled(String client) {
+        return isThrottled(client, System.nanoTime());
+    }
+
+    void recordFailure(String client) {
+        recordFailure(client, System.nanoTime());
+    }
+
+    /**
+     * A client is throttled when less than one failure is left in its bucket.
+     */
+    boolean isThrottled(String client, long nowInNanos) {
+        if (client == null) {
+            return false;
+        }
+        Bucket bucket = find(client, hashOf(client));
+        return bucket != null && bucket.fullAtInNanos.get() - nowInNanos > periodInNanos - intervalInNanos;
+    }
+
+    /**
+     * Takes a failure from the bucket of this client, which never goes below empty: a client is let in again
+     * as soon as a failure has been refilled, however many requests it has sent while throttled.
+     */
+    void recordFailure(String client, long nowInNanos) {
+        if (client == null) {
+            return;
+        }
+        int hash = hashOf(client);
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Bucket bucket = find(client, hash);
+            if (bucket == null) {
+                bucket = insert(client, hash, nowInNanos);
+            }
+            if (bucket != null) {
+                take(bucket, nowInNanos);
+                return;
+            }
+        }
+        LOG.debug("The failure of client {} has not been recorded because of concurrent failures", client);
+    }
+
+    private void take(Bucket bucket, long nowInNanos) {
+        long fullAt;
+        long next;
+        do {
+            fullAt = bucket.fullAtInNanos.get();
+            next = Math.min(Math.max(fullAt, nowInNanos) + intervalInNanos, nowInNanos + periodInNanos);
+        } while (!bucket.fullAtInNanos.compareAndSet(fullAt, next));
+    }
+
+    private Bucket find(String client, int hash) {
+        int stripe = hash & mask & ~(SLOTS_PER_STRIPE - 1);
+        for (int slot = stripe; slot < stripe + SLOTS_PER_STRIPE; slot++) {
+            Bucket bucket = buckets.get(slot);
+            if (bucket != null && bucket.hash == hash && bucket.client.equals(client)) {
+                return bucket;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the bucket inserted for this client; or null if another thread has changed the stripe meanwhile
+     */
+    private Bucket insert(String client, int hash, long nowInNanos) {
+        int stripe = hash & mask & ~(SLOTS_PER_STRIPE - 1);
+        int evictedSlot = stripe;
+        Bucket evicted = null;
+        long evictedFullAt = Long.MAX_VALUE;
+        for (int slot = stripe; slot < stripe + SLOTS_PER_STRIPE; slot++) {
+            Bucket bucket = buckets.get(slot);
+            if (bucket == null) {
+                evictedSlot = slot;
+                evicted = null;
+                break;
+            }
+            long fullAt = bucket.fullAtInNanos.get();
+            if (fullAt <= nowInNanos) {
+                evictedSlot = slot;
+                evicted = bucket;
+                break;
+            }
+            else if (evicted == null || fullAt < evictedFullAt) {
+                evictedSlot = slot;
+                evicted = bucket;
+                evictedFullAt = fullAt;
+            }
+        }
+        Bucket inserted = new Bucket(client, hash, nowInNanos);
+        return buckets.compareAndSet(evictedSlot, evicted, inserted) ? inserted : null;
+    }
+
+    private static int hashOf(String client) {
+        int hash = client.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    private static final class Bucket {
+
+        private final String client;
+        private final int hash;
+        private final AtomicLong fullAtInNanos;
+
+        private Bucket(String client, int hash, long fullAtInNanos) {
+            this.client = client;
+            this.hash = hash;
+            this.fullAtInNanos = new AtomicLong(fullAtInNanos);
+        }
+    }
+}
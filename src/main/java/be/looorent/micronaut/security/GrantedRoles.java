@@ -0,0 +1,30 @@
+package be.looorent.micronaut.security;
+
+/**
+ * Roles granted by a verified token, as a bitset whose indexes are assigned by {@link RoleAuthorizer}.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+final class GrantedRoles {
+
+    static final GrantedRoles NONE = new GrantedRoles(new long[0]);
+
+    private final long[] bits;
+
+    GrantedRoles(long[] bits) {
+        this.bits = bits;
+    }
+
+    /**
+     * @param mask a bitset of roles
+     * @return whether or not at least one of these roles is granted
+     */
+    boolean grantsAnyOf(long[] mask) {
+        int length = Math.min(bits.length, mask.length);
+        for (int i = 0; i < length; i++) {
+            if ((bits[i] & mask[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,145 @@
+package be.looorent.micronaut.security;
+
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+
+import static be.looorent.micronaut.security.SecurityErrorType.JWT_UNSUPPORTED;
+
+/**
+ * Signature algorithms (alg) of a JWS that can be verified, with their JCA equivalent.
+ * An algorithm that no JCA provider of the JVM supports (e.g. RSASSA-PSS on older Java 8 runtimes) is not accepted at all.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+enum JwsAlgorithm {
+
+    RS256("SHA256withRSA", "RSA", null),
+    RS384("SHA384withRSA", "RSA", null),
+    RS512("SHA512withRSA", "RSA", null),
+    PS256("RSASSA-PSS", "RSA", new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1)),
+
+    /**
+     * JWS encodes an ECDSA signature as R and S concatenated, while JCA expects a DER sequence.
+     */
+    ES256("SHA256withECDSA", "EC", null) {
+        @Override
+        byte[] toJcaSignature(byte[] jwsSignature) {
+            if (jwsSignature.length != 2 * ES256_INTEGER_LENGTH) {
+                return null;
+            }
+            byte[] r = toDerInteger(jwsSignature, 0);
+            byte[] s = toDerInteger(jwsSignature, ES256_INTEGER_LENGTH);
+            byte[] sequence = new byte[6 + r.length + s.length];
+            sequence[0] = 0x30;
+            sequence[1] = (byte) (4 + r.length + s.length);
+            sequence[2] = 0x02;
+            sequence[3] = (byte) r.length;
+            System.arraycopy(r, 0, sequence, 4, r.length);
+            sequence[4 + r.length] = 0x02;
+            sequence[5 + r.length] = (byte) s.length;
+            System.arraycopy(s, 0, sequence, 6 + r.length, s.length);
+            return sequence;
+        }
+    };
+
+    private static final int ES256_INTEGER_LENGTH = 32;
+
+    private final String jcaName;
+    private final String keyAlgorithm;
+    private final AlgorithmParameterSpec parameters;
+    private final boolean available;
+
+    JwsAlgorithm(String jcaName, String keyAlgorithm, AlgorithmParameterSpec parameters) {
+        this.jcaName = jcaName;
+        this.keyAlgorithm = keyAlgorithm;
+        this.parameters = parameters;
+        this.available = isProvided(jcaName);
+    }
+
+    /**
+     * @param name the alg of a JWS header
+     * @return the matching algorithm; or null if this algorithm is not supported, or not available in this JVM
+     */
+    static JwsAlgorithm fromName(String name) {
+        if (name == null) {
+            return null;
+        }
+        JwsAlgorithm algorithm;
+        switch (name) {
+            case "RS256": algorithm = RS256; break;
+            case "RS384": algorithm = RS384; break;
+            case "RS512": algorithm = RS512; break;
+            case "PS256": algorithm = PS256; break;
+            case "ES256": algorithm = ES256; break;
+            default: return null;
+        }
+        return algorithm.available ? algorithm : null;
+    }
+
+    /**
+     * @return whether or not a JCA provider of this JVM supports this algorithm
+     */
+    boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * @return whether or not a signature of this algorithm can be verified with this key
+     */
+    boolean supports(PublicKey key) {
+        return available && keyAlgorithm.equals(key.getAlgorithm());
+    }
+
+    /**
+     * @return a signature ready to verify tokens signed with the private key of key
+     * @throws SecurityException if this key cannot verify this algorithm, or if the JVM does not support this algorithm
+     */
+    Signature createVerifier(PublicKey key) throws SecurityException {
+        if (!supports(key)) {
+            throw JWT_UNSUPPORTED.toException();
+        }
+        try {
+            Signature signature = Signature.getInstance(jcaName);
+            if (parameters != null) {
+                signature.setParameter(parameters);
+            }
+            signature.initVerify(key);
+            return signature;
+        } catch (GeneralSecurityException e) {
+            throw JWT_UNSUPPORTED.toException();
+        }
+    }
+
+    /**
+     * @param jwsSignature the decoded signature of a JWS
+     * @return the signature in the format expected by JCA; or null if it cannot be a signature of this algorithm
+     */
+    byte[] toJcaSignature(byte[] jwsSignature) {
+        return jwsSignature;
+    }
+
+    private static boolean isProvided(String jcaName) {
+        try {
+            Signature.getInstance(jcaName);
+            return true;
+        } catch (NoSuchAlgorithmException e) {
+            return false;
+        }
+    }
+
+    private static byte[] toDerInteger(byte[] jwsSignature, int offset) {
+        int start = offset;
+        int end = offset + ES256_INTEGER_LENGTH;
+        while (start < end - 1 && jwsSignature[start] == 0) {
+            start++;
+        }
+        int padding = (jwsSignature[start] & 0x80) == 0 ? 0 : 1;
+        byte[] integer = new byte[end - start + padding];
+        System.arraycopy(jwsSignature, start, integer, padding, end - start);
+        return integer;
+    }
+}
@@ -0,0 +1,196 @@
+package be.looorent.micronaut.security;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.jsonwebtoken.Claims;
+
+import java.io.IOException;
+import java.security.PublicKey;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.CompletionStage;
+
+import static be.looorent.micronaut.security.SecurityErrorType.*;
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Parses and verifies the JWS of a single issuer, with the {@link SignatureVerifiers} of the adapter.
+ * It checks a supported signature algorithm, the expected issuer, a token that is neither expired nor used before
+ * its not-before date, a known kid and a valid signature; jjwt only provides the {@link Claims} interface.
+ * Both the header and the payload are streamed; the claims are exposed by a {@link LazyClaims} that only decodes what is read.
+ *
+ * A token is verified in two stages, so that the signature is only verified for tokens that could be valid:
+ * {@link #decode(String)} reads the token without verifying it, then {@link #verify(DecodedJws)}
+ * checks its issuer and its dates before looking up its kid and verifying its signature.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+class JwsParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final ThreadLocal<byte[]> SIGNING_INPUT_BUFFERS = ThreadLocal.withInitial(() -> new byte[4096]);
+    private static final char SEPARATOR = '.';
+    private static final String ALGORITHM = "alg";
+    private static final String KEY_ID = "kid";
+
+    private final String issuer;
+    private final PublicKeyResolver keyResolver;
+    private final SignatureVerifiers signatureVerifiers;
+    private final long clockSkewInMs;
+
+    JwsParser(String issuer, PublicKeyResolver keyResolver, SignatureVerifiers signatureVerifiers, long clockSkewInMs) {
+        this.issuer = issuer;
+        this.keyResolver = keyResolver;
+        this.signatureVerifiers = signatureVerifiers;
+        this.clockSkewInMs = clockSkewInMs;
+    }
+
+    PublicKeyResolver getKeyResolver() {
+        return keyResolver;
+    }
+
+    /**
+     * Reads a token without verifying anything but its format: its values must not be trusted yet.
+     * @param token a textual JWS
+     * @return the header and the claims of this token
+     * @throws SecurityException if this token is malformed or if its algorithm is not supported
+     */
+    static DecodedJws decode(String token) throws SecurityException {
+        int headerEnd = token.indexOf(SEPARATOR);
+        int payloadEnd = headerEnd <= 0 ? -1 : token.indexOf(SEPARATOR, headerEnd + 1);
+        if (payloadEnd < 0 || token.indexOf(SEPARATOR, payloadEnd + 1) >= 0) {
+            throw JWT_MALFORMED.toException();
+        }
+        else if (payloadEnd == token.length() - 1) {
+            throw JWT_UNSUPPORTED.toException();
+        }
+
+        DecodedJws jws = readHeader(decode(token, 0, headerEnd));
+        if (jws.algorithm == null) {
+            throw JWT_UNSUPPORTED.toException();
+        }
+        jws.token = token;
+        jws.payloadEnd = payloadEnd;
+        jws.claims = LazyClaims.parse(decode(token, headerEnd + 1, payloadEnd));
+        return jws;
+    }
+
+    /**
+     * The signature is verified in the calling thread when the public key is loaded;
+     * otherwise, in the thread that completes its retrieval, without blocking the calling thread.
+     * @param jws a token read by {@link #decode(String)}
+     * @return a stage completed with the verified claims of this token, or failed with a {@link SecurityException} if its kid or its signature is not valid
+     * @throws SecurityException if this token is from another issuer, expired, not valid yet or without kid
+     */
+    CompletionStage<Claims> verify(DecodedJws jws) throws SecurityException {
+        if (jws.keyId == null) {
+            throw JWT_WRONG_KID.toException();
+        }
+        checkClaims(jws.claims);
+        return keyResolver.resolveAsync(jws.keyId).thenApply(key -> verifySignature(jws, key));
+    }
+
+    private Claims verifySignature(DecodedJws jws, PublicKey key) throws SecurityException {
+        String token = jws.token;
+        byte[] signature = decode(token, jws.payloadEnd + 1, token.length());
+        byte[] signingInput = signingInputOf(token, jws.payloadEnd);
+        if (!signatureVerifiers.verify(key, jws.algorithm, signingInput, jws.payloadEnd, signature)) {
+            throw JWT_WRONG_SIGNATURE.toException();
+        }
+        return jws.claims;
+    }
+
+    /**
+     * Checks the claims that do not require any key, so that a token that cannot be valid never triggers a key lookup.
+     * @param claims the claims of a token read by {@link #decode(String)}
+     * @throws SecurityException if this token is from another issuer, expired or not valid yet
+     */
+    void checkClaims(Claims claims) throws SecurityException {
+        if (!issuer.equals(claims.getIssuer())) {
+            throw JWT_WRONG_ISSUER.toException();
+        }
+        long nowInMs = currentTimeMillis();
+        Date expiration = claims.getExpiration();
+        if (expiration != null && nowInMs - clockSkewInMs > expiration.getTime()) {
+            throw JWT_EXPIRED.toException();
+        }
+        Date notBefore = claims.getNotBefore();
+        if (notBefore != null && nowInMs + clockSkewInMs < notBefore.getTime()) {
+            throw JWT_NOT_YET_VALID.toException();
+        }
+    }
+
+    private static byte[] decode(String token, int start, int end) {
+        try {
+            return Base64.getUrlDecoder().decode(token.substring(start, end));
+        } catch (IllegalArgumentException e) {
+            throw JWT_MALFORMED.toException();
+        }
+    }
+
+    /**
+     * A token is made of base64url characters only, so its signing input is copied as is, in a buffer reused by each thread.
+     */
+    private static byte[] signingInputOf(String token, int length) {
+        byte[] buffer = SIGNING_INPUT_BUFFERS.get();
+        if (buffer.length < length) {
+            buffer = new byte[length];
+            SIGNING_INPUT_BUFFERS.set(buffer);
+        }
+        for (int i = 0; i < length; i++) {
+            buffer[i] = (byte) token.charAt(i);
+        }
+        return buffer;
+    }
+
+    private static DecodedJws readHeader(byte[] json) {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw JWT_MALFORMED.toException();
+            }
+            DecodedJws jws = new DecodedJws();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (ALGORITHM.equals(name) && value == JsonToken.VALUE_STRING) {
+                    jws.algorithm = JwsAlgorithm.fromName(parser.getText());
+                }
+                else if (KEY_ID.equals(name) && value == JsonToken.VALUE_STRING) {
+                    jws.keyId = parser.getText();
+                }
+                else {
+                    parser.skipChildren();
+                }
+            }
+            return jws;
+        } catch (IOException e) {
+            throw JWT_MALFORMED.toException();
+        }
+    }
+
+    /**
+     * A token that has been read, but not verified yet.
+     */
+    static final class DecodedJws {
+        private String token;
+        private int payloadEnd;
+        private JwsAlgorithm algorithm;
+        private String keyId;
+        private LazyClaims claims;
+
+        String getToken() {
+            return token;
+        }
+
+        String getKeyId() {
+            return keyId;
+        }
+
+        /**
+         * @return the claims of this token, that must not be trusted before this token is verified
+         */
+        Claims getClaims() {
+            return claims;
+        }
+    }
+}
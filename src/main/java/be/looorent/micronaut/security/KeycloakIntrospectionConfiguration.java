@@ -0,0 +1,149 @@
+package be.looorent.micronaut.security;
+
+import io.micronaut.context.annotation.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Settings of the introspection of tokens by Keycloak (RFC 7662), used instead of verifying the tokens locally
+ * when {@code keycloak.introspection.enabled} is true.
+ * Every property is prefixed by {@code keycloak.introspection}.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@ConfigurationProperties("keycloak.introspection")
+public class KeycloakIntrospectionConfiguration {
+
+    static final Duration DEFAULT_CACHE_MAX_TTL = Duration.ofMinutes(5);
+    static final int DEFAULT_CACHE_MAX_SIZE = 10_000;
+    static final int DEFAULT_MAX_CONNECTIONS = 50;
+    static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(10);
+    static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(15);
+
+    private boolean enabled = false;
+    private String clientId;
+    private String clientSecret;
+    private Duration cacheMaxTtl = DEFAULT_CACHE_MAX_TTL;
+    private int cacheMaxSize = DEFAULT_CACHE_MAX_SIZE;
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private Duration connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private Duration readTimeout = DEFAULT_READ_TIMEOUT;
+    private Duration timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * @return whether or not the tokens are introspected by Keycloak instead of being verified locally
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the id of the client that calls the introspection endpoint
+     */
+    public String getClientId() {
+        return clientId;
+    }
+
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+
+    /**
+     * @return the secret of the client that calls the introspection endpoint
+     */
+    public String getClientSecret() {
+        return clientSecret;
+    }
+
+    public void setClientSecret(String clientSecret) {
+        this.clientSecret = clientSecret;
+    }
+
+    /**
+     * @return how long the result of an introspection is kept at most; an active token is never kept after it expires
+     */
+    public Duration getCacheMaxTtl() {
+        return cacheMaxTtl;
+    }
+
+    public void setCacheMaxTtl(Duration cacheMaxTtl) {
+        if (cacheMaxTtl == null || cacheMaxTtl.isNegative()) {
+            throw new IllegalArgumentException("Property keycloak.introspection.cache-max-ttl (duration) must not be negative");
+        }
+        this.cacheMaxTtl = cacheMaxTtl;
+    }
+
+    /**
+     * @return the maximum number of introspection results kept in memory
+     */
+    public int getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    public void setCacheMaxSize(int cacheMaxSize) {
+        if (cacheMaxSize <= 0) {
+            throw new IllegalArgumentException("Property keycloak.introspection.cache-max-size (integer) must be positive");
+        }
+        this.cacheMaxSize = cacheMaxSize;
+    }
+
+    /**
+     * @return the maximum number of pooled connections to Keycloak
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("Property keycloak.introspection.max-connections (integer) must be positive");
+        }
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @return the maximum time to establish a connection with Keycloak
+     */
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+        if (connectTimeout == null || connectTimeout.isNegative() || connectTimeout.isZero()) {
+            throw new IllegalArgumentException("Property keycloak.introspection.connect-timeout (duration) must be positive");
+        }
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return the maximum time to wait for data from Keycloak once connected
+     */
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(Duration readTimeout) {
+        if (readTimeout == null || readTimeout.isNegative() || readTimeout.isZero()) {
+            throw new IllegalArgumentException("Property keycloak.introspection.read-timeout (duration) must be positive");
+        }
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @return the maximum time of a whole introspection, including the connection
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Duration timeout) {
+        if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Property keycloak.introspection.timeout (duration) must be positive");
+        }
+        this.timeout = timeout;
+    }
+}
@@ -0,0 +1,228 @@
+package be.looorent.micronaut.security;
+
+import io.micronaut.context.annotation.Replaces;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Singleton;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static be.looorent.micronaut.security.SecurityErrorType.TOKEN_INACTIVE;
+import static java.lang.System.currentTimeMillis;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * {@link TokenParser} that asks Keycloak whether a token is active (RFC 7662), instead of verifying it locally.
+ * This way, opaque and offline tokens can be accepted as well.
+ *
+ * Each introspection is kept until its token expires, or for 'keycloak.introspection.cache-max-ttl' at most.
+ * The concurrent introspections of the same token are coalesced into a single call to Keycloak, and no thread waits for
+ * Keycloak: {@link #parseAsync(String)} completes once the introspection is known.
+ * Introspections are identified by the {@link TokenDigest} of their token, so that the tokens themselves are not retained;
+ * this digest is computed once per request.
+ *
+ * A cached introspection is read without any lock: it only stamps the time of its access on its entry.
+ * When the cache is full, the least recently used introspection among a {@link CacheSample} of {@value #EVICTION_SAMPLE_SIZE} introspections
+ * is evicted.
+ *
+ * The claims of an active token are then handled as the claims of a token verified locally (see {@link VerifiedClaimsHandler}):
+ * revoked tokens are rejected, and the roles required by the routes are granted from these claims.
+ *
+ * Enabled with 'keycloak.introspection.enabled', and configured with {@link KeycloakIntrospectionConfiguration}.
+ * Requires keycloak.base-url and keycloak.realm-id.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Singleton
+@Requires(property = "keycloak.introspection.enabled", value = "true")
+@Replaces(TokenParser.class)
+class KeycloakIntrospectionTokenParser implements RoleGrantingTokenParser {
+
+    private static final int EVICTION_SAMPLE_SIZE = 16;
+
+    private final TokenIntrospectionClient client;
+    private final VerifiedClaimsHandler claimsHandler;
+    private final SecurityMetrics metrics;
+    private final long cacheMaxTtlInMs;
+    private final int cacheMaxSize;
+    private final Map<TokenDigest, Entry> introspectionPerToken;
+    private final Map<TokenDigest, CompletableFuture<TokenIntrospection>> inFlightIntrospections;
+    private final Object evictionLock;
+
+    KeycloakIntrospectionTokenParser(@Value("${keycloak.base-url}") String baseUrl,
+                                     @Value("${keycloak.realm-id}") String realmId,
+                                     KeycloakIntrospectionConfiguration configuration,
+                                     VerifiedClaimsHandler claimsHandler,
+                                     SecurityMetrics metrics) throws MalformedURLException {
+        if (baseUrl == null || baseUrl.isEmpty()) {
+            throw new IllegalArgumentException("Property keycloak.base-url (string) must be defined");
+        }
+        if (realmId == null || realmId.isEmpty()) {
+            throw new IllegalArgumentException("Property keycloak.realm-id (string) must be defined");
+        }
+        if (configuration == null) {
+            throw new IllegalArgumentException("No KeycloakIntrospectionConfiguration has been found");
+        }
+        if (configuration.getClientId() == null || configuration.getClientId().isEmpty()) {
+            throw new IllegalArgumentException("Property keycloak.introspection.client-id (string) must be defined");
+        }
+        if (claimsHandler == null) {
+            throw new IllegalArgumentException("No VerifiedClaimsHandler has been found");
+        }
+        if (metrics == null) {
+            throw new IllegalArgumentException("No implementation of SecurityMetrics has been found");
+        }
+        this.client = new TokenIntrospectionClient(createIntrospectionUrl(baseUrl, realmId), configuration);
+        this.claimsHandler = claimsHandler;
+        this.metrics = metrics;
+        this.cacheMaxTtlInMs = configuration.getCacheMaxTtl().toMillis();
+        this.cacheMaxSize = configuration.getCacheMaxSize();
+        this.introspectionPerToken = new ConcurrentHashMap<>();
+        this.inFlightIntrospections = new ConcurrentHashMap<>();
+        this.evictionLock = new Object();
+    }
+
+    @Override
+    public SecurityContext parse(String token) throws SecurityException {
+        return join(parseAsync(token).toCompletableFuture());
+    }
+
+    @Override
+    public CompletionStage<SecurityContext> parseAsync(String token) {
+        return parseGrantingRolesAsync(token).thenApply(AuthorizedSecurityContext::unwrap);
+    }
+
+    @Override
+    public CompletionStage<SecurityContext> parseGrantingRolesAsync(String token) {
+        return introspect(token).thenCompose(result -> {
+            if (!result.isActive()) {
+                throw TOKEN_INACTIVE.toException();
+            }
+            return claimsHandler.createSecurityContext(result.getClaims());
+        });
+    }
+
+    /**
+     * Stops the HTTP client.
+     */
+    @PreDestroy
+    public void close() {
+        client.close();
+    }
+
+    int countIntrospections() {
+        return introspectionPerToken.size();
+    }
+
+    /**
+     * The time spent introspecting a token is recorded as the verification of its signature.
+     */
+    private CompletionStage<TokenIntrospection> introspect(String token) {
+        TokenDigest digest = TokenDigest.of(token);
+        TokenIntrospection knownIntrospection = findIntrospection(digest);
+        if (knownIntrospection != null) {
+            return completedFuture(knownIntrospection);
+        }
+        long startTime = metrics.start();
+        return introspectOnce(token, digest).whenComplete((introspection, error) -> metrics.recordSignatureVerification(startTime));
+    }
+
+    private TokenIntrospection findIntrospection(TokenDigest digest) {
+        Entry entry = introspectionPerToken.get(digest);
+        if (entry == null) {
+            return null;
+        }
+        else if (entry.hasExpired()) {
+            introspectionPerToken.remove(digest, entry);
+            return null;
+        }
+        entry.lastAccessInNanos = System.nanoTime();
+        return entry.introspection;
+    }
+
+    private void keepIntrospection(TokenDigest digest, Entry entry) {
+        introspectionPerToken.put(digest, entry);
+        if (introspectionPerToken.size() > cacheMaxSize) {
+            evictExcept(entry);
+        }
+    }
+
+    /**
+     * Evictions are serialized, so that concurrent insertions do not evict more introspections than needed.
+     * @param inserted the entry that has just been inserted, which is never evicted
+     */
+    private void evictExcept(Entry inserted) {
+        synchronized (evictionLock) {
+            while (introspectionPerToken.size() > cacheMaxSize) {
+                Map.Entry<TokenDigest, Entry> eldest = null;
+                for (Map.Entry<TokenDigest, Entry> candidate : CacheSample.of(introspectionPerToken, EVICTION_SAMPLE_SIZE)) {
+                    if (candidate.getValue() != inserted && (eldest == null || candidate.getValue().lastAccessInNanos - eldest.getValue().lastAccessInNanos < 0)) {
+                        eldest = candidate;
+                    }
+                }
+                if (eldest != null) {
+                    introspectionPerToken.remove(eldest.getKey(), eldest.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * The first caller starts the introspection, and every concurrent caller gets the same result, without blocking any thread.
+     * The result is kept before being published, so that the callers find it afterwards.
+     */
+    private CompletableFuture<TokenIntrospection> introspectOnce(String token, TokenDigest digest) {
+        CompletableFuture<TokenIntrospection> introspection = new CompletableFuture<>();
+        CompletableFuture<TokenIntrospection> inFlightIntrospection = inFlightIntrospections.putIfAbsent(digest, introspection);
+        if (inFlightIntrospection != null) {
+            return inFlightIntrospection;
+        }
+        client.introspect(token).subscribe(result -> {
+            long nowInMs = currentTimeMillis();
+            keepIntrospection(digest, new Entry(result, result.computeExpirationInMs(cacheMaxTtlInMs, nowInMs)));
+            inFlightIntrospections.remove(digest, introspection);
+            introspection.complete(result);
+        }, error -> {
+            inFlightIntrospections.remove(digest, introspection);
+            introspection.completeExceptionally(error);
+        });
+        return introspection;
+    }
+
+    private static <T> T join(CompletableFuture<T> stage) {
+        try {
+            return stage.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static URL createIntrospectionUrl(String baseUrl, String realmId) throws MalformedURLException {
+        return new URL(baseUrl + "/auth/realms/" + realmId + "/protocol/openid-connect/token/introspect");
+    }
+
+    private static final class Entry {
+        private final TokenIntrospection introspection;
+        private final long expiresAtInMs;
+        private volatile long lastAccessInNanos;
+
+        private Entry(TokenIntrospection introspection, long expiresAtInMs) {
+            this.introspection = introspection;
+            this.expiresAtInMs = expiresAtInMs;
+            this.lastAccessInNanos = System.nanoTime();
+        }
+
+        private boolean hasExpired() {
+            return currentTimeMillis() >= expiresAtInMs;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package be.looorent.micronaut.security;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.RequiredTypeException;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static be.looorent.micronaut.security.SecurityErrorType.JWT_MALFORMED;
+
+/**
+ * Read-only view of the claims of a JWT, decoded on demand.
+ *
+ * When a token is parsed, its payload is streamed once to find where the value of each claim starts, without decoding any value.
+ * A value is only decoded when it is asked for (e.g. by a {@link TokenValidator} or a {@link SecurityContextFactory}),
+ * then it is kept for the next calls, and shared safely with the other threads that read the same claims. This way, large claims such as realm_access or resource_access cost nothing
+ * when they are not read.
+ *
+ * The conversions of {@link #get(String, Class)} and of the date claims are the ones of jjwt.
+ * Since these claims have been verified, they cannot be modified: each setter throws an {@link UnsupportedOperationException}.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+final class LazyClaims extends AbstractMap<String, Object> implements Claims {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory JSON_FACTORY = MAPPER.getFactory();
+    private static final ObjectReader VALUE_READER = MAPPER.readerFor(Object.class);
+    private static final Object NULL_VALUE = new Object();
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final byte[] payload;
+    private final String[] names;
+    private final int[] valueOffsets;
+    private final AtomicReferenceArray<Object> values;
+    private final int size;
+
+    private LazyClaims(byte[] payload, String[] names, int[] valueOffsets, int size) {
+        this.payload = payload;
+        this.names = names;
+        this.valueOffsets = valueOffsets;
+        this.values = new AtomicReferenceArray<>(size);
+        this.size = size;
+    }
+
+    /**
+     * @param payload the decoded payload of a JWT, that must not be modified afterwards
+     * @return the claims of this payload, none of them being decoded yet
+     * @throws SecurityException if this payload is not a JSON object
+     */
+    static LazyClaims parse(byte[] payload) throws SecurityException {
+        try (JsonParser parser = JSON_FACTORY.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw JWT_MALFORMED.toException();
+            }
+            String[] names = new String[INITIAL_CAPACITY];
+            int[] valueOffsets = new int[INITIAL_CAPACITY];
+            int size = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                int valueOffset = (int) parser.getTokenLocation().getByteOffset();
+                parser.skipChildren();
+
+                int index = indexOf(names, size, name);
+                if (index < 0) {
+                    if (size == names.length) {
+                        names = Arrays.copyOf(names, 2 * size);
+                        valueOffsets = Arrays.copyOf(valueOffsets, 2 * size);
+                    }
+                    index = size++;
+                    names[index] = name;
+                }
+                valueOffsets[index] = valueOffset;
+            }
+            if (parser.getCurrentToken() != JsonToken.END_OBJECT) {
+                throw JWT_MALFORMED.toException();
+            }
+            return new LazyClaims(payload, names, valueOffsets, size);
+        } catch (IOException e) {
+            throw JWT_MALFORMED.toException();
+        }
+    }
+
+    @Override
+    public String getIssuer() {
+        return getString(ISSUER);
+    }
+
+    @Override
+    public String getSubject() {
+        return getString(SUBJECT);
+    }
+
+    @Override
+    public String getAudience() {
+        return getString(AUDIENCE);
+    }
+
+    @Override
+    public Date getExpiration() {
+        return get(EXPIRATION, Date.class);
+    }
+
+    @Override
+    public Date getNotBefore() {
+        return get(NOT_BEFORE, Date.class);
+    }
+
+    @Override
+    public Date getIssuedAt() {
+        return get(ISSUED_AT, Date.class);
+    }
+
+    @Override
+    public String getId() {
+        return getString(ID);
+    }
+
+    @Override
+    public <T> T get(String claimName, Class<T> requiredType) {
+        Object value = get(claimName);
+        if (value == null) {
+            return null;
+        }
+        if (Date.class.equals(requiredType)) {
+            value = isDateClaim(claimName) ? toDateFromSeconds(value) : toDate(value);
+        }
+        else if (value instanceof Number) {
+            value = toNumber((Number) value, requiredType);
+        }
+        if (!requiredType.isInstance(value)) {
+            throw new RequiredTypeException("Expected value to be of type: " + requiredType + ", but was " + value.getClass());
+        }
+        return requiredType.cast(value);
+    }
+
+    @Override
+    public Object get(Object name) {
+        int index = indexOf(names, size, name);
+        return index < 0 ? null : valueAt(index);
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return indexOf(names, size, name) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<Entry<String, Object>>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        int index = next++;
+                        return new SimpleImmutableEntry<>(names[index], valueAt(index));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Claims setIssuer(String iss) {
+        throw new UnsupportedOperationException("Verified claims cannot be modified");
+    }
+
+    @Override
+    public Claims setSubject(String sub) {
+        throw new UnsupportedOperationException("Verified claims cannot be modified");
+    }
+
+    @Override
+    public Claims setAudience(String aud) {
+        throw new UnsupportedOperationException("Verified claims cannot be modified");
+    }
+
+    @Override
+    public Claims setExpiration(Date exp) {
+        throw new UnsupportedOperationException("Verified claims cannot be modified");
+    }
+
+    @Override
+    public Claims setNotBefore(Date nbf) {
+        throw new UnsupportedOperationException("Verified claims cannot be modified");
+    }
+
+    @Override
+    public Claims setIssuedAt(Date iat) {
+        throw new UnsupportedOperationException("Verified claims cannot be modified");
+    }
+
+    @Override
+    public Claims setId(String jti) {
+        throw new UnsupportedOperationException("Verified claims cannot be modified");
+    }
+
+    /**
+     * @return a new parser of the whole payload, e.g. to read several claims in a single pass (see {@link ClaimPaths})
+     */
+    JsonParser createPayloadParser() throws IOException {
+        return JSON_FACTORY.createParser(payload);
+    }
+
+    /**
+     * A decoded value is a mutable map or list, so it is published with a compare-and-set: when two threads decode the same value
+     * at once, both get the instance kept first, fully constructed. A JSON null is kept as {@link #NULL_VALUE}.
+     */
+    private Object valueAt(int index) {
+        Object value = values.get(index);
+        if (value == null) {
+            Object decoded = decodeValueAt(valueOffsets[index]);
+            value = decoded == null ? NULL_VALUE : decoded;
+            if (!values.compareAndSet(index, null, value)) {
+                value = values.get(index);
+            }
+        }
+        return value == NULL_VALUE ? null : value;
+    }
+
+    /**
+     * Jackson reads a single value and ignores the claims that follow it.
+     */
+    private Object decodeValueAt(int offset) {
+        try {
+            return VALUE_READER.readValue(payload, offset, payload.length - offset);
+        } catch (IOException e) {
+            throw JWT_MALFORMED.toException();
+        }
+    }
+
+    private String getString(String name) {
+        Object value = get(name);
+        return value == null ? null : String.valueOf(value);
+    }
+
+    private static int indexOf(String[] names, int size, Object name) {
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isDateClaim(String name) {
+        return EXPIRATION.equals(name) || ISSUED_AT.equals(name) || NOT_BEFORE.equals(name);
+    }
+
+    private static Object toDateFromSeconds(Object value) {
+        if (value instanceof Number) {
+            return new Date(((Number) value).longValue() * 1000);
+        }
+        else if (value instanceof String) {
+            try {
+                return new Date(Long.parseLong((String) value) * 1000);
+            } catch (NumberFormatException e) {
+                return value;
+            }
+        }
+        return value;
+    }
+
+    private static Object toDate(Object value) {
+        if (value instanceof Number) {
+            return new Date(((Number) value).longValue());
+        }
+        else if (value instanceof Calendar) {
+            return ((Calendar) value).getTime();
+        }
+        return value;
+    }
+
+    private static Object toNumber(Number value, Class<?> requiredType) {
+        if (Long.class.equals(requiredType)) {
+            return value.longValue();
+        }
+        else if (Integer.class.equals(requiredType) && value.longValue() == value.intValue()) {
+            return value.intValue();
+        }
+        else if (Short.class.equals(requiredType) && value.longValue() == value.shortValue()) {
+            return value.shortValue();
+        }
+        else if (Byte.class.equals(requiredType) && value.longValue() == value.byteValue()) {
+            return value.byteValue();
+        }
+        return value;
+    }
+}
@@ -0,0 +1,142 @@
+package be.looorent.micronaut.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micronaut.context.annotation.Replaces;
+import io.micronaut.context.annotation.Requires;
+
+import javax.inject.Singleton;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+import static java.lang.System.nanoTime;
+import static java.util.Locale.ROOT;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Records the measurements with Micrometer.
+ * Every meter is registered once, so that recording a measurement does not allocate anything.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Singleton
+@Replaces(NoOpSecurityMetrics.class)
+@Requires(property = "security.metrics.enabled", value = "true")
+@Requires(classes = MeterRegistry.class)
+@Requires(beans = MeterRegistry.class)
+class MicrometerSecurityMetrics implements SecurityMetrics {
+
+    static final String HEADER_READING = "security.header.reading";
+    static final String SIGNATURE_VERIFICATION = "security.token.verification";
+    static final String VALIDATION = "security.token.validation";
+    static final String SECURITY_CONTEXT_CREATION = "security.context.creation";
+    static final String REJECTIONS = "security.rejections";
+    static final String PUBLIC_KEY_LOOKUPS = "security.public.key.lookups";
+    static final String PUBLIC_KEYS_FETCH = "security.public.keys.fetch";
+    static final String LOADED_PUBLIC_KEYS = "security.public.keys.loaded";
+
+    private final MeterRegistry registry;
+    private final Timer headerReading;
+    private final Timer signatureVerification;
+    private final Timer validation;
+    private final Timer securityContextCreation;
+    private final Map<SecurityErrorType, Counter> rejectionPerType;
+    private final Counter publicKeyHits;
+    private final Counter publicKeyMisses;
+    private final Map<PublicKeysFetchOutcome, Timer> publicKeysFetchPerOutcome;
+
+    MicrometerSecurityMetrics(MeterRegistry registry) {
+        if (registry == null) {
+            throw new IllegalArgumentException("No MeterRegistry has been found");
+        }
+        this.registry = registry;
+        this.headerReading = Timer.builder(HEADER_READING)
+                .description("Time to read the token in the Authorization header")
+                .register(registry);
+        this.signatureVerification = Timer.builder(SIGNATURE_VERIFICATION)
+                .description("Time to parse a token and verify its signature")
+                .register(registry);
+        this.validation = Timer.builder(VALIDATION)
+                .description("Time spent in the TokenValidator")
+                .register(registry);
+        this.securityContextCreation = Timer.builder(SECURITY_CONTEXT_CREATION)
+                .description("Time spent in the SecurityContextFactory")
+                .register(registry);
+        this.rejectionPerType = new EnumMap<>(SecurityErrorType.class);
+        for (SecurityErrorType type : SecurityErrorType.values()) {
+            rejectionPerType.put(type, Counter.builder(REJECTIONS)
+                    .description("Requests rejected, per reason")
+                    .tag("reason", type.getReason())
+                    .register(registry));
+        }
+        this.publicKeyHits = publicKeyLookupCounter("hit");
+        this.publicKeyMisses = publicKeyLookupCounter("miss");
+        this.publicKeysFetchPerOutcome = new EnumMap<>(PublicKeysFetchOutcome.class);
+        for (PublicKeysFetchOutcome outcome : PublicKeysFetchOutcome.values()) {
+            publicKeysFetchPerOutcome.put(outcome, Timer.builder(PUBLIC_KEYS_FETCH)
+                    .description("Time to retrieve the public keys, per outcome")
+                    .tag("outcome", outcome.name().toLowerCase(ROOT))
+                    .register(registry));
+        }
+    }
+
+    @Override
+    public long start() {
+        return nanoTime();
+    }
+
+    @Override
+    public void recordHeaderReading(long startTime) {
+        record(headerReading, startTime);
+    }
+
+    @Override
+    public void recordSignatureVerification(long startTime) {
+        record(signatureVerification, startTime);
+    }
+
+    @Override
+    public void recordValidation(long startTime) {
+        record(validation, startTime);
+    }
+
+    @Override
+    public void recordSecurityContextCreation(long startTime) {
+        record(securityContextCreation, startTime);
+    }
+
+    @Override
+    public void recordRejection(SecurityErrorType type) {
+        rejectionPerType.get(type).increment();
+    }
+
+    @Override
+    public void recordPublicKeyLookup(boolean found) {
+        (found ? publicKeyHits : publicKeyMisses).increment();
+    }
+
+    @Override
+    public void recordPublicKeysFetch(long startTime, PublicKeysFetchOutcome outcome) {
+        record(publicKeysFetchPerOutcome.get(outcome), startTime);
+    }
+
+    @Override
+    public <T> void monitorLoadedPublicKeys(T keyStore, ToDoubleFunction<T> keyCount) {
+        Gauge.builder(LOADED_PUBLIC_KEYS, keyStore, keyCount)
+                .description("Number of public keys currently loaded")
+                .register(registry);
+    }
+
+    private Counter publicKeyLookupCounter(String result) {
+        return Counter.builder(PUBLIC_KEY_LOOKUPS)
+                .description("Lookups of the public key of a token, per result")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private static void record(Timer timer, long startTime) {
+        timer.record(nanoTime() - startTime, NANOSECONDS);
+    }
+}
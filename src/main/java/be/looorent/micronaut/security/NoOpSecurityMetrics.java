@@ -0,0 +1,57 @@
+package be.looorent.micronaut.security;
+
+import javax.inject.Singleton;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Default implementation that measures nothing.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Singleton
+public class NoOpSecurityMetrics implements SecurityMetrics {
+
+    @Override
+    public long start() {
+        return 0L;
+    }
+
+    @Override
+    public void recordHeaderReading(long startTime) {
+        // do nothing
+    }
+
+    @Override
+    public void recordSignatureVerification(long startTime) {
+        // do nothing
+    }
+
+    @Override
+    public void recordValidation(long startTime) {
+        // do nothing
+    }
+
+    @Override
+    public void recordSecurityContextCreation(long startTime) {
+        // do nothing
+    }
+
+    @Override
+    public void recordRejection(SecurityErrorType type) {
+        // do nothing
+    }
+
+    @Override
+    public void recordPublicKeyLookup(boolean found) {
+        // do nothing
+    }
+
+    @Override
+    public void recordPublicKeysFetch(long startTime, PublicKeysFetchOutcome outcome) {
+        // do nothing
+    }
+
+    @Override
+    public <T> void monitorLoadedPublicKeys(T keyStore, ToDoubleFunction<T> keyCount) {
+        // do nothing
+    }
+}
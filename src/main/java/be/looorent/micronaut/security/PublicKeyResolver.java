@@ -1,45 +1,81 @@
 package be.looorent.micronaut.security;
 
-import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.JwsHeader;
-import io.jsonwebtoken.SigningKeyResolver;
-
 import javax.inject.Singleton;
-import java.security.Key;
 import java.security.PublicKey;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
 
 import static be.looorent.micronaut.security.SecurityErrorType.JWT_WRONG_KID;
 
 /**
- * This implementation of {@code SigningKeyResolver} can be used by a {@link io.jsonwebtoken.JwtParser JwtParser} to find a signing key that
- * should be used to verify a JWS signature. This implementation uses a {@link PublicKeyService} to find the public key.
+ * Finds the public key that verifies the signature of a JWS (see {@link JwsParser}), with a {@link PublicKeyService}.
+ * A resolver can be bound to an issuer (see {@link #forIssuer(String)}), so that the key is searched among the keys of this issuer only.
  * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
  */
 @Singleton
-class PublicKeyResolver implements SigningKeyResolver {
+class PublicKeyResolver {
 
     private final PublicKeyService publicKeyService;
+    private final SecurityMetrics metrics;
+    private final String issuer;
+
+    PublicKeyResolver(PublicKeyService publicKeyService, SecurityMetrics metrics) {
+        this(publicKeyService, metrics, null);
+    }
 
-    PublicKeyResolver(PublicKeyService publicKeyService) {
+    private PublicKeyResolver(PublicKeyService publicKeyService, SecurityMetrics metrics, String issuer) {
         if (publicKeyService == null) {
             throw new IllegalArgumentException("There is no implementation of PublicKeyService provided.");
         }
+        if (metrics == null) {
+            throw new IllegalArgumentException("There is no implementation of SecurityMetrics provided.");
+        }
         this.publicKeyService = publicKeyService;
+        this.metrics = metrics;
+        this.issuer = issuer;
+    }
+
+    /**
+     * @param issuer an accepted issuer
+     * @return a resolver that searches the keys of this issuer
+     */
+    PublicKeyResolver forIssuer(String issuer) {
+        return new PublicKeyResolver(publicKeyService, metrics, issuer);
+    }
+
+    /**
+     * @return the issuers provided by the {@link PublicKeyService}
+     */
+    Set<String> getIssuers() {
+        return publicKeyService.getIssuers();
     }
 
-    @Override
-    public Key resolveSigningKey(JwsHeader header, Claims claims) {
-        return findPublicKey(header);
+    /**
+     * @return whether the {@link PublicKeyService} provides keys that are not bound to any of its issuers
+     */
+    boolean hasDefaultKeys() {
+        return publicKeyService.hasDefaultKeys();
     }
 
-    @Override
-    public Key resolveSigningKey(JwsHeader header, String plaintext) {
-        return findPublicKey(header);
+    /**
+     * @param kid a key id
+     * @return a stage completed once the public key identified by kid has been found (or not), without blocking the calling thread
+     */
+    CompletionStage<Optional<PublicKey>> findPublicKeyAsync(String kid) {
+        return issuer == null ? publicKeyService.findPublicKeyAsync(kid) : publicKeyService.findPublicKeyAsync(issuer, kid);
     }
 
-    private PublicKey findPublicKey(JwsHeader header) {
-        return this.publicKeyService
-                .findPublicKey(header.getKeyId())
-                .orElseThrow(() -> JWT_WRONG_KID.toException());
+    /**
+     * Never blocks the calling thread, even when the keys have to be retrieved: the stage is already completed when the key
+     * is loaded (e.g. once the token has been prepared), so that the token is verified in the calling thread.
+     * @param kid a key id
+     * @return a stage completed with the public key identified by kid, or failed with a {@link SecurityException} if this kid is unknown
+     */
+    CompletionStage<PublicKey> resolveAsync(String kid) {
+        return findPublicKeyAsync(kid).thenApply(publicKey -> {
+            metrics.recordPublicKeyLookup(publicKey.isPresent());
+            return publicKey.orElseThrow(() -> JWT_WRONG_KID.toException());
+        });
     }
 }
@@ -2,6 +2,11 @@ package be.looorent.micronaut.security;
 
 import java.security.PublicKey;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+
+import static java.util.Collections.emptySet;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 
 /**
  * How to find a public key to validate a JWT?
@@ -15,4 +20,52 @@ public interface PublicKeyService {
      * @return the public key identified by kid ; or return empty() is the public key has not been found.
      */
     Optional<PublicKey> findPublicKey(String kid);
+
+    /**
+     * Non-blocking variant of {@link #findPublicKey(String)}, for implementations that may have to retrieve their keys.
+     * By default, this method delegates to {@link #findPublicKey(String)} in the calling thread.
+     * @param kid a key id
+     * @return a stage completed with the public key identified by kid ; or with empty() is the public key has not been found.
+     */
+    default CompletionStage<Optional<PublicKey>> findPublicKeyAsync(String kid) {
+        return completedFuture(findPublicKey(kid));
+    }
+
+    /**
+     * Finds a public key among the keys of a given issuer, for implementations that serve several issuers (e.g. several Keycloak realms).
+     * By default, the issuer is ignored.
+     * @param issuer the issuer of the token, already known to be one of the accepted issuers
+     * @param kid a key id
+     * @return the public key identified by kid ; or return empty() is the public key has not been found.
+     */
+    default Optional<PublicKey> findPublicKey(String issuer, String kid) {
+        return findPublicKey(kid);
+    }
+
+    /**
+     * Non-blocking variant of {@link #findPublicKey(String, String)}.
+     * By default, the issuer is ignored.
+     * @param issuer the issuer of the token, already known to be one of the accepted issuers
+     * @param kid a key id
+     * @return a stage completed with the public key identified by kid ; or with empty() is the public key has not been found.
+     */
+    default CompletionStage<Optional<PublicKey>> findPublicKeyAsync(String issuer, String kid) {
+        return findPublicKeyAsync(kid);
+    }
+
+    /**
+     * @return the issuers whose keys are provided by this service, which are accepted in addition to 'security.token.issuer';
+     *         empty() by default
+     */
+    default Set<String> getIssuers() {
+        return emptySet();
+    }
+
+    /**
+     * @return whether {@link #findPublicKey(String)} provides keys that are not bound to any issuer of {@link #getIssuers()},
+     *         which are then used for 'security.token.issuer'; true by default
+     */
+    default boolean hasDefaultKeys() {
+        return true;
+    }
 }
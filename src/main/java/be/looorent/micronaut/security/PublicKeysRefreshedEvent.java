@@ -0,0 +1,55 @@
+package be.looorent.micronaut.security;
+
+import io.micronaut.context.event.ApplicationEvent;
+
+import java.security.PublicKey;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Collections.unmodifiableSet;
+
+/**
+ * Published by a {@link PublicKeyService} each time its set of public keys has been (re)loaded.
+ * Everything that has been derived from the retired keys (e.g. verified tokens) should be discarded;
+ * when the retired keys are unknown, everything that has been derived from the previous keys should be.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+public class PublicKeysRefreshedEvent extends ApplicationEvent {
+
+    private final Map<String, PublicKey> publicKeys;
+    private final Set<String> retiredKeyIds;
+
+    /**
+     * @param source the service that has loaded the keys; must not be null
+     * @param publicKeys the new public keys, identified by their kid; must not be null
+     */
+    public PublicKeysRefreshedEvent(PublicKeyService source, Map<String, PublicKey> publicKeys) {
+        this(source, publicKeys, null);
+    }
+
+    /**
+     * @param source the service that has loaded the keys; must not be null
+     * @param publicKeys the new public keys, identified by their kid; must not be null
+     * @param retiredKeyIds the kids whose previous key has been removed or replaced by these keys; null if they are unknown
+     */
+    public PublicKeysRefreshedEvent(PublicKeyService source, Map<String, PublicKey> publicKeys, Set<String> retiredKeyIds) {
+        super(source);
+        if (publicKeys == null) {
+            throw new IllegalArgumentException("publicKeys must not be null");
+        }
+        this.publicKeys = unmodifiableMap(publicKeys);
+        this.retiredKeyIds = retiredKeyIds == null ? null : unmodifiableSet(retiredKeyIds);
+    }
+
+    public Map<String, PublicKey> getPublicKeys() {
+        return publicKeys;
+    }
+
+    /**
+     * @return the kids whose previous key has been removed or replaced; or null if they are unknown
+     */
+    public Set<String> getRetiredKeyIds() {
+        return retiredKeyIds;
+    }
+}
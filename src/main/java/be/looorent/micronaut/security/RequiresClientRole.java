@@ -0,0 +1,32 @@
+package be.looorent.micronaut.security;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Restricts a route (or every route of a controller) to the tokens that grant at least one of these roles of a client,
+ * listed in the resource_access.&lt;client&gt;.roles claim.
+ * Other requests are rejected with a 403 status.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Documented
+@Retention(RUNTIME)
+@Target({METHOD, TYPE})
+@RequiresRoles
+public @interface RequiresClientRole {
+
+    /**
+     * @return the id of the client that defines these roles
+     */
+    String client();
+
+    /**
+     * @return the roles of this client, at least one of them being required
+     */
+    String[] value();
+}
@@ -0,0 +1,27 @@
+package be.looorent.micronaut.security;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Restricts a route (or every route of a controller) to the tokens that grant at least one of these realm roles,
+ * listed in the realm_access.roles claim.
+ * Other requests are rejected with a 403 status.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Documented
+@Retention(RUNTIME)
+@Target({METHOD, TYPE})
+@RequiresRoles
+public @interface RequiresRealmRole {
+
+    /**
+     * @return the realm roles, at least one of them being required
+     */
+    String[] value();
+}
@@ -0,0 +1,22 @@
+package be.looorent.micronaut.security;
+
+import io.micronaut.context.annotation.Executable;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.ANNOTATION_TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Stereotype of the annotations that restrict a route to the tokens granting some roles
+ * (see {@link RequiresRealmRole} and {@link RequiresClientRole}).
+ * The routes annotated with them are processed once at startup by {@link RoleAuthorizer}.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(ANNOTATION_TYPE)
+@Executable(processOnStartup = true)
+public @interface RequiresRoles {}
@@ -0,0 +1,135 @@
+package be.looorent.micronaut.security;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * Set of revoked identifiers (jti or sid), each one being kept until the tokens it identifies have expired.
+ *
+ * The exact set is guarded by a bloom filter: most identifiers are not revoked, and the filter tells it
+ * with a few reads of a bit array, without hashing the identifier again (its {@link String#hashCode()} is cached by the JVM)
+ * and without any allocation. Only the identifiers that might be revoked (about 1% of the others) are looked up in the exact set.
+ *
+ * A bloom filter cannot forget its entries: when the set is full, the expired identifiers are removed
+ * and the filter is rebuilt from the remaining ones, larger if needed.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+final class RevokedIdentifiers {
+
+    private final Map<String, Long> expirationPerIdentifier;
+    private volatile BloomFilter filter;
+    private volatile int capacity;
+
+    RevokedIdentifiers(int expectedSize) {
+        if (expectedSize <= 0) {
+            throw new IllegalArgumentException("expectedSize must be positive");
+        }
+        this.expirationPerIdentifier = new ConcurrentHashMap<>(expectedSize);
+        this.filter = new BloomFilter(expectedSize);
+        this.capacity = expectedSize;
+    }
+
+    /**
+     * @param identifier a jti or a sid; can be null
+     * @return whether or not this identifier has been revoked
+     */
+    boolean contains(String identifier) {
+        return identifier != null
+                && filter.mightContain(identifier.hashCode())
+                && expirationPerIdentifier.containsKey(identifier);
+    }
+
+    /**
+     * @param identifier a jti or a sid
+     * @param expiresAtInMs when the last token with this identifier expires, after which it does not need to be kept
+     */
+    synchronized void add(String identifier, long expiresAtInMs) {
+        expirationPerIdentifier.merge(identifier, expiresAtInMs, Math::max);
+        filter.add(identifier.hashCode());
+        if (expirationPerIdentifier.size() > capacity) {
+            removeExpiredIdentifiers();
+        }
+    }
+
+    boolean isEmpty() {
+        return expirationPerIdentifier.isEmpty();
+    }
+
+    int size() {
+        return expirationPerIdentifier.size();
+    }
+
+    /**
+     * The new filter is filled before being published, so that a revoked identifier is never missed in between.
+     */
+    private void removeExpiredIdentifiers() {
+        long nowInMs = currentTimeMillis();
+        expirationPerIdentifier.values().removeIf(expiresAtInMs -> expiresAtInMs <= nowInMs);
+        int newCapacity = Math.max(capacity, 2 * expirationPerIdentifier.size());
+        BloomFilter newFilter = new BloomFilter(newCapacity);
+        for (String identifier : expirationPerIdentifier.keySet()) {
+            newFilter.add(identifier.hashCode());
+        }
+        filter = newFilter;
+        capacity = newCapacity;
+    }
+
+    /**
+     * Bloom filter with a false positive rate of about 1% at its expected size, whose bits can be set while being read.
+     * Its k indexes are derived from a single hash (Kirsch and Mitzenmacher).
+     */
+    private static final class BloomFilter {
+        private static final int BITS_PER_ENTRY = 10;
+        private static final int HASH_COUNT = 7;
+
+        private final AtomicLongArray words;
+        private final int mask;
+
+        private BloomFilter(int expectedSize) {
+            long bitCount = Long.highestOneBit(Math.max(64L, (long) expectedSize * BITS_PER_ENTRY - 1) << 1);
+            this.words = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE, bitCount >>> 6));
+            this.mask = (int) Math.min(Integer.MAX_VALUE, bitCount - 1);
+        }
+
+        private void add(int hash) {
+            int first = mix(hash);
+            int second = mix(first) | 1;
+            for (int i = 0; i < HASH_COUNT; i++) {
+                int index = (first + i * second) & mask;
+                long bit = 1L << index;
+                int word = index >>> 6;
+                long current;
+                do {
+                    current = words.get(word);
+                } while ((current & bit) == 0 && !words.compareAndSet(word, current, current | bit));
+            }
+        }
+
+        private boolean mightContain(int hash) {
+            int first = mix(hash);
+            int second = mix(first) | 1;
+            for (int i = 0; i < HASH_COUNT; i++) {
+                int index = (first + i * second) & mask;
+                if ((words.get(index >>> 6) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Finalizer of MurmurHash3, so that close hash codes are spread over the whole filter.
+         */
+        private static int mix(int hash) {
+            hash ^= hash >>> 16;
+            hash *= 0x85ebca6b;
+            hash ^= hash >>> 13;
+            hash *= 0xc2b2ae35;
+            hash ^= hash >>> 16;
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package be.looorent.micronaut.security;
+
+import io.jsonwebtoken.Claims;
+import io.micronaut.context.processor.ExecutableMethodProcessor;
+import io.micronaut.core.annotation.AnnotationMetadata;
+import io.micronaut.core.annotation.AnnotationMetadataProvider;
+import io.micronaut.core.annotation.AnnotationValue;
+import io.micronaut.http.HttpAttributes;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.inject.BeanDefinition;
+import io.micronaut.inject.ExecutableMethod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Authorizes the routes annotated with {@link RequiresRealmRole} or {@link RequiresClientRole}.
+ *
+ * The annotation metadata of the routes is generated at compile time by Micronaut, and processed once at startup:
+ * each role they require gets an index, and each route gets a {@link RoleRequirement}.
+ * When a token is verified, the roles it grants are looked up once in these indexes to build its {@link GrantedRoles};
+ * authorizing a request is then a few bitwise ANDs, without any claim to read nor any string to compare.
+ *
+ * Only the roles required by a route are indexed; the other roles of a token are ignored.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Singleton
+class RoleAuthorizer implements ExecutableMethodProcessor<RequiresRoles> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoleAuthorizer.class);
+    private static final String REALM_ACCESS = "realm_access";
+    private static final String RESOURCE_ACCESS = "resource_access";
+    private static final String ROLES = "roles";
+    private static final String CLIENT = "client";
+    private static final String REALM = "";
+
+    private final Map<String, Map<String, Integer>> indexPerRolePerClient;
+    private final Map<AnnotationMetadata, RoleRequirement> requirementPerRoute;
+    private final AtomicInteger roleCount;
+    private volatile boolean enabled;
+
+    RoleAuthorizer() {
+        this.indexPerRolePerClient = new ConcurrentHashMap<>();
+        this.requirementPerRoute = new ConcurrentHashMap<>();
+        this.roleCount = new AtomicInteger();
+        this.enabled = false;
+    }
+
+    @Override
+    public void process(BeanDefinition<?> beanDefinition, ExecutableMethod<?, ?> method) {
+        requirementOf(method.getAnnotationMetadata());
+        LOG.debug("Roles are required to call {}#{}", beanDefinition.getBeanType().getSimpleName(), method.getMethodName());
+    }
+
+    /**
+     * @return whether or not at least one route requires roles
+     */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param claims the claims of a verified token
+     * @return the roles granted by this token, among the roles required by the routes
+     */
+    GrantedRoles grantedRolesOf(Claims claims) {
+        int count = roleCount.get();
+        if (count == 0) {
+            return GrantedRoles.NONE;
+        }
+        long[] bits = new long[(count + 63) >>> 6];
+        Map<String, Integer> realmRoles = indexPerRolePerClient.get(REALM);
+        if (realmRoles != null) {
+            grant(bits, realmRoles, claims.get(REALM_ACCESS));
+        }
+        Object resourceAccess = indexPerRolePerClient.size() > (realmRoles == null ? 0 : 1) ? claims.get(RESOURCE_ACCESS) : null;
+        if (resourceAccess instanceof Map) {
+            for (Map.Entry<String, Map<String, Integer>> clientRoles : indexPerRolePerClient.entrySet()) {
+                if (!REALM.equals(clientRoles.getKey())) {
+                    grant(bits, clientRoles.getValue(), ((Map<?, ?>) resourceAccess).get(clientRoles.getKey()));
+                }
+            }
+        }
+        return new GrantedRoles(bits);
+    }
+
+    /**
+     * @param request a request whose route has been resolved
+     * @param roles the roles granted by the token of this request
+     * @return whether or not these roles are enough to call the route of this request
+     */
+    boolean isAuthorized(HttpRequest<?> request, GrantedRoles roles) {
+        Optional<AnnotationMetadataProvider> route = request.getAttribute(HttpAttributes.ROUTE_MATCH, AnnotationMetadataProvider.class);
+        return !route.isPresent() || requirementOf(route.get().getAnnotationMetadata()).isSatisfiedBy(roles);
+    }
+
+    RoleRequirement requirementOf(AnnotationMetadata route) {
+        if (!route.hasStereotype(RequiresRoles.class)) {
+            return RoleRequirement.NONE;
+        }
+        RoleRequirement requirement = requirementPerRoute.get(route);
+        if (requirement == null) {
+            requirement = compileRequirementOf(route);
+            requirementPerRoute.put(route, requirement);
+        }
+        return requirement;
+    }
+
+    private RoleRequirement compileRequirementOf(AnnotationMetadata route) {
+        List<long[]> masks = new ArrayList<>(2);
+        String[] realmRoles = route.stringValues(RequiresRealmRole.class);
+        if (realmRoles.length > 0) {
+            masks.add(maskOf(REALM, realmRoles));
+        }
+        Optional<AnnotationValue<RequiresClientRole>> clientRoles = route.findAnnotation(RequiresClientRole.class);
+        if (clientRoles.isPresent()) {
+            String client = clientRoles.get().stringValue(CLIENT)
+                    .orElseThrow(() -> new IllegalArgumentException("@RequiresClientRole must define a client"));
+            masks.add(maskOf(client, clientRoles.get().stringValues()));
+        }
+        enabled = true;
+        return new RoleRequirement(masks.toArray(new long[0][]));
+    }
+
+    private long[] maskOf(String client, String[] roles) {
+        Map<String, Integer> indexPerRole = indexPerRolePerClient.computeIfAbsent(client, key -> new ConcurrentHashMap<>());
+        long[] mask = new long[0];
+        for (String role : roles) {
+            int index = indexPerRole.computeIfAbsent(role, key -> roleCount.getAndIncrement());
+            if ((index >>> 6) >= mask.length) {
+                long[] largerMask = new long[(index >>> 6) + 1];
+                System.arraycopy(mask, 0, largerMask, 0, mask.length);
+                mask = largerMask;
+            }
+            mask[index >>> 6] |= 1L << index;
+        }
+        return mask;
+    }
+
+    private static void grant(long[] bits, Map<String, Integer> indexPerRole, Object access) {
+        Object roles = access instanceof Map ? ((Map<?, ?>) access).get(ROLES) : null;
+        if (roles instanceof Collection) {
+            for (Object role : (Collection<?>) roles) {
+                Integer index = role == null ? null : indexPerRole.get(role);
+                if (index != null && (index >>> 6) < bits.length) {
+                    bits[index >>> 6] |= 1L << index;
+                }
+            }
+        }
+    }
+}
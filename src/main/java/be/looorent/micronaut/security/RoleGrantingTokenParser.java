@@ -0,0 +1,19 @@
+package be.looorent.micronaut.security;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * {@link TokenParser} of the adapter that can compute the roles granted by a token along with its security context,
+ * so that {@link SecurityFilter} checks the roles required by a route (see {@link RoleAuthorizer}).
+ * These roles never reach the application: the public methods of {@link TokenParser} return the security context alone.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+interface RoleGrantingTokenParser extends TokenParser {
+
+    /**
+     * @param token a textual JWT
+     * @return a stage completed as {@link #parseAsync(String)}, except that the security context is wrapped in an
+     *         {@link AuthorizedSecurityContext} when some routes require roles
+     */
+    CompletionStage<SecurityContext> parseGrantingRolesAsync(String token);
+}
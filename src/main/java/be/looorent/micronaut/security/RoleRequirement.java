@@ -0,0 +1,26 @@
+package be.looorent.micronaut.security;
+
+/**
+ * Roles required by a route: for each annotation ({@link RequiresRealmRole}, {@link RequiresClientRole}),
+ * a bitset of roles of which at least one must be granted.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+final class RoleRequirement {
+
+    static final RoleRequirement NONE = new RoleRequirement(new long[0][]);
+
+    private final long[][] masks;
+
+    RoleRequirement(long[][] masks) {
+        this.masks = masks;
+    }
+
+    boolean isSatisfiedBy(GrantedRoles roles) {
+        for (long[] mask : masks) {
+            if (!roles.grantsAnyOf(mask)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
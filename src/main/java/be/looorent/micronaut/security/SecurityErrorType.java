@@ -7,27 +7,52 @@ package be.looorent.micronaut.security;
 public enum SecurityErrorType {
 
     /**
-     * see [io.jsonwebtoken.UnsupportedJwtException]
+     * When a JWT is not signed, or signed with an algorithm that is not supported
      */
     JWT_UNSUPPORTED("jws_unsupported_by_application"),
 
     /**
-     * [io.jsonwebtoken.MalformedJwtException]
+     * When a JWT cannot be decoded
      */
     JWT_MALFORMED("jws_malformed"),
 
     /**
-     * [io.jsonwebtoken.ExpiredJwtException]
+     * When a JWT is longer than 'security.token.max-length'
+     */
+    JWT_TOO_LARGE("jwt_too_large"),
+
+    /**
+     * When a JWT is used after its expiration date (exp)
      */
     JWT_EXPIRED("jwt_expired"),
 
     /**
-     * [io.jsonwebtoken.SignatureException]
+     * When a JWT is used before its not-before date (nbf)
+     */
+    JWT_NOT_YET_VALID("jwt_not_yet_valid"),
+
+    /**
+     * When the signature of a JWT does not match its content
      */
     JWT_WRONG_SIGNATURE("jwt_wrong_signature"),
 
     JWT_WRONG_KID("jwt_wrong_key_id"),
 
+    /**
+     * When the issuer of a JWT is not one of the accepted issuers
+     */
+    JWT_WRONG_ISSUER("jwt_wrong_issuer"),
+
+    /**
+     * When Keycloak tells that a token is not active, when the tokens are introspected by Keycloak
+     */
+    TOKEN_INACTIVE("token_inactive"),
+
+    /**
+     * When a token has been revoked, see {@link TokenRevocations}
+     */
+    TOKEN_REVOKED("token_revoked"),
+
     UNKWOWN("unkwown_error"),
 
     /**
@@ -48,16 +73,37 @@ public enum SecurityErrorType {
     /**
      * When a {@link TokenValidator} has rejected a token.
      */
-    VALIDATION("token_content_validation");
+    VALIDATION("token_content_validation"),
+
+    /**
+     * When a token does not grant the roles required by a route (see {@link RequiresRealmRole} and {@link RequiresClientRole}).
+     */
+    ROLE_MISSING("role_missing"),
+
+    /**
+     * When a client has sent too many invalid tokens recently (see 'security.throttle.enabled').
+     */
+    TOO_MANY_FAILURES("too_many_failures"),
+
+    /**
+     * When too many tokens are being verified at once (see 'security.verification.bulkhead.enabled').
+     */
+    VERIFICATION_SATURATED("verification_saturated");
 
     private final String reason;
+    private final SecurityException exception;
 
     SecurityErrorType(String reason) {
         this.reason = reason;
+        this.exception = new SecurityException(this, reason, false);
     }
 
+    /**
+     * Rejected tokens are expected to be frequent, so this exception is created once per type, without any stack trace.
+     * @return the exception describing this type of error, shared by all the threads
+     */
     public SecurityException toException() {
-        return new SecurityException(this);
+        return exception;
     }
 
     public String getReason() {
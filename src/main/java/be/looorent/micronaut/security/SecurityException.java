@@ -18,6 +18,17 @@ public class SecurityException extends RuntimeException {
         this.type = type;
     }
 
+    /**
+     * @param type the type of error
+     * @param message the error message
+     * @param writableStackTrace whether or not the stack trace should be filled;
+     *                           an exception without stack trace is much cheaper to create and can be shared
+     */
+    protected SecurityException(SecurityErrorType type, String message, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+        this.type = type;
+    }
+
     public SecurityErrorType getType() {
         return type;
     }
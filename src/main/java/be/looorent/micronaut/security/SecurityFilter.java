@@ -1,6 +1,5 @@
 package be.looorent.micronaut.security;
 
-
 import io.micronaut.http.HttpRequest;
 import io.micronaut.http.HttpStatus;
 import io.micronaut.http.MutableHttpResponse;
@@ -11,51 +10,160 @@ import io.reactivex.Flowable;
 import org.reactivestreams.Publisher;
 
 import javax.inject.Singleton;
+import java.util.EnumMap;
+import java.util.Map;
 
 import static be.looorent.micronaut.security.Constant.SECURITY_CONTEXT;
+import static be.looorent.micronaut.security.FailedSecurityContext.UNEXPECTED_ERROR_MESSAGE;
+import static be.looorent.micronaut.security.SecurityErrorType.ROLE_MISSING;
+import static be.looorent.micronaut.security.SecurityErrorType.TOO_MANY_FAILURES;
+import static be.looorent.micronaut.security.SecurityErrorType.VERIFICATION_SATURATED;
+import static io.micronaut.http.HttpHeaders.RETRY_AFTER;
 import static io.micronaut.http.HttpResponse.status;
+import static io.micronaut.http.HttpStatus.FORBIDDEN;
 import static io.micronaut.http.HttpStatus.INTERNAL_SERVER_ERROR;
+import static io.micronaut.http.HttpStatus.SERVICE_UNAVAILABLE;
+import static io.micronaut.http.HttpStatus.TOO_MANY_REQUESTS;
 import static io.micronaut.http.HttpStatus.UNAUTHORIZED;
-import static io.reactivex.Flowable.fromCallable;
-import static io.reactivex.schedulers.Schedulers.io;
+import static io.reactivex.Flowable.just;
 
 /**
  * This service is not injected as a Micronaut filter, but can be used
  * as the implementation of a Filter in the actual app.
+ * The bodies of the error responses are built once, so that rejecting a request costs as little as possible.
+ * When the {@link FailureThrottle} is enabled, a client that has sent too many invalid tokens is rejected with a 429 status
+ * before its Authorization header is even read.
+ * When too many tokens are being verified at once (see {@link VerificationBulkhead}), requests are rejected with a 503 status.
+ * The requests to the {@link AnonymousPaths} go straight to the next filters, unless their route requires roles.
  * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
  */
 @Singleton
 public class SecurityFilter implements HttpServerFilter {
 
+    private static final JsonError UNEXPECTED_ERROR_BODY = new JsonError(UNEXPECTED_ERROR_MESSAGE);
+    private static final Map<SecurityErrorType, JsonError> SECURITY_ERROR_BODIES = createSecurityErrorBodies();
+
     private SecurityService service;
+    private RoleAuthorizer roleAuthorizer;
+    private FailureThrottle throttle;
+    private AnonymousPaths anonymousPaths;
+    private String retryAfterInSeconds;
 
-    SecurityFilter(SecurityService service) {
+    SecurityFilter(SecurityService service, RoleAuthorizer roleAuthorizer, FailureThrottle throttle, AnonymousPaths anonymousPaths) {
+        if (service == null) {
+            throw new IllegalArgumentException("No SecurityService has been found");
+        }
+        if (roleAuthorizer == null) {
+            throw new IllegalArgumentException("No RoleAuthorizer has been found");
+        }
+        if (throttle == null) {
+            throw new IllegalArgumentException("No FailureThrottle has been found");
+        }
+        if (anonymousPaths == null) {
+            throw new IllegalArgumentException("No AnonymousPaths has been found");
+        }
         this.service = service;
+        this.roleAuthorizer = roleAuthorizer;
+        this.throttle = throttle;
+        this.anonymousPaths = anonymousPaths;
+        this.retryAfterInSeconds = Long.toString(Math.max(1, (throttle.getRetryDelay().toMillis() + 999) / 1000));
     }
 
     /**
      * Checks the validity of a request's Authorization header and continue processing the filter chain if no error occurs.
+     * When the route of this request requires roles ({@link RequiresRealmRole}, {@link RequiresClientRole}),
+     * the token must grant them; otherwise, the request is rejected with a 403 status.
+     * A request to an anonymous path is not checked at all, and has no {@link SecurityContext}.
      * @param request the request that must be validated against the security checks
      * @param chain next filters to process if no error occurs
      * @return an HTTP response
      */
     public Publisher<MutableHttpResponse<?>> doFilter(HttpRequest<?> request, ServerFilterChain chain) {
+        if (isAnonymous(request)) {
+            return chain.proceed(request);
+        }
+        String client = throttle.isEnabled() ? throttle.clientOf(request) : null;
+        if (client != null && throttle.isThrottled(client)) {
+            return handleThrottledClient();
+        }
         return service.readAndVerifyTokenIn(request).switchMap(context -> {
             if (context instanceof FailedSecurityContext) {
-                return handleAuthenticationFailure((FailedSecurityContext) context);
+                FailedSecurityContext failure = (FailedSecurityContext) context;
+                if (client != null && !failure.isUnexpected() && typeOf(failure) != VERIFICATION_SATURATED) {
+                    throttle.recordFailure(client);
+                }
+                return handleAuthenticationFailure(failure);
+            }
+            else if (context instanceof AuthorizedSecurityContext) {
+                AuthorizedSecurityContext authorizedContext = (AuthorizedSecurityContext) context;
+                if (!roleAuthorizer.isAuthorized(request, authorizedContext.getRoles())) {
+                    return handleAuthorizationFailure();
+                }
+                request.setAttribute(SECURITY_CONTEXT, authorizedContext.getContext());
+                return chain.proceed(request);
             }
             else {
+                if (roleAuthorizer.isEnabled() && !roleAuthorizer.isAuthorized(request, GrantedRoles.NONE)) {
+                    return handleAuthorizationFailure();
+                }
                 request.setAttribute(SECURITY_CONTEXT, context);
                 return chain.proceed(request);
             }
         });
     }
 
+    /**
+     * A route that requires roles is never anonymous, whatever its path.
+     */
+    private boolean isAnonymous(HttpRequest<?> request) {
+        return anonymousPaths.matches(request.getMethod(), request.getPath())
+                && (!roleAuthorizer.isEnabled() || roleAuthorizer.isAuthorized(request, GrantedRoles.NONE));
+    }
+
     private Flowable<MutableHttpResponse<JsonError>> handleAuthenticationFailure(FailedSecurityContext failure) {
-        return fromCallable(() -> {
-            JsonError body = new JsonError(failure.getMessage());
-            HttpStatus status = failure.isUnexpected() ? INTERNAL_SERVER_ERROR : UNAUTHORIZED;
-            return status(status).body(body);
-        }).subscribeOn(io());
+        HttpStatus status;
+        if (failure.isUnexpected()) {
+            status = INTERNAL_SERVER_ERROR;
+        }
+        else if (typeOf(failure) == VERIFICATION_SATURATED) {
+            status = SERVICE_UNAVAILABLE;
+        }
+        else {
+            status = UNAUTHORIZED;
+        }
+        return just(status(status).body(bodyOf(failure)));
+    }
+
+    private Flowable<MutableHttpResponse<JsonError>> handleAuthorizationFailure() {
+        return just(status(FORBIDDEN).body(SECURITY_ERROR_BODIES.get(ROLE_MISSING)));
+    }
+
+    private Flowable<MutableHttpResponse<?>> handleThrottledClient() {
+        return just(status(TOO_MANY_REQUESTS).header(RETRY_AFTER, retryAfterInSeconds).body(SECURITY_ERROR_BODIES.get(TOO_MANY_FAILURES)));
+    }
+
+    private static SecurityErrorType typeOf(FailedSecurityContext failure) {
+        return failure.getException() instanceof SecurityException ? ((SecurityException) failure.getException()).getType() : null;
+    }
+
+    private static JsonError bodyOf(FailedSecurityContext failure) {
+        if (failure.isUnexpected()) {
+            return UNEXPECTED_ERROR_BODY;
+        }
+        else if (failure.getException() instanceof SecurityException) {
+            SecurityErrorType type = ((SecurityException) failure.getException()).getType();
+            if (type != null && type.getReason().equals(failure.getMessage())) {
+                return SECURITY_ERROR_BODIES.get(type);
+            }
+        }
+        return new JsonError(failure.getMessage());
+    }
+
+    private static Map<SecurityErrorType, JsonError> createSecurityErrorBodies() {
+        Map<SecurityErrorType, JsonError> bodies = new EnumMap<>(SecurityErrorType.class);
+        for (SecurityErrorType type : SecurityErrorType.values()) {
+            bodies.put(type, new JsonError(type.getReason()));
+        }
+        return bodies;
     }
 }
\ No newline at end of file
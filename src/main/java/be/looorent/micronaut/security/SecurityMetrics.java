@@ -0,0 +1,54 @@
+package be.looorent.micronaut.security;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Measures what the verification of tokens costs.
+ * Most methods are called for every request, so implementations must neither block nor allocate.
+ * Durations are measured between a call to {@link #start()} and a call to one of the record methods.
+ *
+ * By default, nothing is measured (see {@link NoOpSecurityMetrics}).
+ * Micrometer meters are registered when the property 'security.metrics.enabled' is true and a MeterRegistry is available.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+public interface SecurityMetrics {
+
+    /**
+     * Outcome of a retrieval of the public keys.
+     */
+    enum PublicKeysFetchOutcome {
+        MODIFIED,
+        NOT_MODIFIED,
+        FAILED
+    }
+
+    /**
+     * @return the start time of a measurement, to provide to a record method
+     */
+    long start();
+
+    void recordHeaderReading(long startTime);
+
+    /**
+     * The verification includes the parsing of the token and the verification of its signature.
+     */
+    void recordSignatureVerification(long startTime);
+
+    void recordValidation(long startTime);
+
+    void recordSecurityContextCreation(long startTime);
+
+    void recordRejection(SecurityErrorType type);
+
+    void recordPublicKeyLookup(boolean found);
+
+    void recordPublicKeysFetch(long startTime, PublicKeysFetchOutcome outcome);
+
+    /**
+     * Registers the number of loaded public keys, read on demand.
+     * @param keyStore the object that holds the public keys
+     * @param keyCount reads the number of public keys in keyStore
+     * @param <T> the type of keyStore
+     */
+    <T> void monitorLoadedPublicKeys(T keyStore, ToDoubleFunction<T> keyCount);
+}
@@ -1,16 +1,23 @@
 package be.looorent.micronaut.security;
 
+import io.micronaut.context.annotation.Value;
 import io.micronaut.http.HttpRequest;
+import io.reactivex.Completable;
 import io.reactivex.Flowable;
+import io.reactivex.Single;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 import static be.looorent.micronaut.security.FailedSecurityContext.securityErrorFound;
 import static be.looorent.micronaut.security.FailedSecurityContext.unexpectedErrorDuringVerification;
 import static be.looorent.micronaut.security.SecurityErrorType.*;
-import static io.reactivex.Flowable.fromCallable;
+import static io.reactivex.Flowable.defer;
+import static io.reactivex.schedulers.Schedulers.computation;
 import static io.reactivex.schedulers.Schedulers.io;
 
 /**
@@ -23,47 +30,138 @@ class SecurityService {
 
     private static final String HEADER_NAME = "Authorization";
     private static final String BEARER_SCHEME = "Bearer";
+    private static final char SEPARATOR = ' ';
 
     private TokenParser tokenParser;
+    private VerificationExecutionMode executionMode;
+    private SecurityMetrics metrics;
+    private VerificationBulkhead bulkhead;
 
-    SecurityService(TokenParser tokenParser) {
+    SecurityService(TokenParser tokenParser,
+                    @Value("${security.verification.execution-mode:io}") String executionMode,
+                    SecurityMetrics metrics,
+                    VerificationBulkhead bulkhead) {
         if (tokenParser == null) {
             throw new IllegalArgumentException("No implementation of TokenParser has been found");
         }
+        if (metrics == null) {
+            throw new IllegalArgumentException("No implementation of SecurityMetrics has been found");
+        }
+        if (bulkhead == null) {
+            throw new IllegalArgumentException("No VerificationBulkhead has been found");
+        }
         this.tokenParser = tokenParser;
+        this.executionMode = VerificationExecutionMode.fromProperty(executionMode);
+        this.metrics = metrics;
+        this.bulkhead = bulkhead;
     }
 
+    /**
+     * Reads the token of a request and verifies it according to the configured {@link VerificationExecutionMode}.
+     * When the token requires I/O first (e.g. retrieving a public key), this I/O is awaited without blocking any thread
+     * and the token is then verified on the io() scheduler.
+     * Verifications go through the {@link VerificationBulkhead}, which may reject them when too many are in flight.
+     * The context of a verified token is built by the {@link AsyncSecurityContextFactory}: the returned flowable emits it
+     * once it is completed, in the thread that has completed it, without blocking any thread in between.
+     * @param request the request to authenticate
+     * @return a single security context, which is a {@link FailedSecurityContext} if the token is not valid; never emits an error
+     */
     Flowable<SecurityContext> readAndVerifyTokenIn(HttpRequest<?> request)  {
-        return fromCallable(() -> {
-            try {
-                String token = readTokenInHeadersOf(request);
-                return tokenParser.parse(token);
+        return defer(() -> {
+            long startTime = metrics.start();
+            String token = readTokenInHeadersOf(request);
+            metrics.recordHeaderReading(startTime);
+            CompletableFuture<Void> preparation = tokenParser.prepare(token).toCompletableFuture();
+            Flowable<SecurityContext> verification = defer(() -> whenParsed(parseGrantingRoles(token)));
+            if (!preparation.isDone()) {
+                return whenCompleted(preparation).andThen(bulkhead.execute(verification, io()));
+            }
+            switch (executionMode) {
+                case INLINE:
+                    return bulkhead.execute(verification, null);
+                case COMPUTATION:
+                    return bulkhead.execute(verification, computation());
+                default:
+                    return bulkhead.execute(verification, io());
+            }
+        }).onErrorReturn(this::toFailedSecurityContext);
+    }
+
+    /**
+     * The parsers of the adapter compute the roles granted by the token along with its context, for {@link SecurityFilter} only.
+     */
+    private CompletionStage<SecurityContext> parseGrantingRoles(String token) {
+        return tokenParser instanceof RoleGrantingTokenParser ? ((RoleGrantingTokenParser) tokenParser).parseGrantingRolesAsync(token) : tokenParser.parseAsync(token);
+    }
+
+    private SecurityContext toFailedSecurityContext(Throwable error) {
+        if (error instanceof SecurityException) {
+            LOG.debug("A security error occurred when reading and verifying the request's token", error);
+            SecurityException securityError = (SecurityException) error;
+            metrics.recordRejection(securityError.getType() == null ? UNKWOWN : securityError.getType());
+            return securityErrorFound(securityError);
+        }
+        else {
+            LOG.error("An unexpected error occurred when reading and verifying the request's token", error);
+            metrics.recordRejection(UNKWOWN);
+            return unexpectedErrorDuringVerification(error);
+        }
+    }
+
+    private static Flowable<SecurityContext> whenParsed(CompletionStage<SecurityContext> stage) {
+        return Single.<SecurityContext>create(emitter -> stage.whenComplete((context, error) -> {
+            if (error == null) {
+                emitter.onSuccess(context);
+            }
+            else {
+                emitter.onError(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
             }
-            catch (SecurityException e) {
-                LOG.warn("A security error occurred when reading and verifying the request's token", e);
-                return securityErrorFound(e);
+        })).toFlowable();
+    }
+
+    private static Completable whenCompleted(CompletionStage<?> stage) {
+        return Completable.create(emitter -> stage.whenComplete((result, error) -> {
+            if (error == null) {
+                emitter.onComplete();
             }
-            catch (Throwable e) {
-                LOG.error("An unexpected error occurred when reading and verifying the request's token", e);
-                return unexpectedErrorDuringVerification(e);
+            else {
+                emitter.onError(error);
             }
-        }).subscribeOn(io());
+        }));
     }
 
-    private String readTokenInHeadersOf(HttpRequest<?> request) throws SecurityException {
+    /**
+     * Expects a header made of a scheme and a token separated by a single space (trailing spaces are ignored).
+     * The header is scanned in place: the only allocation is the returned token.
+     */
+    String readTokenInHeadersOf(HttpRequest<?> request) throws SecurityException {
         String authorizationHeader = request.getHeaders().get(HEADER_NAME);
         if (authorizationHeader == null) {
             throw AUTHORIZATION_HEADER_MISSING.toException();
         }
 
-        String[] schemeAndToken = authorizationHeader.split(" ");
-        if (schemeAndToken.length != 2) {
+        int schemeEnd = authorizationHeader.indexOf(SEPARATOR);
+        int tokenStart = schemeEnd + 1;
+        int tokenEnd = schemeEnd < 0 ? -1 : authorizationHeader.indexOf(SEPARATOR, tokenStart);
+        if (tokenEnd < 0) {
+            tokenEnd = authorizationHeader.length();
+        }
+        if (schemeEnd < 0 || tokenEnd == tokenStart || !isBlankFrom(authorizationHeader, tokenEnd)) {
             throw AUTHORIZATION_HEADER_WRONG_FORMAT.toException();
         }
 
-        if (!BEARER_SCHEME.equalsIgnoreCase(schemeAndToken[0])) {
+        if (schemeEnd != BEARER_SCHEME.length() || !authorizationHeader.regionMatches(true, 0, BEARER_SCHEME, 0, schemeEnd)) {
             throw AUTHORIZATION_HEADER_WRONG_SCHEME.toException();
         }
-        return schemeAndToken[1];
+        return authorizationHeader.substring(tokenStart, tokenEnd);
+    }
+
+    private static boolean isBlankFrom(String value, int start) {
+        for (int i = start; i < value.length(); i++) {
+            if (value.charAt(i) != SEPARATOR) {
+                return false;
+            }
+        }
+        return true;
     }
 }
\ No newline at end of file
@@ -0,0 +1,172 @@
+package be.looorent.micronaut.security;
+
+import io.micronaut.context.event.ApplicationEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static be.looorent.micronaut.security.SecurityErrorType.JWT_UNSUPPORTED;
+
+/**
+ * Verifies the signature of tokens with {@link Signature} objects that are created and initialized once per public key and algorithm,
+ * instead of once per token. These objects are pooled: a verification borrows one and gives it back, without any lock.
+ *
+ * The pools belong to a public key rather than to a kid, so that the same kid used by several realms does not share a pool.
+ * Keys are compared with {@link PublicKey#equals(Object)}, i.e. by their encoding for the keys of the JVM: the pools of a key
+ * that a refresh publishes again are kept.
+ *
+ * A signature per algorithm is prepared as soon as a {@link PublicKeyService} publishes its keys (see {@link PublicKeysRefreshedEvent}),
+ * so that the first requests do not pay for the JCA provider lookup either; each pool then grows with the concurrent verifications of its key.
+ * Keys that are not published are handled the same way, from the first token they verify.
+ * Beyond {@value #MAX_KEYS} keys, the pools of a key taken at random are dropped for each new key.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Singleton
+class SignatureVerifiers implements ApplicationEventListener<PublicKeysRefreshedEvent> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SignatureVerifiers.class);
+    private static final int MAX_KEYS = 1_024;
+    private static final int EVICTION_SAMPLE_SIZE = 16;
+    private static final int POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final Map<PublicKey, KeyVerifier> verifierPerKey;
+
+    SignatureVerifiers() {
+        this.verifierPerKey = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param key the public key identified by the kid of the token
+     * @param algorithm the alg of the token
+     * @param signingInput the ASCII bytes of the token's header and payload, including the dot that separates them
+     * @param length the number of bytes to read in signingInput
+     * @param signature the decoded signature of the token
+     * @return whether or not the signature is valid
+     * @throws SecurityException if this key cannot verify this algorithm
+     */
+    boolean verify(PublicKey key, JwsAlgorithm algorithm, byte[] signingInput, int length, byte[] signature) throws SecurityException {
+        return verifierOf(key, false).verify(algorithm, signingInput, length, signature);
+    }
+
+    @Override
+    public void onApplicationEvent(PublicKeysRefreshedEvent event) {
+        event.getPublicKeys().values().forEach(key -> verifierOf(key, true));
+        LOG.debug("Signature verifiers are ready for {} public keys", event.getPublicKeys().size());
+    }
+
+    int size() {
+        return verifierPerKey.size();
+    }
+
+    private KeyVerifier verifierOf(PublicKey key, boolean prefill) {
+        KeyVerifier verifier = verifierPerKey.get(key);
+        if (verifier == null) {
+            if (verifierPerKey.size() >= MAX_KEYS) {
+                evictRandomKey();
+            }
+            KeyVerifier newVerifier = new KeyVerifier(key, prefill);
+            verifier = verifierPerKey.putIfAbsent(key, newVerifier);
+            return verifier == null ? newVerifier : verifier;
+        }
+        return verifier;
+    }
+
+    private void evictRandomKey() {
+        List<Map.Entry<PublicKey, KeyVerifier>> sample = CacheSample.of(verifierPerKey, EVICTION_SAMPLE_SIZE);
+        if (!sample.isEmpty()) {
+            Map.Entry<PublicKey, KeyVerifier> evicted = sample.get(ThreadLocalRandom.current().nextInt(sample.size()));
+            verifierPerKey.remove(evicted.getKey(), evicted.getValue());
+        }
+    }
+
+    private static final class KeyVerifier {
+        private final SignaturePool[] poolPerAlgorithm;
+
+        private KeyVerifier(PublicKey key, boolean prefill) {
+            this.poolPerAlgorithm = new SignaturePool[JwsAlgorithm.values().length];
+            for (JwsAlgorithm algorithm : JwsAlgorithm.values()) {
+                if (algorithm.supports(key)) {
+                    poolPerAlgorithm[algorithm.ordinal()] = new SignaturePool(algorithm, key, prefill);
+                }
+            }
+        }
+
+        private boolean verify(JwsAlgorithm algorithm, byte[] signingInput, int length, byte[] signature) throws SecurityException {
+            SignaturePool pool = poolPerAlgorithm[algorithm.ordinal()];
+            if (pool == null) {
+                throw JWT_UNSUPPORTED.toException();
+            }
+            byte[] jcaSignature = algorithm.toJcaSignature(signature);
+            if (jcaSignature == null) {
+                return false;
+            }
+            Signature verifier = pool.acquire();
+            try {
+                verifier.update(signingInput, 0, length);
+                boolean valid = verifier.verify(jcaSignature);
+                pool.release(verifier);
+                return valid;
+            } catch (SignatureException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Lock-free pool of initialized signatures, holding at most {@link #POOL_SIZE} signatures.
+     * When the pool is empty, a new signature is created; when it is full, the signature given back is discarded.
+     * A prefilled pool starts with a single signature.
+     */
+    private static final class SignaturePool {
+        private final JwsAlgorithm algorithm;
+        private final PublicKey key;
+        private final AtomicReferenceArray<Signature> slots;
+
+        private SignaturePool(JwsAlgorithm algorithm, PublicKey key, boolean prefill) {
+            this.algorithm = algorithm;
+            this.key = key;
+            this.slots = new AtomicReferenceArray<>(POOL_SIZE);
+            if (prefill) {
+                try {
+                    slots.set(0, algorithm.createVerifier(key));
+                } catch (SecurityException e) {
+                    LOG.debug("{} cannot be verified with a key of type {}", algorithm, key.getAlgorithm());
+                }
+            }
+        }
+
+        private Signature acquire() throws SecurityException {
+            int start = firstSlot();
+            for (int i = 0; i < POOL_SIZE; i++) {
+                int slot = (start + i) % POOL_SIZE;
+                Signature signature = slots.get(slot);
+                if (signature != null && slots.compareAndSet(slot, signature, null)) {
+                    return signature;
+                }
+            }
+            return algorithm.createVerifier(key);
+        }
+
+        private void release(Signature signature) {
+            int start = firstSlot();
+            for (int i = 0; i < POOL_SIZE; i++) {
+                if (slots.compareAndSet((start + i) % POOL_SIZE, null, signature)) {
+                    return;
+                }
+            }
+        }
+
+        private static int firstSlot() {
+            return (int) (Thread.currentThread().getId() % POOL_SIZE);
+        }
+    }
+}
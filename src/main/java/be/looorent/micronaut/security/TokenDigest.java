@@ -0,0 +1,51 @@
+package be.looorent.micronaut.security;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * SHA-256 digest of the compact form of a token, used as a key instead of the token itself,
+ * so that the caches do not retain live credentials.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+final class TokenDigest {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(TokenDigest::createDigest);
+
+    private final byte[] value;
+    private final int hash;
+
+    private TokenDigest(byte[] value) {
+        this.value = value;
+        this.hash = Arrays.hashCode(value);
+    }
+
+    /**
+     * @param token a textual JWT
+     */
+    static TokenDigest of(String token) {
+        return new TokenDigest(DIGESTS.get().digest(token.getBytes(US_ASCII)));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof TokenDigest && Arrays.equals(value, ((TokenDigest) other).value);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is not supported by this JVM", e);
+        }
+    }
+}
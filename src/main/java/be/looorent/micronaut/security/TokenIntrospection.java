@@ -0,0 +1,66 @@
+package be.looorent.micronaut.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.impl.DefaultClaims;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Response of the introspection endpoint of Keycloak for a token (RFC 7662).
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+class TokenIntrospection {
+
+    private static final ObjectReader READER = new ObjectMapper().readerFor(Map.class);
+    private static final String ACTIVE = "active";
+
+    private final boolean active;
+    private final Claims claims;
+
+    private TokenIntrospection(boolean active, Claims claims) {
+        this.active = active;
+        this.claims = claims;
+    }
+
+    /**
+     * @param json the response of the introspection endpoint
+     * @return the parsed response
+     * @throws IOException if json is not a JSON object
+     */
+    static TokenIntrospection fromJson(byte[] json) throws IOException {
+        Map<String, Object> values = READER.readValue(json);
+        if (values == null) {
+            throw new IOException("Keycloak has responded without any introspection");
+        }
+        return new TokenIntrospection(Boolean.TRUE.equals(values.get(ACTIVE)), new DefaultClaims(values));
+    }
+
+    /**
+     * @return whether or not the token is valid; when it is not, Keycloak does not tell why
+     */
+    boolean isActive() {
+        return active;
+    }
+
+    /**
+     * @return the claims of an active token, as provided by Keycloak
+     */
+    Claims getClaims() {
+        return claims;
+    }
+
+    /**
+     * @param maxTtlInMs the maximum time to keep this introspection
+     * @param nowInMs the current time
+     * @return until when this introspection can be kept: an active token is not kept after it expires
+     */
+    long computeExpirationInMs(long maxTtlInMs, long nowInMs) {
+        long expirationInMs = nowInMs + maxTtlInMs;
+        Date tokenExpiration = active ? claims.getExpiration() : null;
+        return tokenExpiration == null ? expirationInMs : Math.min(expirationInMs, tokenExpiration.getTime());
+    }
+}
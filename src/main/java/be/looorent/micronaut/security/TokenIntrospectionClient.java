@@ -0,0 +1,90 @@
+package be.looorent.micronaut.security;
+
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.MutableHttpRequest;
+import io.micronaut.http.client.DefaultHttpClientConfiguration;
+import io.micronaut.http.client.RxHttpClient;
+import io.reactivex.Single;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import static io.micronaut.http.MediaType.APPLICATION_FORM_URLENCODED_TYPE;
+import static io.micronaut.http.MediaType.APPLICATION_JSON_TYPE;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Non-blocking HTTP client of the introspection endpoint of a Keycloak realm.
+ * Its connections are pooled, so that successive introspections do not pay for a new connection.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+class TokenIntrospectionClient implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TokenIntrospectionClient.class);
+    private static final String TOKEN_PARAMETER = "token";
+
+    private final URL introspectionUrl;
+    private final String clientId;
+    private final String clientSecret;
+    private final RxHttpClient httpClient;
+    private final long timeoutInMs;
+
+    TokenIntrospectionClient(URL introspectionUrl, KeycloakIntrospectionConfiguration configuration) throws MalformedURLException {
+        if (introspectionUrl == null) {
+            throw new IllegalArgumentException("introspectionUrl must not be null");
+        }
+        if (configuration == null) {
+            throw new IllegalArgumentException("configuration must not be null");
+        }
+        DefaultHttpClientConfiguration httpConfiguration = new DefaultHttpClientConfiguration();
+        httpConfiguration.setConnectTimeout(configuration.getConnectTimeout());
+        httpConfiguration.setReadTimeout(configuration.getReadTimeout());
+        httpConfiguration.getConnectionPoolConfiguration().setEnabled(true);
+        httpConfiguration.getConnectionPoolConfiguration().setMaxConnections(configuration.getMaxConnections());
+        this.introspectionUrl = introspectionUrl;
+        this.clientId = configuration.getClientId();
+        this.clientSecret = configuration.getClientSecret();
+        this.httpClient = RxHttpClient.create(new URL(introspectionUrl.getProtocol(), introspectionUrl.getHost(), introspectionUrl.getPort(), ""), httpConfiguration);
+        this.timeoutInMs = configuration.getTimeout().toMillis();
+    }
+
+    /**
+     * No thread is blocked while waiting for Keycloak.
+     * @param token a token to introspect
+     * @return the response of Keycloak; or an {@link IllegalStateException} if Keycloak cannot be contacted in time or if its response cannot be parsed
+     */
+    Single<TokenIntrospection> introspect(String token) {
+        return Single.defer(() -> httpClient.exchange(createRequest(token), byte[].class).firstOrError())
+                .timeout(timeoutInMs, MILLISECONDS)
+                .map(TokenIntrospectionClient::toIntrospection)
+                .onErrorResumeNext(error -> {
+                    LOG.error("An error occurred when introspecting a token with {}", introspectionUrl, error);
+                    return Single.error(new IllegalStateException("Impossible to introspect a token with the properties you have provided for 'keycloak.base-url', 'keycloak.realm-id' and/or 'keycloak.introspection'", error));
+                });
+    }
+
+    @Override
+    public void close() {
+        httpClient.close();
+    }
+
+    private MutableHttpRequest<?> createRequest(String token) {
+        MutableHttpRequest<?> request = HttpRequest.POST(introspectionUrl.getFile(), singletonMap(TOKEN_PARAMETER, token))
+                .contentType(APPLICATION_FORM_URLENCODED_TYPE)
+                .accept(APPLICATION_JSON_TYPE);
+        if (clientId != null) {
+            request.basicAuth(clientId, clientSecret == null ? "" : clientSecret);
+        }
+        return request;
+    }
+
+    private static TokenIntrospection toIntrospection(HttpResponse<byte[]> response) throws IOException {
+        byte[] body = response.getBody().orElseThrow(() -> new IOException("Keycloak has responded without any introspection"));
+        return TokenIntrospection.fromJson(body);
+    }
+}
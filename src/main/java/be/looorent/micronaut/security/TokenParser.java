@@ -1,10 +1,20 @@
 package be.looorent.micronaut.security;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
 /**
  * Parses and validates a JWT.
+ * The default implementation verifies the tokens locally; another implementation can be provided with @{@link io.micronaut.context.annotation.Replaces}.
  * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
  */
-interface TokenParser {
+public interface TokenParser {
 
     /**
      * @param token a textual JWT
@@ -12,4 +22,47 @@ interface TokenParser {
      * @throws SecurityException if an error occurs during the parsing
      */
     SecurityContext parse(String token) throws SecurityException;
+
+    /**
+     * Parses a token without blocking the calling thread while its {@link SecurityContext} is built (see {@link AsyncSecurityContextFactory}).
+     * By default, the token is parsed by {@link #parse(String)} in the calling thread.
+     * @param token a textual JWT
+     * @return a stage completed with the security context of this token; or completed with a {@link SecurityException} if an error occurs during the parsing
+     */
+    default CompletionStage<SecurityContext> parseAsync(String token) {
+        CompletableFuture<SecurityContext> context = new CompletableFuture<>();
+        try {
+            context.complete(parse(token));
+        } catch (RuntimeException e) {
+            context.completeExceptionally(e);
+        }
+        return context;
+    }
+
+    /**
+     * Makes available everything that {@link #parse(String)} needs (e.g. a public key to retrieve), without blocking the calling thread.
+     * Errors are not reported by this method but by {@link #parse(String)}.
+     * @param token a textual JWT
+     * @return a stage completed once this token can be parsed without waiting for any I/O; never completed exceptionally
+     */
+    default CompletionStage<Void> prepare(String token) {
+        return completedFuture(null);
+    }
+
+    /**
+     * Parses a batch of tokens (e.g. the tokens of the records of a message consumer), where identical tokens are parsed once.
+     * Errors are not thrown but reported per token.
+     * By default, each distinct token is parsed by {@link #parseAsync(String)} in the calling thread.
+     * This method blocks the calling thread until all the tokens are parsed.
+     * @param tokens textual JWTs
+     * @return the verification of each token, in the order of the tokens
+     */
+    default List<TokenVerification> parseAll(List<String> tokens) {
+        Map<String, TokenVerification> verificationPerToken = new HashMap<>();
+        List<TokenVerification> verifications = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            verifications.add(verificationPerToken.computeIfAbsent(token, distinctToken -> TokenVerification.await(distinctToken, parseAsync(distinctToken))));
+        }
+        return verifications;
+    }
 }
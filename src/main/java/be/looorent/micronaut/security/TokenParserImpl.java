@@ -1,75 +1,361 @@
 package be.looorent.micronaut.security;
 
-
-
-/**
- * Wraps the logic to verify & parse a JWT and returns its content.
- */
-import io.jsonwebtoken.*;
+import io.jsonwebtoken.Claims;
 import io.micronaut.context.annotation.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static be.looorent.micronaut.security.SecurityErrorType.*;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 
 /**
- * Default implementation that uses jjwt to read and validate a JWT.
+ * Default implementation that reads and validates a JWT with the {@link SignatureVerifiers} of the adapter,
+ * and exposes its claims with jjwt's {@link Claims}.
+ * The accepted issuers are 'security.token.issuer' and the issuers provided by the {@link PublicKeyService}.
+ * When several issuers are accepted, each token is routed to the parser of its issuer, read without verification,
+ * and this parser only accepts the keys of this issuer.
+ *
+ * The signature of a token is verified last: tokens that are too long ('security.token.max-length'), from another issuer,
+ * expired or not valid yet (with a tolerance of 'security.token.clock-skew') are rejected beforehand, from a single decoding
+ * of their payload, before their kid is even looked up: they never trigger the retrieval of a public key.
+ * Tokens signed with an unknown kid are rejected next.
+ * Once verified, a token is rejected when it has been revoked (see {@link TokenRevocations}); otherwise, its security context
+ * is built by the {@link VerifiedClaimsHandler}, without blocking the calling thread while it completes.
+ *
+ * {@link #prepare(String)} and {@link #parseAsync(String)} each decode the token once, with the streaming parser of {@link JwsParser};
+ * a token found in the {@link VerifiedTokenCache} is not decoded by {@link #parseAsync(String)} at all.
+ *
+ * A batch of tokens is decoded once per distinct token, then grouped by kid (and by issuer, when several issuers are accepted):
+ * the public key of each group is retrieved once, then the signatures are verified by the common {@link ForkJoinPool}, in slices of tokens of a same group.
  * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
  */
 @Singleton
-class TokenParserImpl implements TokenParser {
+class TokenParserImpl implements RoleGrantingTokenParser {
 
     private static Logger LOG = LoggerFactory.getLogger(TokenParserImpl.class);
+    private static final int BATCH_SLICE_SIZE = 32;
 
-    private final TokenValidator tokenValidator;
-    private final SecurityContextFactory securityContextFactory;
-    private final JwtParser parser;
+    private final VerifiedClaimsHandler claimsHandler;
+    private final VerifiedTokenCache verifiedTokenCache;
+    private final SecurityMetrics metrics;
+    private final int maxTokenLength;
+    private final Map<String, JwsParser> parserPerIssuer;
+    private final JwsParser singleParser;
 
-    TokenParserImpl(@Value("${security.token.issuer}") String tokenIssuer,
+    TokenParserImpl(@Value("${security.token.issuer:}") String tokenIssuer,
                     PublicKeyResolver publicKeyResolver,
-                    SecurityContextFactory securityContextFactory,
-                    TokenValidator tokenValidator) {
-        if (tokenIssuer == null || tokenIssuer.isEmpty()) {
-            throw new IllegalArgumentException("Property 'security.token.issuer' (string) must be set");
-        }
+                    AsyncSecurityContextFactory securityContextFactory,
+                    AsyncTokenValidator tokenValidator,
+                    VerifiedTokenCache verifiedTokenCache,
+                    SecurityMetrics metrics,
+                    SignatureVerifiers signatureVerifiers,
+                    RoleAuthorizer roleAuthorizer,
+                    TokenRevocations revocations,
+                    @Value("${security.token.max-length:16384}") int maxTokenLength,
+                    @Value("${security.token.clock-skew:0s}") Duration clockSkew) {
         if (publicKeyResolver == null) {
             throw new IllegalArgumentException("No implementation of PublicKeyResolver has been found");
         }
+        Set<String> issuers = new LinkedHashSet<>();
+        if (tokenIssuer != null && !tokenIssuer.isEmpty()) {
+            issuers.add(tokenIssuer);
+        }
+        issuers.addAll(publicKeyResolver.getIssuers());
+        if (issuers.isEmpty()) {
+            throw new IllegalArgumentException("Property 'security.token.issuer' (string) must be set");
+        }
         if (securityContextFactory == null) {
-            throw new IllegalArgumentException("No implementation of SecurityContextFactory has been found");
+            throw new IllegalArgumentException("No implementation of AsyncSecurityContextFactory has been found");
         }
         if (tokenValidator == null) {
-            throw new IllegalArgumentException("No implementation of TokenValidator has been found");
+            throw new IllegalArgumentException("No implementation of AsyncTokenValidator has been found");
+        }
+        if (verifiedTokenCache == null) {
+            throw new IllegalArgumentException("No VerifiedTokenCache has been found");
+        }
+        if (metrics == null) {
+            throw new IllegalArgumentException("No implementation of SecurityMetrics has been found");
+        }
+        if (signatureVerifiers == null) {
+            throw new IllegalArgumentException("No SignatureVerifiers has been found");
+        }
+        if (roleAuthorizer == null) {
+            throw new IllegalArgumentException("No RoleAuthorizer has been found");
+        }
+        if (revocations == null) {
+            throw new IllegalArgumentException("No TokenRevocations has been found");
+        }
+        if (maxTokenLength <= 0) {
+            throw new IllegalArgumentException("Property 'security.token.max-length' (integer) must be positive");
+        }
+        if (clockSkew == null || clockSkew.isNegative()) {
+            throw new IllegalArgumentException("Property 'security.token.clock-skew' (duration) must not be negative");
         }
 
-        this.tokenValidator = tokenValidator;
-        this.securityContextFactory = securityContextFactory;
-        this.parser = Jwts.parser()
-                .setSigningKeyResolver(publicKeyResolver)
-                .requireIssuer(tokenIssuer);
+        this.claimsHandler = new VerifiedClaimsHandler(tokenValidator, securityContextFactory, metrics, roleAuthorizer, revocations);
+        this.verifiedTokenCache = verifiedTokenCache;
+        this.metrics = metrics;
+        this.maxTokenLength = maxTokenLength;
+        this.parserPerIssuer = createParsers(issuers, publicKeyResolver, signatureVerifiers, clockSkew.toMillis());
+        this.singleParser = parserPerIssuer.size() == 1 ? parserPerIssuer.values().iterator().next() : null;
     }
 
     @Override
-    public SecurityContext parse(String token) throws SecurityException {
+    public CompletionStage<Void> prepare(String token) {
+        if (token.length() > maxTokenLength) {
+            return completedFuture(null);
+        }
         try {
-            Claims claims = parser.parseClaimsJws(token).getBody();
-            tokenValidator.validate(claims);
-            return securityContextFactory.createSecurityContext(claims);
-        } catch (UnsupportedJwtException e) {
-            throw JWT_UNSUPPORTED.toException();
-        } catch (MalformedJwtException e) {
-            throw JWT_MALFORMED.toException();
-        } catch (SignatureException e) {
-            throw JWT_WRONG_SIGNATURE.toException();
-        } catch (ExpiredJwtException e) {
-            throw JWT_EXPIRED.toException();
+            return prepare(JwsParser.decode(token));
         } catch (SecurityException e) {
-            throw e;
+            return completedFuture(null);
+        }
+    }
+
+    /**
+     * A token is only worth a key retrieval if it has a kid, and if it is from an accepted issuer, not expired and already valid;
+     * otherwise, it is rejected by {@link #parseAsync(String)} without any I/O.
+     */
+    private CompletionStage<Void> prepare(JwsParser.DecodedJws jws) {
+        JwsParser parser = findParserOf(jws);
+        if (jws.getKeyId() == null || parser == null) {
+            return completedFuture(null);
+        }
+        try {
+            parser.checkClaims(jws.getClaims());
+        } catch (SecurityException e) {
+            return completedFuture(null);
+        }
+        return parser.getKeyResolver().findPublicKeyAsync(jws.getKeyId()).handle((key, error) -> null);
+    }
+
+    @Override
+    public SecurityContext parse(String token) throws SecurityException {
+        try {
+            return parseAsync(token).toCompletableFuture().join();
+        } catch (CompletionException e) {
+            throw toSecurityException(e.getCause());
+        }
+    }
+
+    /**
+     * The token is verified in the calling thread when its public key is loaded (see {@link #prepare(String)}): this thread is never blocked
+     * by a key retrieval, which completes the verification in its own thread. Its validation and its context can then complete in any thread.
+     */
+    @Override
+    public CompletionStage<SecurityContext> parseAsync(String token) {
+        return parseAsync(token, null).thenApply(AuthorizedSecurityContext::unwrap);
+    }
+
+    @Override
+    public CompletionStage<SecurityContext> parseGrantingRolesAsync(String token) {
+        return parseAsync(token, null);
+    }
+
+    /**
+     * @param decoded this token, when it has already been decoded; otherwise null, so that a cached token is not decoded at all
+     */
+    private CompletionStage<SecurityContext> parseAsync(String token, JwsParser.DecodedJws decoded) {
+        if (token.length() > maxTokenLength) {
+            return failed(JWT_TOO_LARGE.toException());
+        }
+        TokenDigest digest = verifiedTokenCache.digestOf(token);
+        Optional<SecurityContext> alreadyVerified = verifiedTokenCache.find(digest);
+        if (alreadyVerified.isPresent()) {
+            return completedFuture(alreadyVerified.get());
+        }
+        CompletableFuture<SecurityContext> result = new CompletableFuture<>();
+        try {
+            long startTime = metrics.start();
+            JwsParser.DecodedJws jws = decoded == null ? JwsParser.decode(token) : decoded;
+            verify(jws, startTime)
+                    .<SecurityContext>thenCompose(claims -> claimsHandler.createSecurityContext(claims).thenApply(context -> {
+                        verifiedTokenCache.put(digest, jws.getKeyId(), claims, context);
+                        return context;
+                    }))
+                    .whenComplete((context, error) -> {
+                        if (error == null) {
+                            result.complete(context);
+                        }
+                        else {
+                            result.completeExceptionally(toSecurityException(error));
+                        }
+                    });
         } catch (Exception e) {
-            LOG.error("An error occurred when parsing a JWT", e);
-            throw new SecurityException(UNKWOWN, e.getMessage());
+            result.completeExceptionally(toSecurityException(e));
+        }
+        return result;
+    }
+
+    /**
+     * Each distinct token is decoded once, then grouped, prepared and verified from this single decoding.
+     * The calling thread takes part in the verification of the batch, along with the common {@link ForkJoinPool}.
+     */
+    @Override
+    public List<TokenVerification> parseAll(List<String> tokens) {
+        Map<String, List<JwsParser.DecodedJws>> distinctTokensPerGroup = new LinkedHashMap<>();
+        Map<String, TokenVerification> verificationPerToken = new HashMap<>();
+        for (String token : tokens) {
+            if (token == null) {
+                verificationPerToken.put(null, TokenVerification.failed(null, JWT_MALFORMED.toException()));
+            }
+            else if (!verificationPerToken.containsKey(token)) {
+                verificationPerToken.put(token, null);
+                if (token.length() > maxTokenLength) {
+                    verificationPerToken.put(token, TokenVerification.failed(token, JWT_TOO_LARGE.toException()));
+                    continue;
+                }
+                try {
+                    JwsParser.DecodedJws jws = JwsParser.decode(token);
+                    distinctTokensPerGroup.computeIfAbsent(groupOf(jws), group -> new ArrayList<>()).add(jws);
+                } catch (SecurityException e) {
+                    verificationPerToken.put(token, TokenVerification.failed(token, e));
+                }
+            }
+        }
+
+        CompletableFuture<?>[] preparations = distinctTokensPerGroup.values().stream()
+                .map(group -> prepare(group.get(0)).toCompletableFuture())
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(preparations).join();
+
+        JwsParser.DecodedJws[] distinctTokens = distinctTokensPerGroup.values().stream().flatMap(List::stream).toArray(JwsParser.DecodedJws[]::new);
+        CompletionStage<SecurityContext>[] contexts = newStages(distinctTokens.length);
+        ForkJoinPool.commonPool().invoke(new BatchVerification(distinctTokens, contexts, 0, distinctTokens.length));
+        for (int index = 0; index < distinctTokens.length; index++) {
+            String token = distinctTokens[index].getToken();
+            verificationPerToken.put(token, TokenVerification.await(token, contexts[index]));
+        }
+
+        List<TokenVerification> verifications = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            verifications.add(verificationPerToken.get(token));
+        }
+        return verifications;
+    }
+
+    /**
+     * @return the kid of this token, along with its issuer when several issuers are accepted; "" if there is no kid
+     */
+    private String groupOf(JwsParser.DecodedJws jws) {
+        String kid = jws.getKeyId();
+        if (singleParser != null) {
+            return kid == null ? "" : kid;
+        }
+        return jws.getClaims().getIssuer() + " " + kid;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CompletionStage<SecurityContext>[] newStages(int length) {
+        return new CompletionStage[length];
+    }
+
+    /**
+     * Verifies a slice of a batch, split in halves until it is small enough.
+     * The tokens of a group being contiguous, a slice mostly reuses the verifiers of a single key.
+     */
+    private final class BatchVerification extends RecursiveAction {
+
+        private final JwsParser.DecodedJws[] tokens;
+        private final CompletionStage<SecurityContext>[] contexts;
+        private final int start;
+        private final int end;
+
+        private BatchVerification(JwsParser.DecodedJws[] tokens, CompletionStage<SecurityContext>[] contexts, int start, int end) {
+            this.tokens = tokens;
+            this.contexts = contexts;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= BATCH_SLICE_SIZE) {
+                for (int index = start; index < end; index++) {
+                    contexts[index] = parseAsync(tokens[index].getToken(), tokens[index]);
+                }
+            }
+            else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new BatchVerification(tokens, contexts, start, middle), new BatchVerification(tokens, contexts, middle, end));
+            }
+        }
+    }
+
+    /**
+     * @param startTime the time when the decoding of this token has started
+     */
+    private CompletionStage<Claims> verify(JwsParser.DecodedJws jws, long startTime) {
+        JwsParser parser = findParserOf(jws);
+        if (parser == null) {
+            throw JWT_WRONG_ISSUER.toException();
+        }
+        return parser.verify(jws).thenApply(claims -> {
+            metrics.recordSignatureVerification(startTime);
+            return claims;
+        });
+    }
+
+    private static SecurityException toSecurityException(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof SecurityException) {
+            return (SecurityException) cause;
+        }
+        LOG.error("An error occurred when parsing a JWT", cause);
+        return new SecurityException(UNKWOWN, cause.getMessage());
+    }
+
+    private static <T> CompletionStage<T> failed(SecurityException error) {
+        CompletableFuture<T> failure = new CompletableFuture<>();
+        failure.completeExceptionally(error);
+        return failure;
+    }
+
+    /**
+     * @return the parser of the token's issuer, found without reading any claim when a single issuer is accepted; or null if this issuer is not accepted
+     */
+    private JwsParser findParserOf(JwsParser.DecodedJws jws) {
+        if (singleParser != null) {
+            return singleParser;
+        }
+        String issuer = jws.getClaims().getIssuer();
+        return issuer == null ? null : parserPerIssuer.get(issuer);
+    }
+
+    /**
+     * @throws IllegalArgumentException if an accepted issuer has no keys, i.e. when the {@link PublicKeyService} binds its keys to other issuers
+     *                                  and has no default keys: its tokens are never verified with the keys of another issuer
+     */
+    private static Map<String, JwsParser> createParsers(Set<String> issuers,
+                                                        PublicKeyResolver publicKeyResolver,
+                                                        SignatureVerifiers signatureVerifiers,
+                                                        long clockSkewInMs) {
+        Set<String> issuersOfPublicKeyService = publicKeyResolver.getIssuers();
+        Map<String, JwsParser> parsers = new HashMap<>();
+        for (String issuer : issuers) {
+            if (!issuersOfPublicKeyService.isEmpty() && !issuersOfPublicKeyService.contains(issuer) && !publicKeyResolver.hasDefaultKeys()) {
+                throw new IllegalArgumentException("No public keys are provided for the issuer " + issuer + ", it must be one of " + issuersOfPublicKeyService);
+            }
+            PublicKeyResolver keyResolver = issuersOfPublicKeyService.contains(issuer) ? publicKeyResolver.forIssuer(issuer) : publicKeyResolver;
+            parsers.put(issuer, new JwsParser(issuer, keyResolver, signatureVerifiers, clockSkewInMs));
         }
+        return unmodifiableMap(parsers);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,186 @@
+package be.looorent.micronaut.security;
+
+import io.jsonwebtoken.Claims;
+import io.micronaut.context.annotation.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Revocations of tokens that are still valid, so that sessions can be killed without giving up the local verification of tokens.
+ * A token is revoked:
+ * * when it has been issued (iat) before the not-before policy of its realm or of its client (azp), as with Keycloak's "Revocation" tab;
+ * * or when its id (jti) or its session (sid or session_state) has been revoked.
+ *
+ * Revocations are provided by the application (e.g. from Keycloak's push of its not-before policy, or from its admin events),
+ * or polled from Keycloak (see KeycloakNotBeforePoller).
+ * A realm is identified by the issuer of its tokens.
+ *
+ * Checking a token is O(1) and does not allocate anything: the revoked ids are guarded by a bloom filter (see {@link RevokedIdentifiers}),
+ * and there is nothing to check at all as long as nothing has been revoked.
+ * Configured with 'security.revocation.expected-size', the number of revoked ids for which the bloom filter is sized.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Singleton
+public class TokenRevocations {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TokenRevocations.class);
+    private static final String AUTHORIZED_PARTY = "azp";
+    private static final String SESSION_ID = "sid";
+    private static final String SESSION_STATE = "session_state";
+
+    private final Map<String, Long> notBeforePerIssuer;
+    private final Map<String, Map<String, Long>> notBeforePerClientPerIssuer;
+    private final RevokedIdentifiers revokedIdentifiers;
+    private volatile boolean notBeforeDefined;
+
+    TokenRevocations(@Value("${security.revocation.expected-size:100000}") int expectedSize) {
+        if (expectedSize <= 0) {
+            throw new IllegalArgumentException("Property 'security.revocation.expected-size' (integer) must be positive");
+        }
+        this.notBeforePerIssuer = new ConcurrentHashMap<>();
+        this.notBeforePerClientPerIssuer = new ConcurrentHashMap<>();
+        this.revokedIdentifiers = new RevokedIdentifiers(expectedSize);
+        this.notBeforeDefined = false;
+    }
+
+    /**
+     * Revokes all the tokens of a realm issued before a given instant.
+     * As with Keycloak, a not-before policy can only move forward: an older instant is ignored.
+     * @param issuer the issuer of the tokens of this realm
+     * @param notBefore the instant before which tokens are revoked
+     */
+    public void revokeIssuedBefore(String issuer, Instant notBefore) {
+        if (issuer == null) {
+            throw new IllegalArgumentException("issuer must not be null");
+        }
+        if (notBefore == null) {
+            throw new IllegalArgumentException("notBefore must not be null");
+        }
+        if (moveForward(notBeforePerIssuer, issuer, notBefore.getEpochSecond())) {
+            notBeforeDefined = true;
+            LOG.info("Tokens of {} issued before {} are revoked", issuer, notBefore);
+        }
+    }
+
+    /**
+     * Revokes all the tokens of a client issued before a given instant.
+     * As with Keycloak, a not-before policy can only move forward: an older instant is ignored.
+     * @param issuer the issuer of the tokens of the realm of this client
+     * @param clientId the client the tokens have been issued to (azp)
+     * @param notBefore the instant before which tokens are revoked
+     */
+    public void revokeIssuedBefore(String issuer, String clientId, Instant notBefore) {
+        if (issuer == null) {
+            throw new IllegalArgumentException("issuer must not be null");
+        }
+        if (clientId == null) {
+            throw new IllegalArgumentException("clientId must not be null");
+        }
+        if (notBefore == null) {
+            throw new IllegalArgumentException("notBefore must not be null");
+        }
+        Map<String, Long> notBeforePerClient = notBeforePerClientPerIssuer.computeIfAbsent(issuer, any -> new ConcurrentHashMap<>());
+        if (moveForward(notBeforePerClient, clientId, notBefore.getEpochSecond())) {
+            notBeforeDefined = true;
+            LOG.info("Tokens of {} issued to {} before {} are revoked", issuer, clientId, notBefore);
+        }
+    }
+
+    /**
+     * @param tokenId the id of the revoked token (jti)
+     * @param expiration the expiration of this token, after which its id is forgotten
+     */
+    public void revokeToken(String tokenId, Instant expiration) {
+        revokeIdentifier("tokenId", tokenId, expiration);
+    }
+
+    /**
+     * @param sessionId the id of the revoked session (sid or session_state)
+     * @param expiration the expiration of the last token of this session, after which its id is forgotten
+     */
+    public void revokeSession(String sessionId, Instant expiration) {
+        revokeIdentifier("sessionId", sessionId, expiration);
+    }
+
+    /**
+     * @return the number of revoked token and session ids that are kept
+     */
+    public int countRevokedIdentifiers() {
+        return revokedIdentifiers.size();
+    }
+
+    /**
+     * @param claims the claims of a token
+     * @return whether or not this token has been revoked
+     */
+    boolean isRevoked(Claims claims) {
+        return (notBeforeDefined && isIssuedBeforeNotBefore(claims))
+                || (!revokedIdentifiers.isEmpty() && hasRevokedIdentifier(claims));
+    }
+
+    /**
+     * A token without issue date is considered as issued before any not-before policy, as with Keycloak.
+     */
+    private boolean isIssuedBeforeNotBefore(Claims claims) {
+        String issuer = claims.getIssuer();
+        if (issuer == null) {
+            return false;
+        }
+        long notBefore = notBeforeOf(notBeforePerIssuer, issuer);
+        Map<String, Long> notBeforePerClient = notBeforePerClientPerIssuer.get(issuer);
+        if (notBeforePerClient != null) {
+            Object clientId = claims.get(AUTHORIZED_PARTY);
+            if (clientId instanceof String) {
+                notBefore = Math.max(notBefore, notBeforeOf(notBeforePerClient, (String) clientId));
+            }
+        }
+        if (notBefore == Long.MIN_VALUE) {
+            return false;
+        }
+        Object issuedAt = claims.get(Claims.ISSUED_AT);
+        return !(issuedAt instanceof Number) || ((Number) issuedAt).longValue() < notBefore;
+    }
+
+    private boolean hasRevokedIdentifier(Claims claims) {
+        return isRevokedIdentifier(claims.get(Claims.ID))
+                || isRevokedIdentifier(claims.get(SESSION_ID))
+                || isRevokedIdentifier(claims.get(SESSION_STATE));
+    }
+
+    private boolean isRevokedIdentifier(Object identifier) {
+        return identifier instanceof String && revokedIdentifiers.contains((String) identifier);
+    }
+
+    private void revokeIdentifier(String name, String identifier, Instant expiration) {
+        if (identifier == null) {
+            throw new IllegalArgumentException(name + " must not be null");
+        }
+        if (expiration == null) {
+            throw new IllegalArgumentException("expiration must not be null");
+        }
+        revokedIdentifiers.add(identifier, expiration.toEpochMilli());
+        LOG.debug("Tokens identified by {} are revoked until {}", identifier, expiration);
+    }
+
+    /**
+     * @return whether or not the not-before policy of this key has moved forward
+     */
+    private static boolean moveForward(Map<String, Long> notBeforePerKey, String key, long notBefore) {
+        Long previous = notBeforePerKey.get(key);
+        if (previous != null && previous >= notBefore) {
+            return false;
+        }
+        notBeforePerKey.merge(key, notBefore, Math::max);
+        return true;
+    }
+
+    private static long notBeforeOf(Map<String, Long> notBeforePerKey, String key) {
+        Long notBefore = notBeforePerKey.get(key);
+        return notBefore == null ? Long.MIN_VALUE : notBefore;
+    }
+}
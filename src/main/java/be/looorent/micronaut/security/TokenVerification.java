@@ -0,0 +1,71 @@
+package be.looorent.micronaut.security;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+import static be.looorent.micronaut.security.SecurityErrorType.UNKWOWN;
+
+/**
+ * The outcome of the verification of a token by {@link TokenParser#parseAll(java.util.List)}:
+ * either the security context of this token, or the error that rejected it.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+public final class TokenVerification {
+
+    private final String token;
+    private final SecurityContext context;
+    private final SecurityException error;
+
+    private TokenVerification(String token, SecurityContext context, SecurityException error) {
+        this.token = token;
+        this.context = context;
+        this.error = error;
+    }
+
+    public static TokenVerification valid(String token, SecurityContext context) {
+        return new TokenVerification(token, context, null);
+    }
+
+    public static TokenVerification failed(String token, SecurityException error) {
+        return new TokenVerification(token, null, error);
+    }
+
+    /**
+     * Waits for a stage returned by {@link TokenParser#parseAsync(String)}, without throwing its error.
+     */
+    static TokenVerification await(String token, CompletionStage<SecurityContext> context) {
+        return context.handle((verifiedContext, error) -> error == null ? valid(token, AuthorizedSecurityContext.unwrap(verifiedContext)) : failed(token, toSecurityException(error)))
+                .toCompletableFuture()
+                .join();
+    }
+
+    /**
+     * @return the verified token
+     */
+    public String getToken() {
+        return token;
+    }
+
+    public boolean isValid() {
+        return error == null;
+    }
+
+    /**
+     * @return the security context of this token; null if it has been rejected
+     */
+    public SecurityContext getContext() {
+        return context;
+    }
+
+    /**
+     * @return the reason why this token has been rejected; null if it is valid
+     */
+    public SecurityException getError() {
+        return error;
+    }
+
+    private static SecurityException toSecurityException(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof SecurityException ? (SecurityException) cause : new SecurityException(UNKWOWN, cause.getMessage());
+    }
+}
@@ -0,0 +1,234 @@
+package be.looorent.micronaut.security;
+
+import io.micronaut.context.BeanLocator;
+import io.micronaut.context.annotation.Value;
+import io.micronaut.inject.qualifiers.Qualifiers;
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static be.looorent.micronaut.security.SecurityErrorType.VERIFICATION_SATURATED;
+import static io.reactivex.schedulers.Schedulers.computation;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Bounds the number of tokens verified at once, so that a spike of requests degrades predictably
+ * instead of spawning threads on the io() scheduler until latency collapses for everyone.
+ *
+ * At most 'security.verification.bulkhead.max-concurrency' verifications are in flight (the number of cores by default).
+ * Other verifications wait in a queue of at most 'security.verification.bulkhead.max-queue-size' entries,
+ * for at most 'security.verification.bulkhead.max-wait'. A verification that cannot be queued, or that has waited for too long,
+ * is rejected with {@link SecurityErrorType#VERIFICATION_SATURATED}, which {@link SecurityFilter} turns into a 503 status.
+ * No thread waits for a permit: a queued verification is started by the verification that releases its permit.
+ *
+ * By default, verifications run on the scheduler of the {@link VerificationExecutionMode}.
+ * They can run on an {@link Executor} bean instead, named 'security.verification.bulkhead.executor' (e.g. one of Micronaut's
+ * executors, or an executor of virtual threads provided by the application).
+ *
+ * This bulkhead is disabled by default ('security.verification.bulkhead.enabled').
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Singleton
+class VerificationBulkhead {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VerificationBulkhead.class);
+
+    private final boolean enabled;
+    private final int maxConcurrency;
+    private final int maxQueueSize;
+    private final long maxWaitInNanos;
+    private final Scheduler executorScheduler;
+    private final AtomicInteger inFlight;
+    private final AtomicInteger queued;
+    private final Queue<Verification> queue;
+
+    VerificationBulkhead(@Value("${security.verification.bulkhead.enabled:false}") boolean enabled,
+                         @Value("${security.verification.bulkhead.max-concurrency:0}") int maxConcurrency,
+                         @Value("${security.verification.bulkhead.max-queue-size:100}") int maxQueueSize,
+                         @Value("${security.verification.bulkhead.max-wait:100ms}") Duration maxWait,
+                         @Value("${security.verification.bulkhead.executor:}") String executorName,
+                         BeanLocator beanLocator) {
+        if (maxConcurrency < 0) {
+            throw new IllegalArgumentException("Property 'security.verification.bulkhead.max-concurrency' (integer) must not be negative");
+        }
+        if (maxQueueSize < 0) {
+            throw new IllegalArgumentException("Property 'security.verification.bulkhead.max-queue-size' (integer) must not be negative");
+        }
+        if (maxWait == null || maxWait.isNegative()) {
+            throw new IllegalArgumentException("Property 'security.verification.bulkhead.max-wait' (duration) must not be negative");
+        }
+        this.enabled = enabled;
+        this.maxConcurrency = maxConcurrency == 0 ? Runtime.getRuntime().availableProcessors() : maxConcurrency;
+        this.maxQueueSize = maxQueueSize;
+        this.maxWaitInNanos = maxWait.toNanos();
+        this.executorScheduler = executorName == null || executorName.isEmpty() ? null : Schedulers.from(findExecutor(executorName, beanLocator));
+        this.inFlight = new AtomicInteger();
+        this.queued = new AtomicInteger();
+        this.queue = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * @param verification the verification of a token, that emits a single security context
+     * @param scheduler where this verification runs when no executor is configured; or null to run it in the calling thread
+     * @return this verification, once a permit has been granted; or a {@link SecurityErrorType#VERIFICATION_SATURATED} error
+     */
+    Flowable<SecurityContext> execute(Flowable<SecurityContext> verification, Scheduler scheduler) {
+        Scheduler verificationScheduler = executorScheduler == null ? scheduler : executorScheduler;
+        Flowable<SecurityContext> scheduledVerification = verificationScheduler == null ? verification : verification.subscribeOn(verificationScheduler);
+        if (!enabled) {
+            return scheduledVerification;
+        }
+        return Single.<SecurityContext>create(emitter -> submit(new Verification(scheduledVerification.firstOrError(), emitter))).toFlowable();
+    }
+
+    int countInFlight() {
+        return inFlight.get();
+    }
+
+    int countQueued() {
+        return queued.get();
+    }
+
+    private void submit(Verification verification) {
+        if (tryAcquire()) {
+            verification.start();
+        }
+        else if (queued.incrementAndGet() > maxQueueSize) {
+            queued.decrementAndGet();
+            verification.reject();
+        }
+        else {
+            queue.offer(verification);
+            verification.expireAfter(maxWaitInNanos);
+            if (tryAcquire()) {
+                release();
+            }
+        }
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= maxConcurrency) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Hands the permit of a completed verification over to the next queued one, if any.
+     */
+    private void release() {
+        while (true) {
+            Verification next;
+            while ((next = queue.poll()) != null) {
+                queued.decrementAndGet();
+                if (next.claim()) {
+                    next.start();
+                    return;
+                }
+            }
+            inFlight.decrementAndGet();
+            if (queue.isEmpty() || !tryAcquire()) {
+                return;
+            }
+        }
+    }
+
+    private static Executor findExecutor(String executorName, BeanLocator beanLocator) {
+        if (beanLocator == null) {
+            throw new IllegalArgumentException("No BeanLocator has been found");
+        }
+        return beanLocator.findBean(Executor.class, Qualifiers.byName(executorName))
+                .orElseThrow(() -> new IllegalArgumentException("Property 'security.verification.bulkhead.executor' must be the name of an Executor bean, but none is named '" + executorName + "'"));
+    }
+
+    /**
+     * A verification is claimed once, either to be started with a permit, or to be dropped from the queue
+     * (when it has waited for too long or when its subscriber has gone).
+     */
+    private final class Verification {
+
+        private final Single<SecurityContext> verification;
+        private final SingleEmitter<SecurityContext> emitter;
+        private final AtomicBoolean claimed;
+        private volatile Disposable expiration;
+
+        private Verification(Single<SecurityContext> verification, SingleEmitter<SecurityContext> emitter) {
+            this.verification = verification;
+            this.emitter = emitter;
+            this.claimed = new AtomicBoolean();
+            emitter.setCancellable(this::cancel);
+        }
+
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        /**
+         * Runs this verification with a permit, which is released once it has completed or has been disposed.
+         */
+        private void start() {
+            claimed.set(true);
+            Disposable timer = expiration;
+            if (timer != null) {
+                timer.dispose();
+            }
+            if (emitter.isDisposed()) {
+                release();
+                return;
+            }
+            emitter.setDisposable(verification
+                    .doFinally(VerificationBulkhead.this::release)
+                    .subscribe(emitter::onSuccess, emitter::onError));
+        }
+
+        private void expireAfter(long delayInNanos) {
+            expiration = computation().scheduleDirect(() -> {
+                if (claim()) {
+                    dequeue();
+                    LOG.debug("A token has waited for too long to be verified");
+                    reject();
+                }
+            }, delayInNanos, NANOSECONDS);
+        }
+
+        /**
+         * Unless {@link #release()} has already polled this verification.
+         */
+        private void dequeue() {
+            if (queue.remove(this)) {
+                queued.decrementAndGet();
+            }
+        }
+
+        private void reject() {
+            emitter.onError(VERIFICATION_SATURATED.toException());
+        }
+
+        private void cancel() {
+            if (claim()) {
+                dequeue();
+            }
+            Disposable timer = expiration;
+            if (timer != null) {
+                timer.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package be.looorent.micronaut.security;
+
+import static java.util.Locale.ROOT;
+
+/**
+ * Where tokens are verified once everything they need (e.g. their public key) is in memory.
+ * Tokens whose verification requires I/O first are always verified on the io() scheduler.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+enum VerificationExecutionMode {
+
+    /**
+     * Every token is verified on the io() scheduler.
+     */
+    IO,
+
+    /**
+     * Tokens are verified on the computation() scheduler, bounded by the number of cores.
+     */
+    COMPUTATION,
+
+    /**
+     * Tokens are verified in the thread that handles the request (e.g. Netty's event loop), without any context switch.
+     * Only the public keys already loaded are used there: retrieving a key never blocks this thread.
+     * Requires that {@link TokenValidator} and {@link SecurityContextFactory} never block.
+     */
+    INLINE;
+
+    static VerificationExecutionMode fromProperty(String value) {
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Property 'security.verification.execution-mode' (string) must be set");
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Property 'security.verification.execution-mode' must be one of 'io', 'computation' or 'inline'", e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package be.looorent.micronaut.security;
+
+import io.jsonwebtoken.Claims;
+
+import javax.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static be.looorent.micronaut.security.SecurityErrorType.TOKEN_REVOKED;
+
+/**
+ * Builds the {@link SecurityContext} of claims that a {@link TokenParser} has verified, whether locally or by asking Keycloak:
+ * * claims revoked by {@link TokenRevocations} are rejected;
+ * * the claims are validated by the {@link AsyncTokenValidator}, then given to the {@link AsyncSecurityContextFactory};
+ * * when some routes require roles (see {@link RoleAuthorizer}), the roles granted by the claims are computed along with the context.
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Singleton
+final class VerifiedClaimsHandler {
+
+    private final AsyncTokenValidator tokenValidator;
+    private final AsyncSecurityContextFactory securityContextFactory;
+    private final SecurityMetrics metrics;
+    private final RoleAuthorizer roleAuthorizer;
+    private final TokenRevocations revocations;
+
+    VerifiedClaimsHandler(AsyncTokenValidator tokenValidator,
+                          AsyncSecurityContextFactory securityContextFactory,
+                          SecurityMetrics metrics,
+                          RoleAuthorizer roleAuthorizer,
+                          TokenRevocations revocations) {
+        if (tokenValidator == null) {
+            throw new IllegalArgumentException("No implementation of AsyncTokenValidator has been found");
+        }
+        if (securityContextFactory == null) {
+            throw new IllegalArgumentException("No implementation of AsyncSecurityContextFactory has been found");
+        }
+        if (metrics == null) {
+            throw new IllegalArgumentException("No implementation of SecurityMetrics has been found");
+        }
+        if (roleAuthorizer == null) {
+            throw new IllegalArgumentException("No RoleAuthorizer has been found");
+        }
+        if (revocations == null) {
+            throw new IllegalArgumentException("No TokenRevocations has been found");
+        }
+        this.tokenValidator = tokenValidator;
+        this.securityContextFactory = securityContextFactory;
+        this.metrics = metrics;
+        this.roleAuthorizer = roleAuthorizer;
+        this.revocations = revocations;
+    }
+
+    /**
+     * @param claims the claims of a token that has been verified
+     * @return a stage completed with the security context of these claims; or completed with a {@link SecurityException} if they are rejected
+     */
+    CompletionStage<SecurityContext> createSecurityContext(Claims claims) {
+        if (revocations.isRevoked(claims)) {
+            CompletableFuture<SecurityContext> revoked = new CompletableFuture<>();
+            revoked.completeExceptionally(TOKEN_REVOKED.toException());
+            return revoked;
+        }
+        long validationStartTime = metrics.start();
+        return tokenValidator.validate(claims).thenCompose(valid -> {
+            metrics.recordValidation(validationStartTime);
+            long creationStartTime = metrics.start();
+            return securityContextFactory.createSecurityContext(claims).thenApply(context -> {
+                metrics.recordSecurityContextCreation(creationStartTime);
+                return roleAuthorizer.isEnabled() ? new AuthorizedSecurityContext(context, roleAuthorizer.grantedRolesOf(claims)) : context;
+            });
+        });
+    }
+}
@@ -0,0 +1,191 @@
+package be.looorent.micronaut.security;
+
+import io.jsonwebtoken.Claims;
+import io.micronaut.context.annotation.Value;
+import io.micronaut.context.event.ApplicationEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import java.util.Date;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.lang.System.currentTimeMillis;
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+
+/**
+ * Bounded cache of the {@link SecurityContext} built for tokens that have already been verified.
+ * Tokens are identified by their {@link TokenDigest}, so that the tokens themselves are not retained.
+ * Each entry expires with its token, the least recently used entries are evicted when the cache is full,
+ * and the entries of the tokens signed by a kid are dropped when the public keys are refreshed without this kid (or with another key for it).
+ * The claims of each token are kept along with its context, so that a token revoked after being cached (see {@link TokenRevocations})
+ * is not found anymore.
+ *
+ * A hit neither locks nor changes the structure of the cache: it only stamps the time of its access on its entry.
+ * When the cache is full, the least recently used entry among a {@link CacheSample} of {@value #EVICTION_SAMPLE_SIZE} entries is evicted,
+ * which is exact for small caches and approximate otherwise.
+ *
+ * This cache is disabled by default and can be configured with:
+ * * security.token.cache.enabled
+ * * security.token.cache.max-size
+ *
+ * @author Lorent Lempereur - lorent.lempereur.dev@gmail.com
+ */
+@Singleton
+class VerifiedTokenCache implements ApplicationEventListener<PublicKeysRefreshedEvent> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VerifiedTokenCache.class);
+    private static final int EVICTION_SAMPLE_SIZE = 16;
+
+    private final boolean enabled;
+    private final int maxSize;
+    private final TokenRevocations revocations;
+    private final Map<TokenDigest, Entry> entries;
+    private final Object evictionLock;
+
+    VerifiedTokenCache(@Value("${security.token.cache.enabled:false}") boolean enabled,
+                       @Value("${security.token.cache.max-size:10000}") int maxSize,
+                       TokenRevocations revocations) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Property 'security.token.cache.max-size' (integer) must be positive");
+        }
+        if (revocations == null) {
+            throw new IllegalArgumentException("No TokenRevocations has been found");
+        }
+        this.enabled = enabled;
+        this.maxSize = maxSize;
+        this.revocations = revocations;
+        this.entries = new ConcurrentHashMap<>();
+        this.evictionLock = new Object();
+    }
+
+    /**
+     * @param token a textual JWT
+     * @return the digest that identifies this token in this cache; or null if this cache is disabled
+     */
+    TokenDigest digestOf(String token) {
+        return enabled ? TokenDigest.of(token) : null;
+    }
+
+    Optional<SecurityContext> find(String token) {
+        return find(digestOf(token));
+    }
+
+    /**
+     * @param digest the digest of a textual JWT (see {@link #digestOf(String)})
+     * @return the security context built when this token has been verified; or empty() if this token is unknown, has expired or has been revoked
+     */
+    Optional<SecurityContext> find(TokenDigest digest) {
+        if (digest == null) {
+            return empty();
+        }
+        Entry entry = entries.get(digest);
+        if (entry == null) {
+            return empty();
+        }
+        else if (entry.hasExpired() || revocations.isRevoked(entry.claims)) {
+            entries.remove(digest, entry);
+            return empty();
+        }
+        else {
+            entry.lastAccessInNanos = System.nanoTime();
+            return of(entry.context);
+        }
+    }
+
+    void put(String token, String kid, Claims claims, SecurityContext context) {
+        put(digestOf(token), kid, claims, context);
+    }
+
+    /**
+     * Keeps the security context of a verified token until this token expires.
+     * Tokens without expiration are never cached.
+     * @param digest the digest of a textual JWT that has been verified (see {@link #digestOf(String)})
+     * @param kid the kid of the key that has verified this token
+     * @param claims the claims of this token
+     * @param context the security context built for this token
+     */
+    void put(TokenDigest digest, String kid, Claims claims, SecurityContext context) {
+        if (digest != null && context != null) {
+            Date expiration = claims.getExpiration();
+            if (expiration != null) {
+                Entry entry = new Entry(kid, claims, context, expiration.getTime());
+                entries.put(digest, entry);
+                if (entries.size() > maxSize) {
+                    evictExcept(entry);
+                }
+            }
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    /**
+     * The tokens verified by the keys that are still loaded are kept.
+     */
+    @Override
+    public void onApplicationEvent(PublicKeysRefreshedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        Set<String> retiredKeyIds = event.getRetiredKeyIds();
+        if (retiredKeyIds == null) {
+            LOG.info("Public keys have been refreshed, the verified tokens are discarded");
+            clear();
+        }
+        else if (!retiredKeyIds.isEmpty()) {
+            LOG.info("Public keys {} have been retired, the tokens they have verified are discarded", retiredKeyIds);
+            entries.values().removeIf(entry -> retiredKeyIds.contains(entry.kid));
+        }
+    }
+
+    /**
+     * Evictions are serialized, so that concurrent insertions do not evict more entries than needed.
+     * @param inserted the entry that has just been inserted, which is never evicted
+     */
+    private void evictExcept(Entry inserted) {
+        synchronized (evictionLock) {
+            while (entries.size() > maxSize) {
+                Map.Entry<TokenDigest, Entry> eldest = null;
+                for (Map.Entry<TokenDigest, Entry> candidate : CacheSample.of(entries, EVICTION_SAMPLE_SIZE)) {
+                    if (candidate.getValue() != inserted && (eldest == null || candidate.getValue().lastAccessInNanos - eldest.getValue().lastAccessInNanos < 0)) {
+                        eldest = candidate;
+                    }
+                }
+                if (eldest != null) {
+                    entries.remove(eldest.getKey(), eldest.getValue());
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final String kid;
+        private final Claims claims;
+        private final SecurityContext context;
+        private final long expiresAtInMs;
+        private volatile long lastAccessInNanos;
+
+        private Entry(String kid, Claims claims, SecurityContext context, long expiresAtInMs) {
+            this.kid = kid;
+            this.claims = claims;
+            this.context = context;
+            this.expiresAtInMs = expiresAtInMs;
+            this.lastAccessInNanos = System.nanoTime();
+        }
+
+        private boolean hasExpired() {
+            return currentTimeMillis() >= expiresAtInMs;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package be.looorent.keycloak
+
+import spock.lang.Specification
+
+import java.time.Duration
+
+class JsonWebKeySetCircuitBreakerSpec extends Specification {
+
+    def breaker = new JsonWebKeySetCircuitBreaker(Duration.ofSeconds(5), Duration.ofMinutes(1), Duration.ofMinutes(10))
+
+    def "construct breaker with a max backoff shorter than the backoff throws an exception"() {
+        when:
+        new JsonWebKeySetCircuitBreaker(Duration.ofSeconds(5), Duration.ofSeconds(1), Duration.ZERO)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property keycloak.public-keys.max-failure-backoff (duration) must not be shorter than keycloak.public-keys.failure-backoff"
+    }
+
+    def "the breaker is closed until a failure"() {
+        expect:
+        !breaker.isOpen()
+        breaker.retryDelay == Duration.ZERO
+    }
+
+    def "the backoff doubles with each consecutive failure, up to the max backoff"(int failures, long expectedBackoffInMs) {
+        expect:
+        breaker.computeBackoffInMs(failures) == expectedBackoffInMs
+
+        where:
+        failures | expectedBackoffInMs
+        1        | 5_000
+        2        | 10_000
+        4        | 40_000
+        5        | 60_000
+        100      | 60_000
+    }
+
+    def "a failure opens the breaker for a random delay between half and all of the backoff"() {
+        when:
+        def delay = breaker.recordFailure()
+
+        then:
+        breaker.isOpen()
+        breaker.consecutiveFailures == 1
+        delay >= Duration.ofMillis(2_500)
+        delay <= Duration.ofSeconds(5)
+        breaker.retryDelay <= delay
+    }
+
+    def "a success closes the breaker"() {
+        given:
+        breaker.recordFailure()
+        breaker.recordFailure()
+
+        when:
+        breaker.recordSuccess(System.currentTimeMillis())
+
+        then:
+        !breaker.isOpen()
+        breaker.consecutiveFailures == 0
+    }
+
+    def "the keys are stale once they have not been retrieved for more than the max staleness"(long ageInMs, boolean stale) {
+        when:
+        breaker.recordSuccess(System.currentTimeMillis() - ageInMs)
+
+        then:
+        breaker.isStale() == stale
+
+        where:
+        ageInMs                           | stale
+        0                                 | false
+        Duration.ofMinutes(11).toMillis() | true
+    }
+
+    def "the keys are never stale without max staleness"() {
+        given:
+        def unboundedBreaker = new JsonWebKeySetCircuitBreaker(Duration.ofSeconds(5), Duration.ofMinutes(1), Duration.ZERO)
+
+        when:
+        unboundedBreaker.recordSuccess(0)
+
+        then:
+        !unboundedBreaker.isStale()
+    }
+}
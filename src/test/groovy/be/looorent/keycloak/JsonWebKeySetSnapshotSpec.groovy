@@ -0,0 +1,65 @@
+package be.looorent.keycloak
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+class JsonWebKeySetSnapshotSpec extends Specification {
+
+    private static final String KEY_SET = """{"keys":[{"kid":"abc","kty":"RSA","alg":"RS256","use":"sig","n":"jMZSDVCE","e":"AQAB"}]}"""
+
+    Path directory = Files.createTempDirectory("jwks")
+
+    def cleanup() {
+        directory.toFile().deleteDir()
+    }
+
+    def "a written key set is read back"() {
+        given:
+        def snapshot = new JsonWebKeySetSnapshot(directory.toString(), "test")
+
+        when:
+        snapshot.write(KEY_SET.bytes)
+        def keySet = snapshot.read()
+
+        then:
+        keySet.isPresent()
+        keySet.get().keys*.id == ["abc"]
+        directory.toFile().list() as List == ["test.jwks.json"]
+    }
+
+    def "writing a key set replaces the previous one"() {
+        given:
+        def snapshot = new JsonWebKeySetSnapshot(directory.toString(), "test")
+        snapshot.write(KEY_SET.bytes)
+
+        when:
+        snapshot.write(KEY_SET.replace("abc", "efg").bytes)
+
+        then:
+        snapshot.read().get().keys*.id == ["efg"]
+    }
+
+    def "a missing or corrupted snapshot is ignored"() {
+        given:
+        def snapshot = new JsonWebKeySetSnapshot(directory.toString(), "test")
+
+        expect:
+        !snapshot.read().isPresent()
+
+        when:
+        Files.write(snapshot.file, "{\"keys\": [".bytes)
+
+        then:
+        !snapshot.read().isPresent()
+    }
+
+    def "the realm id cannot escape the snapshot directory"() {
+        when:
+        def snapshot = new JsonWebKeySetSnapshot(directory.toString(), "../other")
+
+        then:
+        snapshot.file.parent == directory
+    }
+}
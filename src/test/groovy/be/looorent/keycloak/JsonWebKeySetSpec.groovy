@@ -1,8 +1,11 @@
 package be.looorent.keycloak
 
-import com.fasterxml.jackson.databind.ObjectMapper
 import spock.lang.Specification
 
+import java.security.KeyPairGenerator
+import java.security.interfaces.ECPublicKey
+import java.security.spec.ECGenParameterSpec
+
 class JsonWebKeySetSpec extends Specification {
 
     def "parsing a certificates works"() {
@@ -23,7 +26,7 @@ class JsonWebKeySetSpec extends Specification {
         """
 
         when:
-        def parsedJson = new ObjectMapper().readValue(json, JsonWebKeySet)
+        def parsedJson = JsonWebKeySet.fromJson(json.bytes)
 
         then:
         parsedJson != null
@@ -36,4 +39,104 @@ class JsonWebKeySetSpec extends Specification {
         parsedJson.keys.first().type == "RSA"
         parsedJson.keys.first().use == "sig"
     }
+
+    def "an elliptic curve key on P-256 is converted to a public key"() {
+        given:
+        def generator = KeyPairGenerator.getInstance("EC")
+        generator.initialize(new ECGenParameterSpec("secp256r1"))
+        def publicKey = generator.generateKeyPair().public as ECPublicKey
+        def encoder = Base64.urlEncoder.withoutPadding()
+        def json = """
+            {
+                "keys": [
+                    {
+                        "kid": "ec-key",
+                        "kty": "EC",
+                        "alg": "ES256",
+                        "use": "sig",
+                        "crv": "P-256",
+                        "x": "${encoder.encodeToString(toUnsigned(publicKey.w.affineX))}",
+                        "y": "${encoder.encodeToString(toUnsigned(publicKey.w.affineY))}"
+                    }
+                ]
+            }
+        """
+
+        when:
+        def key = JsonWebKeySet.fromJson(json.bytes).keys.first()
+
+        then:
+        key.curve == "P-256"
+        key.toPublicKey() == publicKey
+    }
+
+    def "parsing a certificates without reflection skips the unknown members"() {
+        given:
+        def json = """
+            {
+                "realm": { "name": "test" },
+                "keys": [
+                    {
+                        "kid": "4_PYYc3xAr0t7oheW31Dww6b1QneghAeV-_0Jwns6FU",
+                        "kty": "RSA",
+                        "alg": "RS256",
+                        "use": "sig",
+                        "n": "jMZSDVCEVVidiR-B_49g48t3OLfBPuc8eKFDo9xdQhwlcQxhXwpXSUS9Wp-RqFluZGliwSyD_xJrRyrip1KQGjfiesbg-iEc-xOWuuNhtZFU8kZPYbb5XQMHMmGPSjFAFj-QH8w2pSMF9hYt7hLiIW4UM9Bpcm_o2CjoKo9VzeQdvzOgS7ryEtTR4Vl6gWjHG5lt4ffNFmrowArD-qlSmrAmcgtFDaB75KIwk_YzXxvaXbayFnHPwApj_miISaavKDj1M8GFc27T548jJbb4A7ltOrRRPduj1ZhtWdZUj-tPixvVQYlgSTdpWIG5cx4weafMbPp5qg5C6UBPMiIX-Q",
+                        "e": "AQAB",
+                        "x5c": ["MIICmzCCAYMCBgFk"],
+                        "x5t": "Bu0e7OQe1Yq8sU3M",
+                        "x5t#S256": "Hb8ZOvMZ4dOJF2t0"
+                    },
+                    {
+                        "kid": "enc-key",
+                        "kty": "RSA",
+                        "use": "enc",
+                        "n": null,
+                        "e": "AQAB"
+                    }
+                ]
+            }
+        """
+
+        when:
+        def keys = JsonWebKeySet.fromJson(json.bytes).keys
+
+        then:
+        keys.size() == 2
+        keys.first().id == "4_PYYc3xAr0t7oheW31Dww6b1QneghAeV-_0Jwns6FU"
+        keys.first().algorithm == "RS256"
+        keys.first().type == "RSA"
+        keys.first().use == "sig"
+        keys.first().exponentBase64 == "AQAB"
+        keys.first().toPublicKey() != null
+        keys.last().id == "enc-key"
+        keys.last().modulusBase64 == null
+        keys.last().algorithm == null
+    }
+
+    def "parsing a certificates without keys returns no keys"() {
+        expect:
+        JsonWebKeySet.fromJson('{"other": [1, 2]}'.bytes).keys == null
+    }
+
+    def "parsing an invalid certificates throws an exception"(String json) {
+        when:
+        JsonWebKeySet.fromJson(json.bytes)
+
+        then:
+        thrown(IOException)
+
+        where:
+        json << ['[]', '{"keys": {}}', '{"keys": ["key"]}', '{"keys": [{"kid": "a"}', 'not json']
+    }
+
+    def "a key of an unsupported type is not converted to a public key"() {
+        expect:
+        new JsonWebKey("kid", null, null, "EdDSA", "OKP", "sig", "Ed25519", "x", null).toPublicKey() == null
+    }
+
+    private static byte[] toUnsigned(BigInteger value) {
+        def bytes = value.toByteArray()
+        return bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes
+    }
 }
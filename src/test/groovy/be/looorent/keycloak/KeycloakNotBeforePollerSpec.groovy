@@ -0,0 +1,120 @@
+package be.looorent.keycloak
+
+import be.looorent.micronaut.security.InMemoryPublicKeyService
+import be.looorent.micronaut.security.TokenRevocations
+import io.jsonwebtoken.Claims
+import io.jsonwebtoken.impl.DefaultClaims
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.time.Duration
+import java.time.Instant
+
+class KeycloakNotBeforePollerSpec extends Specification {
+
+    private static final String REALM_ID = "test"
+
+    @AutoCleanup
+    @Shared
+    KeycloakServerStub server = new KeycloakServerStub(new InMemoryPublicKeyService(), REALM_ID, 9992).start()
+
+    def configuration = new KeycloakRevocationConfiguration(pollEnabled: true, pollInterval: Duration.ofHours(1), clientId: "api", clientSecret: "secret", clients: ["frontend", "unknown"])
+    def revocations = new TokenRevocations(100)
+    def now = Instant.now()
+
+    def setup() {
+        server.realmNotBefore = 0
+        server.notBeforePerClient = [:]
+        server.notBeforeRequestCount = 0
+    }
+
+    def "construct poller without client id throws an exception"() {
+        when:
+        new KeycloakNotBeforePoller(server.baseUrl, REALM_ID, "", new KeycloakRevocationConfiguration(pollEnabled: true), revocations)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property keycloak.revocation.client-id (string) must be defined"
+    }
+
+    def "the not-before policy of the realm revokes the tokens issued before it"() {
+        given:
+        def poller = createPoller(server.baseUrl)
+        server.realmNotBefore = now.epochSecond
+
+        when:
+        poller.poll().blockingAwait()
+
+        then:
+        revocations.isRevoked(claimsIssuedAt(now.minusSeconds(10), null))
+        !revocations.isRevoked(claimsIssuedAt(now, null))
+        server.adminAuthorization == "Bearer admin-token"
+
+        cleanup:
+        poller.close()
+    }
+
+    def "the not-before policy of a client revokes the tokens issued to this client before it"() {
+        given:
+        def poller = createPoller(server.baseUrl)
+        server.notBeforePerClient = [frontend: now.epochSecond]
+
+        when:
+        poller.poll().blockingAwait()
+
+        then:
+        revocations.isRevoked(claimsIssuedAt(now.minusSeconds(10), "frontend"))
+        !revocations.isRevoked(claimsIssuedAt(now.minusSeconds(10), "backend"))
+        server.notBeforeRequestCount >= 3
+
+        cleanup:
+        poller.close()
+    }
+
+    def "no token is revoked when no policy has been set"() {
+        given:
+        def poller = createPoller(server.baseUrl)
+
+        when:
+        poller.poll().blockingAwait()
+
+        then:
+        !revocations.isRevoked(claimsIssuedAt(now.minusSeconds(10), "frontend"))
+
+        cleanup:
+        poller.close()
+    }
+
+    def "a failed poll keeps the known policies"() {
+        given:
+        revocations.revokeIssuedBefore(issuerOf("http://localhost:9991"), now)
+        def poller = createPoller("http://localhost:9991")
+
+        when:
+        poller.poll().blockingAwait()
+
+        then:
+        thrown(IllegalStateException)
+        revocations.isRevoked(new DefaultClaims().setIssuer(issuerOf("http://localhost:9991")).setIssuedAt(Date.from(now.minusSeconds(10))))
+
+        cleanup:
+        poller.close()
+    }
+
+    private KeycloakNotBeforePoller createPoller(String baseUrl) {
+        new KeycloakNotBeforePoller(baseUrl, REALM_ID, "", configuration, revocations)
+    }
+
+    private Claims claimsIssuedAt(Instant issuedAt, String clientId) {
+        def claims = new DefaultClaims().setIssuer(issuerOf(server.baseUrl)).setIssuedAt(Date.from(issuedAt))
+        if (clientId != null) {
+            claims.put("azp", clientId)
+        }
+        claims
+    }
+
+    private static String issuerOf(String baseUrl) {
+        "${baseUrl}/auth/realms/${REALM_ID}"
+    }
+}
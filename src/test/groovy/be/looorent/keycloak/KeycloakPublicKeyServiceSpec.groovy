@@ -1,12 +1,19 @@
 package be.looorent.keycloak
 
 import be.looorent.micronaut.security.InMemoryPublicKeyService
+import be.looorent.micronaut.security.PublicKeysRefreshedEvent
+import be.looorent.micronaut.security.SecurityMetrics
+import io.micronaut.context.event.ApplicationEventPublisher
 import spock.lang.AutoCleanup
 import spock.lang.Shared
 import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
 
+import java.nio.file.Files
 import java.security.KeyPairGenerator
 import java.security.PublicKey
+import java.time.Duration
+import java.util.concurrent.TimeUnit
 import java.security.interfaces.RSAPublicKey
 
 class KeycloakPublicKeyServiceSpec extends Specification {
@@ -28,9 +35,13 @@ class KeycloakPublicKeyServiceSpec extends Specification {
 
     String baseUrl = server.baseUrl
 
+    def eventPublisher = Mock(ApplicationEventPublisher)
+    def configuration = new KeycloakPublicKeysConfiguration()
+    def metrics = Mock(SecurityMetrics)
+
     def "construct service with an empty baseUrl throws an exception"(String baseUrl) {
         when:
-        new KeycloakPublicKeyService(baseUrl, REALM_ID, false)
+        new KeycloakPublicKeyService(baseUrl, REALM_ID, false, configuration, [], eventPublisher, metrics)
 
         then:
         IllegalArgumentException exception = thrown()
@@ -42,7 +53,7 @@ class KeycloakPublicKeyServiceSpec extends Specification {
 
     def "construct service with an empty realmId throws an exception"(String realmId) {
         when:
-        new KeycloakPublicKeyService(baseUrl, realmId, false)
+        new KeycloakPublicKeyService(baseUrl, realmId, false, configuration, [], eventPublisher, metrics)
 
         then:
         IllegalArgumentException exception = thrown()
@@ -54,7 +65,7 @@ class KeycloakPublicKeyServiceSpec extends Specification {
 
     def "construct service with an empty eager-load-public-keys throws an exception"() {
         when:
-        new KeycloakPublicKeyService(baseUrl, REALM_ID, null)
+        new KeycloakPublicKeyService(baseUrl, REALM_ID, null, configuration, [], eventPublisher, metrics)
 
         then:
         IllegalArgumentException exception = thrown()
@@ -63,7 +74,7 @@ class KeycloakPublicKeyServiceSpec extends Specification {
 
     def "lazy loading waits for a call to load the keys"() {
         given: "eager loading is disabled"
-        def service = new KeycloakPublicKeyService(baseUrl, REALM_ID, false)
+        def service = new KeycloakPublicKeyService(baseUrl, REALM_ID, false, configuration, [], eventPublisher, metrics)
         service.initialize()
 
         expect: "keys to not be loaded"
@@ -76,9 +87,31 @@ class KeycloakPublicKeyServiceSpec extends Specification {
         service.publicKeyHasBeenLoaded()
     }
 
+    def "the keys loaded lazily by a request are refreshed in background"() {
+        given: "eager loading is disabled"
+        configuration.refreshInterval = Duration.ofMillis(200)
+        configuration.minRefreshInterval = Duration.ofMillis(100)
+        def service = new KeycloakPublicKeyService(baseUrl, REALM_ID, false, configuration, [], eventPublisher, metrics)
+        service.initialize()
+        def requestCount = server.certificateRequestCount
+
+        when: "a request loads the keys"
+        def keyFound = service.findPublicKeyAsync(KEY_ID_1).toCompletableFuture().get(5, TimeUnit.SECONDS)
+
+        then:
+        keyFound.get() == keysPerId[KEY_ID_1]
+        server.certificateRequestCount == requestCount + 1
+        new PollingConditions(timeout: 5).eventually {
+            assert server.certificateRequestCount >= requestCount + 2
+        }
+
+        cleanup:
+        service.close()
+    }
+
     def "eager loading does not wait for a call to load the keys"() {
         given: "eager loading is enabled"
-        def service = new KeycloakPublicKeyService(baseUrl, REALM_ID, true)
+        def service = new KeycloakPublicKeyService(baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
 
         when:
         service.initialize()
@@ -87,10 +120,542 @@ class KeycloakPublicKeyServiceSpec extends Specification {
         service.publicKeyHasBeenLoaded()
     }
 
+    def "construct service without event publisher throws an exception"() {
+        when:
+        new KeycloakPublicKeyService(baseUrl, REALM_ID, false, configuration, [], null, metrics)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "No implementation of ApplicationEventPublisher has been found"
+    }
+
+    def "loading the public keys publishes an event with the keys"() {
+        given:
+        def service = new KeycloakPublicKeyService(baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
+
+        when:
+        service.initialize()
+
+        then:
+        1 * eventPublisher.publishEvent({ PublicKeysRefreshedEvent event ->
+            event.source == service && event.publicKeys.keySet() == keysPerId.keySet()
+        })
+    }
+
+    def "construct service without configuration throws an exception"() {
+        when:
+        new KeycloakPublicKeyService(baseUrl, REALM_ID, false, null, [], eventPublisher, metrics)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "No KeycloakPublicKeysConfiguration has been found"
+    }
+
+    def "construct service without metrics throws an exception"() {
+        when:
+        new KeycloakPublicKeyService(baseUrl, REALM_ID, false, configuration, [], eventPublisher, null)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "No implementation of SecurityMetrics has been found"
+    }
+
+    def "construct service with a realm without issuer throws an exception"() {
+        when:
+        new KeycloakPublicKeyService(baseUrl, null, false, configuration, [new KeycloakRealmConfiguration("other")], eventPublisher, metrics)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property keycloak.realms.other.issuer (string) must be defined"
+    }
+
+    def "each realm has its own keys, searched by the issuer of the token"() {
+        given:
+        def otherKeys = new InMemoryPublicKeyService(["other-kid": createKey()])
+        def multiRealmServer = new KeycloakServerStub(publicKeyService, REALM_ID, 9996).addRealm("other", otherKeys).start()
+        def otherRealm = new KeycloakRealmConfiguration("other")
+        otherRealm.issuer = "http://localhost/auth/realms/other"
+        def service = new KeycloakPublicKeyService(multiRealmServer.baseUrl, REALM_ID, true, configuration, [otherRealm], eventPublisher, metrics)
+
+        when:
+        service.initialize()
+
+        then:
+        service.publicKeyHasBeenLoaded()
+        service.issuers == [otherRealm.issuer] as Set
+        service.countLoadedPublicKeys() == keysPerId.size() + 1
+        service.findPublicKey(otherRealm.issuer, "other-kid").get() == otherKeys.keyById["other-kid"]
+        !service.findPublicKey(otherRealm.issuer, KEY_ID_1).isPresent()
+        service.findPublicKey("https://keycloak.org/auth", KEY_ID_1).get() == keysPerId[KEY_ID_1]
+        2 * eventPublisher.publishEvent(_ as PublicKeysRefreshedEvent)
+
+        cleanup:
+        service.close()
+        multiRealmServer.stop()
+    }
+
+    def "without keycloak.realm-id, the keys are never searched across the realms"() {
+        given:
+        def otherKeys = new InMemoryPublicKeyService(["other-kid": createKey()])
+        def multiRealmServer = new KeycloakServerStub(publicKeyService, REALM_ID, 9996).addRealm("other", otherKeys).start()
+        def otherRealm = new KeycloakRealmConfiguration("other")
+        otherRealm.issuer = "http://localhost/auth/realms/other"
+        def service = new KeycloakPublicKeyService(multiRealmServer.baseUrl, "", true, configuration, [otherRealm], eventPublisher, metrics)
+        service.initialize()
+
+        expect:
+        !service.hasDefaultKeys()
+        service.findPublicKey(otherRealm.issuer, "other-kid").get() == otherKeys.keyById["other-kid"]
+        !service.findPublicKey("other-kid").isPresent()
+        !service.findPublicKeyAsync("other-kid").toCompletableFuture().get(5, TimeUnit.SECONDS).isPresent()
+        !service.findPublicKey("https://keycloak.org/auth", "other-kid").isPresent()
+
+        cleanup:
+        service.close()
+        multiRealmServer.stop()
+    }
+
+    def "the public keys are loaded from the last snapshot when Keycloak is not available"() {
+        given:
+        def directory = Files.createTempDirectory("jwks")
+        configuration.snapshotDirectory = directory.toString()
+        def service = new KeycloakPublicKeyService(baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
+        service.initialize()
+        def snapshot = new JsonWebKeySetSnapshot(directory.toString(), REALM_ID)
+        new PollingConditions(timeout: 5).eventually {
+            assert snapshot.read().isPresent()
+        }
+
+        when:
+        def offlineService = new KeycloakPublicKeyService("http://localhost:9995", REALM_ID, true, configuration, [], eventPublisher, metrics)
+        offlineService.initialize()
+
+        then:
+        offlineService.publicKeyHasBeenLoaded()
+        offlineService.findPublicKey(KEY_ID_1).get() == keysPerId[KEY_ID_1]
+
+        cleanup:
+        service.close()
+        offlineService.close()
+        directory.toFile().deleteDir()
+    }
+
+    def "loading and refreshing the public keys records the outcome of each retrieval"() {
+        when:
+        def service = new KeycloakPublicKeyService(baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
+        service.initialize()
+        service.refreshPublicKeys().blockingAwait()
+
+        then:
+        1 * metrics.monitorLoadedPublicKeys(service, _)
+        1 * metrics.recordPublicKeysFetch(_, SecurityMetrics.PublicKeysFetchOutcome.MODIFIED)
+        1 * metrics.recordPublicKeysFetch(_, SecurityMetrics.PublicKeysFetchOutcome.NOT_MODIFIED)
+        service.countLoadedPublicKeys() == keysPerId.size()
+    }
+
+    def "refreshing the public keys keeps them when they have not been modified"() {
+        given:
+        def service = new KeycloakPublicKeyService(baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
+        service.initialize()
+        def requestCount = server.certificateRequestCount
+
+        when:
+        service.refreshPublicKeys().blockingAwait()
+
+        then:
+        server.certificateRequestCount == requestCount + 1
+        0 * eventPublisher.publishEvent(_)
+        service.findPublicKey(KEY_ID_1).get() == keysPerId[KEY_ID_1]
+
+        cleanup:
+        service.close()
+    }
+
+    def "refreshing the public keys swaps in the keys rotated by Keycloak"() {
+        given:
+        def rotatedKeys = new InMemoryPublicKeyService([(KEY_ID_1): createKey()])
+        def rotatingServer = new KeycloakServerStub(rotatedKeys, REALM_ID, 9998).start()
+        def service = new KeycloakPublicKeyService(rotatingServer.baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
+        service.initialize()
+        def newKey = createKey()
+
+        when:
+        rotatedKeys.addKey(KEY_ID_2, newKey)
+        service.refreshPublicKeys().blockingAwait()
+
+        then:
+        1 * eventPublisher.publishEvent(_ as PublicKeysRefreshedEvent)
+        service.findPublicKey(KEY_ID_2).get() == newKey
+
+        cleanup:
+        service.close()
+        rotatingServer.stop()
+    }
+
+    def "refreshing the public keys tells which keys have been retired"() {
+        given:
+        def rotatedKeys = new InMemoryPublicKeyService([(KEY_ID_1): createKey(), (KEY_ID_2): createKey()])
+        def rotatingServer = new KeycloakServerStub(rotatedKeys, REALM_ID, 9998).start()
+        def service = new KeycloakPublicKeyService(rotatingServer.baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
+        service.initialize()
+
+        when:
+        rotatedKeys.keyById.remove(KEY_ID_1)
+        rotatedKeys.addKey(KEY_ID_3, createKey())
+        service.refreshPublicKeys().blockingAwait()
+
+        then:
+        1 * eventPublisher.publishEvent({ PublicKeysRefreshedEvent event -> event.retiredKeyIds == [KEY_ID_1] as Set && event.publicKeys.keySet() == [KEY_ID_2, KEY_ID_3] as Set })
+
+        cleanup:
+        service.close()
+        rotatingServer.stop()
+    }
+
+    def "refreshing the public keys keeps the last loaded keys when Keycloak is unavailable"() {
+        given:
+        def unavailableKeys = new InMemoryPublicKeyService(keysPerId)
+        def unavailableServer = new KeycloakServerStub(unavailableKeys, REALM_ID, 9998).start()
+        def service = new KeycloakPublicKeyService(unavailableServer.baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
+        service.initialize()
+
+        when:
+        unavailableServer.stop()
+        service.refreshPublicKeys().blockingAwait()
+
+        then:
+        notThrown(Exception)
+        service.findPublicKey(KEY_ID_1).get() == keysPerId[KEY_ID_1]
+
+        cleanup:
+        service.close()
+    }
+
+    def "a failed retrieval is not retried by requests before the backoff delay"() {
+        given:
+        def failingServer = new KeycloakServerStub(new InMemoryPublicKeyService(keysPerId), REALM_ID, 9998).start()
+        failingServer.certificateFailureCount = 1
+        configuration.failureBackoff = Duration.ofMinutes(1)
+        def service = new KeycloakPublicKeyService(failingServer.baseUrl, REALM_ID, false, configuration, [], eventPublisher, metrics)
+
+        when:
+        service.findPublicKey(KEY_ID_1)
+
+        then:
+        thrown(IllegalStateException)
+        failingServer.certificateRequestCount == 1
+
+        when:
+        service.findPublicKey(KEY_ID_1)
+
+        then:
+        IllegalStateException exception = thrown()
+        exception.message.startsWith("Public keys of realm test cannot be retrieved, Keycloak is not contacted again for ")
+        failingServer.certificateRequestCount == 1
+
+        cleanup:
+        service.close()
+        failingServer.stop()
+    }
+
+    def "the last loaded keys are used without contacting Keycloak while it is slow"() {
+        given:
+        def slowServer = new KeycloakServerStub(new InMemoryPublicKeyService(keysPerId), REALM_ID, 9998).start()
+        configuration.fetchTimeout = Duration.ofMillis(200)
+        configuration.failureBackoff = Duration.ofMinutes(1)
+        configuration.unknownKeyMinFetchInterval = Duration.ZERO
+        def service = new KeycloakPublicKeyService(slowServer.baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
+        service.initialize()
+
+        when:
+        slowServer.certificateDelayInMs = 500
+        service.refreshPublicKeys().blockingAwait()
+        def requestCount = slowServer.certificateRequestCount
+
+        then:
+        service.findPublicKey(KEY_ID_1).get() == keysPerId[KEY_ID_1]
+        !service.findPublicKey("forged-kid").isPresent()
+        slowServer.certificateRequestCount == requestCount
+
+        cleanup:
+        service.close()
+        slowServer.certificateDelayInMs = 0
+        slowServer.stop()
+    }
+
+    def "the keys retrieved for longer than the max staleness are not used anymore"() {
+        given:
+        def failingServer = new KeycloakServerStub(new InMemoryPublicKeyService(keysPerId), REALM_ID, 9998).start()
+        configuration.maxStaleness = Duration.ofMillis(100)
+        configuration.failureBackoff = Duration.ofMillis(200)
+        configuration.unknownKeyMinFetchInterval = Duration.ZERO
+        def service = new KeycloakPublicKeyService(failingServer.baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
+        service.initialize()
+
+        when:
+        failingServer.certificateFailureCount = 1
+        sleep(200)
+        service.findPublicKey(KEY_ID_1)
+
+        then:
+        thrown(IllegalStateException)
+
+        when:
+        sleep(300)
+        def keyFound = service.findPublicKey(KEY_ID_1)
+
+        then:
+        keyFound.get() == keysPerId[KEY_ID_1]
+        failingServer.certificateRequestCount == 3
+
+        cleanup:
+        service.close()
+        failingServer.stop()
+    }
+
+    def "the refreshes are brought forward by a random part of their delay"() {
+        given:
+        configuration.refreshJitter = 0.5
+        def service = new KeycloakPublicKeyService(baseUrl, REALM_ID, false, configuration, [], eventPublisher, metrics)
+
+        when:
+        def delays = (1..100).collect { service.jitter(Duration.ofMinutes(10)) }
+
+        then:
+        delays.every { it >= Duration.ofMinutes(5) && it <= Duration.ofMinutes(10) }
+        delays.toSet().size() > 1
+
+        cleanup:
+        service.close()
+    }
+
+    def "invalid refresh jitter throws an exception"() {
+        when:
+        configuration.refreshJitter = 1.5
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property keycloak.public-keys.refresh-jitter (decimal) must be between 0 and 1"
+    }
+
+    def "a key removed by Keycloak is still accepted during the grace period"(Duration gracePeriod, boolean accepted) {
+        given:
+        def rotatedKeys = new InMemoryPublicKeyService([(KEY_ID_1): createKey(), (KEY_ID_2): createKey()])
+        def rotatingServer = new KeycloakServerStub(rotatedKeys, REALM_ID, 9998).start()
+        configuration.retiredKeyGracePeriod = gracePeriod
+        configuration.unknownKeyMinFetchInterval = Duration.ofMinutes(1)
+        def service = new KeycloakPublicKeyService(rotatingServer.baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
+        service.initialize()
+
+        when:
+        rotatedKeys.keyById.remove(KEY_ID_2)
+        service.refreshPublicKeys().blockingAwait()
+
+        then:
+        service.findPublicKey(KEY_ID_2).isPresent() == accepted
+        service.findPublicKey(KEY_ID_1).isPresent()
+
+        cleanup:
+        service.close()
+        rotatingServer.stop()
+
+        where:
+        gracePeriod           | accepted
+        Duration.ofMinutes(5) | true
+        Duration.ZERO         | false
+    }
+
+    def "the keys that cannot be converted to a public key are skipped"() {
+        given:
+        def validKeys = new InMemoryPublicKeyService([(KEY_ID_1): keysPerId[KEY_ID_1]])
+        def partiallyValidServer = new KeycloakServerStub(validKeys, REALM_ID, 9998)
+        partiallyValidServer.extraCertificates = [
+                [kid: "symmetric", kty: "oct", k: "c2VjcmV0"],
+                [kty: "RSA", n: "AQAB", e: "AQAB"],
+                [kid: KEY_ID_1, kty: "EC", crv: "P-256", x: "AQAB", y: "AQAB"]
+        ]
+        partiallyValidServer.start()
+        def service = new KeycloakPublicKeyService(partiallyValidServer.baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
+
+        when:
+        service.initialize()
+
+        then:
+        notThrown(Exception)
+        service.findPublicKey(KEY_ID_1).get() == keysPerId[KEY_ID_1]
+        !service.findPublicKey("symmetric").isPresent()
+
+        cleanup:
+        service.close()
+        partiallyValidServer.stop()
+    }
+
+    def "a key set without any key that can be loaded is a failed retrieval"(List<Map<String, Object>> certificates) {
+        given:
+        def directory = Files.createTempDirectory("jwks")
+        configuration.snapshotDirectory = directory.toString()
+        def rotatedKeys = new InMemoryPublicKeyService([(KEY_ID_1): keysPerId[KEY_ID_1]])
+        def rotatingServer = new KeycloakServerStub(rotatedKeys, REALM_ID, 9998).start()
+        def service = new KeycloakPublicKeyService(rotatingServer.baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
+        service.initialize()
+        def snapshot = new JsonWebKeySetSnapshot(directory.toString(), REALM_ID)
+        new PollingConditions(timeout: 5).eventually {
+            assert snapshot.read().isPresent()
+        }
+        def savedKeySet = snapshot.file.bytes
+
+        when:
+        rotatedKeys.keyById.clear()
+        rotatingServer.extraCertificates = certificates
+        service.refreshPublicKeys().blockingAwait()
+
+        then:
+        1 * metrics.recordPublicKeysFetch(_, SecurityMetrics.PublicKeysFetchOutcome.FAILED)
+        0 * eventPublisher.publishEvent(_)
+        service.findPublicKey(KEY_ID_1).get() == keysPerId[KEY_ID_1]
+        snapshot.file.bytes == savedKeySet
+
+        cleanup:
+        service.close()
+        rotatingServer.stop()
+        directory.toFile().deleteDir()
+
+        where:
+        certificates << [[], [[kid: "symmetric", kty: "oct", k: "c2VjcmV0"]]]
+    }
+
+    def "invalid grace period throws an exception"() {
+        when:
+        configuration.retiredKeyGracePeriod = Duration.ofSeconds(-1)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property keycloak.public-keys.retired-key-grace-period (duration) must not be negative"
+    }
+
+    def "fetching a kid rotated by Keycloak retrieves the public keys again"() {
+        given:
+        def rotatedKeys = new InMemoryPublicKeyService([(KEY_ID_1): createKey()])
+        def rotatingServer = new KeycloakServerStub(rotatedKeys, REALM_ID, 9998).start()
+        configuration.unknownKeyMinFetchInterval = Duration.ZERO
+        def service = new KeycloakPublicKeyService(rotatingServer.baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
+        service.initialize()
+        def newKey = createKey()
+
+        when:
+        rotatedKeys.addKey(KEY_ID_2, newKey)
+        def keyFound = service.findPublicKey(KEY_ID_2)
+
+        then:
+        keyFound.isPresent()
+        keyFound.get() == newKey
+
+        cleanup:
+        service.close()
+        rotatingServer.stop()
+    }
+
+    def "fetching a kid rotated by Keycloak asynchronously retrieves the public keys again"() {
+        given:
+        def rotatedKeys = new InMemoryPublicKeyService([(KEY_ID_1): createKey()])
+        def rotatingServer = new KeycloakServerStub(rotatedKeys, REALM_ID, 9998).start()
+        configuration.unknownKeyMinFetchInterval = Duration.ZERO
+        def service = new KeycloakPublicKeyService(rotatingServer.baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
+        service.initialize()
+        def newKey = createKey()
+
+        when:
+        rotatedKeys.addKey(KEY_ID_2, newKey)
+        def keyFound = service.findPublicKeyAsync(KEY_ID_2).toCompletableFuture().get(5, TimeUnit.SECONDS)
+
+        then:
+        keyFound.isPresent()
+        keyFound.get() == newKey
+
+        cleanup:
+        service.close()
+        rotatingServer.stop()
+    }
+
+    def "loading the public keys fails when Keycloak does not respond in time"() {
+        given:
+        configuration.connectTimeout = Duration.ofMillis(200)
+        configuration.readTimeout = Duration.ofMillis(200)
+        configuration.fetchTimeout = Duration.ofMillis(500)
+        def silentServer = new ServerSocket(9997)
+        def service = new KeycloakPublicKeyService("http://localhost:9997", REALM_ID, true, configuration, [], eventPublisher, metrics)
+
+        when:
+        service.initialize()
+
+        then:
+        IllegalStateException exception = thrown()
+        exception.message == "Impossible to contact Keycloak with the properties you have provided for 'keycloak.base-url' and/or 'keycloak.realm-id'"
+
+        cleanup:
+        service.close()
+        silentServer.close()
+    }
+
+    def "fetching an unknown kid twice retrieves the public keys only once"() {
+        given:
+        configuration.unknownKeyMinFetchInterval = Duration.ZERO
+        configuration.unknownKeyCacheDuration = Duration.ofMinutes(1)
+        def service = new KeycloakPublicKeyService(baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
+        service.initialize()
+        def requestCount = server.certificateRequestCount
+
+        when:
+        def firstAttempt = service.findPublicKey("forged-kid")
+        def secondAttempt = service.findPublicKey("forged-kid")
+
+        then:
+        !firstAttempt.isPresent()
+        !secondAttempt.isPresent()
+        server.certificateRequestCount == requestCount + 1
+
+        cleanup:
+        service.close()
+    }
+
+    def "fetching unknown kids does not retrieve the public keys more often than the configured interval"() {
+        given:
+        configuration.unknownKeyMinFetchInterval = Duration.ofMinutes(1)
+        def service = new KeycloakPublicKeyService(baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
+        service.initialize()
+        def requestCount = server.certificateRequestCount
+
+        when:
+        (1..10).each { service.findPublicKey("forged-kid-${it}") }
+
+        then:
+        server.certificateRequestCount == requestCount
+
+        cleanup:
+        service.close()
+    }
+
+    def "the refresh delay honours the cache headers within the configured bounds"(Duration maxAge, Duration expectedDelay) {
+        given:
+        configuration.refreshInterval = Duration.ofMinutes(10)
+        configuration.minRefreshInterval = Duration.ofSeconds(30)
+        def service = new KeycloakPublicKeyService(baseUrl, REALM_ID, false, configuration, [], eventPublisher, metrics)
+
+        expect:
+        service.computeRefreshDelay(maxAge) == expectedDelay
+
+        where:
+        maxAge                  | expectedDelay
+        null                    | Duration.ofMinutes(10)
+        Duration.ofSeconds(1)   | Duration.ofSeconds(30)
+        Duration.ofMinutes(2)   | Duration.ofMinutes(2)
+        Duration.ofHours(1)     | Duration.ofMinutes(10)
+    }
+
     def "loading the public keys throws an exception when a wrong base url is set"() {
         given:
         def wrongUrl = baseUrl + "/wrong/"
-        def service = new KeycloakPublicKeyService(wrongUrl, REALM_ID, true)
+        def service = new KeycloakPublicKeyService(wrongUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
 
         when:
         service.initialize()
@@ -103,7 +668,7 @@ class KeycloakPublicKeyServiceSpec extends Specification {
     def "loading the public keys throws an exception when a wrong realm id is set"() {
         given:
         def wrongRealmId = "WRONG-${REALM_ID}"
-        def service = new KeycloakPublicKeyService(baseUrl, wrongRealmId, true)
+        def service = new KeycloakPublicKeyService(baseUrl, wrongRealmId, true, configuration, [], eventPublisher, metrics)
 
         when:
         service.initialize()
@@ -115,7 +680,7 @@ class KeycloakPublicKeyServiceSpec extends Specification {
 
     def "fetching the public keys works fine"(String id) {
         given:
-        def service = new KeycloakPublicKeyService(baseUrl, REALM_ID, true)
+        def service = new KeycloakPublicKeyService(baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
         def key = keysPerId[id]
 
         when:
@@ -133,7 +698,7 @@ class KeycloakPublicKeyServiceSpec extends Specification {
 
     def "fetching the public keys with a wrong id throws an exception"(String wrongId) {
         given:
-        def service = new KeycloakPublicKeyService(baseUrl, REALM_ID, true)
+        def service = new KeycloakPublicKeyService(baseUrl, REALM_ID, true, configuration, [], eventPublisher, metrics)
 
         when:
         def keyFound = service.findPublicKey(wrongId)
@@ -11,28 +11,105 @@ import static java.util.stream.Collectors.toList
 
 class KeycloakServerStub implements AutoCloseable {
 
-    private final InMemoryPublicKeyService publicKeyService
-    private final String realmId
+    private final Map<String, InMemoryPublicKeyService> publicKeyServicePerRealm = [:]
     private final Integer port
     private HttpServer server
+    String cacheControl
+    int certificateRequestCount
+    long certificateDelayInMs
+    int certificateFailureCount
+    Map<String, Map<String, Object>> introspectionPerToken = [:]
+    int introspectionRequestCount
+    long introspectionDelayInMs
+    String introspectionAuthorization
+    long realmNotBefore
+    Map<String, Long> notBeforePerClient = [:]
+    String adminAuthorization
+    int notBeforeRequestCount
+    List<Map<String, Object>> extraCertificates = []
 
     KeycloakServerStub(InMemoryPublicKeyService publicKeyService, String realmId) {
-        this.publicKeyService = publicKeyService
-        this.port = 9999
-        this.realmId = realmId
+        this(publicKeyService, realmId, 9999)
+    }
+
+    KeycloakServerStub(InMemoryPublicKeyService publicKeyService, String realmId, Integer port) {
+        this.port = port
+        addRealm(realmId, publicKeyService)
+    }
+
+    KeycloakServerStub addRealm(String realmId, InMemoryPublicKeyService publicKeyService) {
+        publicKeyServicePerRealm[realmId] = publicKeyService
+        this
     }
 
     def start() {
-        server = HttpServer.create(new InetSocketAddress(port), 0).with {
-            createContext(urlSuffix) { http ->
+        server = HttpServer.create(new InetSocketAddress(port), 0)
+        publicKeyServicePerRealm.each { realmId, publicKeyService ->
+            server.createContext(urlSuffixOf(realmId)) { http ->
+                certificateRequestCount++
+                sleep(certificateDelayInMs)
+                if (certificateFailureCount > 0) {
+                    certificateFailureCount--
+                    http.sendResponseHeaders(503, -1)
+                    http.close()
+                    return
+                }
+                def certificateSet = new ObjectMapper().convertValue(createCertificates(publicKeyService), Map)
+                certificateSet.keys = certificateSet.keys + extraCertificates
+                def certificates = new ObjectMapper().writeValueAsString(certificateSet)
+                def entityTag = "\"${certificates.hashCode()}\""
+                http.responseHeaders.add("ETag", entityTag)
+                if (cacheControl != null) {
+                    http.responseHeaders.add("Cache-Control", cacheControl)
+                }
+                if (http.requestHeaders.getFirst("If-None-Match") == entityTag) {
+                    http.sendResponseHeaders(304, -1)
+                    http.close()
+                }
+                else {
+                    http.responseHeaders.add("Content-type", "application/json")
+                    http.sendResponseHeaders(200, 0)
+                    http.responseBody.withWriter { out ->
+                        out << certificates
+                    }
+                }
+            }
+            server.createContext(introspectionUrlSuffixOf(realmId)) { http ->
+                introspectionRequestCount++
+                introspectionAuthorization = http.requestHeaders.getFirst("Authorization")
+                sleep(introspectionDelayInMs)
+                def form = http.requestBody.text.split("&").collectEntries {
+                    def parameter = it.split("=", 2)
+                    [(URLDecoder.decode(parameter[0], "UTF-8")): URLDecoder.decode(parameter.length > 1 ? parameter[1] : "", "UTF-8")]
+                }
+                def introspection = new ObjectMapper().writeValueAsString(introspectionPerToken[form["token"]] ?: [active: false])
                 http.responseHeaders.add("Content-type", "application/json")
                 http.sendResponseHeaders(200, 0)
                 http.responseBody.withWriter { out ->
-                    out << new ObjectMapper().writeValueAsString(createCertificates())
+                    out << introspection
+                }
+            }
+            server.createContext(tokenUrlSuffixOf(realmId)) { http ->
+                http.responseHeaders.add("Content-type", "application/json")
+                http.sendResponseHeaders(200, 0)
+                http.responseBody.withWriter { out ->
+                    out << new ObjectMapper().writeValueAsString([access_token: "admin-token", token_type: "bearer"])
+                }
+            }
+            server.createContext(adminUrlSuffixOf(realmId)) { http ->
+                notBeforeRequestCount++
+                adminAuthorization = http.requestHeaders.getFirst("Authorization")
+                def clientId = http.requestURI.query?.replaceFirst("^clientId=", "")
+                def representation = clientId == null ? [realm: realmId, notBefore: realmNotBefore]
+                        : notBeforePerClient.containsKey(clientId) ? [[clientId: clientId, notBefore: notBeforePerClient[clientId]]] : []
+                http.responseHeaders.add("Content-type", "application/json")
+                http.sendResponseHeaders(200, 0)
+                http.responseBody.withWriter { out ->
+                    out << new ObjectMapper().writeValueAsString(representation)
                 }
             }
-            start()
         }
+        server.start()
         this
     }
 
@@ -46,12 +123,24 @@ class KeycloakServerStub implements AutoCloseable {
         "http://localhost:${port}"
     }
 
-    private String getUrlSuffix() throws MalformedURLException {
+    private static String urlSuffixOf(String realmId) {
         "/auth/realms/${realmId}/protocol/openid-connect/certs"
     }
 
-    private JSONWebKeySet createCertificates() {
-        def keys = this.publicKeyService
+    private static String introspectionUrlSuffixOf(String realmId) {
+        "/auth/realms/${realmId}/protocol/openid-connect/token/introspect"
+    }
+
+    private static String tokenUrlSuffixOf(String realmId) {
+        "/auth/realms/${realmId}/protocol/openid-connect/token"
+    }
+
+    private static String adminUrlSuffixOf(String realmId) {
+        "/auth/admin/realms/${realmId}"
+    }
+
+    private static JSONWebKeySet createCertificates(InMemoryPublicKeyService publicKeyService) {
+        def keys = publicKeyService
                 .keyById
                 .entrySet()
                 .stream()
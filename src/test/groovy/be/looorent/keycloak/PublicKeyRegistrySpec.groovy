@@ -0,0 +1,117 @@
+package be.looorent.keycloak
+
+import spock.lang.Specification
+
+import java.security.KeyPairGenerator
+import java.security.PublicKey
+import java.time.Duration
+
+class PublicKeyRegistrySpec extends Specification {
+
+    private static final Duration GRACE_PERIOD = Duration.ofMinutes(5)
+
+    def key1 = createKey()
+    def key2 = createKey()
+    def registry = new PublicKeyRegistry(GRACE_PERIOD)
+
+    def "construct registry with a negative grace period throws an exception"() {
+        when:
+        new PublicKeyRegistry(Duration.ofSeconds(-1))
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "gracePeriod must not be negative"
+    }
+
+    def "no key is found before the keys are published"() {
+        expect:
+        registry.find("abc") == null
+        !registry.isLoaded()
+        registry.version == 0
+        registry.countKeys() == 0
+    }
+
+    def "each publication increments the version"() {
+        when:
+        def firstVersion = registry.publish([abc: key1])
+        def secondVersion = registry.publish([abc: key1, efg: key2])
+
+        then:
+        firstVersion == 1
+        secondVersion == 2
+        registry.version == 2
+        registry.countKeys() == 2
+        registry.find("efg") == key2
+    }
+
+    def "a removed key is still found during the grace period"() {
+        given:
+        registry.publish([abc: key1, efg: key2])
+
+        when:
+        registry.publish([abc: key1])
+
+        then:
+        registry.find("efg") == key2
+        registry.countKeys() == 1
+        registry.countRetiredKeys() == 1
+    }
+
+    def "a removed key is not found after the grace period"() {
+        given:
+        def longAgo = System.currentTimeMillis() - 2 * GRACE_PERIOD.toMillis()
+        registry.publish([abc: key1, efg: key2], longAgo)
+
+        when:
+        registry.publish([abc: key1], longAgo)
+
+        then:
+        registry.find("efg") == null
+        registry.find("abc") == key1
+    }
+
+    def "the retired keys are forgotten by the next publication after the grace period"() {
+        given:
+        def longAgo = System.currentTimeMillis() - 2 * GRACE_PERIOD.toMillis()
+        registry.publish([abc: key1, efg: key2], longAgo)
+        registry.publish([abc: key1], longAgo)
+
+        when:
+        registry.publish([abc: key1])
+
+        then:
+        registry.countRetiredKeys() == 0
+    }
+
+    def "a key published again is not retired anymore"() {
+        given:
+        registry.publish([abc: key1, efg: key2])
+        registry.publish([abc: key1])
+
+        when:
+        registry.publish([abc: key1, efg: key2])
+
+        then:
+        registry.countRetiredKeys() == 0
+        registry.find("efg") == key2
+    }
+
+    def "a removed key is not found anymore without grace period"() {
+        given:
+        def registryWithoutGrace = new PublicKeyRegistry(Duration.ZERO)
+        registryWithoutGrace.publish([abc: key1, efg: key2])
+
+        when:
+        registryWithoutGrace.publish([abc: key1])
+
+        then:
+        registryWithoutGrace.find("efg") == null
+        registryWithoutGrace.countRetiredKeys() == 0
+    }
+
+    private static PublicKey createKey() {
+        def generator = KeyPairGenerator.getInstance("RSA")
+        generator.initialize(2048)
+        generator.generateKeyPair().public
+    }
+}
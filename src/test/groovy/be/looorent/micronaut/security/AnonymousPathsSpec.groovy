@@ -0,0 +1,95 @@
+package be.looorent.micronaut.security
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static io.micronaut.http.HttpMethod.GET
+import static io.micronaut.http.HttpMethod.HEAD
+import static io.micronaut.http.HttpMethod.POST
+
+class AnonymousPathsSpec extends Specification {
+
+    def paths = new AnonymousPaths("/health/**, /metrics, GET|HEAD /static/*/*.css, /docs/*/index.html, /files/**/*.pdf")
+
+    def "without any pattern, no path is anonymous"() {
+        given:
+        def noPaths = new AnonymousPaths(pattern)
+
+        expect:
+        !noPaths.matches(GET, "/")
+        !noPaths.matches(GET, "/health")
+
+        where:
+        pattern << [null, "", " , "]
+    }
+
+    @Unroll
+    def "#method #path is anonymous: #anonymous"() {
+        expect:
+        paths.matches(method, path) == anonymous
+
+        where:
+        method | path                         | anonymous
+        GET    | "/health"                    | true
+        GET    | "/health/"                   | true
+        POST   | "/health/liveness"           | true
+        GET    | "/health/db/status"          | true
+        GET    | "/healthy"                   | false
+        GET    | "/metrics"                   | true
+        GET    | "/metrics/jvm"               | false
+        GET    | "/static/css/main.css"       | true
+        HEAD   | "/static/css/main.css"       | true
+        POST   | "/static/css/main.css"       | false
+        null   | "/static/css/main.css"       | false
+        null   | "/metrics"                   | true
+        GET    | "/static/css/main.js"        | false
+        GET    | "/static/main.css"           | false
+        GET    | "/docs/v1/index.html"        | true
+        GET    | "/docs/v1/v2/index.html"     | false
+        GET    | "/files/report.pdf"          | true
+        GET    | "/files/2020/01/report.pdf"  | true
+        GET    | "/files/2020/01/report.txt"  | false
+        GET    | "//metrics"                  | true
+        GET    | "/api"                       | false
+        GET    | "/"                          | false
+        GET    | ""                           | false
+        GET    | "metrics"                    | false
+    }
+
+    @Unroll
+    def "#path is never anonymous"() {
+        expect:
+        !paths.matches(GET, path)
+
+        where:
+        path << ["/health/../api/users", "/health/./status", "/health/%2e%2e/api", "/health/..\\api", "/health;/api", "/health/.."]
+    }
+
+    def "a segment starting with a dot can be anonymous"() {
+        expect:
+        new AnonymousPaths("/.well-known/**").matches(GET, "/.well-known/openid-configuration")
+    }
+
+    def "the methods of the patterns of a same path are combined"() {
+        given:
+        def combined = new AnonymousPaths("GET /status, POST /status")
+
+        expect:
+        combined.matches(GET, "/status")
+        combined.matches(POST, "/status")
+        !combined.matches(HEAD, "/status")
+    }
+
+    @Unroll
+    def "pattern '#pattern' is not valid"() {
+        when:
+        new AnonymousPaths(pattern)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property 'security.anonymous.paths' (list) must contain patterns such as '/health/**' or 'GET|HEAD /static/**', but '${pattern.trim()}' is not valid"
+
+        where:
+        pattern << ["health", "FETCH /health", "GET /health extra", "/health/../api", "/health/a**", " GET|/health "]
+    }
+}
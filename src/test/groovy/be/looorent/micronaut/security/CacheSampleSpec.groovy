@@ -0,0 +1,39 @@
+package be.looorent.micronaut.security
+
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentHashMap
+
+class CacheSampleSpec extends Specification {
+
+    def "a sample contains at most the requested number of entries"() {
+        given:
+        def entries = new ConcurrentHashMap<Integer, Integer>()
+        (1..1000).each { entries.put(it, it) }
+
+        expect:
+        CacheSample.of(entries, 16).size() <= 16
+        CacheSample.of(entries, 16).every { entries.get(it.key) == it.value }
+    }
+
+    def "a small cache is sampled entirely"() {
+        given:
+        def entries = new ConcurrentHashMap<Integer, Integer>()
+        (1..10).each { entries.put(it, it) }
+
+        expect:
+        CacheSample.of(entries, 16)*.key as Set == entries.keySet()
+    }
+
+    def "the samples are taken from anywhere in the cache"() {
+        given:
+        def entries = new ConcurrentHashMap<Integer, Integer>()
+        (1..1024).each { entries.put(it, it) }
+
+        when:
+        def sampledKeys = (1..500).collectMany { CacheSample.of(entries, 16)*.key } as Set
+
+        then:
+        sampledKeys.size() > entries.size() / 2
+    }
+}
@@ -0,0 +1,124 @@
+package be.looorent.micronaut.security
+
+import io.jsonwebtoken.RequiredTypeException
+import io.jsonwebtoken.impl.DefaultClaims
+import spock.lang.Specification
+
+import java.time.Instant
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+class ClaimPathsSpec extends Specification {
+
+    private static final String PAYLOAD = """
+        {
+            "sub": "subject",
+            "exp": 1600000000,
+            "admin": true,
+            "ratio": 0.5,
+            "realm_access": { "roles": ["offline_access", "uma_authorization"] },
+            "resource_access": { "app": { "roles": ["reader", "writer"] }, "account": { "roles": ["manage-account"] } },
+            "unmapped": { "large": [1, 2, 3] },
+            "nothing": null
+        }
+    """
+
+    def claims = LazyClaims.parse(PAYLOAD.getBytes(UTF_8))
+
+    def "the claims and the nested claims are read in a single pass"() {
+        given:
+        def paths = ClaimPaths.of("sub", "exp", "admin", "ratio", "resource_access.app.roles", "realm_access.roles", "nothing", "unknown", "resource_access.unknown.roles")
+
+        when:
+        def values = paths.extract(claims)
+
+        then:
+        values as List == ["subject", 1600000000, true, 0.5d, ["reader", "writer"], ["offline_access", "uma_authorization"], null, null, null]
+    }
+
+    def "a claim and its members can both be read"() {
+        given:
+        def paths = ClaimPaths.of("resource_access.app.roles", "resource_access", "resource_access.account.roles", "resource_access.app.roles")
+
+        when:
+        def values = paths.extract(claims)
+
+        then:
+        values[0] == ["reader", "writer"]
+        values[1] == [app: [roles: ["reader", "writer"]], account: [roles: ["manage-account"]]]
+        values[2] == ["manage-account"]
+        values[3] == ["reader", "writer"]
+    }
+
+    def "the members of a claim that is not an object are missing"() {
+        expect:
+        ClaimPaths.of("sub.value", "admin.value").extract(claims) as List == [null, null]
+    }
+
+    def "the claims that have not been read from a token are read as maps"() {
+        given:
+        def introspectedClaims = new DefaultClaims([sub: "subject", resource_access: [app: [roles: ["reader"]]]])
+
+        expect:
+        ClaimPaths.of("sub", "resource_access.app.roles", "resource_access.other.roles").extract(introspectedClaims) as List == ["subject", ["reader"], null]
+    }
+
+    def "an invalid path throws an exception"(String path) {
+        when:
+        ClaimPaths.of(path)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "The claim path '${path}' is not valid"
+
+        where:
+        path << ["", ".sub", "sub.", "resource_access..roles"]
+    }
+
+    def "the values are converted to the types of the parameters"() {
+        given:
+        def values = ClaimPaths.of("sub", "exp", "admin", "ratio", "resource_access.app.roles", "realm_access", "unknown").extract(claims)
+
+        expect:
+        ClaimValues.asString(values[0], "sub") == "subject"
+        ClaimValues.asLong(values[1], "exp") == 1600000000L
+        ClaimValues.asIntValue(values[1], "exp") == 1600000000
+        ClaimValues.asInstant(values[1], "exp") == Instant.ofEpochSecond(1600000000)
+        ClaimValues.asDate(values[1], "exp") == new Date(1600000000000L)
+        ClaimValues.asBooleanValue(values[2], "admin")
+        ClaimValues.asDouble(values[3], "ratio") == 0.5d
+        ClaimValues.asStringList(values[4], "resource_access.app.roles") == ["reader", "writer"]
+        ClaimValues.asStringSet(values[4], "resource_access.app.roles") == ["reader", "writer"] as Set
+        ClaimValues.asMap(values[5], "realm_access") == [roles: ["offline_access", "uma_authorization"]]
+        ClaimValues.asString(values[6], "unknown") == null
+        !ClaimValues.asBooleanValue(values[6], "unknown")
+        ClaimValues.asLongValue(values[6], "unknown") == 0L
+    }
+
+    def "a value of another type is rejected"(Closure conversion) {
+        when:
+        conversion()
+
+        then:
+        thrown(RequiredTypeException)
+
+        where:
+        conversion << [
+                { ClaimValues.asString(42, "sub") },
+                { ClaimValues.asLong("42", "exp") },
+                { ClaimValues.asInteger(Long.MAX_VALUE, "exp") },
+                { ClaimValues.asBooleanValue("true", "admin") },
+                { ClaimValues.asStringList([1, 2], "roles") },
+                { ClaimValues.asStringList("reader", "roles") },
+                { ClaimValues.asMap(["reader"], "realm_access") }
+        ]
+    }
+
+    def "the collections are read-only"() {
+        when:
+        ClaimValues.asStringList(["reader"], "roles").add("writer")
+
+        then:
+        thrown(UnsupportedOperationException)
+    }
+}
@@ -0,0 +1,158 @@
+package be.looorent.micronaut.security
+
+import io.micronaut.http.HttpHeaders
+import io.micronaut.http.HttpRequest
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.ConcurrentLinkedQueue
+
+class FailureThrottleSpec extends Specification {
+
+    private static final long SECOND = 1_000_000_000L
+    private static final String CLIENT = "203.0.113.1"
+    private static final String OTHER_CLIENT = "203.0.113.2"
+
+    def throttle = new FailureThrottle(true, 5, Duration.ofSeconds(10), 100, "X-Forwarded-For")
+
+    def "construct throttle with a non-positive number of failures throws an exception"(int wrongMaxFailures) {
+        when:
+        new FailureThrottle(true, wrongMaxFailures, Duration.ofSeconds(10), 100, "")
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property 'security.throttle.max-failures' (integer) must be positive"
+
+        where:
+        wrongMaxFailures << [0, -1]
+    }
+
+    def "construct throttle with a non-positive period throws an exception"(Duration wrongPeriod) {
+        when:
+        new FailureThrottle(true, 5, wrongPeriod, 100, "")
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property 'security.throttle.period' (duration) must be positive"
+
+        where:
+        wrongPeriod << [null, Duration.ZERO, Duration.ofSeconds(-1)]
+    }
+
+    def "construct throttle with a non-positive number of clients throws an exception"() {
+        when:
+        new FailureThrottle(true, 5, Duration.ofSeconds(10), 0, "")
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property 'security.throttle.max-clients' (integer) must be positive"
+    }
+
+    def "a client is throttled once it has failed as many times as allowed"() {
+        when:
+        4.times { throttle.recordFailure(CLIENT, 0) }
+
+        then:
+        !throttle.isThrottled(CLIENT, 0)
+
+        when:
+        throttle.recordFailure(CLIENT, 0)
+
+        then:
+        throttle.isThrottled(CLIENT, 0)
+        !throttle.isThrottled(OTHER_CLIENT, 0)
+    }
+
+    def "a throttled client is let in again once a failure has been refilled"() {
+        given:
+        5.times { throttle.recordFailure(CLIENT, 0) }
+
+        expect:
+        throttle.isThrottled(CLIENT, 2 * SECOND - 1)
+        !throttle.isThrottled(CLIENT, 2 * SECOND)
+    }
+
+    def "the failures of a throttled client do not delay its release"() {
+        given:
+        100.times { throttle.recordFailure(CLIENT, 0) }
+
+        expect:
+        !throttle.isThrottled(CLIENT, 2 * SECOND)
+    }
+
+    def "the client that will be let in the soonest is forgotten when its slot is needed"() {
+        given:
+        def smallThrottle = new FailureThrottle(true, 1, Duration.ofSeconds(10), 4, "")
+        smallThrottle.recordFailure(CLIENT, 0)
+
+        when:
+        (1..4).each { smallThrottle.recordFailure("198.51.100.${it}", 5 * SECOND) }
+
+        then:
+        !smallThrottle.isThrottled(CLIENT, 5 * SECOND)
+        (1..4).every { smallThrottle.isThrottled("198.51.100.${it}", 5 * SECOND) }
+    }
+
+    def "the memory of the throttle is bounded however many clients fail"() {
+        given:
+        def smallThrottle = new FailureThrottle(true, 1, Duration.ofSeconds(10), 4, "")
+
+        when:
+        (1..1000).each { smallThrottle.recordFailure("198.51.100.${it}", 0) }
+
+        then:
+        (1..1000).count { smallThrottle.isThrottled("198.51.100.${it}", 0) } == 4
+    }
+
+    def "concurrent failures of many clients in a small table are recorded without error"() {
+        given:
+        def smallThrottle = new FailureThrottle(true, 1, Duration.ofSeconds(10), 4, "")
+        def errors = new ConcurrentLinkedQueue<Throwable>()
+        def threads = (1..8).collect { thread ->
+            Thread.start {
+                try {
+                    (1..2000).each { smallThrottle.recordFailure("198.51.${thread}.${it}".toString()) }
+                } catch (Throwable e) {
+                    errors << e
+                }
+            }
+        }
+
+        when:
+        threads*.join()
+
+        then:
+        errors.isEmpty()
+    }
+
+    def "a client without identifier is never throttled"() {
+        when:
+        throttle.recordFailure(null, 0)
+
+        then:
+        !throttle.isThrottled(null, 0)
+    }
+
+    def "a client is identified by its key header when it is set"() {
+        given:
+        def request = Mock(HttpRequest)
+        def headers = Mock(HttpHeaders)
+        request.getHeaders() >> headers
+        headers.get("X-Forwarded-For") >> CLIENT
+        request.getRemoteAddress() >> new InetSocketAddress("127.0.0.1", 8080)
+
+        expect:
+        throttle.clientOf(request) == CLIENT
+        new FailureThrottle(true, 5, Duration.ofSeconds(10), 100, "").clientOf(request) == "127.0.0.1"
+    }
+
+    def "a client without key header is identified by its remote address"() {
+        given:
+        def request = Mock(HttpRequest)
+        request.getHeaders() >> Mock(HttpHeaders)
+        request.getRemoteAddress() >> new InetSocketAddress("127.0.0.1", 8080)
+
+        expect:
+        throttle.clientOf(request) == "127.0.0.1"
+    }
+}
@@ -0,0 +1,204 @@
+package be.looorent.micronaut.security
+
+import be.looorent.keycloak.KeycloakServerStub
+import io.micronaut.core.annotation.AnnotationMetadata
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.CompletableFuture
+
+import static be.looorent.micronaut.security.SecurityErrorType.TOKEN_INACTIVE
+import static be.looorent.micronaut.security.SecurityErrorType.TOKEN_REVOKED
+import static be.looorent.micronaut.security.SecurityErrorType.VALIDATION
+import static java.lang.System.currentTimeMillis
+
+class KeycloakIntrospectionTokenParserSpec extends Specification {
+
+    private static final String REALM_ID = "test"
+    private static final String SUBJECT = "41598cfa-2aed-487b-b854-9e5c8271daa4"
+    private static final String ACTIVE_TOKEN = "active-token"
+    private static final String OTHER_SUBJECT_TOKEN = "other-subject-token"
+    private static final String ADMIN_TOKEN = "admin-token"
+
+    @AutoCleanup
+    @Shared
+    KeycloakServerStub server = new KeycloakServerStub(new InMemoryPublicKeyService(), REALM_ID, 9994).start()
+
+    def configuration = new KeycloakIntrospectionConfiguration(enabled: true, clientId: "api", clientSecret: "secret")
+    def revocations = new TokenRevocations(100)
+    def roleAuthorizer = new RoleAuthorizer()
+
+    def setup() {
+        server.introspectionRequestCount = 0
+        server.introspectionDelayInMs = 0
+        server.introspectionPerToken = [
+                (ACTIVE_TOKEN): [active: true, sub: SUBJECT, exp: (currentTimeMillis() / 1000 + 3600) as long],
+                (OTHER_SUBJECT_TOKEN): [active: true, sub: "other", exp: (currentTimeMillis() / 1000 + 3600) as long],
+                (ADMIN_TOKEN): [active: true, sub: SUBJECT, jti: "admin-token-id", realm_access: [roles: ["admin"]], exp: (currentTimeMillis() / 1000 + 3600) as long]
+        ]
+    }
+
+    def "construct parser without client id throws an exception"() {
+        when:
+        createParser(new KeycloakIntrospectionConfiguration(enabled: true))
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property keycloak.introspection.client-id (string) must be defined"
+    }
+
+    def "an active token is accepted with the claims provided by Keycloak"() {
+        given:
+        def parser = createParser(configuration)
+
+        when:
+        def context = parser.parse(ACTIVE_TOKEN)
+
+        then:
+        ((SubjectSecurityContext) context).subject == SUBJECT
+        server.introspectionAuthorization == "Basic " + "api:secret".bytes.encodeBase64().toString()
+    }
+
+    def "an inactive token is rejected"() {
+        given:
+        def parser = createParser(configuration)
+
+        when:
+        parser.parse("unknown-token")
+
+        then:
+        SecurityException exception = thrown()
+        exception.type == TOKEN_INACTIVE
+    }
+
+    def "the claims of an active token are validated"() {
+        given:
+        def parser = createParser(configuration)
+
+        when:
+        parser.parse(OTHER_SUBJECT_TOKEN)
+
+        then:
+        SecurityException exception = thrown()
+        exception.type == VALIDATION
+    }
+
+    def "an introspection is kept for the next requests"() {
+        given:
+        def parser = createParser(configuration)
+
+        when:
+        parser.parse(ACTIVE_TOKEN)
+        parser.parse(ACTIVE_TOKEN)
+        parser.parseAsync(ACTIVE_TOKEN).toCompletableFuture().get()
+        try {
+            parser.parse("unknown-token")
+        } catch (SecurityException ignored) {}
+        try {
+            parser.parse("unknown-token")
+        } catch (SecurityException ignored) {}
+
+        then:
+        server.introspectionRequestCount == 2
+        parser.countIntrospections() == 2
+    }
+
+    def "the least recently used introspection is evicted when the cache is full"() {
+        given:
+        configuration.cacheMaxSize = 2
+        def parser = createParser(configuration)
+
+        when:
+        parser.parse(ACTIVE_TOKEN)
+        parser.parse(OTHER_SUBJECT_TOKEN)
+        parser.parse(ACTIVE_TOKEN)
+        parser.parse(ADMIN_TOKEN)
+        parser.parse(ACTIVE_TOKEN)
+
+        then:
+        parser.countIntrospections() == 2
+        server.introspectionRequestCount == 3
+    }
+
+    def "an introspection is not kept longer than the maximum ttl"() {
+        given:
+        configuration.cacheMaxTtl = Duration.ZERO
+        def parser = createParser(configuration)
+
+        when:
+        parser.parse(ACTIVE_TOKEN)
+        parser.parse(ACTIVE_TOKEN)
+
+        then:
+        server.introspectionRequestCount == 2
+    }
+
+    def "concurrent introspections of the same token are coalesced into a single call"() {
+        given:
+        server.introspectionDelayInMs = 200
+        def parser = createParser(configuration)
+
+        when:
+        def contexts = (1..20).collect { parser.parseAsync(ACTIVE_TOKEN).toCompletableFuture() }
+        CompletableFuture.allOf(contexts as CompletableFuture[]).get()
+
+        then:
+        server.introspectionRequestCount == 1
+        ((SubjectSecurityContext) parser.parse(ACTIVE_TOKEN)).subject == SUBJECT
+        server.introspectionRequestCount == 1
+    }
+
+    def "a token cannot be introspected when Keycloak cannot be contacted"() {
+        given:
+        def parser = new KeycloakIntrospectionTokenParser("http://localhost:9993", REALM_ID, configuration, createClaimsHandler(), new NoOpSecurityMetrics())
+
+        when:
+        parser.parse(ACTIVE_TOKEN)
+
+        then:
+        thrown(IllegalStateException)
+    }
+
+    def "the roles required by the routes are granted from the claims of an active token"() {
+        given:
+        def requirement = roleAuthorizer.requirementOf(Mock(AnnotationMetadata) {
+            hasStereotype(RequiresRoles) >> true
+            stringValues(RequiresRealmRole) >> (["admin"] as String[])
+            findAnnotation(RequiresClientRole) >> Optional.empty()
+        })
+        def parser = createParser(configuration)
+
+        when:
+        def context = parser.parseGrantingRolesAsync(ADMIN_TOKEN).toCompletableFuture().get()
+
+        then:
+        context instanceof AuthorizedSecurityContext
+        ((SubjectSecurityContext) ((AuthorizedSecurityContext) context).context).subject == SUBJECT
+        requirement.isSatisfiedBy(((AuthorizedSecurityContext) context).roles)
+        ((SubjectSecurityContext) parser.parse(ADMIN_TOKEN)).subject == SUBJECT
+    }
+
+    def "a revoked token is rejected even when Keycloak tells that it is active"() {
+        given:
+        def parser = createParser(configuration)
+        revocations.revokeToken("admin-token-id", Instant.now().plusSeconds(3600))
+
+        when:
+        parser.parse(ADMIN_TOKEN)
+
+        then:
+        SecurityException exception = thrown()
+        exception.type == TOKEN_REVOKED
+    }
+
+    private KeycloakIntrospectionTokenParser createParser(KeycloakIntrospectionConfiguration configuration) {
+        new KeycloakIntrospectionTokenParser(server.baseUrl, REALM_ID, configuration, createClaimsHandler(), new NoOpSecurityMetrics())
+    }
+
+    private VerifiedClaimsHandler createClaimsHandler() {
+        new VerifiedClaimsHandler(new DefaultAsyncTokenValidator(new SubjectTokenValidator(SUBJECT)), new DefaultAsyncSecurityContextFactory(new SubjectSecurityContextFactory()), new NoOpSecurityMetrics(), roleAuthorizer, revocations)
+    }
+}
@@ -0,0 +1,126 @@
+package be.looorent.micronaut.security
+
+import io.jsonwebtoken.RequiredTypeException
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+class LazyClaimsSpec extends Specification {
+
+    private static final String PAYLOAD = """
+        {
+            "iss": "issuer",
+            "sub": "subject",
+            "exp": 1600000000,
+            "nbf": 1500000000,
+            "userId": 42,
+            "admin": true,
+            "realm_access": { "roles": ["offline_access", "uma_authorization"] },
+            "resource_access": { "account": { "roles": ["manage-account"] } },
+            "groups": ["a", "b"],
+            "nothing": null
+        }
+    """
+
+    def claims = LazyClaims.parse(PAYLOAD.getBytes(UTF_8))
+
+    def "the registered claims are read"() {
+        expect:
+        claims.getIssuer() == "issuer"
+        claims.getSubject() == "subject"
+        claims.getExpiration() == new Date(1600000000000L)
+        claims.getNotBefore() == new Date(1500000000000L)
+        claims.getIssuedAt() == null
+        claims.getId() == null
+    }
+
+    def "any claim is decoded on demand"() {
+        expect:
+        claims.get("userId", Integer) == 42
+        claims.get("userId", Long) == 42L
+        claims.get("admin", Boolean)
+        claims["realm_access"] == [roles: ["offline_access", "uma_authorization"]]
+        claims["resource_access"]["account"]["roles"] == ["manage-account"]
+        claims["groups"] == ["a", "b"]
+        claims["unknown"] == null
+        claims.containsKey("nothing")
+        claims["nothing"] == null
+    }
+
+    def "a decoded claim is kept for the next calls"() {
+        expect:
+        claims["realm_access"].is(claims["realm_access"])
+    }
+
+    def "the threads decoding a claim at once all get the same value"() {
+        given:
+        def start = new CountDownLatch(1)
+        def pool = Executors.newFixedThreadPool(8)
+
+        when:
+        def futures = (1..8).collect { pool.submit({ start.await(); claims["realm_access"] } as Callable) }
+        start.countDown()
+        def values = futures*.get()
+
+        then:
+        values.every { it.is(values[0]) }
+        values[0] == [roles: ["offline_access", "uma_authorization"]]
+
+        cleanup:
+        pool.shutdown()
+    }
+
+    def "the claims are a map"() {
+        expect:
+        claims.size() == 10
+        claims.keySet() == ["iss", "sub", "exp", "nbf", "userId", "admin", "realm_access", "resource_access", "groups", "nothing"] as Set
+        claims.entrySet().find { it.key == "sub" }.value == "subject"
+    }
+
+    def "a claim of another type throws an exception"() {
+        when:
+        claims.get("sub", Integer)
+
+        then:
+        thrown(RequiredTypeException)
+    }
+
+    def "the last value of a duplicated claim is kept"() {
+        when:
+        def duplicated = LazyClaims.parse('{"sub": "first", "sub": "second"}'.getBytes(UTF_8))
+
+        then:
+        duplicated.size() == 1
+        duplicated.getSubject() == "second"
+    }
+
+    def "claims cannot be modified"() {
+        when:
+        claims.setSubject("another")
+
+        then:
+        thrown(UnsupportedOperationException)
+
+        when:
+        claims.put("sub", "another")
+
+        then:
+        thrown(UnsupportedOperationException)
+    }
+
+    def "a payload that is not a JSON object throws an exception"(String payload) {
+        when:
+        LazyClaims.parse(payload.getBytes(UTF_8))
+
+        then:
+        SecurityException exception = thrown()
+        exception.type == SecurityErrorType.JWT_MALFORMED
+
+        where:
+        payload << ['["sub"]', 'not json', '{"sub": "subject"', '']
+    }
+}
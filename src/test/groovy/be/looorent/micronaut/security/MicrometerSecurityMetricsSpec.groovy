@@ -0,0 +1,73 @@
+package be.looorent.micronaut.security
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import spock.lang.Specification
+
+import static be.looorent.micronaut.security.MicrometerSecurityMetrics.*
+import static be.looorent.micronaut.security.SecurityErrorType.JWT_EXPIRED
+import static be.looorent.micronaut.security.SecurityMetrics.PublicKeysFetchOutcome.FAILED
+import static java.util.concurrent.TimeUnit.NANOSECONDS
+
+class MicrometerSecurityMetricsSpec extends Specification {
+
+    def registry = new SimpleMeterRegistry()
+    def metrics = new MicrometerSecurityMetrics(registry)
+
+    def "construct metrics without registry throws an exception"() {
+        when:
+        new MicrometerSecurityMetrics(null)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "No MeterRegistry has been found"
+    }
+
+    def "every meter is registered up front"() {
+        expect:
+        registry.find(REJECTIONS).counters().size() == SecurityErrorType.values().size()
+        registry.find(PUBLIC_KEYS_FETCH).timers().size() == SecurityMetrics.PublicKeysFetchOutcome.values().size()
+        registry.find(PUBLIC_KEY_LOOKUPS).counters().size() == 2
+        registry.find(HEADER_READING).timer() != null
+    }
+
+    def "durations are recorded since the start time"() {
+        given:
+        def startTime = metrics.start()
+
+        when:
+        metrics.recordSignatureVerification(startTime)
+        metrics.recordPublicKeysFetch(startTime, FAILED)
+
+        then:
+        registry.get(SIGNATURE_VERIFICATION).timer().count() == 1
+        registry.get(SIGNATURE_VERIFICATION).timer().totalTime(NANOSECONDS) >= 0
+        registry.get(PUBLIC_KEYS_FETCH).tag("outcome", "failed").timer().count() == 1
+        registry.get(PUBLIC_KEYS_FETCH).tag("outcome", "modified").timer().count() == 0
+    }
+
+    def "rejections and lookups are counted per tag"() {
+        when:
+        metrics.recordRejection(JWT_EXPIRED)
+        metrics.recordRejection(JWT_EXPIRED)
+        metrics.recordPublicKeyLookup(true)
+        metrics.recordPublicKeyLookup(false)
+        metrics.recordPublicKeyLookup(true)
+
+        then:
+        registry.get(REJECTIONS).tag("reason", JWT_EXPIRED.reason).counter().count() == 2
+        registry.get(PUBLIC_KEY_LOOKUPS).tag("result", "hit").counter().count() == 2
+        registry.get(PUBLIC_KEY_LOOKUPS).tag("result", "miss").counter().count() == 1
+    }
+
+    def "the number of loaded keys is read on demand"() {
+        given:
+        def keys = ["abc": "key"]
+
+        when:
+        metrics.monitorLoadedPublicKeys(keys, { it.size() })
+        keys["efg"] = "key"
+
+        then:
+        registry.get(LOADED_PUBLIC_KEYS).gauge().value() == 2
+    }
+}
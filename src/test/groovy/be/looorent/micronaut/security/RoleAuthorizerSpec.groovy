@@ -0,0 +1,93 @@
+package be.looorent.micronaut.security
+
+import io.micronaut.core.annotation.AnnotationMetadata
+import io.micronaut.core.annotation.AnnotationMetadataProvider
+import io.micronaut.core.annotation.AnnotationValue
+import io.micronaut.http.HttpAttributes
+import io.micronaut.http.HttpRequest
+import spock.lang.Specification
+
+import static java.nio.charset.StandardCharsets.UTF_8
+
+class RoleAuthorizerSpec extends Specification {
+
+    def authorizer = new RoleAuthorizer()
+
+    def "without any annotated route, no role is required"() {
+        given:
+        def route = routeRequiring([], null, [])
+
+        expect:
+        !authorizer.enabled
+        authorizer.grantedRolesOf(claimsGranting(["admin"], [:])).is(GrantedRoles.NONE)
+        authorizer.requirementOf(Mock(AnnotationMetadata)).isSatisfiedBy(GrantedRoles.NONE)
+        authorizer.requirementOf(route).isSatisfiedBy(GrantedRoles.NONE)
+    }
+
+    def "a realm role is required"() {
+        given:
+        def route = routeRequiring(["admin", "operator"], null, [])
+        def requirement = authorizer.requirementOf(route)
+
+        expect:
+        authorizer.enabled
+        requirement.isSatisfiedBy(authorizer.grantedRolesOf(claimsGranting(["operator"], [:])))
+        requirement.isSatisfiedBy(authorizer.grantedRolesOf(claimsGranting(["user", "admin"], [:])))
+        !requirement.isSatisfiedBy(authorizer.grantedRolesOf(claimsGranting(["user"], [:])))
+        !requirement.isSatisfiedBy(authorizer.grantedRolesOf(claimsGranting([], [app: ["admin"]])))
+        !requirement.isSatisfiedBy(GrantedRoles.NONE)
+    }
+
+    def "a realm role and a client role are both required"() {
+        given:
+        def route = routeRequiring(["user"], "app", ["editor"])
+        def requirement = authorizer.requirementOf(route)
+
+        expect:
+        requirement.isSatisfiedBy(authorizer.grantedRolesOf(claimsGranting(["user"], [app: ["editor"]])))
+        !requirement.isSatisfiedBy(authorizer.grantedRolesOf(claimsGranting(["user"], [other: ["editor"]])))
+        !requirement.isSatisfiedBy(authorizer.grantedRolesOf(claimsGranting([], [app: ["editor"]])))
+    }
+
+    def "more than 64 roles can be required"() {
+        given:
+        def roles = (0..99).collect { "role-$it".toString() }
+        roles.each { authorizer.requirementOf(routeRequiring([it], null, [])) }
+        def requirement = authorizer.requirementOf(routeRequiring(["role-99"], null, []))
+
+        expect:
+        requirement.isSatisfiedBy(authorizer.grantedRolesOf(claimsGranting(["role-99"], [:])))
+        !requirement.isSatisfiedBy(authorizer.grantedRolesOf(claimsGranting(["role-35"], [:])))
+    }
+
+    def "a request is authorized according to the annotations of its route"() {
+        given:
+        def route = routeRequiring(["admin"], null, [])
+        def routeMatch = Mock(AnnotationMetadataProvider) { getAnnotationMetadata() >> route }
+        def request = Mock(HttpRequest) { getAttribute(HttpAttributes.ROUTE_MATCH, AnnotationMetadataProvider) >> Optional.of(routeMatch) }
+        def unresolvedRequest = Mock(HttpRequest) { getAttribute(HttpAttributes.ROUTE_MATCH, AnnotationMetadataProvider) >> Optional.empty() }
+
+        expect:
+        authorizer.isAuthorized(request, authorizer.grantedRolesOf(claimsGranting(["admin"], [:])))
+        !authorizer.isAuthorized(request, GrantedRoles.NONE)
+        authorizer.isAuthorized(unresolvedRequest, GrantedRoles.NONE)
+    }
+
+    private AnnotationMetadata routeRequiring(List<String> realmRoles, String client, List<String> clientRoles) {
+        def clientAnnotation = client == null ? Optional.empty() : Optional.of(AnnotationValue.builder(RequiresClientRole)
+                .member("client", client)
+                .values(clientRoles as String[])
+                .build())
+        return Mock(AnnotationMetadata) {
+            hasStereotype(RequiresRoles) >> (!realmRoles.isEmpty() || client != null)
+            stringValues(RequiresRealmRole) >> (realmRoles as String[])
+            findAnnotation(RequiresClientRole) >> clientAnnotation
+        }
+    }
+
+    private static LazyClaims claimsGranting(List<String> realmRoles, Map<String, List<String>> clientRoles) {
+        def resourceAccess = clientRoles.collectEntries { client, roles -> [(client): [roles: roles]] }
+        def json = groovy.json.JsonOutput.toJson([realm_access: [roles: realmRoles], resource_access: resourceAccess])
+        return LazyClaims.parse(json.getBytes(UTF_8))
+    }
+}
@@ -0,0 +1,173 @@
+package be.looorent.micronaut.security
+
+import io.micronaut.core.annotation.AnnotationMetadata
+import io.micronaut.core.annotation.AnnotationMetadataProvider
+import io.micronaut.http.HttpAttributes
+import io.micronaut.http.HttpHeaders
+import io.micronaut.http.HttpRequest
+import io.micronaut.http.HttpResponse
+import io.micronaut.http.filter.ServerFilterChain
+import io.reactivex.Flowable
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+
+import static io.micronaut.http.HttpStatus.OK
+import static io.micronaut.http.HttpStatus.SERVICE_UNAVAILABLE
+import static io.micronaut.http.HttpStatus.TOO_MANY_REQUESTS
+import static io.micronaut.http.HttpStatus.UNAUTHORIZED
+import static java.util.concurrent.CompletableFuture.completedFuture
+
+class SecurityFilterSpec extends Specification {
+
+    private static final String CLIENT = "203.0.113.1"
+
+    def parser = Mock(TokenParser)
+    def chain = Mock(ServerFilterChain)
+    def bulkhead = new VerificationBulkhead(false, 0, 100, Duration.ofMillis(100), "", null)
+    def throttle = new FailureThrottle(true, 2, Duration.ofHours(1), 100, "X-Forwarded-For")
+    def anonymousPaths = new AnonymousPaths("/health/**, GET /static/*.css")
+    def filter = new SecurityFilter(new SecurityService(parser, "inline", new NoOpSecurityMetrics(), bulkhead), new RoleAuthorizer(), throttle, anonymousPaths)
+
+    def "construct filter without service throws an exception"() {
+        when:
+        new SecurityFilter(null, new RoleAuthorizer(), throttle, anonymousPaths)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "No SecurityService has been found"
+    }
+
+    def "construct filter without role authorizer throws an exception"() {
+        when:
+        new SecurityFilter(new SecurityService(parser, "inline", new NoOpSecurityMetrics(), bulkhead), null, throttle, anonymousPaths)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "No RoleAuthorizer has been found"
+    }
+
+    def "construct filter without throttle throws an exception"() {
+        when:
+        new SecurityFilter(new SecurityService(parser, "inline", new NoOpSecurityMetrics(), bulkhead), new RoleAuthorizer(), null, anonymousPaths)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "No FailureThrottle has been found"
+    }
+
+    def "construct filter without anonymous paths throws an exception"() {
+        when:
+        new SecurityFilter(new SecurityService(parser, "inline", new NoOpSecurityMetrics(), bulkhead), new RoleAuthorizer(), throttle, null)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "No AnonymousPaths has been found"
+    }
+
+    def "a request to an anonymous path proceeds without its token being read"() {
+        given:
+        2.times { throttle.recordFailure(CLIENT) }
+        def request = HttpRequest.GET("/health/liveness").header("X-Forwarded-For", CLIENT)
+
+        when:
+        def response = Flowable.fromPublisher(filter.doFilter(request, chain)).blockingFirst()
+
+        then:
+        1 * chain.proceed(request) >> Flowable.just(HttpResponse.ok())
+        response.status() == OK
+        !request.getAttribute(Constant.SECURITY_CONTEXT).isPresent()
+        0 * parser.prepare(_)
+        0 * parser.parseAsync(_)
+    }
+
+    def "a request to an anonymous path with another method is verified"() {
+        given:
+        parser.prepare(_) >> completedFuture(null)
+        parser.parseAsync(_) >> { throw SecurityErrorType.JWT_MALFORMED.toException() }
+
+        when:
+        def response = Flowable.fromPublisher(filter.doFilter(HttpRequest.POST("/static/main.css", ""), chain)).blockingFirst()
+
+        then:
+        response.status() == UNAUTHORIZED
+        0 * chain.proceed(_)
+    }
+
+    def "a request to an anonymous path is verified when its route requires roles"() {
+        given:
+        def roleAuthorizer = new RoleAuthorizer()
+        def route = Mock(AnnotationMetadata) {
+            hasStereotype(RequiresRoles) >> true
+            stringValues(RequiresRealmRole) >> (["admin"] as String[])
+            findAnnotation(RequiresClientRole) >> Optional.empty()
+        }
+        roleAuthorizer.requirementOf(route)
+        def filterWithRoles = new SecurityFilter(new SecurityService(parser, "inline", new NoOpSecurityMetrics(), bulkhead), roleAuthorizer, throttle, anonymousPaths)
+        def request = HttpRequest.GET("/health/details")
+        request.setAttribute(HttpAttributes.ROUTE_MATCH, Mock(AnnotationMetadataProvider) { getAnnotationMetadata() >> route })
+        parser.prepare(_) >> completedFuture(null)
+        parser.parseAsync(_) >> { throw SecurityErrorType.JWT_MALFORMED.toException() }
+
+        when:
+        def response = Flowable.fromPublisher(filterWithRoles.doFilter(request, chain)).blockingFirst()
+
+        then:
+        response.status() == UNAUTHORIZED
+        0 * chain.proceed(_)
+    }
+
+    def "the failures of a client are recorded until it is throttled"() {
+        given:
+        parser.prepare(_) >> completedFuture(null)
+        parser.parseAsync(_) >> { throw SecurityErrorType.JWT_MALFORMED.toException() }
+
+        when:
+        def statuses = (1..3).collect { Flowable.fromPublisher(filter.doFilter(createRequest(), chain)).blockingFirst().status() }
+
+        then:
+        statuses == [UNAUTHORIZED, UNAUTHORIZED, TOO_MANY_REQUESTS]
+        0 * chain.proceed(_)
+    }
+
+    def "a throttled client is rejected before its token is read"() {
+        given:
+        2.times { throttle.recordFailure(CLIENT) }
+
+        when:
+        def response = Flowable.fromPublisher(filter.doFilter(createRequest(), chain)).blockingFirst()
+
+        then:
+        response.status() == TOO_MANY_REQUESTS
+        response.header("Retry-After") == "1800"
+        response.body().message == "too_many_failures"
+        0 * parser.prepare(_)
+        0 * parser.parseAsync(_)
+        0 * chain.proceed(_)
+    }
+
+    def "a request is rejected without counting a failure when too many tokens are being verified"() {
+        given:
+        def saturatedBulkhead = new VerificationBulkhead(true, 1, 0, Duration.ZERO, "", null)
+        def saturatedFilter = new SecurityFilter(new SecurityService(parser, "inline", new NoOpSecurityMetrics(), saturatedBulkhead), new RoleAuthorizer(), throttle, anonymousPaths)
+        parser.prepare(_) >> completedFuture(null)
+        parser.parseAsync(_) >> new CompletableFuture<SecurityContext>()
+        Flowable.fromPublisher(saturatedFilter.doFilter(createRequest(), chain)).test()
+
+        when:
+        def responses = (1..3).collect { Flowable.fromPublisher(saturatedFilter.doFilter(createRequest(), chain)).blockingFirst() }
+
+        then:
+        responses*.status() == [SERVICE_UNAVAILABLE] * 3
+        responses.first().body().message == "verification_saturated"
+        !throttle.isThrottled(CLIENT)
+        0 * chain.proceed(_)
+    }
+
+    private static HttpRequest<?> createRequest() {
+        HttpRequest.GET("/api")
+                .header("Authorization", "Bearer not-a-token")
+                .header("X-Forwarded-For", CLIENT)
+    }
+}
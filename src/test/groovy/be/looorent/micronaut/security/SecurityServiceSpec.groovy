@@ -4,7 +4,12 @@ import io.micronaut.http.HttpHeaders
 import io.micronaut.http.HttpRequest
 import spock.lang.Specification
 
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+
 import static be.looorent.micronaut.security.SecurityErrorType.*
+import static java.util.concurrent.CompletableFuture.completedFuture
 
 class SecurityServiceSpec extends Specification {
 
@@ -14,17 +19,55 @@ class SecurityServiceSpec extends Specification {
 
     def factory = new TokenFactory(VALID_KID, VALID_ISSUER, VALID_SUBJECT)
     def parser = Mock(TokenParser)
-    def service = new SecurityService(parser)
+    def metrics = Mock(SecurityMetrics)
+    def bulkhead = new VerificationBulkhead(false, 0, 100, Duration.ofMillis(100), "", null)
+    def service = new SecurityService(parser, "io", metrics, bulkhead)
+
+    def setup() {
+        parser.prepare(_) >> completedFuture(null)
+        parseAsynchronouslyWith(parser)
+    }
 
     def "construct parser without parser throws an exception"() {
         when:
-        new SecurityService(null)
+        new SecurityService(null, "io", metrics, bulkhead)
 
         then:
         IllegalArgumentException exception = thrown()
         exception.message == "No implementation of TokenParser has been found"
     }
 
+    def "construct service with a wrong execution mode throws an exception"() {
+        when:
+        new SecurityService(parser, "wrong", metrics, bulkhead)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property 'security.verification.execution-mode' must be one of 'io', 'computation' or 'inline'"
+    }
+
+    def "readAndVerifyTokenIn a prepared token in inline mode verifies it in the calling thread"() {
+        given:
+        def token = factory.createValidToken()
+        HttpRequest<?> request = createRequestWithHeaders([Authorization: "Bearer ${token}"])
+        def inlineService = new SecurityService(parser, "inline", metrics, bulkhead)
+        def callingThread = Thread.currentThread()
+        Thread verifyingThread = null
+        parser.parse(token) >> {
+            verifyingThread = Thread.currentThread()
+            new SubjectSecurityContext("test")
+        }
+
+        when:
+        def context = inlineService.readAndVerifyTokenIn(request)
+                .firstElement()
+                .blockingGet()
+
+        then:
+        context == new SubjectSecurityContext("test")
+        verifyingThread == callingThread
+    }
+
     def "readAndVerifyTokenIn a request without Authorization Header throws an exception"() {
         given:
         HttpRequest<?> request = createRequestWithHeaders([Accept: "json/application"])
@@ -59,6 +102,53 @@ class SecurityServiceSpec extends Specification {
         context.exception.type == AUTHORIZATION_HEADER_WRONG_FORMAT
     }
 
+    def "readAndVerifyTokenIn a request with an Authorization header that is not made of a scheme and a token throws an exception"(String header) {
+        given:
+        HttpRequest<?> request = createRequestWithHeaders([Authorization: header])
+
+        when:
+        def context = service.readAndVerifyTokenIn(request)
+            .firstElement()
+            .blockingGet()
+
+        then:
+        context instanceof FailedSecurityContext
+        context.exception.type == AUTHORIZATION_HEADER_WRONG_FORMAT
+
+        where:
+        header << ["Bearer", "Bearer ", "Bearer  token", "Bearer token other", ""]
+    }
+
+    def "readAndVerifyTokenIn a request with trailing spaces after the token ignores them"() {
+        given:
+        def token = factory.createValidToken()
+        HttpRequest<?> request = createRequestWithHeaders([Authorization: "bearer ${token}  "])
+        def expectedContext = new SubjectSecurityContext("test")
+        parser.parse(token) >> expectedContext
+
+        when:
+        def context = service.readAndVerifyTokenIn(request)
+            .firstElement()
+            .blockingGet()
+
+        then:
+        context == expectedContext
+    }
+
+    def "readAndVerifyTokenIn rejected requests share the same failure without stack trace"() {
+        given:
+        HttpRequest<?> request = createRequestWithHeaders([Accept: "json/application"])
+
+        when:
+        def firstContext = service.readAndVerifyTokenIn(request).firstElement().blockingGet()
+        def secondContext = service.readAndVerifyTokenIn(request).firstElement().blockingGet()
+
+        then:
+        firstContext.is(secondContext)
+        firstContext.exception.is(AUTHORIZATION_HEADER_MISSING.toException())
+        firstContext.exception.stackTrace.length == 0
+    }
+
     def "readAndVerifyTokenIn a request with wrong Authorization scheme throws an exception"() {
         given:
         HttpRequest<?> request = createRequestWithHeaders([Authorization: "WrongScheme test"])
@@ -98,6 +188,40 @@ class SecurityServiceSpec extends Specification {
         parsingError << [JWT_UNSUPPORTED, JWT_MALFORMED, JWT_WRONG_SIGNATURE, JWT_EXPIRED, VALIDATION]
     }
 
+    def "readAndVerifyTokenIn a rejected request records its reason"(Map<String, String> headers, SecurityErrorType reason) {
+        given:
+        HttpRequest<?> request = createRequestWithHeaders(headers)
+        parser.parse("token") >> { throw JWT_EXPIRED.toException() }
+
+        when:
+        service.readAndVerifyTokenIn(request)
+            .firstElement()
+            .blockingGet()
+
+        then:
+        1 * metrics.recordRejection(reason)
+
+        where:
+        headers                           | reason
+        [:]                               | AUTHORIZATION_HEADER_MISSING
+        [Authorization: "Basic token"]    | AUTHORIZATION_HEADER_WRONG_SCHEME
+        [Authorization: "Bearer token"]   | JWT_EXPIRED
+    }
+
+    def "readAndVerifyTokenIn an unexpected error is recorded as an unknown rejection"() {
+        given:
+        HttpRequest<?> request = createRequestWithHeaders([Authorization: "Bearer token"])
+        parser.parse("token") >> { throw new IllegalStateException("unexpected") }
+
+        when:
+        service.readAndVerifyTokenIn(request)
+            .firstElement()
+            .blockingGet()
+
+        then:
+        1 * metrics.recordRejection(UNKWOWN)
+    }
+
     def "readAndVerifyTokenIn a request with a valid Authorization Header returns a SecurityContext"() {
         given:
         def token = factory.createValidToken()
@@ -116,6 +240,92 @@ class SecurityServiceSpec extends Specification {
         contextFound == expectedContext
     }
 
+    def "readAndVerifyTokenIn waits for the token to be prepared before parsing it"() {
+        given:
+        def token = factory.createValidToken()
+        HttpRequest<?> request = createRequestWithHeaders([Authorization: "Bearer ${token}"])
+        def preparation = new CompletableFuture<Void>()
+        def expectedContext = new SubjectSecurityContext("test")
+        def preparingParser = Mock(TokenParser)
+        preparingParser.prepare(token) >> preparation
+        parseAsynchronouslyWith(preparingParser)
+        def preparingService = new SecurityService(preparingParser, "inline", metrics, bulkhead)
+
+        when:
+        def subscriber = preparingService.readAndVerifyTokenIn(request).test()
+
+        then:
+        0 * preparingParser.parse(_)
+        subscriber.assertNoValues()
+
+        when:
+        preparation.complete(null)
+        subscriber.awaitTerminalEvent()
+
+        then:
+        1 * preparingParser.parse(token) >> expectedContext
+        subscriber.assertValue(expectedContext)
+    }
+
+    def "readAndVerifyTokenIn emits the context once it has been created asynchronously"() {
+        given:
+        def token = factory.createValidToken()
+        HttpRequest<?> request = createRequestWithHeaders([Authorization: "Bearer ${token}"])
+        def pendingContext = new CompletableFuture<SecurityContext>()
+        def expectedContext = new SubjectSecurityContext("test")
+        def asyncParser = Mock(TokenParser)
+        asyncParser.prepare(token) >> completedFuture(null)
+        asyncParser.parseAsync(token) >> pendingContext
+        def asyncService = new SecurityService(asyncParser, "inline", metrics, bulkhead)
+
+        when:
+        def subscriber = asyncService.readAndVerifyTokenIn(request).test()
+
+        then:
+        subscriber.assertNoValues()
+
+        when:
+        pendingContext.complete(expectedContext)
+        subscriber.awaitTerminalEvent()
+
+        then:
+        subscriber.assertValue(expectedContext)
+    }
+
+    def "readAndVerifyTokenIn a token rejected asynchronously returns its failure"() {
+        given:
+        def token = factory.createValidToken()
+        HttpRequest<?> request = createRequestWithHeaders([Authorization: "Bearer ${token}"])
+        def rejection = new CompletableFuture<SecurityContext>()
+        def asyncParser = Mock(TokenParser)
+        asyncParser.prepare(token) >> completedFuture(null)
+        asyncParser.parseAsync(token) >> rejection
+        def asyncService = new SecurityService(asyncParser, "inline", metrics, bulkhead)
+
+        when:
+        rejection.completeExceptionally(new CompletionException(VALIDATION.toException()))
+        def context = asyncService.readAndVerifyTokenIn(request).firstElement().blockingGet()
+
+        then:
+        context instanceof FailedSecurityContext
+        context.exception.type == VALIDATION
+    }
+
+    /**
+     * Mocks only stub parse(String), so parseAsync(String) is delegated to it as TokenParser does by default.
+     */
+    private void parseAsynchronouslyWith(TokenParser mockedParser) {
+        mockedParser.parseAsync(_) >> { String token ->
+            def context = new CompletableFuture<SecurityContext>()
+            try {
+                context.complete(mockedParser.parse(token))
+            } catch (RuntimeException e) {
+                context.completeExceptionally(e)
+            }
+            context
+        }
+    }
+
     private HttpRequest<?> createRequestWithHeaders(Map<String, String> headersValue) {
         def request = Mock(HttpRequest)
         def headers = Mock(HttpHeaders)
@@ -0,0 +1,140 @@
+package be.looorent.micronaut.security
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.security.KeyPair
+import java.security.KeyFactory
+import java.security.KeyPairGenerator
+import java.security.Signature
+import java.security.spec.ECGenParameterSpec
+import java.security.spec.X509EncodedKeySpec
+
+import static java.nio.charset.StandardCharsets.US_ASCII
+
+class SignatureVerifiersSpec extends Specification {
+
+    private static final byte[] SIGNING_INPUT = "header.payload".getBytes(US_ASCII)
+
+    def verifiers = new SignatureVerifiers()
+    def rsaKeyPair = createRsaKeyPair()
+    def ecKeyPair = createEcKeyPair()
+
+    @Unroll
+    def "a signature #algorithm is verified with its public key"(JwsAlgorithm algorithm, String jcaName) {
+        given:
+        def signature = sign(jcaName, rsaKeyPair)
+
+        expect:
+        verifiers.verify(rsaKeyPair.public, algorithm, SIGNING_INPUT, SIGNING_INPUT.length, signature)
+        !verifiers.verify(rsaKeyPair.public, algorithm, SIGNING_INPUT, SIGNING_INPUT.length - 1, signature)
+        !verifiers.verify(createRsaKeyPair().public, algorithm, SIGNING_INPUT, SIGNING_INPUT.length, signature)
+
+        where:
+        algorithm          | jcaName
+        JwsAlgorithm.RS256 | "SHA256withRSA"
+        JwsAlgorithm.RS384 | "SHA384withRSA"
+        JwsAlgorithm.RS512 | "SHA512withRSA"
+    }
+
+    def "a signature ES256 is verified with its public key"() {
+        given:
+        def signature = toConcatenatedSignature(sign("SHA256withECDSA", ecKeyPair))
+
+        expect:
+        verifiers.verify(ecKeyPair.public, JwsAlgorithm.ES256, SIGNING_INPUT, SIGNING_INPUT.length, signature)
+        !verifiers.verify(ecKeyPair.public, JwsAlgorithm.ES256, SIGNING_INPUT, SIGNING_INPUT.length - 1, signature)
+        !verifiers.verify(ecKeyPair.public, JwsAlgorithm.ES256, SIGNING_INPUT, SIGNING_INPUT.length, new byte[12])
+    }
+
+    def "a signature is verified many times with the same key"() {
+        given:
+        def signature = sign("SHA256withRSA", rsaKeyPair)
+
+        expect:
+        (1..100).every { verifiers.verify(rsaKeyPair.public, JwsAlgorithm.RS256, SIGNING_INPUT, SIGNING_INPUT.length, signature) }
+        verifiers.size() == 1
+    }
+
+    def "verifying an algorithm that does not match the type of the key throws an exception"() {
+        when:
+        verifiers.verify(rsaKeyPair.public, JwsAlgorithm.ES256, SIGNING_INPUT, SIGNING_INPUT.length, new byte[64])
+
+        then:
+        SecurityException exception = thrown()
+        exception.type == SecurityErrorType.JWT_UNSUPPORTED
+    }
+
+    def "refreshing the public keys prepares their verifiers"() {
+        when:
+        verifiers.onApplicationEvent(new PublicKeysRefreshedEvent(new InMemoryPublicKeyService(), [rsa: rsaKeyPair.public, ec: ecKeyPair.public]))
+
+        then:
+        verifiers.size() == 2
+    }
+
+    def "the same kid of two realms has a verifier per public key"() {
+        given:
+        def otherRsaKeyPair = createRsaKeyPair()
+
+        when:
+        verifiers.onApplicationEvent(new PublicKeysRefreshedEvent(new InMemoryPublicKeyService(), [kid: rsaKeyPair.public]))
+        verifiers.onApplicationEvent(new PublicKeysRefreshedEvent(new InMemoryPublicKeyService(), [kid: otherRsaKeyPair.public]))
+
+        then:
+        verifiers.size() == 2
+        verifiers.verify(rsaKeyPair.public, JwsAlgorithm.RS256, SIGNING_INPUT, SIGNING_INPUT.length, sign("SHA256withRSA", rsaKeyPair))
+        verifiers.verify(otherRsaKeyPair.public, JwsAlgorithm.RS256, SIGNING_INPUT, SIGNING_INPUT.length, sign("SHA256withRSA", otherRsaKeyPair))
+    }
+
+    def "a public key published again by a refresh keeps its verifier"() {
+        given:
+        def sameKey = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(rsaKeyPair.public.encoded))
+
+        when:
+        verifiers.onApplicationEvent(new PublicKeysRefreshedEvent(new InMemoryPublicKeyService(), [kid: rsaKeyPair.public]))
+        verifiers.onApplicationEvent(new PublicKeysRefreshedEvent(new InMemoryPublicKeyService(), [kid: sameKey]))
+
+        then:
+        !sameKey.is(rsaKeyPair.public)
+        verifiers.size() == 1
+    }
+
+    def "PS256 is only accepted when the JVM provides RSASSA-PSS"() {
+        expect:
+        (JwsAlgorithm.fromName("PS256") != null) == JwsAlgorithm.PS256.isAvailable()
+        JwsAlgorithm.PS256.supports(rsaKeyPair.public) == JwsAlgorithm.PS256.isAvailable()
+    }
+
+    private static byte[] sign(String jcaName, KeyPair keyPair) {
+        def signature = Signature.getInstance(jcaName)
+        signature.initSign(keyPair.private)
+        signature.update(SIGNING_INPUT)
+        return signature.sign()
+    }
+
+    private static byte[] toConcatenatedSignature(byte[] der) {
+        def result = new byte[64]
+        int offset = der[1] < 0 ? 3 : 2
+        [0, 32].each { target ->
+            int length = der[offset + 1]
+            int start = offset + 2
+            int copied = Math.min(length, 32)
+            System.arraycopy(der, start + length - copied, result, target + 32 - copied, copied)
+            offset = start + length
+        }
+        return result
+    }
+
+    private static KeyPair createRsaKeyPair() {
+        def generator = KeyPairGenerator.getInstance("RSA")
+        generator.initialize(2048)
+        return generator.generateKeyPair()
+    }
+
+    private static KeyPair createEcKeyPair() {
+        def generator = KeyPairGenerator.getInstance("EC")
+        generator.initialize(new ECGenParameterSpec("secp256r1"))
+        return generator.generateKeyPair()
+    }
+}
@@ -1,11 +1,16 @@
 package be.looorent.micronaut.security
 
+import groovy.transform.CompileStatic
+import io.jsonwebtoken.SignatureAlgorithm
 import spock.lang.Shared
 import spock.lang.Specification
 
 import java.security.KeyPair
 import java.security.KeyPairGenerator
 import java.security.PublicKey
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.time.Instant
 
 import static be.looorent.micronaut.security.SecurityErrorType.*
 
@@ -14,6 +19,8 @@ class TokenParserImplSpec extends Specification {
     private static final String VALID_ISSUER = "https://keycloak.org/auth"
     private static final String VALID_SUBJECT = "41598cfa-2aed-487b-b854-9e5c8271daa4"
     private static final String VALID_KID = "5f4c7777-de12-4f10-ad70-2a8290d2af08"
+    private static final int MAX_LENGTH = 16_384
+    private static final Duration NO_CLOCK_SKEW = Duration.ZERO
 
     @Shared
     private wrongKeyPair = createKeyPair()
@@ -22,15 +29,20 @@ class TokenParserImplSpec extends Specification {
 
     Map<String, PublicKey> keysPerId = [ "5f4c7777-de12-4f10-ad70-2a8290d2af08" : tokenFactory.publicKey, "96f976d9-ef85-4a9b-aa6a-a4982b1fd7ec": wrongKeyPair.public ]
 
+    def metrics = new NoOpSecurityMetrics()
+    def verifiers = new SignatureVerifiers()
+    def roleAuthorizer = new RoleAuthorizer()
+    def revocations = new TokenRevocations(100)
     def publicKeyService = new InMemoryPublicKeyService(keysPerId)
-    def publicKeyResolver = new PublicKeyResolver(publicKeyService)
-    def securityContextFactory = new SubjectSecurityContextFactory()
-    def validator = new SubjectTokenValidator(VALID_SUBJECT)
-    def parser = new TokenParserImpl(VALID_ISSUER, publicKeyResolver, securityContextFactory, validator)
+    def publicKeyResolver = new PublicKeyResolver(publicKeyService, metrics)
+    def securityContextFactory = new DefaultAsyncSecurityContextFactory(new SubjectSecurityContextFactory())
+    def validator = new DefaultAsyncTokenValidator(new SubjectTokenValidator(VALID_SUBJECT))
+    def cache = new VerifiedTokenCache(false, 10, revocations)
+    def parser = new TokenParserImpl(VALID_ISSUER, publicKeyResolver, securityContextFactory, validator, cache, metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, NO_CLOCK_SKEW)
 
     def "construct parser with an empty issuer throws an exception"(String wrongIssuer) {
         when:
-        new TokenParserImpl(wrongIssuer, publicKeyResolver, securityContextFactory, validator)
+        new TokenParserImpl(wrongIssuer, publicKeyResolver, securityContextFactory, validator, cache, metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, NO_CLOCK_SKEW)
 
         then:
         IllegalArgumentException exception = thrown()
@@ -42,7 +54,7 @@ class TokenParserImplSpec extends Specification {
 
     def "construct parser without resolver throws an exception"() {
         when:
-        new TokenParserImpl(VALID_ISSUER, null, securityContextFactory, validator)
+        new TokenParserImpl(VALID_ISSUER, null, securityContextFactory, validator, cache, metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, NO_CLOCK_SKEW)
 
         then:
         IllegalArgumentException exception = thrown()
@@ -51,20 +63,118 @@ class TokenParserImplSpec extends Specification {
 
     def "construct parser without securityContextFactory throws an exception"() {
         when:
-        new TokenParserImpl(VALID_ISSUER, publicKeyResolver, null, validator)
+        new TokenParserImpl(VALID_ISSUER, publicKeyResolver, null, validator, cache, metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, NO_CLOCK_SKEW)
 
         then:
         IllegalArgumentException exception = thrown()
-        exception.message == "No implementation of SecurityContextFactory has been found"
+        exception.message == "No implementation of AsyncSecurityContextFactory has been found"
     }
 
     def "construct parser without validator throws an exception"() {
         when:
-        new TokenParserImpl(VALID_ISSUER, publicKeyResolver, securityContextFactory, null)
+        new TokenParserImpl(VALID_ISSUER, publicKeyResolver, securityContextFactory, null, cache, metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, NO_CLOCK_SKEW)
 
         then:
         IllegalArgumentException exception = thrown()
-        exception.message == "No implementation of TokenValidator has been found"
+        exception.message == "No implementation of AsyncTokenValidator has been found"
+    }
+
+    def "construct parser without cache throws an exception"() {
+        when:
+        new TokenParserImpl(VALID_ISSUER, publicKeyResolver, securityContextFactory, validator, null, metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, NO_CLOCK_SKEW)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "No VerifiedTokenCache has been found"
+    }
+
+    def "construct parser with a non-positive maximum length throws an exception"(int wrongLength) {
+        when:
+        new TokenParserImpl(VALID_ISSUER, publicKeyResolver, securityContextFactory, validator, cache, metrics, verifiers, roleAuthorizer, revocations, wrongLength, NO_CLOCK_SKEW)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property 'security.token.max-length' (integer) must be positive"
+
+        where:
+        wrongLength << [0, -1]
+    }
+
+    def "construct parser with a negative clock skew throws an exception"() {
+        when:
+        new TokenParserImpl(VALID_ISSUER, publicKeyResolver, securityContextFactory, validator, cache, metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, Duration.ofSeconds(-1))
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property 'security.token.clock-skew' (duration) must not be negative"
+    }
+
+    def "construct parser with an issuer whose keys are not provided throws an exception"() {
+        given:
+        def multiIssuerService = Mock(PublicKeyService)
+        multiIssuerService.getIssuers() >> (["https://keycloak.org/auth/realms/other"] as Set)
+        multiIssuerService.hasDefaultKeys() >> false
+
+        when:
+        new TokenParserImpl(VALID_ISSUER, new PublicKeyResolver(multiIssuerService, metrics), securityContextFactory, validator, cache, metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, NO_CLOCK_SKEW)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "No public keys are provided for the issuer ${VALID_ISSUER}, it must be one of [https://keycloak.org/auth/realms/other]"
+    }
+
+    def "parse a valid token twice with the cache enabled verifies it once"() {
+        given:
+        def countingFactory = Mock(SecurityContextFactory)
+        def cachingParser = new TokenParserImpl(VALID_ISSUER, publicKeyResolver, new DefaultAsyncSecurityContextFactory(countingFactory), validator, new VerifiedTokenCache(true, 10, revocations), metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, NO_CLOCK_SKEW)
+        String token = tokenFactory.createValidToken()
+
+        when:
+        def first = cachingParser.parse(token)
+        def second = cachingParser.parse(token)
+
+        then:
+        1 * countingFactory.createSecurityContext(_) >> new SubjectSecurityContext(VALID_SUBJECT)
+        first.is(second)
+    }
+
+    def "parse a jwt from another issuer throws an exception"() {
+        given:
+        String token = new TokenFactory(VALID_KID, "https://other.org/auth", VALID_SUBJECT).createValidToken()
+
+        when:
+        parser.parse(token)
+
+        then:
+        SecurityException exception = thrown()
+        exception.type == JWT_WRONG_ISSUER
+    }
+
+    def "parse routes each jwt to the keys of its issuer when several issuers are accepted"() {
+        given:
+        def otherIssuer = "https://keycloak.org/auth/realms/other"
+        def otherTokenFactory = new TokenFactory(VALID_KID, otherIssuer, VALID_SUBJECT)
+        def multiIssuerService = Mock(PublicKeyService)
+        multiIssuerService.getIssuers() >> ([otherIssuer] as Set)
+        multiIssuerService.hasDefaultKeys() >> true
+        multiIssuerService.findPublicKeyAsync(VALID_KID) >> CompletableFuture.completedFuture(Optional.of(tokenFactory.publicKey))
+        multiIssuerService.findPublicKeyAsync(otherIssuer, VALID_KID) >> CompletableFuture.completedFuture(Optional.of(otherTokenFactory.publicKey))
+        def multiIssuerParser = new TokenParserImpl(VALID_ISSUER, new PublicKeyResolver(multiIssuerService, metrics), securityContextFactory, validator, cache, metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, NO_CLOCK_SKEW)
+
+        when:
+        def defaultContext = multiIssuerParser.parse(tokenFactory.createValidToken())
+        def otherContext = multiIssuerParser.parse(otherTokenFactory.createValidToken())
+
+        then:
+        defaultContext == new SubjectSecurityContext(VALID_SUBJECT)
+        otherContext == new SubjectSecurityContext(VALID_SUBJECT)
+
+        when:
+        multiIssuerParser.parse(new TokenFactory(VALID_KID, "https://other.org/auth", VALID_SUBJECT).createValidToken())
+
+        then:
+        SecurityException exception = thrown()
+        exception.type == JWT_WRONG_ISSUER
     }
 
     def "parse an unsupported jwt throws an exception"() {
@@ -115,6 +225,44 @@ class TokenParserImplSpec extends Specification {
         exception.type == JWT_EXPIRED
     }
 
+    def "parse an expired jwt rejects it before verifying its signature"() {
+        given:
+        tokenFactory.builder.signWith(SignatureAlgorithm.RS256, wrongKeyPair.private)
+        String token = tokenFactory.createExpiredToken()
+
+        when:
+        parser.parse(token)
+
+        then:
+        SecurityException exception = thrown()
+        exception.type == JWT_EXPIRED
+    }
+
+    def "parse an expired jwt within the clock skew works fine"() {
+        given:
+        def tolerantParser = new TokenParserImpl(VALID_ISSUER, publicKeyResolver, securityContextFactory, validator, cache, metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, Duration.ofDays(8))
+        String token = tokenFactory.createExpiredToken()
+
+        when:
+        SecurityContext context = tolerantParser.parse(token)
+
+        then:
+        ((SubjectSecurityContext) context).subject == VALID_SUBJECT
+    }
+
+    def "parse a jwt longer than the maximum length throws an exception"() {
+        given:
+        def shortParser = new TokenParserImpl(VALID_ISSUER, publicKeyResolver, securityContextFactory, validator, cache, metrics, verifiers, roleAuthorizer, revocations, 100, NO_CLOCK_SKEW)
+        String token = tokenFactory.createValidToken()
+
+        when:
+        shortParser.parse(token)
+
+        then:
+        SecurityException exception = thrown()
+        exception.type == JWT_TOO_LARGE
+    }
+
     def "parse a jwt not valid against validator throws an exception"() {
         given:
         String token = tokenFactory.createTokenWithOtherSubject()
@@ -140,6 +288,108 @@ class TokenParserImplSpec extends Specification {
         ((SubjectSecurityContext) context).subject == VALID_SUBJECT
     }
 
+    def "parseAsync a valid token completes once its asynchronous context has been created"() {
+        given:
+        def pendingContext = new CompletableFuture<SecurityContext>()
+        def asyncFactory = Mock(AsyncSecurityContextFactory)
+        asyncFactory.createSecurityContext(_) >> pendingContext
+        def asyncParser = new TokenParserImpl(VALID_ISSUER, publicKeyResolver, asyncFactory, validator, cache, metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, NO_CLOCK_SKEW)
+        def expectedContext = new SubjectSecurityContext(VALID_SUBJECT)
+
+        when:
+        def context = asyncParser.parseAsync(tokenFactory.createValidToken()).toCompletableFuture()
+
+        then:
+        !context.isDone()
+
+        when:
+        pendingContext.complete(expectedContext)
+
+        then:
+        context.getNow(null).is(expectedContext)
+    }
+
+    def "parseAsync a jwt rejected by an asynchronous validator completes with its error"() {
+        given:
+        def asyncValidator = Mock(AsyncTokenValidator)
+        def rejection = new CompletableFuture<Void>()
+        rejection.completeExceptionally(VALIDATION.toException())
+        asyncValidator.validate(_) >> rejection
+        def asyncParser = new TokenParserImpl(VALID_ISSUER, publicKeyResolver, securityContextFactory, asyncValidator, cache, metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, NO_CLOCK_SKEW)
+
+        when:
+        asyncParser.parse(tokenFactory.createValidToken())
+
+        then:
+        SecurityException exception = thrown()
+        exception.type == VALIDATION
+    }
+
+    def "parse a valid token computes its roles when a route requires roles"() {
+        given:
+        def route = Mock(io.micronaut.core.annotation.AnnotationMetadata) {
+            hasStereotype(RequiresRoles) >> true
+            stringValues(RequiresRealmRole) >> (["admin"] as String[])
+            findAnnotation(RequiresClientRole) >> Optional.empty()
+        }
+        def requirement = roleAuthorizer.requirementOf(route)
+        tokenFactory.builder.claim("realm_access", [roles: ["admin"]])
+        String token = tokenFactory.createValidToken()
+
+        when:
+        SecurityContext context = parser.parseGrantingRolesAsync(token).toCompletableFuture().get()
+
+        then:
+        context instanceof AuthorizedSecurityContext
+        ((AuthorizedSecurityContext) context).context instanceof SubjectSecurityContext
+        requirement.isSatisfiedBy(((AuthorizedSecurityContext) context).roles)
+
+        and: "the roles are never exposed by the public methods"
+        parser.parse(token) instanceof SubjectSecurityContext
+        parser.parseAsync(token).toCompletableFuture().get() instanceof SubjectSecurityContext
+    }
+
+    def "parse a revoked token throws an exception"() {
+        given:
+        String token = tokenFactory.builder.setId("revoked-token").compact()
+        revocations.revokeToken("revoked-token", tokenFactory.validExpirationDate.toInstant())
+
+        when:
+        parser.parse(token)
+
+        then:
+        SecurityException exception = thrown()
+        exception.type == TOKEN_REVOKED
+    }
+
+    def "parse a token issued before the not-before policy of its realm throws an exception"() {
+        given:
+        String token = tokenFactory.createValidToken()
+        revocations.revokeIssuedBefore(VALID_ISSUER, Instant.now().plusSeconds(1))
+
+        when:
+        parser.parse(token)
+
+        then:
+        SecurityException exception = thrown()
+        exception.type == TOKEN_REVOKED
+    }
+
+    def "parse a cached token revoked afterwards throws an exception"() {
+        given:
+        def cachingParser = new TokenParserImpl(VALID_ISSUER, publicKeyResolver, securityContextFactory, validator, new VerifiedTokenCache(true, 10, revocations), metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, NO_CLOCK_SKEW)
+        String token = tokenFactory.builder.setId("revoked-token").compact()
+        cachingParser.parse(token)
+
+        when:
+        revocations.revokeToken("revoked-token", tokenFactory.validExpirationDate.toInstant())
+        cachingParser.parse(token)
+
+        then:
+        SecurityException exception = thrown()
+        exception.type == TOKEN_REVOKED
+    }
+
     def "parse a valid token with an unkwown kid throws an exception"() {
         given:
         def token = "eyJhbGciOiJSUzI1NiIsInR5cCIgOiAiSldUIiwia2lkIiA6ICJXX2I2YWlUZVU4a1JvRXp3eGluN1VMcmd2Ri1WTkFIU1ZKT2pTc2VTZmt3In0.eyJqdGkiOiJkYTAzNTQzNy03Y2NhLTRhYzMtOTc0My0xZTkyN2FhODg5ZmUiLCJleHAiOjE1MzE4NDU4MzEsIm5iZiI6MCwiaWF0IjoxNTMxODQ0MDMxLCJpc3MiOiJodHRwOi8vYXV0aGVudGljYXRpb24vYXV0aC9yZWFsbXMvb3JnYW5pc2F0aW9ucyIsImF1ZCI6InBhcmtpbmctYWNjZXNzLWFwaSIsInN1YiI6Ijg0N2M1ZGQyLWFkOWQtNDhkYi05MWQ0LTYxODNlMjRlNWZkMSIsInR5cCI6IkJlYXJlciIsImF6cCI6InBhcmtpbmctYWNjZXNzLWFwaSIsImF1dGhfdGltZSI6MCwic2Vzc2lvbl9zdGF0ZSI6ImM5YjJkYjNmLTk1NmUtNDA4ZS1hM2RiLTUyNDYxZGE1MjQwYiIsImFjciI6IjEiLCJhbGxvd2VkLW9yaWdpbnMiOltdLCJyZXNvdXJjZV9hY2Nlc3MiOnsicGFya2luZy1hY2Nlc3MtYXBpIjp7InJvbGVzIjpbInBhcmtpbmctYWNjZXNzLWFwaSJdfSwiYWNjb3VudCI6eyJyb2xlcyI6WyJtYW5hZ2UtYWNjb3VudCIsIm1hbmFnZS1hY2NvdW50LWxpbmtzIiwidmlldy1wcm9maWxlIl19fSwic2NvcGUiOiIiLCJvcmdhbmlzYXRpb25JZCI6NDJ9.cZTogVKIggiyMNkg1dIAHnr1_7HbzVvf2gU48ivH3jh-sE4D2YKFvQn4YEq2JhYIVr6s3TN8MVzP9FlZ1EVkDf-t_QY5Umb67-fu2BN4GXtpN1VRglQvXh6PJEPNqXthueD2Z8fShaUV1BbugwOR1UDLML5LiFsfUgY-bPUq6m2XOBL68jYSqLKJm-HDus2gdEY6V2l4dfsdsSEwOCHBJHsskweTuoFvpZXwivfHdjV8mt6kU9e90gFPZRmpcM6NM-pTtVBQrnGuRJBWWFCbrKy2ttmx5I8Xl3qXZ61z8vLO6CPAEbU9VGf6szs8gf4WP8JFueS-t0Wqc_DIDCBsfQ"
@@ -152,6 +402,173 @@ class TokenParserImplSpec extends Specification {
         exception.type == JWT_WRONG_KID
     }
 
+    def "parse an expired jwt with an unknown kid rejects it without looking up its kid"() {
+        given:
+        def keyService = Mock(PublicKeyService)
+        keyService.getIssuers() >> ([] as Set)
+        def guardedParser = new TokenParserImpl(VALID_ISSUER, new PublicKeyResolver(keyService, metrics), securityContextFactory, validator, cache, metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, NO_CLOCK_SKEW)
+        tokenFactory.builder.setHeaderParam("kid", "unknown-kid")
+        String token = tokenFactory.createExpiredToken()
+
+        when:
+        guardedParser.parse(token)
+
+        then:
+        SecurityException exception = thrown()
+        exception.type == JWT_EXPIRED
+        0 * keyService.findPublicKeyAsync(_)
+    }
+
+    def "prepare a jwt that cannot be valid does not retrieve any key"(String token) {
+        given:
+        def keyService = Mock(PublicKeyService)
+        keyService.getIssuers() >> ([] as Set)
+        def guardedParser = new TokenParserImpl(VALID_ISSUER, new PublicKeyResolver(keyService, metrics), securityContextFactory, validator, cache, metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, NO_CLOCK_SKEW)
+
+        when:
+        guardedParser.prepare(token).toCompletableFuture().get()
+
+        then:
+        0 * keyService.findPublicKeyAsync(_)
+
+        where:
+        token << [
+                new TokenFactory(VALID_KID, VALID_ISSUER, VALID_SUBJECT).createExpiredToken(),
+                new TokenFactory(VALID_KID, "https://another.org/auth", VALID_SUBJECT).createValidToken(),
+                new TokenFactory(VALID_KID, VALID_ISSUER, VALID_SUBJECT).with { builder.setNotBefore(validExpirationDate); createValidToken() }
+        ]
+    }
+
+    def "prepare a jwt that could be valid retrieves its key"() {
+        given:
+        def keyService = Mock(PublicKeyService)
+        keyService.getIssuers() >> ([] as Set)
+        def guardedParser = new TokenParserImpl(VALID_ISSUER, new PublicKeyResolver(keyService, metrics), securityContextFactory, validator, cache, metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, NO_CLOCK_SKEW)
+
+        when:
+        guardedParser.prepare(tokenFactory.createValidToken()).toCompletableFuture().get()
+
+        then:
+        1 * keyService.findPublicKeyAsync(VALID_KID) >> CompletableFuture.completedFuture(Optional.empty())
+    }
+
+    def "parseAsync does not block the calling thread while the key of a jwt is retrieved"() {
+        given:
+        def keyService = Mock(PublicKeyService)
+        keyService.getIssuers() >> ([] as Set)
+        def retrieval = new CompletableFuture<Optional<PublicKey>>()
+        keyService.findPublicKeyAsync(VALID_KID) >> retrieval
+        def asyncParser = new TokenParserImpl(VALID_ISSUER, new PublicKeyResolver(keyService, metrics), securityContextFactory, validator, cache, metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, NO_CLOCK_SKEW)
+
+        when:
+        def context = asyncParser.parseAsync(tokenFactory.createValidToken()).toCompletableFuture()
+
+        then:
+        !context.isDone()
+
+        when:
+        retrieval.complete(Optional.of(tokenFactory.publicKey))
+
+        then:
+        context.get() == new SubjectSecurityContext(VALID_SUBJECT)
+    }
+
+    def "parseAll verifies each distinct token once and reports each token in order"() {
+        given:
+        def countingFactory = Mock(SecurityContextFactory)
+        def batchParser = new TokenParserImpl(VALID_ISSUER, publicKeyResolver, new DefaultAsyncSecurityContextFactory(countingFactory), validator, cache, metrics, verifiers, roleAuthorizer, revocations, MAX_LENGTH, NO_CLOCK_SKEW)
+        String valid = tokenFactory.createValidToken()
+        String expired = tokenFactory.createExpiredToken()
+        String wronglySigned = tokenFactory.createTokenWronglySigned(wrongKeyPair.private)
+
+        when:
+        def verifications = batchParser.parseAll([valid, expired, valid, null, wronglySigned, valid])
+
+        then:
+        1 * countingFactory.createSecurityContext(_) >> new SubjectSecurityContext(VALID_SUBJECT)
+        verifications*.token == [valid, expired, valid, null, wronglySigned, valid]
+        verifications*.valid == [true, false, true, false, false, true]
+        verifications*.error*.type == [null, JWT_EXPIRED, null, JWT_MALFORMED, JWT_WRONG_SIGNATURE, null]
+        verifications[0].context == new SubjectSecurityContext(VALID_SUBJECT)
+        verifications[0].is(verifications[2])
+    }
+
+    def "parseAll reports the tokens that cannot be decoded without retrieving any key"() {
+        given:
+        def keyService = Mock(PublicKeyService)
+        keyService.getIssuers() >> ([] as Set)
+        def batchParser = new TokenParserImpl(VALID_ISSUER, new PublicKeyResolver(keyService, metrics), securityContextFactory, validator, cache, metrics, verifiers, roleAuthorizer, revocations, 100, NO_CLOCK_SKEW)
+
+        when:
+        def verifications = batchParser.parseAll(["not-a-jwt", "a" * 101, "e30.e30."])
+
+        then:
+        0 * keyService._
+        verifications*.valid == [false, false, false]
+        verifications*.error*.type == [JWT_MALFORMED, JWT_TOO_LARGE, JWT_UNSUPPORTED]
+    }
+
+    def "parseAll verifies a large batch of tokens signed by several keys"() {
+        given:
+        def otherTokenFactory = new TokenFactory("96f976d9-ef85-4a9b-aa6a-a4982b1fd7ec", VALID_ISSUER, VALID_SUBJECT)
+        publicKeyService.addKey("96f976d9-ef85-4a9b-aa6a-a4982b1fd7ec", otherTokenFactory.publicKey)
+        def tokens = (1..300).collect { (it % 3 == 0 ? otherTokenFactory : tokenFactory).builder.setId("token-$it").compact() }
+
+        when:
+        def verifications = parser.parseAll(tokens)
+
+        then:
+        verifications*.token == tokens
+        verifications.every { it.valid && it.context == new SubjectSecurityContext(VALID_SUBJECT) }
+    }
+
+    def "parseAll unwraps the roles of the security contexts"() {
+        given:
+        roleAuthorizer.requirementOf(Mock(io.micronaut.core.annotation.AnnotationMetadata) {
+            hasStereotype(RequiresRoles) >> true
+            stringValues(RequiresRealmRole) >> (["admin"] as String[])
+            findAnnotation(RequiresClientRole) >> Optional.empty()
+        })
+
+        when:
+        def verifications = parser.parseAll([tokenFactory.createValidToken()])
+
+        then:
+        verifications.first().context instanceof SubjectSecurityContext
+    }
+
+    def "parseAll of another parser parses each distinct token once without throwing its errors"() {
+        given:
+        def parsedTokens = []
+        def otherParser = new TokenParser() {
+            @Override
+            SecurityContext parse(String token) throws SecurityException {
+                parsedTokens << token
+                if (token == "expired") {
+                    throw JWT_EXPIRED.toException()
+                }
+                return new SubjectSecurityContext(token)
+            }
+        }
+
+        when:
+        def verifications = parseAllWith(otherParser, ["abc", "expired", "abc"])
+
+        then:
+        parsedTokens == ["abc", "expired"]
+        verifications*.valid == [true, false, true]
+        verifications*.context == [new SubjectSecurityContext("abc"), null, new SubjectSecurityContext("abc")]
+        verifications[1].error.type == JWT_EXPIRED
+    }
+
+    /**
+     * Calls the default method of TokenParser, which a dynamic call might not resolve.
+     */
+    @CompileStatic
+    private static List<TokenVerification> parseAllWith(TokenParser parser, List<String> tokens) {
+        return parser.parseAll(tokens)
+    }
+
     private static KeyPair createKeyPair() {
         def generator = KeyPairGenerator.getInstance("RSA")
         generator.initialize(1024)
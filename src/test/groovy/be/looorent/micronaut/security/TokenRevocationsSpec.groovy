@@ -0,0 +1,123 @@
+package be.looorent.micronaut.security
+
+import io.jsonwebtoken.Claims
+import io.jsonwebtoken.impl.DefaultClaims
+import spock.lang.Specification
+
+import java.time.Instant
+
+class TokenRevocationsSpec extends Specification {
+
+    private static final String ISSUER = "https://keycloak.org/auth/realms/test"
+    private static final String CLIENT = "frontend"
+
+    def revocations = new TokenRevocations(100)
+    def now = Instant.now()
+    def tomorrow = now.plusSeconds(86_400)
+
+    def "construct revocations with a non-positive expected size throws an exception"(int wrongSize) {
+        when:
+        new TokenRevocations(wrongSize)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property 'security.revocation.expected-size' (integer) must be positive"
+
+        where:
+        wrongSize << [0, -1]
+    }
+
+    def "a token is not revoked as long as nothing has been revoked"() {
+        expect:
+        !revocations.isRevoked(claimsIssuedAt(now))
+    }
+
+    def "a token issued before the not-before policy of its realm is revoked"() {
+        when:
+        revocations.revokeIssuedBefore(ISSUER, now)
+
+        then:
+        revocations.isRevoked(claimsIssuedAt(now.minusSeconds(1)))
+        !revocations.isRevoked(claimsIssuedAt(now))
+        !revocations.isRevoked(claimsIssuedAt(now.minusSeconds(1)).setIssuer("https://other.org/auth"))
+    }
+
+    def "a token issued before the not-before policy of its client is revoked"() {
+        when:
+        revocations.revokeIssuedBefore(ISSUER, CLIENT, now)
+
+        then:
+        revocations.isRevoked(claimsIssuedAt(now.minusSeconds(1)).with { put("azp", CLIENT); it })
+        !revocations.isRevoked(claimsIssuedAt(now.minusSeconds(1)).with { put("azp", "backend"); it })
+        !revocations.isRevoked(claimsIssuedAt(now.minusSeconds(1)))
+    }
+
+    def "a not-before policy only moves forward"() {
+        when:
+        revocations.revokeIssuedBefore(ISSUER, now)
+        revocations.revokeIssuedBefore(ISSUER, now.minusSeconds(3600))
+
+        then:
+        revocations.isRevoked(claimsIssuedAt(now.minusSeconds(1)))
+    }
+
+    def "a token without issue date is revoked by a not-before policy"() {
+        given:
+        Claims claims = new DefaultClaims().setIssuer(ISSUER)
+
+        when:
+        revocations.revokeIssuedBefore(ISSUER, now)
+
+        then:
+        revocations.isRevoked(claims)
+    }
+
+    def "a token is revoked by its id or by its session"() {
+        when:
+        revocations.revokeToken("revoked-token", tomorrow)
+        revocations.revokeSession("revoked-session", tomorrow)
+
+        then:
+        revocations.isRevoked(claimsIssuedAt(now).setId("revoked-token"))
+        revocations.isRevoked(claimsIssuedAt(now).with { put("sid", "revoked-session"); it })
+        revocations.isRevoked(claimsIssuedAt(now).with { put("session_state", "revoked-session"); it })
+        !revocations.isRevoked(claimsIssuedAt(now).setId("active-token").with { put("sid", "active-session"); it })
+        revocations.countRevokedIdentifiers() == 2
+    }
+
+    def "revoked ids are all found beyond the expected size"() {
+        when:
+        10_000.times { revocations.revokeSession("revoked-session-${it}", tomorrow) }
+
+        then:
+        (0..<10_000).every { revocations.isRevoked(claimsIssuedAt(now).with { c -> c.put("sid", "revoked-session-${it}".toString()); c }) }
+        (0..<10_000).every { !revocations.isRevoked(claimsIssuedAt(now).with { c -> c.put("sid", "active-session-${it}".toString()); c }) }
+        revocations.countRevokedIdentifiers() == 10_000
+    }
+
+    def "expired revoked ids are forgotten once the expected size is exceeded"() {
+        given:
+        100.times { revocations.revokeToken("expired-token-${it}", now.minusSeconds(1)) }
+
+        when:
+        revocations.revokeToken("revoked-token", tomorrow)
+
+        then:
+        revocations.countRevokedIdentifiers() == 1
+        revocations.isRevoked(claimsIssuedAt(now).setId("revoked-token"))
+        !revocations.isRevoked(claimsIssuedAt(now).setId("expired-token-0"))
+    }
+
+    def "revoking without id throws an exception"() {
+        when:
+        revocations.revokeToken(null, tomorrow)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "tokenId must not be null"
+    }
+
+    private static Claims claimsIssuedAt(Instant issuedAt) {
+        new DefaultClaims().setIssuer(ISSUER).setIssuedAt(Date.from(issuedAt))
+    }
+}
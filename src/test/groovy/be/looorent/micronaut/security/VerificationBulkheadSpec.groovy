@@ -0,0 +1,184 @@
+package be.looorent.micronaut.security
+
+import io.micronaut.context.BeanLocator
+import io.micronaut.inject.qualifiers.Qualifiers
+import io.reactivex.Flowable
+import io.reactivex.processors.PublishProcessor
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import static be.looorent.micronaut.security.SecurityErrorType.VERIFICATION_SATURATED
+
+class VerificationBulkheadSpec extends Specification {
+
+    def context = new SubjectSecurityContext("test")
+    def bulkhead = new VerificationBulkhead(true, 1, 1, Duration.ofHours(1), "", null)
+
+    def "construct bulkhead with a negative max concurrency throws an exception"() {
+        when:
+        new VerificationBulkhead(true, -1, 1, Duration.ofHours(1), "", null)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property 'security.verification.bulkhead.max-concurrency' (integer) must not be negative"
+    }
+
+    def "construct bulkhead with a negative queue size throws an exception"() {
+        when:
+        new VerificationBulkhead(true, 1, -1, Duration.ofHours(1), "", null)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property 'security.verification.bulkhead.max-queue-size' (integer) must not be negative"
+    }
+
+    def "construct bulkhead with a negative max wait throws an exception"(Duration wrongMaxWait) {
+        when:
+        new VerificationBulkhead(true, 1, 1, wrongMaxWait, "", null)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property 'security.verification.bulkhead.max-wait' (duration) must not be negative"
+
+        where:
+        wrongMaxWait << [null, Duration.ofMillis(-1)]
+    }
+
+    def "construct bulkhead with an unknown executor throws an exception"() {
+        given:
+        def beanLocator = Mock(BeanLocator)
+        beanLocator.findBean(Executor, _) >> Optional.empty()
+
+        when:
+        new VerificationBulkhead(true, 1, 1, Duration.ofHours(1), "unknown", beanLocator)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property 'security.verification.bulkhead.executor' must be the name of an Executor bean, but none is named 'unknown'"
+    }
+
+    def "a disabled bulkhead does not limit the verifications"() {
+        given:
+        def disabledBulkhead = new VerificationBulkhead(false, 1, 0, Duration.ZERO, "", null)
+        def verifications = (1..3).collect { PublishProcessor.<SecurityContext>create() }
+
+        when:
+        def subscribers = verifications.collect { disabledBulkhead.execute(it, null).test() }
+
+        then:
+        verifications.every { it.hasSubscribers() }
+        subscribers.every { it.errorCount() == 0 }
+        disabledBulkhead.countInFlight() == 0
+    }
+
+    def "a verification beyond the max concurrency waits in the queue, and is rejected when the queue is full"() {
+        given:
+        def verifications = (1..3).collect { PublishProcessor.<SecurityContext>create() }
+
+        when:
+        def subscribers = verifications.collect { bulkhead.execute(it, null).test() }
+
+        then:
+        verifications[0].hasSubscribers()
+        !verifications[1].hasSubscribers()
+        subscribers[2].assertError(VERIFICATION_SATURATED.toException())
+        bulkhead.countInFlight() == 1
+        bulkhead.countQueued() == 1
+
+        when:
+        complete(verifications[0])
+
+        then:
+        subscribers[0].assertValue(context)
+        verifications[1].hasSubscribers()
+        bulkhead.countInFlight() == 1
+        bulkhead.countQueued() == 0
+
+        when:
+        complete(verifications[1])
+
+        then:
+        subscribers[1].assertValue(context)
+        bulkhead.countInFlight() == 0
+    }
+
+    def "a verification that has waited for too long is rejected"() {
+        given:
+        def waitingBulkhead = new VerificationBulkhead(true, 1, 1, Duration.ofMillis(50), "", null)
+        def verifications = (1..2).collect { PublishProcessor.<SecurityContext>create() }
+        def subscribers = verifications.collect { waitingBulkhead.execute(it, null).test() }
+
+        when:
+        subscribers[1].awaitTerminalEvent(5, TimeUnit.SECONDS)
+
+        then:
+        subscribers[1].assertError(VERIFICATION_SATURATED.toException())
+        waitingBulkhead.countQueued() == 0
+
+        when:
+        complete(verifications[0])
+
+        then:
+        !verifications[1].hasSubscribers()
+        waitingBulkhead.countInFlight() == 0
+    }
+
+    def "a queued verification whose subscriber has gone leaves the queue"() {
+        given:
+        def verifications = (1..2).collect { PublishProcessor.<SecurityContext>create() }
+        def subscribers = verifications.collect { bulkhead.execute(it, null).test() }
+
+        when:
+        subscribers[1].dispose()
+        complete(verifications[0])
+
+        then:
+        bulkhead.countQueued() == 0
+        bulkhead.countInFlight() == 0
+        !verifications[1].hasSubscribers()
+    }
+
+    def "a verification whose subscriber has gone releases its permit"() {
+        given:
+        def verification = PublishProcessor.<SecurityContext>create()
+        def subscriber = bulkhead.execute(verification, null).test()
+
+        when:
+        subscriber.dispose()
+
+        then:
+        bulkhead.countInFlight() == 0
+    }
+
+    def "verifications run on the configured executor"() {
+        given:
+        def executor = Executors.newSingleThreadExecutor({ runnable -> new Thread(runnable, "verification") })
+        def beanLocator = Mock(BeanLocator)
+        1 * beanLocator.findBean(Executor, Qualifiers.byName("verification")) >> Optional.of(executor)
+        def executorBulkhead = new VerificationBulkhead(true, 1, 1, Duration.ofHours(1), "verification", beanLocator)
+        String thread = null
+        def verification = Flowable.fromCallable {
+            thread = Thread.currentThread().name
+            context
+        }
+
+        when:
+        def result = executorBulkhead.execute(verification, null).blockingFirst()
+
+        then:
+        result == context
+        thread == "verification"
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    private void complete(PublishProcessor<SecurityContext> verification) {
+        verification.onNext(context)
+        verification.onComplete()
+    }
+}
@@ -0,0 +1,165 @@
+package be.looorent.micronaut.security
+
+import io.jsonwebtoken.Claims
+import io.jsonwebtoken.impl.DefaultClaims
+import spock.lang.Specification
+
+
+import static java.lang.System.currentTimeMillis
+
+class VerifiedTokenCacheSpec extends Specification {
+
+    private static final String TOKEN = "a.b.c"
+    private static final String KID = "kid"
+
+    def revocations = new TokenRevocations(100)
+    def context = new SubjectSecurityContext("subject")
+    def tomorrow = new Date(currentTimeMillis() + 86_400_000L)
+
+    def "construct cache with a non-positive size throws an exception"(int wrongSize) {
+        when:
+        new VerifiedTokenCache(true, wrongSize, revocations)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "Property 'security.token.cache.max-size' (integer) must be positive"
+
+        where:
+        wrongSize << [0, -1]
+    }
+
+    def "construct cache without revocations throws an exception"() {
+        when:
+        new VerifiedTokenCache(true, 10, null)
+
+        then:
+        IllegalArgumentException exception = thrown()
+        exception.message == "No TokenRevocations has been found"
+    }
+
+    def "a disabled cache never returns a context"() {
+        given:
+        def cache = new VerifiedTokenCache(false, 10, revocations)
+
+        when:
+        cache.put(TOKEN, KID, claimsExpiringAt(tomorrow), context)
+
+        then:
+        !cache.find(TOKEN).isPresent()
+        cache.size() == 0
+    }
+
+    def "a verified token is found until it expires"() {
+        given:
+        def cache = new VerifiedTokenCache(true, 10, revocations)
+
+        when:
+        cache.put(TOKEN, KID, claimsExpiringAt(tomorrow), context)
+        cache.put("expired", KID, claimsExpiringAt(new Date(currentTimeMillis() - 1000)), context)
+
+        then:
+        cache.find(TOKEN).get().is(context)
+        !cache.find("expired").isPresent()
+        !cache.find("unknown").isPresent()
+    }
+
+    def "a token without expiration is not cached"() {
+        given:
+        def cache = new VerifiedTokenCache(true, 10, revocations)
+
+        when:
+        cache.put(TOKEN, KID, claimsExpiringAt(null), context)
+
+        then:
+        !cache.find(TOKEN).isPresent()
+    }
+
+    def "the least recently used token is evicted when the cache is full"() {
+        given:
+        def cache = new VerifiedTokenCache(true, 2, revocations)
+        cache.put("first", KID, claimsExpiringAt(tomorrow), context)
+        cache.put("second", KID, claimsExpiringAt(tomorrow), context)
+        cache.find("first")
+
+        when:
+        cache.put("third", KID, claimsExpiringAt(tomorrow), context)
+
+        then:
+        cache.size() == 2
+        cache.find("first").isPresent()
+        !cache.find("second").isPresent()
+        cache.find("third").isPresent()
+    }
+
+    def "the size of the cache stays bounded under concurrent insertions"() {
+        given:
+        def cache = new VerifiedTokenCache(true, 50, revocations)
+        def claims = claimsExpiringAt(tomorrow)
+        def threads = (1..8).collect { thread ->
+            Thread.start { (1..500).each { cache.put("token-${thread}-${it}".toString(), KID, claims, context) } }
+        }
+
+        when:
+        threads*.join()
+
+        then:
+        cache.size() <= 50
+    }
+
+    def "a token is found by its digest"() {
+        given:
+        def cache = new VerifiedTokenCache(true, 10, revocations)
+
+        when:
+        cache.put(cache.digestOf(TOKEN), KID, claimsExpiringAt(tomorrow), context)
+
+        then:
+        cache.find(TOKEN).get().is(context)
+        new VerifiedTokenCache(false, 10, revocations).digestOf(TOKEN) == null
+    }
+
+    def "refreshing the public keys without knowing the retired keys discards every verified token"() {
+        given:
+        def cache = new VerifiedTokenCache(true, 10, revocations)
+        cache.put(TOKEN, KID, claimsExpiringAt(tomorrow), context)
+
+        when:
+        cache.onApplicationEvent(new PublicKeysRefreshedEvent(new InMemoryPublicKeyService(), [:]))
+
+        then:
+        cache.size() == 0
+    }
+
+    def "refreshing the public keys only discards the tokens verified by a retired key"() {
+        given:
+        def cache = new VerifiedTokenCache(true, 10, revocations)
+        cache.put(TOKEN, KID, claimsExpiringAt(tomorrow), context)
+        cache.put("retired", "retired-kid", claimsExpiringAt(tomorrow), context)
+
+        when:
+        cache.onApplicationEvent(new PublicKeysRefreshedEvent(new InMemoryPublicKeyService(), [:], ["retired-kid"] as Set))
+
+        then:
+        cache.size() == 1
+        cache.find(TOKEN).get().is(context)
+        !cache.find("retired").isPresent()
+    }
+
+    def "a verified token is not found anymore once revoked"() {
+        given:
+        def cache = new VerifiedTokenCache(true, 10, revocations)
+        Claims claims = claimsExpiringAt(tomorrow).setId("revoked-token")
+        cache.put(TOKEN, KID, claims, context)
+
+        when:
+        revocations.revokeToken("revoked-token", tomorrow.toInstant())
+
+        then:
+        !cache.find(TOKEN).isPresent()
+        cache.size() == 0
+    }
+
+    private static Claims claimsExpiringAt(Date expiration) {
+        new DefaultClaims().setIssuer("https://keycloak.org/auth").setIssuedAt(new Date()).setExpiration(expiration)
+    }
+}